@@ -0,0 +1,126 @@
+/*
+ * Copyright (c) 2014 Wael Chatila / Icegreen Technologies. All Rights Reserved.
+ * This software is released under the Apache license 2.0
+ */
+package com.icegreen.greenmail.benchmarks;
+
+import com.icegreen.greenmail.util.GreenMailUtil;
+import jakarta.mail.internet.MimeMessage;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.Random;
+
+/**
+ * Creates deterministic messages for benchmarks, so that runs are reproducible.
+ */
+public final class BenchmarkMessages {
+    private static final String WORDS = "lorem ipsum dolor sit amet consectetur adipiscing elit sed do eiusmod " +
+        "tempor incididunt ut labore et dolore magna aliqua";
+    private static final String[] SUBJECT_PREFIXES = {"", "Re: ", "Fwd: ", "[list] ", "Re: [list] "};
+
+    private BenchmarkMessages() {
+        // Static helper
+    }
+
+    /**
+     * Creates a plain text message.
+     *
+     * @param index    the message index, varying subject, sender and date.
+     * @param bodySize the approximate body size in bytes.
+     * @return the serialized message, using CRLF line endings.
+     */
+    public static byte[] textMessage(int index, int bodySize) {
+        StringBuilder buf = new StringBuilder(bodySize + 512);
+        appendHeaders(buf, index);
+        buf.append("Content-Type: text/plain; charset=us-ascii\r\n")
+            .append("\r\n");
+        appendText(buf, new Random(index), bodySize);
+        return buf.toString().getBytes(StandardCharsets.US_ASCII);
+    }
+
+    /**
+     * Creates a multipart/mixed message with a text part and base64 encoded attachments.
+     *
+     * @param index    the message index, varying subject, sender and date.
+     * @param parts    the number of attachments.
+     * @param partSize the approximate size of each part in bytes.
+     * @return the serialized message, using CRLF line endings.
+     */
+    public static byte[] multipartMessage(int index, int parts, int partSize) {
+        final Random random = new Random(index);
+        final String boundary = "----=_Part_" + index;
+        StringBuilder buf = new StringBuilder((parts + 1) * (partSize + 256) + 512);
+        appendHeaders(buf, index);
+        buf.append("Content-Type: multipart/mixed; boundary=\"").append(boundary).append("\"\r\n")
+            .append("\r\n")
+            .append("--").append(boundary).append("\r\n")
+            .append("Content-Type: text/plain; charset=us-ascii\r\n")
+            .append("\r\n");
+        appendText(buf, random, partSize);
+        for (int i = 0; i < parts; i++) {
+            buf.append("\r\n--").append(boundary).append("\r\n")
+                .append("Content-Type: application/octet-stream; name=\"attachment-").append(i).append(".bin\"\r\n")
+                .append("Content-Disposition: attachment; filename=\"attachment-").append(i).append(".bin\"\r\n")
+                .append("Content-Transfer-Encoding: base64\r\n")
+                .append("\r\n");
+            byte[] data = new byte[partSize * 3 / 4];
+            random.nextBytes(data);
+            buf.append(Base64.getMimeEncoder().encodeToString(data));
+        }
+        buf.append("\r\n--").append(boundary).append("--\r\n");
+        return buf.toString().getBytes(StandardCharsets.US_ASCII);
+    }
+
+    /**
+     * Parses a serialized message.
+     *
+     * @param content the serialized message.
+     * @return the message.
+     */
+    public static MimeMessage parse(byte[] content) {
+        return GreenMailUtil.newMimeMessage(content, content.length);
+    }
+
+    /**
+     * Dot-stuffs the message and appends the end of data indicator, as sent via SMTP DATA or POP3 RETR.
+     *
+     * @param content the serialized message.
+     * @return the dot-stuffed message, terminated by CRLF.CRLF.
+     */
+    public static byte[] dotStuffed(byte[] content) {
+        final String text = new String(content, StandardCharsets.US_ASCII);
+        return (text.replace("\r\n.", "\r\n..") + "\r\n.\r\n").getBytes(StandardCharsets.US_ASCII);
+    }
+
+    private static void appendHeaders(StringBuilder buf, int index) {
+        buf.append("Return-Path: <sender").append(index % 17).append("@example.com>\r\n")
+            .append("Received: from client.example.com ([127.0.0.1]) by localhost; Mon, 1 Jan 2024 10:00:00 +0000\r\n")
+            .append("Message-ID: <").append(index).append(".benchmark@example.com>\r\n")
+            .append("Date: Mon, ").append(1 + index % 28).append(" Jan 2024 ")
+            .append(String.format("%02d:%02d:%02d", index % 24, index % 60, (index * 7) % 60)).append(" +0000\r\n")
+            .append("From: Sender ").append(index % 17).append(" <sender").append(index % 17).append("@example.com>\r\n")
+            .append("To: Recipient <recipient@localhost>\r\n")
+            .append("Cc: Copy ").append(index % 5).append(" <copy").append(index % 5).append("@example.com>\r\n")
+            .append("Subject: ").append(SUBJECT_PREFIXES[index % SUBJECT_PREFIXES.length])
+            .append("Benchmark message ").append((index * 7919) % 10007).append("\r\n")
+            .append("MIME-Version: 1.0\r\n");
+    }
+
+    private static void appendText(StringBuilder buf, Random random, int size) {
+        final int start = buf.length();
+        int lineStart = buf.length();
+        while (buf.length() - start < size) {
+            final int offset = random.nextInt(WORDS.length() - 10);
+            buf.append(WORDS, offset, offset + 10);
+            if (buf.length() - lineStart > 70) {
+                // Lines starting with a dot require dot-stuffing
+                buf.append(random.nextInt(10) == 0 ? "\r\n." : "\r\n");
+                lineStart = buf.length();
+            } else {
+                buf.append(' ');
+            }
+        }
+        buf.append("\r\n");
+    }
+}
@@ -0,0 +1,74 @@
+/*
+ * Copyright (c) 2014 Wael Chatila / Icegreen Technologies. All Rights Reserved.
+ * This software is released under the Apache license 2.0
+ */
+package com.icegreen.greenmail.benchmarks;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.Socket;
+
+/**
+ * Unconnected socket for invoking protocol commands without network I/O.
+ * <p>
+ * Reads given input, and counts written bytes instead of sending them.
+ */
+public class BenchmarkSocket extends Socket {
+    private final InputStream input;
+    private final CountingOutputStream output = new CountingOutputStream();
+
+    /**
+     * @param input the input read by the server side.
+     */
+    public BenchmarkSocket(byte[] input) {
+        this.input = new ByteArrayInputStream(input);
+    }
+
+    @Override
+    public InputStream getInputStream() {
+        return input;
+    }
+
+    @Override
+    public OutputStream getOutputStream() {
+        return output;
+    }
+
+    @Override
+    public InetAddress getInetAddress() {
+        return InetAddress.getLoopbackAddress();
+    }
+
+    /**
+     * @return the number of bytes written by the server side.
+     */
+    public long getWrittenBytes() {
+        return output.count;
+    }
+
+    /**
+     * Discards written bytes, only counting them.
+     */
+    public static class CountingOutputStream extends OutputStream {
+        private long count;
+
+        @Override
+        public void write(int b) {
+            count++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            count += len;
+        }
+
+        /**
+         * @return the number of written bytes.
+         */
+        public long getCount() {
+            return count;
+        }
+    }
+}
@@ -0,0 +1,78 @@
+/*
+ * Copyright (c) 2014 Wael Chatila / Icegreen Technologies. All Rights Reserved.
+ * This software is released under the Apache license 2.0
+ */
+package com.icegreen.greenmail.benchmarks;
+
+import com.icegreen.greenmail.imap.ImapConstants;
+import com.icegreen.greenmail.store.InMemoryStore;
+import com.icegreen.greenmail.store.MailFolder;
+import jakarta.mail.Flags;
+import jakarta.mail.search.AndTerm;
+import jakarta.mail.search.BodyTerm;
+import jakarta.mail.search.FlagTerm;
+import jakarta.mail.search.FromStringTerm;
+import jakarta.mail.search.SearchTerm;
+import jakarta.mail.search.SubjectTerm;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Date;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Searching a mailbox, see {@link MailFolder#search(SearchTerm)}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class FolderSearchBenchmark {
+    @Param({"1000", "10000"})
+    int messageCount;
+
+    private MailFolder folder;
+
+    @Setup
+    public void setUp() throws Exception {
+        InMemoryStore store = new InMemoryStore();
+        folder = store.createMailbox(store.getMailbox(ImapConstants.USER_NAMESPACE), "INBOX", true);
+        for (int i = 0; i < messageCount; i++) {
+            Flags flags = i % 3 == 0 ? new Flags(Flags.Flag.SEEN) : new Flags();
+            folder.appendMessage(BenchmarkMessages.parse(BenchmarkMessages.textMessage(i, 1024)), flags,
+                new Date(1704103200000L + i * 60000L));
+        }
+    }
+
+    @Benchmark
+    public long[] flag() {
+        return folder.search(new FlagTerm(new Flags(Flags.Flag.SEEN), false));
+    }
+
+    @Benchmark
+    public long[] subject() {
+        return folder.search(new SubjectTerm("message 42"));
+    }
+
+    @Benchmark
+    public long[] fromAndUnseen() {
+        return folder.search(new AndTerm(new FromStringTerm("sender3@"),
+            new FlagTerm(new Flags(Flags.Flag.SEEN), false)));
+    }
+
+    @Benchmark
+    public long[] body() {
+        return folder.search(new BodyTerm("consectetur adipiscing"));
+    }
+}
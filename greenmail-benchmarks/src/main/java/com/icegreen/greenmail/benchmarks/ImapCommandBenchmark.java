@@ -0,0 +1,113 @@
+/*
+ * Copyright (c) 2014 Wael Chatila / Icegreen Technologies. All Rights Reserved.
+ * This software is released under the Apache license 2.0
+ */
+package com.icegreen.greenmail.benchmarks;
+
+import com.icegreen.greenmail.Managers;
+import com.icegreen.greenmail.imap.ImapRequestHandler;
+import com.icegreen.greenmail.imap.ImapSessionImpl;
+import com.icegreen.greenmail.store.MailFolder;
+import com.icegreen.greenmail.user.GreenMailUser;
+import jakarta.mail.Flags;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Date;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Processing FETCH, STORE and SEARCH commands on a selected mailbox, scaling with the mailbox size.
+ * <p>
+ * Command lines get handled directly by the {@link ImapRequestHandler}, without socket overhead.
+ * Responses get counted, but not buffered.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ImapCommandBenchmark {
+    @Param({"1000", "10000"})
+    int messageCount;
+
+    private final ImapRequestHandler requestHandler = new ImapRequestHandler();
+    private ImapSessionImpl session;
+
+    @Setup
+    public void setUp() throws Exception {
+        final Managers managers = new Managers();
+        final GreenMailUser user = managers.getUserManager().createUser("bench@localhost", "bench", "bench");
+        final MailFolder inbox = managers.getImapHostManager().getInbox(user);
+        for (int i = 0; i < messageCount; i++) {
+            final byte[] content = i % 10 == 0 ? BenchmarkMessages.multipartMessage(i, 2, 1024)
+                : BenchmarkMessages.textMessage(i, 2048);
+            inbox.appendMessage(BenchmarkMessages.parse(content),
+                i % 3 == 0 ? new Flags(Flags.Flag.SEEN) : new Flags(), new Date(1704103200000L + i * 60000L));
+        }
+        session = new ImapSessionImpl(managers.getImapHostManager(), managers.getUserManager(), null, "127.0.0.1");
+        session.setAuthenticated(user);
+        session.setSelected(inbox, false);
+    }
+
+    private long process(String commandLine) throws Exception {
+        final BenchmarkSocket.CountingOutputStream out = new BenchmarkSocket.CountingOutputStream();
+        requestHandler.handleRequest(
+            new ByteArrayInputStream(("a1 " + commandLine + "\r\n").getBytes(StandardCharsets.US_ASCII)), out, session);
+        return out.getCount();
+    }
+
+    @Benchmark
+    public long fetchFlags() throws Exception {
+        return process("FETCH 1:* (FLAGS)");
+    }
+
+    @Benchmark
+    public long uidFetchEnvelope() throws Exception {
+        return process("UID FETCH 1:* (UID FLAGS ENVELOPE)");
+    }
+
+    /**
+     * Builds the response of a single message, as fetched by a mail client opening a message.
+     */
+    @Benchmark
+    public long fetchSingleMessage() throws Exception {
+        return process("FETCH " + (messageCount / 2 + 1) + " (FLAGS BODYSTRUCTURE ENVELOPE BODY.PEEK[])");
+    }
+
+    /**
+     * Sets and clears a flag on all messages, so each invocation processes two commands.
+     */
+    @Benchmark
+    public long storeFlags() throws Exception {
+        return process("STORE 1:* +FLAGS.SILENT (\\Flagged)")
+            + process("STORE 1:* -FLAGS.SILENT (\\Flagged)");
+    }
+
+    @Benchmark
+    public long searchUnseen() throws Exception {
+        return process("SEARCH UNSEEN");
+    }
+
+    @Benchmark
+    public long uidSearchSubject() throws Exception {
+        return process("UID SEARCH SUBJECT \"message 42\"");
+    }
+
+    @Benchmark
+    public long searchBody() throws Exception {
+        return process("SEARCH BODY \"consectetur adipiscing\"");
+    }
+}
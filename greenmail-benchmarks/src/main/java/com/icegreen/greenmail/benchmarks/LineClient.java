@@ -0,0 +1,129 @@
+/*
+ * Copyright (c) 2014 Wael Chatila / Icegreen Technologies. All Rights Reserved.
+ * This software is released under the Apache license 2.0
+ */
+package com.icegreen.greenmail.benchmarks;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Minimal line based protocol client, avoiding client library overhead in end-to-end benchmarks.
+ */
+public class LineClient implements Closeable {
+    private final Socket socket;
+    private final InputStream in;
+    private final OutputStream out;
+    private final StringBuilder line = new StringBuilder(128);
+    private long readBytes;
+
+    /**
+     * Connects to the server.
+     *
+     * @param host the host.
+     * @param port the port.
+     * @throws IOException on error connecting.
+     */
+    public LineClient(String host, int port) throws IOException {
+        socket = new Socket(host, port);
+        socket.setTcpNoDelay(true);
+        in = new BufferedInputStream(socket.getInputStream(), 64 * 1024);
+        out = new BufferedOutputStream(socket.getOutputStream(), 64 * 1024);
+    }
+
+    /**
+     * Sends a line, terminated by CRLF.
+     *
+     * @param command the line.
+     * @throws IOException on error sending.
+     */
+    public void send(String command) throws IOException {
+        out.write(command.getBytes(StandardCharsets.US_ASCII));
+        out.write('\r');
+        out.write('\n');
+        out.flush();
+    }
+
+    /**
+     * Sends raw bytes.
+     *
+     * @param data the bytes.
+     * @throws IOException on error sending.
+     */
+    public void send(byte[] data) throws IOException {
+        out.write(data);
+        out.flush();
+    }
+
+    /**
+     * Reads a line.
+     *
+     * @return the line without CRLF.
+     * @throws IOException on error reading or end of stream.
+     */
+    public String readLine() throws IOException {
+        line.setLength(0);
+        int b;
+        while ((b = in.read()) != '\n') {
+            if (b < 0) {
+                throw new IOException("Unexpected end of stream after " + readBytes + " bytes");
+            }
+            readBytes++;
+            if (b != '\r') {
+                line.append((char) b);
+            }
+        }
+        readBytes++;
+        return line.toString();
+    }
+
+    /**
+     * Skips lines until a line starting with given prefix, without decoding skipped lines.
+     * <p>
+     * If the prefix ends with CRLF, it matches an entire line.
+     *
+     * @param prefix the prefix, e.g. a tag or status.
+     * @return the matching line without CRLF.
+     * @throws IOException on error reading or end of stream.
+     */
+    public String readUntil(String prefix) throws IOException {
+        final byte[] expected = prefix.getBytes(StandardCharsets.US_ASCII);
+        int matched = 0;
+        boolean lineStart = true;
+        while (matched < expected.length) {
+            final int b = in.read();
+            if (b < 0) {
+                throw new IOException("Unexpected end of stream after " + readBytes + " bytes");
+            }
+            readBytes++;
+            if (lineStart || matched > 0) {
+                if (b == expected[matched]) {
+                    matched++;
+                    lineStart = false;
+                    continue;
+                }
+                matched = 0;
+            }
+            lineStart = b == '\n';
+        }
+        return expected[expected.length - 1] == '\n' ? prefix : prefix + readLine();
+    }
+
+    /**
+     * @return the total number of bytes read.
+     */
+    public long getReadBytes() {
+        return readBytes;
+    }
+
+    @Override
+    public void close() throws IOException {
+        socket.close();
+    }
+}
@@ -0,0 +1,68 @@
+/*
+ * Copyright (c) 2014 Wael Chatila / Icegreen Technologies. All Rights Reserved.
+ * This software is released under the Apache license 2.0
+ */
+package com.icegreen.greenmail.benchmarks;
+
+import com.icegreen.greenmail.Managers;
+import com.icegreen.greenmail.pop3.Pop3Connection;
+import com.icegreen.greenmail.pop3.Pop3Handler;
+import com.icegreen.greenmail.pop3.Pop3State;
+import com.icegreen.greenmail.pop3.commands.Pop3CommandRegistry;
+import com.icegreen.greenmail.pop3.commands.RetrCommand;
+import com.icegreen.greenmail.user.GreenMailUser;
+import jakarta.mail.Flags;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Date;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Retrieving a message via POP3, see {@link RetrCommand}.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class RetrCommandBenchmark {
+    @Param({"1024", "65536", "1048576"})
+    int messageSize;
+
+    private final RetrCommand command = new RetrCommand();
+    private BenchmarkSocket socket;
+    private Pop3Connection connection;
+    private Pop3State state;
+
+    @Setup
+    public void setUp() throws Exception {
+        final Managers managers = new Managers();
+        final GreenMailUser user = managers.getUserManager().createUser("bench@localhost", "bench", "bench");
+        managers.getImapHostManager().getInbox(user).appendMessage(
+            BenchmarkMessages.parse(BenchmarkMessages.textMessage(1, messageSize)), new Flags(), new Date());
+
+        socket = new BenchmarkSocket(new byte[0]);
+        connection = new Pop3Connection(new Pop3Handler(new Pop3CommandRegistry(), managers.getUserManager(), socket),
+            socket);
+        state = new Pop3State(managers.getUserManager());
+        state.setUser(user);
+        state.authenticate("bench");
+    }
+
+    @Benchmark
+    public long retr() {
+        command.execute(connection, state, "RETR 1");
+        return socket.getWrittenBytes();
+    }
+}
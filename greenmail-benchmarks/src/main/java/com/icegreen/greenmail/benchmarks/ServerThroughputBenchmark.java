@@ -0,0 +1,180 @@
+/*
+ * Copyright (c) 2014 Wael Chatila / Icegreen Technologies. All Rights Reserved.
+ * This software is released under the Apache license 2.0
+ */
+package com.icegreen.greenmail.benchmarks;
+
+import com.icegreen.greenmail.server.AbstractServer;
+import com.icegreen.greenmail.user.GreenMailUser;
+import com.icegreen.greenmail.util.GreenMail;
+import com.icegreen.greenmail.util.ServerSetup;
+import jakarta.mail.Flags;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.Date;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * End-to-end throughput of an in-process GreenMail, using raw socket clients on loopback.
+ * <p>
+ * Each benchmark thread uses its own connections, so run with e.g. <code>-t 4</code> for concurrent clients.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class ServerThroughputBenchmark {
+    private static final String PASSWORD = "bench";
+
+    @State(Scope.Benchmark)
+    public static class Server {
+        @Param({"false", "true"})
+        boolean nonBlocking;
+
+        @Param({"4096", "65536"})
+        int messageSize;
+
+        GreenMail greenMail;
+        GreenMailUser sink;
+        byte[] data;
+
+        @Setup
+        public void start() throws Exception {
+            greenMail = new GreenMail(new ServerSetup[]{
+                ServerSetup.SMTP.dynamicPort().nonBlocking(nonBlocking),
+                ServerSetup.IMAP.dynamicPort().nonBlocking(nonBlocking),
+                ServerSetup.POP3.dynamicPort().nonBlocking(nonBlocking)});
+            greenMail.start();
+            sink = greenMail.setUser("sink@localhost", "sink", PASSWORD);
+            final GreenMailUser reader = greenMail.setUser("reader@localhost", "reader", PASSWORD);
+            final byte[] content = BenchmarkMessages.textMessage(1, messageSize);
+            greenMail.getManagers().getImapHostManager().getInbox(reader)
+                .appendMessage(BenchmarkMessages.parse(content), new Flags(), new Date());
+            data = BenchmarkMessages.dotStuffed(content);
+        }
+
+        /**
+         * Removes messages received via SMTP, so that memory usage does not grow across iterations.
+         */
+        @TearDown(Level.Iteration)
+        public void purgeReceived() throws Exception {
+            greenMail.getManagers().getImapHostManager().getInbox(sink).deleteAllMessages();
+        }
+
+        @TearDown
+        public void stop() {
+            greenMail.stop();
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class Clients {
+        LineClient smtp;
+        LineClient imap;
+        LineClient pop3;
+
+        @Setup
+        public void connect(Server server) throws IOException {
+            smtp = connect(server.greenMail.getSmtp());
+            expect(smtp.readLine(), "220");
+            smtp.send("EHLO localhost");
+            expect(smtp.readUntil("250 "), "250");
+
+            imap = connect(server.greenMail.getImap());
+            expect(imap.readLine(), "* OK");
+            imap.send("l LOGIN reader " + PASSWORD);
+            expect(imap.readUntil("l "), "l OK");
+            imap.send("s SELECT INBOX");
+            expect(imap.readUntil("s "), "s OK");
+
+            pop3 = connect(server.greenMail.getPop3());
+            expect(pop3.readLine(), "+OK");
+            pop3.send("USER reader");
+            expect(pop3.readLine(), "+OK");
+            pop3.send("PASS " + PASSWORD);
+            expect(pop3.readLine(), "+OK");
+        }
+
+        private static LineClient connect(AbstractServer server) throws IOException {
+            return new LineClient(server.getServerSetup().getBindAddress(), server.getPort());
+        }
+
+        @TearDown
+        public void close() throws IOException {
+            for (LineClient client : new LineClient[]{smtp, imap, pop3}) {
+                if (null != client) {
+                    client.close();
+                }
+            }
+        }
+    }
+
+    private static String expect(String line, String prefix) throws IOException {
+        if (!line.startsWith(prefix)) {
+            throw new IOException("Expected " + prefix + " but got " + line);
+        }
+        return line;
+    }
+
+    @Benchmark
+    public String smtpSend(Server server, Clients clients) throws IOException {
+        final LineClient smtp = clients.smtp;
+        smtp.send("MAIL FROM:<sender@example.com>");
+        expect(smtp.readLine(), "250");
+        smtp.send("RCPT TO:<sink@localhost>");
+        expect(smtp.readLine(), "250");
+        smtp.send("DATA");
+        expect(smtp.readLine(), "354");
+        smtp.send(server.data);
+        return expect(smtp.readLine(), "250");
+    }
+
+    @Benchmark
+    public String imapFetch(Clients clients) throws IOException {
+        final LineClient imap = clients.imap;
+        imap.send("f FETCH 1 (BODY.PEEK[])");
+        return expect(imap.readUntil("f "), "f OK");
+    }
+
+    /**
+     * Commands per second of a single connection, for small commands.
+     */
+    @Benchmark
+    public String imapNoop(Clients clients) throws IOException {
+        final LineClient imap = clients.imap;
+        imap.send("n NOOP");
+        return expect(imap.readUntil("n "), "n OK");
+    }
+
+    /**
+     * Commands per second of a single connection, for a command with several untagged responses.
+     */
+    @Benchmark
+    public String imapSelect(Clients clients) throws IOException {
+        final LineClient imap = clients.imap;
+        imap.send("s SELECT INBOX");
+        return expect(imap.readUntil("s "), "s OK");
+    }
+
+    @Benchmark
+    public String pop3Retr(Clients clients) throws IOException {
+        final LineClient pop3 = clients.pop3;
+        pop3.send("RETR 1");
+        expect(pop3.readLine(), "+OK");
+        return pop3.readUntil(".\r\n");
+    }
+}
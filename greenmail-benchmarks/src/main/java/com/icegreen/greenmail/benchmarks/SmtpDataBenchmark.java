@@ -0,0 +1,68 @@
+/*
+ * Copyright (c) 2014 Wael Chatila / Icegreen Technologies. All Rights Reserved.
+ * This software is released under the Apache license 2.0
+ */
+package com.icegreen.greenmail.benchmarks;
+
+import com.icegreen.greenmail.Managers;
+import com.icegreen.greenmail.smtp.SmtpConnection;
+import com.icegreen.greenmail.smtp.SmtpHandler;
+import com.icegreen.greenmail.smtp.commands.SmtpCommandRegistry;
+import jakarta.mail.internet.MimeMessage;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Reading SMTP DATA content until end of data, see {@link SmtpConnection#dotLimitedInputStream(byte[])}.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SmtpDataBenchmark {
+    private static final byte[] RECEIVED_HEADER = "Received: from localhost by localhost\r\n".getBytes();
+
+    @Param({"1024", "65536", "1048576"})
+    int messageSize;
+
+    private byte[] data;
+    private SmtpHandler handler;
+
+    @Setup
+    public void setUp() {
+        data = BenchmarkMessages.dotStuffed(BenchmarkMessages.textMessage(1, messageSize));
+        final Managers managers = new Managers();
+        handler = new SmtpHandler(new SmtpCommandRegistry(), managers.getSmtpManager(), new BenchmarkSocket(data));
+    }
+
+    private SmtpConnection newConnection() throws IOException {
+        return new SmtpConnection(handler, new BenchmarkSocket(data));
+    }
+
+    @Benchmark
+    public int dotLimitedInputStream() throws IOException {
+        try (InputStream in = newConnection().dotLimitedInputStream(RECEIVED_HEADER)) {
+            return in.available();
+        }
+    }
+
+    @Benchmark
+    public MimeMessage readDotLimitedMessage() throws IOException {
+        return newConnection().readDotLimitedMessage(RECEIVED_HEADER);
+    }
+}
@@ -0,0 +1,104 @@
+/*
+ * Copyright (c) 2014 Wael Chatila / Icegreen Technologies. All Rights Reserved.
+ * This software is released under the Apache license 2.0
+ */
+package com.icegreen.greenmail.benchmarks;
+
+import com.icegreen.greenmail.imap.ImapConstants;
+import com.icegreen.greenmail.store.FolderException;
+import com.icegreen.greenmail.store.InMemoryStore;
+import com.icegreen.greenmail.store.MailFolder;
+import com.icegreen.greenmail.store.MailMessageAttributes;
+import jakarta.mail.Flags;
+import jakarta.mail.MessagingException;
+import jakarta.mail.Session;
+import jakarta.mail.internet.MimeMessage;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.ByteArrayInputStream;
+import java.util.Date;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Storing a received message in a mailbox, see {@link MailFolder#appendMessage(MimeMessage, Flags, Date)}.
+ * <p>
+ * Messages get parsed per invocation, as stored content gets shared between recipients of a received message.
+ * Each invocation removes the stored message again, so that the mailbox does not grow.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class StoredMessageBenchmark {
+    private static final Date RECEIVED = new Date(1704103200000L);
+
+    @Param({"0", "4"})
+    int attachments;
+
+    @Param({"1024", "65536"})
+    int partSize;
+
+    private final Session session = Session.getInstance(new Properties());
+    private byte[] content;
+    private MailFolder folder;
+
+    @Setup
+    public void setUp() throws FolderException {
+        content = BenchmarkMessages.multipartMessage(1, attachments, partSize);
+        final InMemoryStore store = new InMemoryStore();
+        folder = store.createMailbox(store.getMailbox(ImapConstants.USER_NAMESPACE), "INBOX", true);
+    }
+
+    /**
+     * Baseline for the other benchmarks.
+     */
+    @Benchmark
+    public MimeMessage parseReceived() {
+        return BenchmarkMessages.parse(content);
+    }
+
+    /**
+     * Stores a message as received via SMTP, reusing the received octets.
+     */
+    @Benchmark
+    public long storeReceived() {
+        final long uid = folder.appendMessage(BenchmarkMessages.parse(content), new Flags(), RECEIVED);
+        folder.deleteAllMessages();
+        return uid;
+    }
+
+    /**
+     * Stores a message not backed by received octets, e.g. as appended by a client API.
+     */
+    @Benchmark
+    public long storeMimeMessage() throws MessagingException {
+        final long uid = folder.appendMessage(new MimeMessage(session, new ByteArrayInputStream(content)),
+            new Flags(), RECEIVED);
+        folder.deleteAllMessages();
+        return uid;
+    }
+
+    /**
+     * Stores a message as received via SMTP, and computes the IMAP attributes such as envelope and body structure.
+     */
+    @Benchmark
+    public MailMessageAttributes storeReceivedAndParseAttributes() {
+        final long uid = folder.appendMessage(BenchmarkMessages.parse(content), new Flags(), RECEIVED);
+        final MailMessageAttributes attributes = folder.getMessage(uid).getAttributes();
+        folder.deleteAllMessages();
+        return attributes;
+    }
+}
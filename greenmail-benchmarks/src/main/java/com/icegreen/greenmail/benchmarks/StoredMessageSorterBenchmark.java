@@ -0,0 +1,73 @@
+/*
+ * Copyright (c) 2014 Wael Chatila / Icegreen Technologies. All Rights Reserved.
+ * This software is released under the Apache license 2.0
+ */
+package com.icegreen.greenmail.benchmarks;
+
+import com.icegreen.greenmail.Managers;
+import com.icegreen.greenmail.imap.ImapRequestHandler;
+import com.icegreen.greenmail.imap.ImapSessionImpl;
+import com.icegreen.greenmail.store.MailFolder;
+import com.icegreen.greenmail.user.GreenMailUser;
+import jakarta.mail.Flags;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Date;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Sorting messages with the IMAP SORT command, by mailbox size and sort criteria.
+ * <p>
+ * The command line gets handled directly by the {@link ImapRequestHandler}, without socket overhead.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class StoredMessageSorterBenchmark {
+    @Param({"1000", "10000"})
+    int messageCount;
+
+    @Param({"ARRIVAL", "DATE", "FROM", "SUBJECT", "REVERSE SIZE"})
+    String sortCriteria;
+
+    private final ImapRequestHandler requestHandler = new ImapRequestHandler();
+    private ImapSessionImpl session;
+    private byte[] commandLine;
+
+    @Setup
+    public void setUp() throws Exception {
+        final Managers managers = new Managers();
+        final GreenMailUser user = managers.getUserManager().createUser("bench@localhost", "bench", "bench");
+        final MailFolder inbox = managers.getImapHostManager().getInbox(user);
+        for (int i = 0; i < messageCount; i++) {
+            inbox.appendMessage(BenchmarkMessages.parse(BenchmarkMessages.textMessage(i, 1024 + i % 512)),
+                new Flags(), new Date(1704103200000L + i * 60000L));
+        }
+        session = new ImapSessionImpl(managers.getImapHostManager(), managers.getUserManager(), null, "127.0.0.1");
+        session.setAuthenticated(user);
+        session.setSelected(inbox, false);
+        commandLine = ("a1 SORT (" + sortCriteria + ") UTF-8 ALL\r\n").getBytes(StandardCharsets.US_ASCII);
+    }
+
+    @Benchmark
+    public long sort() throws Exception {
+        final BenchmarkSocket.CountingOutputStream out = new BenchmarkSocket.CountingOutputStream();
+        requestHandler.handleRequest(new ByteArrayInputStream(commandLine), out, session);
+        return out.getCount();
+    }
+}
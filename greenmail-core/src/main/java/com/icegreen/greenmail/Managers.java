@@ -8,6 +8,7 @@ import com.icegreen.greenmail.imap.ImapHostManager;
 import com.icegreen.greenmail.imap.ImapHostManagerImpl;
 import com.icegreen.greenmail.smtp.SmtpManager;
 import com.icegreen.greenmail.store.InMemoryStore;
+import com.icegreen.greenmail.store.Store;
 import com.icegreen.greenmail.user.UserManager;
 
 /**
@@ -16,9 +17,22 @@ import com.icegreen.greenmail.user.UserManager;
  * @since Jan 27, 2006
  */
 public class Managers {
-    private final ImapHostManager imapHostManager = new ImapHostManagerImpl(new InMemoryStore());
-    private final UserManager userManager = new UserManager(imapHostManager);
-    private final SmtpManager smtpManager = new SmtpManager(imapHostManager, userManager);
+    private final ImapHostManager imapHostManager;
+    private final UserManager userManager;
+    private final SmtpManager smtpManager;
+
+    public Managers() {
+        this(new InMemoryStore());
+    }
+
+    /**
+     * @param store the store of all mailboxes.
+     */
+    public Managers(Store store) {
+        imapHostManager = new ImapHostManagerImpl(store);
+        userManager = new UserManager(imapHostManager);
+        smtpManager = new SmtpManager(imapHostManager, userManager);
+    }
 
     public SmtpManager getSmtpManager() {
         return smtpManager;
@@ -6,6 +6,7 @@ import com.icegreen.greenmail.imap.ImapServer;
 import com.icegreen.greenmail.pop3.Pop3Server;
 import com.icegreen.greenmail.smtp.SmtpServer;
 import com.icegreen.greenmail.store.FolderException;
+import com.icegreen.greenmail.store.StoredMessage;
 import com.icegreen.greenmail.user.GreenMailUser;
 import com.icegreen.greenmail.user.UserManager;
 import jakarta.mail.internet.MimeMessage;
@@ -80,6 +81,33 @@ public interface GreenMailOperations {
     boolean waitForIncomingEmail(int emailCount);
 
     /**
+     * Gets the number of failed asynchronous deliveries of messages received via SMTP.
+     * <p>
+     * With asynchronous delivery, the SMTP client already got an OK reply when delivery fails,
+     * so check this count if {@link #waitForIncomingEmail(long, int)} times out.
+     *
+     * @return the number of recipients a message could not be delivered to, always 0 for synchronous delivery.
+     * @see com.icegreen.greenmail.configuration.GreenMailConfiguration#withAsyncDelivery(int, int)
+     */
+    int getDeliveryFailureCount();
+
+    /**
+     * Gets the number of messages received via SMTP and queued for asynchronous delivery.
+     * <p>
+     * Queued messages are not yet stored, so they do not show up as received messages.
+     *
+     * @return the number of queued messages, not including messages being delivered,
+     * always 0 for synchronous delivery.
+     * @see com.icegreen.greenmail.configuration.GreenMailConfiguration#withAsyncDelivery(int, int)
+     */
+    int getDeliveryQueueSize();
+
+    /**
+     * Gets all messages in all folders for all users.
+     * <p>
+     * Messages are snapshots parsed from the stored content, so changes to them are not stored.
+     * See {@link StoredMessage#getMimeMessage()}.
+     *
      * @return Returns all messages in all folders for all users
      * {@link com.icegreen.greenmail.util.GreenMailUtil} has a bunch of static helper methods to extract body text etc.
      */
@@ -97,6 +125,26 @@ public interface GreenMailOperations {
      */
     MimeMessage[] getReceivedMessagesForDomain(String domain);
 
+    /**
+     * Gets the sequence number of the most recently received message.
+     * <p>
+     * Use as cursor for {@link #getReceivedMessagesSince(long)}, e.g. before triggering emails to be sent.
+     *
+     * @return the sequence number, or 0 if no message was received yet.
+     */
+    long getReceivedMessageSequence();
+
+    /**
+     * Gets messages received after given sequence number, in order of receipt.
+     * <p>
+     * Useful for polling new messages, as this only processes the newly received messages instead of all messages.
+     * Continue polling with {@link StoredMessage.UidAwareMimeMessage#getSequence()} of the last returned message.
+     *
+     * @param sequence the sequence number, e.g. from {@link #getReceivedMessageSequence()} or 0 for all messages.
+     * @return the received messages, not including messages deleted in the meantime.
+     */
+    MimeMessage[] getReceivedMessagesSince(long sequence);
+
     /**
      * Finds all messages matching the user account and message predicate.
      *
@@ -2,6 +2,8 @@ package com.icegreen.greenmail.configuration;
 
 import com.icegreen.greenmail.base.GreenMailOperations;
 import com.icegreen.greenmail.store.FolderException;
+import com.icegreen.greenmail.store.InMemoryStore;
+import com.icegreen.greenmail.store.Store;
 
 import java.io.IOException;
 import java.nio.file.Paths;
@@ -18,17 +20,35 @@ public abstract class ConfiguredGreenMail implements GreenMailOperations {
         return this;
     }
 
+    /**
+     * @return the configuration, or null if not configured.
+     */
+    protected GreenMailConfiguration getConfiguration() {
+        return config;
+    }
+
     /**
      * This method can be used by child classes to apply the configuration that is stored in config.
      */
     protected void doConfigure() {
         if (config != null) {
+            Store store = getManagers().getImapHostManager().getStore();
+            if (config.isSearchIndexEnabled() && store instanceof InMemoryStore) {
+                ((InMemoryStore) store).setSearchIndexEnabled(true);
+            }
+            if (config.isOffHeapStorageEnabled() && store instanceof InMemoryStore) {
+                ((InMemoryStore) store).setOffHeapStorageEnabled(true);
+            }
             for (UserBean user : config.getUsersToCreate()) {
                 setUser(user.getEmail(), user.getLogin(), user.getPassword());
             }
             getUserManager().setAuthRequired(!config.isAuthenticationDisabled());
             getUserManager().setSieveIgnoreDetail(config.isSieveIgnoreDetailEnabled());
             getUserManager().setDiscardAttachments(config.isDiscardAttachmentsEnabled());
+            if (config.isAsyncDeliveryEnabled() && !getManagers().getSmtpManager().isAsyncDeliveryEnabled()) {
+                getManagers().getSmtpManager().startAsyncDelivery(config.getDeliveryWorkers(),
+                    config.getDeliveryQueueCapacity());
+            }
             if(config.hasPreloadDir()) {
                 try {
                     loadEmails(Paths.get(config.getPreloadDir()));
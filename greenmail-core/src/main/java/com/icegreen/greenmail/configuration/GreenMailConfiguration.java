@@ -13,6 +13,16 @@ public class GreenMailConfiguration {
     private boolean sieveIgnoreDetail = false;
     private boolean discardAttachments = false;
     private String preloadDir;
+    private int deliveryWorkers = 0;
+    private int deliveryQueueCapacity = DEFAULT_DELIVERY_QUEUE_CAPACITY;
+    private boolean searchIndex = false;
+    private String storeDir;
+    private boolean offHeapStorage = false;
+
+    /**
+     * Default capacity of the asynchronous delivery queue.
+     */
+    public static final int DEFAULT_DELIVERY_QUEUE_CAPACITY = 1000;
 
 
     /**
@@ -142,4 +152,125 @@ public class GreenMailConfiguration {
     public boolean isDiscardAttachmentsEnabled() {
         return discardAttachments;
     }
+
+    /**
+     * Enables asynchronous delivery of messages received via SMTP.
+     * <p>
+     * Useful for performance tests with many concurrent SMTP sessions.
+     * GreenMail replies to the SMTP client once the message is queued, and a pool of delivery workers
+     * stores the message. Use {@link com.icegreen.greenmail.base.GreenMailOperations#waitForIncomingEmail(int)}
+     * before checking for received messages.
+     *
+     * @param workers       number of delivery workers.
+     * @param queueCapacity maximum number of queued messages, before SMTP sessions block.
+     * @return Modified configuration.
+     */
+    public GreenMailConfiguration withAsyncDelivery(int workers, int queueCapacity) {
+        if (workers < 1 || queueCapacity < 1) {
+            throw new IllegalArgumentException("Expected positive workers and queue capacity, but got workers="
+                + workers + " and queueCapacity=" + queueCapacity);
+        }
+        this.deliveryWorkers = workers;
+        this.deliveryQueueCapacity = queueCapacity;
+        return this;
+    }
+
+    /**
+     * @return true if asynchronous delivery is enabled.
+     *
+     * @see GreenMailConfiguration#withAsyncDelivery(int, int)
+     */
+    public boolean isAsyncDeliveryEnabled() {
+        return deliveryWorkers > 0;
+    }
+
+    /**
+     * @return number of delivery workers, or 0 if delivering synchronously.
+     */
+    public int getDeliveryWorkers() {
+        return deliveryWorkers;
+    }
+
+    /**
+     * @return maximum number of messages queued for asynchronous delivery.
+     */
+    public int getDeliveryQueueCapacity() {
+        return deliveryQueueCapacity;
+    }
+
+    /**
+     * Enables indexing the subject, addresses and body text of stored messages.
+     * <p>
+     * Useful for tests repeatedly searching large mailboxes via IMAP SEARCH, at the cost of memory
+     * and delivery time.
+     *
+     * @return Modified configuration.
+     */
+    public GreenMailConfiguration withSearchIndex() {
+        searchIndex = true;
+        return this;
+    }
+
+    /**
+     * @return true if the search index is enabled.
+     *
+     * @see GreenMailConfiguration#withSearchIndex()
+     */
+    public boolean isSearchIndexEnabled() {
+        return searchIndex;
+    }
+
+    /**
+     * Enables storing the content of received messages outside the heap.
+     * <p>
+     * Useful for long-running load tests holding many messages, as it reduces heap usage and garbage
+     * collection pauses. The memory of deleted messages is reused for new messages.
+     * Requires sufficient direct memory, see JVM option -XX:MaxDirectMemorySize.
+     *
+     * @return Modified configuration.
+     */
+    public GreenMailConfiguration withOffHeapStorage() {
+        offHeapStorage = true;
+        return this;
+    }
+
+    /**
+     * @return true if off-heap storage is enabled.
+     *
+     * @see GreenMailConfiguration#withOffHeapStorage()
+     */
+    public boolean isOffHeapStorageEnabled() {
+        return offHeapStorage;
+    }
+
+    /**
+     * Persists mailboxes and messages in given directory, instead of keeping them in memory only.
+     * <p>
+     * Message content is stored in memory-mapped files instead of on heap, and mailboxes and messages
+     * are recovered when starting again. Users are not persisted, and regain their mailboxes when created again.
+     *
+     * @param storeDir directory of the store, created if not existing.
+     * @see com.icegreen.greenmail.store.FileBackedStore
+     * @return Modified configuration.
+     */
+    public GreenMailConfiguration withStoreDir(String storeDir) {
+        this.storeDir = storeDir;
+        return this;
+    }
+
+    /**
+     * Gets store directory value or null if not set.
+     * @return the directory
+     */
+    public String getStoreDir() {
+        return storeDir;
+    }
+
+    /**
+     * Checks if store directory value exists.
+     * @return true if available
+     */
+    public boolean hasStoreDir() {
+        return null != storeDir;
+    }
 }
@@ -22,6 +22,10 @@ import java.util.regex.Pattern;
  * </li>
  * <li>greenmail.preload.dir : Preloads emails from filesystem
  *     (see {@link com.icegreen.greenmail.base.GreenMailOperations#loadEmails(Path)} for expected structure)</li>
+ * <li>greenmail.delivery.workers : Enables asynchronous delivery using given number of delivery workers</li>
+ * <li>greenmail.delivery.queue.capacity : Capacity of asynchronous delivery queue (default 1000)</li>
+ * <li>greenmail.store.dir : Persists mailboxes and messages in given directory</li>
+ * <li>greenmail.store.offheap : Stores message content outside the heap</li>
  * </ul>
  */
 public class PropertiesBasedGreenMailConfigurationBuilder {
@@ -50,6 +54,36 @@ public class PropertiesBasedGreenMailConfigurationBuilder {
      * @see GreenMailConfiguration#withDiscardAttachments()
      */
     public static final String GREENMAIL_ATTACHMENTS_DISCARD = "greenmail.attachments.discard";
+    /**
+     * Number of workers for asynchronous delivery. Delivers synchronously if not set.
+     *
+     * @see GreenMailConfiguration#withAsyncDelivery(int, int)
+     */
+    public static final String GREENMAIL_DELIVERY_WORKERS = "greenmail.delivery.workers";
+    /**
+     * Capacity of the asynchronous delivery queue.
+     *
+     * @see GreenMailConfiguration#withAsyncDelivery(int, int)
+     */
+    public static final String GREENMAIL_DELIVERY_QUEUE_CAPACITY = "greenmail.delivery.queue.capacity";
+    /**
+     * Enables indexing messages for searching.
+     *
+     * @see GreenMailConfiguration#withSearchIndex()
+     */
+    public static final String GREENMAIL_SEARCH_INDEX = "greenmail.search.index";
+    /**
+     * Directory for persisting mailboxes and messages.
+     *
+     * @see GreenMailConfiguration#withStoreDir(String)
+     */
+    public static final String GREENMAIL_STORE_DIR = "greenmail.store.dir";
+    /**
+     * Stores message content outside the heap.
+     *
+     * @see GreenMailConfiguration#withOffHeapStorage()
+     */
+    public static final String GREENMAIL_STORE_OFF_HEAP = "greenmail.store.offheap";
 
     /**
      * Configures how user login should be extracted from user of pattern local-part:password@domain .
@@ -101,6 +135,28 @@ public class PropertiesBasedGreenMailConfigurationBuilder {
             configuration.withDiscardAttachments();
         }
 
+        String deliveryWorkers = properties.getProperty(GREENMAIL_DELIVERY_WORKERS);
+        if (null != deliveryWorkers) {
+            configuration.withAsyncDelivery(Integer.parseInt(deliveryWorkers.trim()),
+                Integer.parseInt(properties.getProperty(GREENMAIL_DELIVERY_QUEUE_CAPACITY,
+                    String.valueOf(GreenMailConfiguration.DEFAULT_DELIVERY_QUEUE_CAPACITY)).trim()));
+        }
+
+        String searchIndex = properties.getProperty(GREENMAIL_SEARCH_INDEX, "false");
+        if (Boolean.TRUE.toString().equalsIgnoreCase(searchIndex)) {
+            configuration.withSearchIndex();
+        }
+
+        String storeDir = properties.getProperty(GREENMAIL_STORE_DIR);
+        if (null != storeDir) {
+            configuration.withStoreDir(storeDir);
+        }
+
+        String offHeapStorage = properties.getProperty(GREENMAIL_STORE_OFF_HEAP, "false");
+        if (Boolean.TRUE.toString().equalsIgnoreCase(offHeapStorage)) {
+            configuration.withOffHeapStorage();
+        }
+
         return configuration;
     }
 
@@ -25,7 +25,11 @@ public class ImapHandler extends AbstractSocketProtocolHandler implements ImapCo
     private final ImapRequestHandler requestHandler = new ImapRequestHandler();
     private ImapSession session;
 
+    private ImapRequestLineReader request;
     private ImapResponse response;
+    // Closed automatically when socket is closed via #close()
+    private InputStream ins;
+    private OutputStream outs;
 
     final UserManager userManager;
     private final ImapHostManager imapHost;
@@ -37,7 +41,7 @@ public class ImapHandler extends AbstractSocketProtocolHandler implements ImapCo
     }
 
     public void forceConnectionClose(final String message) {
-        // response is null before run() starts and after close() clears handler state.
+        // response is null before open() and after close() clears handler state.
         // deleteUser can still notify selected folders on a closed session (GH-902).
         final ImapResponse currentResponse = response;
         if (currentResponse != null) {
@@ -47,37 +51,65 @@ public class ImapHandler extends AbstractSocketProtocolHandler implements ImapCo
     }
 
     @Override
-    public void run() {
-        // Closed automatically when socket is closed via #close()
-        try (InputStream ins = prepareInputStream();
-             OutputStream outs = prepareOutputStream()
-        ) {
-            response = new ImapResponse(outs);
-
-            // Write welcome message
-            String responseBuffer = VERSION + " Server GreenMail v" +
-                    BuildInfo.INSTANCE.getProjectVersion() + " ready";
-            response.okResponse(null, responseBuffer);
-
-            session = new ImapSessionImpl(imapHost,
-                    userManager,
-                    this,
-                    socket.getInetAddress().getHostAddress());
-
-            while (!isQuitting() && requestHandler.handleRequest(ins, outs, session) )  {
-                // Continue to handle requests
-            }
-        } catch (Exception e) {
-            if (!isQuitting()) {
-                throw new IllegalStateException("Can not handle IMAP connection", e);
+    protected void open() throws IOException {
+        ins = prepareInputStream();
+        outs = prepareOutputStream();
+        // Reused for all commands of the connection
+        request = new ImapRequestLineReader(ins, outs);
+        response = new ImapResponse(outs);
+
+        // Write welcome message
+        String responseBuffer = VERSION + " Server GreenMail v" +
+                BuildInfo.INSTANCE.getProjectVersion() + " ready";
+        response.okResponse(null, responseBuffer);
+        response.flush();
+
+        session = new ImapSessionImpl(imapHost,
+                userManager,
+                this,
+                socket.getInetAddress().getHostAddress());
+    }
+
+    @Override
+    protected void handleCommand() throws IOException {
+        try {
+            if (!requestHandler.handleRequest(request, response, session)) {
+                close();
             }
-        } finally {
-            close();
+        } catch (ProtocolException e) {
+            throw new IOException("Can not handle IMAP request", e);
+        }
+    }
+
+    @Override
+    protected boolean hasBufferedInput() {
+        final ImapRequestLineReader currentRequest = request;
+        if (null != currentRequest && currentRequest.hasBufferedInput()) {
+            return true;
+        }
+        try {
+            return ins.available() > 0;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    @Override
+    protected boolean isWaitingWithoutTimeout() {
+        final ImapSession currentSession = session;
+        return null != currentSession && currentSession.isSuspended();
+    }
+
+    @Override
+    protected void handleException(Exception e) {
+        if (!isQuitting()) {
+            throw new IllegalStateException("Can not handle IMAP connection", e);
         }
     }
 
     private InputStream prepareInputStream() throws IOException {
-        InputStream is = new BufferedInputStream(socket.getInputStream(), 512);
+        // Buffered by the request reader
+        InputStream is = getInputStream();
         if (log.isDebugEnabled()) {
             is = new LoggingInputStream(is, "C: ");
         }
@@ -85,7 +117,8 @@ public class ImapHandler extends AbstractSocketProtocolHandler implements ImapCo
     }
 
     private OutputStream prepareOutputStream() throws IOException {
-        OutputStream outputStream = new BufferedOutputStream(socket.getOutputStream(), 1024);
+        // Buffers all responses of a typical command, flushed once per command
+        OutputStream outputStream = new BufferedOutputStream(getOutputStream(), 8192);
         if (log.isDebugEnabled()) {
             outputStream = new LoggingOutputStream(outputStream, "S: ");
         }
@@ -99,8 +132,18 @@ public class ImapHandler extends AbstractSocketProtocolHandler implements ImapCo
     public void close() {
         super.close();
 
+        // Release resources of a command waiting for client input, such as IDLE
+        final ImapSession currentSession = session;
+        if (null != currentSession) {
+            final SuspendedCommand suspendedCommand = currentSession.resume();
+            if (null != suspendedCommand) {
+                suspendedCommand.cancel();
+            }
+        }
+
         // Clear user data
         session = null;
+        request = null;
         response = null;
     }
 }
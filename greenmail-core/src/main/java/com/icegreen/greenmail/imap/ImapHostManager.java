@@ -40,6 +40,41 @@ public interface ImapHostManager {
      */
     List<StoredMessage> getAllMessages();
 
+    /**
+     * Gets the number of messages in all mailboxes, without collecting the messages.
+     *
+     * @return the message count.
+     */
+    int getMessageCount();
+
+    /**
+     * Gets the number of messages in all mailboxes of given user, without collecting the messages.
+     *
+     * @param user the user.
+     * @return the message count, or 0 if the user has no mail account.
+     */
+    int getMessageCount(GreenMailUser user);
+
+    /**
+     * Gets the sequence number of the most recently stored message.
+     * <p>
+     * Use as cursor for incrementally fetching messages via {@link #getMessagesSince(long)}.
+     *
+     * @return the sequence number, or 0 if no message was stored yet.
+     */
+    long getMessageSequence();
+
+    /**
+     * Gets the messages stored after given sequence number, in storing order.
+     * <p>
+     * In contrast to {@link #getAllMessages()}, this runs in time proportional to the number of returned messages.
+     * Continue with the {@link StoredMessage#getSequence()} of the last returned message.
+     *
+     * @param sequence the sequence number, or 0 for all messages.
+     * @return the messages stored since and not yet removed.
+     */
+    List<StoredMessage> getMessagesSince(long sequence);
+
     /**
      * Returns the hierarchy delimiter for mailboxes on this host.
      *
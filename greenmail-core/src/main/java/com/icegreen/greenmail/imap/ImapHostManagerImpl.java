@@ -52,6 +52,28 @@ public class ImapHostManagerImpl
         return ret;
     }
 
+    @Override
+    public int getMessageCount() {
+        return store.getMessageCounter().getCount();
+    }
+
+    @Override
+    public int getMessageCount(GreenMailUser user) {
+        final MailFolder userRoot = store.getMailbox(
+            USER_NAMESPACE + HIERARCHY_DELIMITER + user.getQualifiedMailboxName());
+        return null == userRoot ? 0 : userRoot.getAccountMessageCount();
+    }
+
+    @Override
+    public long getMessageSequence() {
+        return store.getMessageCounter().getSequence();
+    }
+
+    @Override
+    public List<StoredMessage> getMessagesSince(long sequence) {
+        return store.getMessageCounter().getMessagesSince(sequence);
+    }
+
     @Override
     public char getHierarchyDelimiter() {
         return HIERARCHY_DELIMITER_CHAR;
@@ -90,8 +112,14 @@ public class ImapHostManagerImpl
     @Override
     public void createPrivateMailAccount(GreenMailUser user) throws FolderException {
         MailFolder root = store.getMailbox(USER_NAMESPACE);
-        MailFolder userRoot = store.createMailbox(root, user.getQualifiedMailboxName(), false);
-        store.createMailbox(userRoot, INBOX_NAME, true);
+        // Reattaches to mailboxes recovered by a persistent store
+        MailFolder userRoot = store.getMailbox(root, user.getQualifiedMailboxName());
+        if (null == userRoot) {
+            userRoot = store.createMailbox(root, user.getQualifiedMailboxName(), false);
+        }
+        if (null == store.getMailbox(userRoot, INBOX_NAME)) {
+            store.createMailbox(userRoot, INBOX_NAME, true);
+        }
     }
 
     @Override
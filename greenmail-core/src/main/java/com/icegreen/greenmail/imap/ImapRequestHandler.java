@@ -14,6 +14,7 @@ import org.slf4j.LoggerFactory;
 
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.net.SocketTimeoutException;
 
 /**
  * @author Darrell DeBoer <darrell@apache.org>
@@ -41,16 +42,41 @@ public final class ImapRequestHandler {
                                  OutputStream output,
                                  ImapSession session)
             throws ProtocolException {
-        ImapRequestLineReader request = new ImapRequestLineReader(input, output);
+        return handleRequest(new ImapRequestLineReader(input, output), new ImapResponse(output), session);
+    }
+
+    /**
+     * Handles the next request, reusing the request reader and response of the connection.
+     *
+     * @param request reader of the connection
+     * @param response response of the connection, flushed once the request is handled
+     * @param session current IMAP session (state)
+     * @return whether additional commands are expected.
+     * @see #handleRequest(InputStream, OutputStream, ImapSession)
+     */
+    public boolean handleRequest(ImapRequestLineReader request,
+                                 ImapResponse response,
+                                 ImapSession session)
+            throws ProtocolException {
         try {
             request.nextChar();
         } catch (ProtocolException e) {
-            return false;
+            // Suspended commands such as IDLE keep waiting for the client, ignoring socket timeouts
+            return session.isSuspended() && e.getCause() instanceof SocketTimeoutException;
         }
 
-        ImapResponse response = new ImapResponse(output);
-
-        doProcessRequest(request, response, session);
+        try {
+            final SuspendedCommand suspendedCommand = session.resume();
+            if (null != suspendedCommand) {
+                suspendedCommand.resume(request, session);
+            } else {
+                response.setTag(ImapConstants.UNTAGGED);
+                doProcessRequest(request, response, session);
+            }
+        } finally {
+            // Sends buffered responses also if the command fails, eg for the client to see untagged updates
+            response.flush();
+        }
 
         // Consume the rest of the line, throwing away any extras. This allows us
         // to clean up after a protocol error.
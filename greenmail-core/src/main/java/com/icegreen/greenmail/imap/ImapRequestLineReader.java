@@ -9,21 +9,28 @@ package com.icegreen.greenmail.imap;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
 
 /**
  * Wraps the client input reader with a bunch of convenience methods, allowing lookahead=1
  * on the underlying character stream.
- * TODO need to look at encoding, and whether we should be wrapping an InputStream instead.
+ * <p>
+ * Reads the input in blocks into a reusable buffer, and maps each byte to the character of same value.
  *
  * @author Darrell DeBoer <darrell@apache.org>
  * @version $Revision: 109034 $
  */
 public class ImapRequestLineReader {
+    private static final int BUFFER_SIZE = 8192;
+
     private final InputStream input;
     private final OutputStream output;
 
-    private boolean nextSeen = false;
-    private char nextChar; // unknown
+    private final byte[] buffer = new byte[BUFFER_SIZE];
+    private int position;
+    private int limit;
+    // Collects words spanning a buffer refill
+    private final StringBuilder spill = new StringBuilder();
 
     public ImapRequestLineReader(InputStream input, OutputStream output) {
         this.input = input;
@@ -61,20 +68,71 @@ public class ImapRequestLineReader {
      * @throws ProtocolException If the end-of-stream is reached.
      */
     public char nextChar() throws ProtocolException {
-        if (!nextSeen) {
-            try {
-                final int read = input.read();
-                final char c = (char) read;
-                if (read == -1) {
-                    throw new ProtocolException("End of stream");
-                }
-                nextChar = c;
-                nextSeen = true;
-            } catch (IOException e) {
-                throw new ProtocolException("Error reading from stream.", e);
+        if (position == limit) {
+            fill();
+        }
+        return (char) (buffer[position] & 0xFF);
+    }
+
+    /**
+     * Refills the exhausted buffer with the available input, blocking till at least one byte is read.
+     */
+    private void fill() throws ProtocolException {
+        try {
+            int count = input.read(buffer, 0, buffer.length);
+            while (count == 0) {
+                count = input.read(buffer, 0, buffer.length);
             }
+            if (count == -1) {
+                throw new ProtocolException("End of stream");
+            }
+            position = 0;
+            limit = count;
+        } catch (IOException e) {
+            throw new ProtocolException("Error reading from stream.", e);
+        }
+    }
+
+    /**
+     * Checks if input has already been read but not yet consumed.
+     *
+     * @return true, if the next character is available without reading from the underlying stream.
+     */
+    public boolean hasBufferedInput() {
+        return position < limit;
+    }
+
+    /**
+     * Consumes the characters accepted by the given table, stopping before the first character not accepted.
+     *
+     * @param accepted the accepted characters, indexed by character value (0-255).
+     * @return the consumed characters, which may be empty.
+     * @throws ProtocolException If the end-of-stream is reached.
+     */
+    public String consumeWhile(boolean[] accepted) throws ProtocolException {
+        spill.setLength(0);
+        if (position == limit) {
+            fill();
+        }
+        int start = position;
+        while (accepted[buffer[position] & 0xFF]) {
+            if (++position == limit) {
+                appendTo(spill, start, position);
+                fill();
+                start = position;
+            }
+        }
+        if (spill.length() == 0) {
+            return new String(buffer, start, position - start, StandardCharsets.ISO_8859_1);
+        }
+        appendTo(spill, start, position);
+        return spill.toString();
+    }
+
+    private void appendTo(StringBuilder builder, int from, int to) {
+        for (int i = from; i < to; i++) {
+            builder.append((char) (buffer[i] & 0xFF));
         }
-        return nextChar;
     }
 
     /**
@@ -116,8 +174,7 @@ public class ImapRequestLineReader {
      */
     public char consume() throws ProtocolException {
         char current = nextChar();
-        nextSeen = false;
-        nextChar = 0;
+        position++;
         return current;
     }
 
@@ -130,7 +187,10 @@ public class ImapRequestLineReader {
      * @throws ProtocolException If a char can't be read into each array element.
      */
     public void read(byte[] holder) throws ProtocolException {
-        int readTotal = 0;
+        // Buffered input first
+        int readTotal = Math.min(holder.length, limit - position);
+        System.arraycopy(buffer, position, holder, 0, readTotal);
+        position += readTotal;
         try {
             while (readTotal < holder.length) {
                 int count = input.read(holder, readTotal, holder.length - readTotal);
@@ -139,9 +199,6 @@ public class ImapRequestLineReader {
                 }
                 readTotal += count;
             }
-            // Unset the next char.
-            nextSeen = false;
-            nextChar = 0;
         } catch (IOException e) {
             throw new ProtocolException("Error reading from stream.", e);
         }
@@ -12,6 +12,8 @@ import com.icegreen.greenmail.util.EncodingUtil;
 import com.icegreen.greenmail.util.InternetPrintWriter;
 
 import jakarta.mail.Flags;
+import java.io.FilterOutputStream;
+import java.io.IOException;
 import java.io.OutputStream;
 
 /**
@@ -19,17 +21,50 @@ import java.io.OutputStream;
  * to the client.
  */
 public class ImapResponse implements ImapConstants {
+    private final OutputStream output;
     private final InternetPrintWriter writer;
     private String tag = UNTAGGED;
+    private volatile boolean flushOutput;
 
     public ImapResponse(OutputStream output) {
-        this.writer = InternetPrintWriter.createForEncoding(output, true, EncodingUtil.CHARSET_EIGHT_BIT_ENCODING);
+        this.output = output;
+        // Flushing the writer only passes encoded response lines on to the output, see #flush()
+        this.writer = InternetPrintWriter.createForEncoding(new FilterOutputStream(output) {
+            @Override
+            public void write(byte[] b, int off, int len) throws IOException {
+                out.write(b, off, len);
+            }
+
+            @Override
+            public void flush() throws IOException {
+                if (flushOutput) {
+                    out.flush();
+                }
+            }
+        }, false, EncodingUtil.CHARSET_EIGHT_BIT_ENCODING);
     }
 
     public void setTag(String tag) {
         this.tag = tag;
     }
 
+    /**
+     * Sends all written responses to the client.
+     * <p>
+     * Responses are buffered until the command completes, so that a command with many response lines
+     * costs a single write to the client.
+     */
+    public void flush() {
+        synchronized (writer) {
+            flushOutput = true;
+            try {
+                writer.flush();
+            } finally {
+                flushOutput = false;
+            }
+        }
+    }
+
     /**
      * Writes a standard tagged OK response on completion of a command.
      * Response is written as:
@@ -170,6 +205,80 @@ public class ImapResponse implements ImapConstants {
         end();
     }
 
+    /**
+     * Starts writing a FETCH response piecewise, for streaming literals instead of building the
+     * whole response as a string (see {@link #fetchResponse(int, String)}).
+     * <p>
+     * Continue with {@link #fetchResponseData(CharSequence)} and {@link #fetchResponseLiteral(long)},
+     * and complete with {@link #fetchResponseEnd()}.
+     *
+     * @param msn the message sequence number.
+     */
+    public void fetchResponseStart(int msn) {
+        untagged();
+        message(msn);
+        message("FETCH");
+        writer.print(" (");
+    }
+
+    /**
+     * Writes FETCH response data, started by {@link #fetchResponseStart(int)}.
+     *
+     * @param data the response data.
+     */
+    public void fetchResponseData(CharSequence data) {
+        writer.append(data);
+    }
+
+    /**
+     * Writes a literal of given data range, for a FETCH response started by {@link #fetchResponseStart(int)}.
+     *
+     * @param data   the literal data.
+     * @param offset the offset of the literal in data.
+     * @param length the length of the literal.
+     * @throws IOException on error writing the literal.
+     */
+    public void fetchResponseLiteral(byte[] data, int offset, int length) throws IOException {
+        fetchResponseLiteral(length).write(data, offset, length);
+    }
+
+    /**
+     * Writes a literal header, for a FETCH response started by {@link #fetchResponseStart(int)}.
+     * <p>
+     * The caller must write exactly the announced number of literal octets to the returned stream
+     * before continuing the response.
+     *
+     * @param length the length of the literal.
+     * @return the stream for writing the literal octets directly to the client.
+     */
+    public OutputStream fetchResponseLiteral(long length) {
+        writer.print('{');
+        writer.print(length);
+        writer.print('}');
+        writer.print("\r\n");
+        // Required before writing raw octets, as writer buffers encoded chars
+        writer.flush();
+        return new FilterOutputStream(output) {
+            @Override
+            public void write(byte[] b, int off, int len) throws IOException {
+                out.write(b, off, len);
+            }
+
+            @Override
+            public void close() {
+                // Client connection stays open
+            }
+        };
+    }
+
+    /**
+     * Completes a FETCH response started by {@link #fetchResponseStart(int)}.
+     */
+    public void fetchResponseEnd() {
+        writer.print(')');
+        end();
+    }
+
     public void commandResponse(ImapCommand command, String message) {
         untagged();
         commandName(command);
@@ -203,6 +312,7 @@ public class ImapResponse implements ImapConstants {
 
     public void byeResponse(String message) {
         untaggedResponse(BYE + SP + message);
+        flush();
     }
 
     private void untagged() {
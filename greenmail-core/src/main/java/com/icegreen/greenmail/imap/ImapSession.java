@@ -108,4 +108,23 @@ public interface ImapSession {
 
     void unsolicitedResponses(ImapResponse request, boolean omitExpunged) throws FolderException;
 
+    /**
+     * Suspends processing of a command till the client sends the next line.
+     *
+     * @param command the command waiting for client input.
+     */
+    void suspend(SuspendedCommand command);
+
+    /**
+     * Removes the suspended command, if any.
+     *
+     * @return the suspended command, or <code>null</code> if no command is waiting for client input.
+     */
+    SuspendedCommand resume();
+
+    /**
+     * @return true, if a command is waiting for client input.
+     */
+    boolean isSuspended();
+
 }
@@ -124,6 +124,15 @@ public class ImapSessionFolder implements MailFolder, FolderListener, UIDFolder
         modifiedFlags.put(msn, new FlagUpdate(msn, uid, flags));
     }
 
+    @Override
+    public void flagsUpdated(int[] msns, Flags[] flags, long[] uids) {
+        synchronized (modifiedFlags) {
+            for (int i = 0; i < msns.length; i++) {
+                modifiedFlags.put(msns[i], new FlagUpdate(msns[i], null == uids ? null : uids[i], flags[i]));
+            }
+        }
+    }
+
     @Override
     public void mailboxDeleted() {
         session.closeConnection("Mailbox " + folder.getName() + " has been deleted");
@@ -154,6 +163,11 @@ public class ImapSessionFolder implements MailFolder, FolderListener, UIDFolder
         return folder.getMessageCount();
     }
 
+    @Override
+    public int getAccountMessageCount() {
+        return folder.getAccountMessageCount();
+    }
+
     @Override
     public int getRecentCount(boolean reset) {
         return folder.getRecentCount(reset);
@@ -266,6 +280,16 @@ public class ImapSessionFolder implements MailFolder, FolderListener, UIDFolder
         folder.replaceFlags(flags, uid, silentListener, addUid);
     }
 
+    @Override
+    public void setFlags(Flags flags, boolean value, IdRange[] idSet, boolean useUids, FolderListener silentListener) {
+        folder.setFlags(flags, value, idSet, useUids, silentListener);
+    }
+
+    @Override
+    public void replaceFlags(Flags flags, IdRange[] idSet, boolean useUids, FolderListener silentListener) {
+        folder.replaceFlags(flags, idSet, useUids, silentListener);
+    }
+
     @Override
     public void deleteAllMessages() {
         folder.deleteAllMessages();
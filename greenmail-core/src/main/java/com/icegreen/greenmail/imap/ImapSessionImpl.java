@@ -22,6 +22,7 @@ public final class ImapSessionImpl implements ImapSession {
     private ImapSessionState state = ImapSessionState.NON_AUTHENTICATED;
     private GreenMailUser user = null;
     private ImapSessionFolder selectedMailbox = null;
+    private volatile SuspendedCommand suspendedCommand = null;
 
     private String clientAddress;
 
@@ -142,4 +143,21 @@ public final class ImapSessionImpl implements ImapSession {
     public ImapSessionState getState() {
         return state;
     }
+
+    @Override
+    public void suspend(SuspendedCommand command) {
+        suspendedCommand = command;
+    }
+
+    @Override
+    public SuspendedCommand resume() {
+        final SuspendedCommand command = suspendedCommand;
+        suspendedCommand = null;
+        return command;
+    }
+
+    @Override
+    public boolean isSuspended() {
+        return null != suspendedCommand;
+    }
 }
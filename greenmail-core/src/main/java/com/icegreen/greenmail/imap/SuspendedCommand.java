@@ -0,0 +1,28 @@
+/*
+ * Copyright (c) 2014 Wael Chatila / Icegreen Technologies. All Rights Reserved.
+ * This software is released under the Apache license 2.0
+ */
+package com.icegreen.greenmail.imap;
+
+/**
+ * A command waiting for further client input, such as IDLE waiting for DONE.
+ * <p>
+ * Suspending instead of blocking on client input releases the handling thread,
+ * which allows the connection to be parked till the client continues.
+ *
+ * @see ImapSession#suspend(SuspendedCommand)
+ */
+public interface SuspendedCommand {
+    /**
+     * Continues processing the command with the next client input.
+     *
+     * @param request the client request, positioned at the first char of the continuation line.
+     * @param session the current client session.
+     */
+    void resume(ImapRequestLineReader request, ImapSession session);
+
+    /**
+     * Aborts the command, e.g. when the connection closes.
+     */
+    void cancel();
+}
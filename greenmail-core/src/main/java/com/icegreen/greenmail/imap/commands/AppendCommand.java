@@ -16,7 +16,6 @@ import com.icegreen.greenmail.util.GreenMailUtil;
 
 import jakarta.mail.Flags;
 import jakarta.mail.internet.MimeMessage;
-import java.io.ByteArrayInputStream;
 import java.util.Date;
 
 /**
@@ -113,7 +112,7 @@ class AppendCommand extends AuthenticatedStateCommand {
             byte[] mail = consumeLiteralAsBytes(request);
 
             try {
-                return GreenMailUtil.newMimeMessage(new ByteArrayInputStream(mail));
+                return GreenMailUtil.newMimeMessage(mail, mail.length);
             } catch (Exception e) {
                 throw new ProtocolException("Can not create new mime message", e);
             }
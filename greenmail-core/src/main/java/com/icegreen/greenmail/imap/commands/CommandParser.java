@@ -41,26 +41,56 @@ public class CommandParser {
      */
     private static final int LITERAL_CHUNK_SIZE = 8192;
 
+    /**
+     * Any non whitespace character
+     */
+    private static final boolean[] WORD_CHARS = charTable(chr -> !isWhitespace(chr));
+    private static final boolean[] NUMBER_CHARS = charTable(chr -> (chr >= '0' && chr <= '9') || chr == '*');
+    private static final boolean[] DIGIT_CHARS = charTable(chr -> chr >= '0' && chr <= '9');
+    private static final boolean[] MESSAGE_SET_CHARS =
+        charTable(chr -> (chr >= '0' && chr <= '9') || chr == ':' || chr == '*' || chr == ',');
+    /**
+     * QUOTED-CHAR except the escaped quoted-specials
+     */
+    private static final boolean[] QUOTED_CHARS = charTable(chr -> !isQuotedSpecial(chr) && !isCrOrLf(chr));
+
+    // Built on first use from the validators, honouring overrides of isAtomSpecial
+    private boolean[] atomChars;
+    private boolean[] tagChars;
+
     /**
      * Reads an argument of type "atom" from the request.
      */
     public String atom(ImapRequestLineReader request) throws ProtocolException {
-        return consumeWord(request, new AtomCharValidator());
+        return consumeWord(request, atomChars());
     }
 
     /**
      * Reads an argument of type "atom" from the request. Stops reading when non-atom chars are read.
      */
     public String atomOnly(ImapRequestLineReader request) throws ProtocolException {
-        return consumeWordOnly(request, new AtomCharValidator());
+        return consumeWordOnly(request, atomChars());
     }
 
     /**
      * Reads a command "tag" from the request.
      */
     public String tag(ImapRequestLineReader request) throws ProtocolException {
-        CharacterValidator validator = new TagCharValidator();
-        return consumeWord(request, validator);
+        boolean[] table = tagChars;
+        if (null == table) {
+            table = charTable(new TagCharValidator());
+            tagChars = table; // Racy but idempotent
+        }
+        return consumeWord(request, table);
+    }
+
+    private boolean[] atomChars() {
+        boolean[] table = atomChars;
+        if (null == table) {
+            table = charTable(new AtomCharValidator());
+            atomChars = table; // Racy but idempotent
+        }
+        return table;
     }
 
     /**
@@ -166,7 +196,7 @@ public class CommandParser {
      * Reads the next "word" from the request, comprising all characters up to the next SPACE.
      */
     protected String consumeWord(ImapRequestLineReader request) throws ProtocolException {
-        return consumeWord(request, new NoopCharValidator());
+        return consumeWord(request, WORD_CHARS);
     }
 
     /**
@@ -177,19 +207,25 @@ public class CommandParser {
     protected String consumeWord(ImapRequestLineReader request,
                                  CharacterValidator validator)
             throws ProtocolException {
-        StringBuilder atom = new StringBuilder();
+        return consumeWord(request, charTable(chr -> !isWhitespace(chr) && validator.isValid(chr)));
+    }
 
-        char next = request.nextWordChar();
-        while (!isWhitespace(next)) {
-            if (validator.isValid(next)) {
-                atom.append(next);
-                request.consume();
-            } else {
-                throw new ProtocolException("Invalid character: '" + next + '\'');
-            }
-            next = request.nextChar();
+    /**
+     * Reads the next "word" from the request, comprising all characters up to the next SPACE.
+     * Characters are tested by the supplied table, and an exception is thrown
+     * if invalid characters are encountered.
+     *
+     * @param accepted the valid characters, see {@link #charTable(CharacterValidator)}
+     */
+    protected String consumeWord(ImapRequestLineReader request, boolean[] accepted)
+            throws ProtocolException {
+        request.nextWordChar();
+        String word = request.consumeWhile(accepted);
+        char next = request.nextChar();
+        if (!isWhitespace(next)) {
+            throw new ProtocolException("Invalid character: '" + next + '\'');
         }
-        return atom.toString();
+        return word;
     }
 
     /**
@@ -200,34 +236,29 @@ public class CommandParser {
     protected String consumeWordOnly(ImapRequestLineReader request,
                                      CharacterValidator validator)
             throws ProtocolException {
-        StringBuilder atom = new StringBuilder();
+        return consumeWordOnly(request, charTable(chr -> !isWhitespace(chr) && validator.isValid(chr)));
+    }
 
-        char next = request.nextWordChar();
-        while (!isWhitespace(next)) {
-            if (validator.isValid(next)) {
-                atom.append(next);
-                request.consume();
-            } else {
-                return atom.toString();
-            }
-            next = request.nextChar();
-        }
-        return atom.toString();
+    /**
+     * Reads the next "word from the request, comprising all characters up to the next SPACE.
+     * Characters are tested by the supplied table, and
+     * if invalid characters are encountered these are not consumed.
+     *
+     * @param accepted the valid characters, see {@link #charTable(CharacterValidator)}
+     */
+    protected String consumeWordOnly(ImapRequestLineReader request, boolean[] accepted)
+            throws ProtocolException {
+        request.nextWordChar();
+        return request.consumeWhile(accepted);
     }
 
-    private boolean isWhitespace(char next) {
+    private static boolean isWhitespace(char next) {
         return next == ' ' || next == '\n' || next == '\r' || next == '\t';
     }
 
     public long consumeLong(ImapRequestLineReader request) throws ProtocolException {
-        StringBuilder atom = new StringBuilder();
-        char next = request.nextWordChar();
-        while (Character.isDigit(next)) {
-            atom.append(next);
-            request.consume();
-            next = request.nextChar();
-        }
-        String digits = atom.toString();
+        request.nextWordChar();
+        String digits = request.consumeWhile(DIGIT_CHARS);
         try {
             return Long.parseLong(digits);
         } catch (NumberFormatException ex) {
@@ -363,8 +394,15 @@ public class CommandParser {
         // The 1st character must be '"'
         consumeChar(request, '"');
 
-        StringBuilder quoted = new StringBuilder();
+        // Fast path for quoted strings without escapes
+        String value = request.consumeWhile(QUOTED_CHARS);
         char next = request.nextChar();
+        if (next == '"') {
+            request.consume();
+            return value;
+        }
+
+        StringBuilder quoted = new StringBuilder(value);
         while (next != '"') {
             // RFC 3501: a quoted string is *QUOTED-CHAR, and QUOTED-CHAR excludes CR and LF.
             // Clients must use a literal to carry such octets. Accepting them here lets a
@@ -383,6 +421,7 @@ public class CommandParser {
             }
             quoted.append(next);
             request.consume();
+            quoted.append(request.consumeWhile(QUOTED_CHARS));
             next = request.nextChar();
         }
 
@@ -398,11 +437,10 @@ public class CommandParser {
         Flags flags = new Flags();
         request.nextWordChar();
         consumeChar(request, '(');
-        CharacterValidator validator = new NoopCharValidator();
-        String nextWord = consumeWord(request, validator);
+        String nextWord = consumeWord(request);
         while (!nextWord.endsWith(")")) {
             setFlag(nextWord, flags);
-            nextWord = consumeWord(request, validator);
+            nextWord = consumeWord(request);
         }
         // Got the closing ")", may be attached to a word.
         if (nextWord.length() > 1) {
@@ -450,7 +488,7 @@ public class CommandParser {
      * Reads an argument of type "number" from the request.
      */
     public long number(ImapRequestLineReader request) throws ProtocolException {
-        String digits = consumeWord(request, new DigitCharValidator());
+        String digits = consumeWord(request, NUMBER_CHARS);
         try {
             return Long.parseLong(digits);
         } catch (NumberFormatException ex) {
@@ -472,7 +510,7 @@ public class CommandParser {
         return number;
     }
 
-    private boolean isCHAR(char chr) {
+    private static boolean isCHAR(char chr) {
         return chr >= 0x01 && chr <= 0x7f;
     }
 
@@ -480,7 +518,7 @@ public class CommandParser {
         return chr == '*' || chr == '%';
     }
 
-    private boolean isQuotedSpecial(char chr) {
+    private static boolean isQuotedSpecial(char chr) {
         return chr == '"' || chr == '\\';
     }
 
@@ -518,8 +556,7 @@ public class CommandParser {
      */
     public IdRange[] parseIdRange(ImapRequestLineReader request)
             throws ProtocolException {
-        CharacterValidator validator = new MessageSetCharValidator();
-        String nextWord = consumeWord(request, validator);
+        String nextWord = consumeWord(request, MESSAGE_SET_CHARS);
 
         int commaPos = nextWord.indexOf(',');
         if (commaPos == -1) {
@@ -554,6 +591,20 @@ public class CommandParser {
         boolean isValid(char chr);
     }
 
+    /**
+     * Creates a lookup table of valid characters, for scanning words without testing each character.
+     *
+     * @param validator the validator, which must reject whitespace for tables of words.
+     * @return the table, indexed by character value (0-255).
+     */
+    protected static boolean[] charTable(CharacterValidator validator) {
+        boolean[] table = new boolean[256];
+        for (char chr = 0; chr < table.length; chr++) {
+            table[chr] = validator.isValid(chr);
+        }
+        return table;
+    }
+
     protected static class NoopCharValidator implements CharacterValidator {
         @Override
         public boolean isValid(char chr) {
@@ -598,15 +649,4 @@ public class CommandParser {
             return chr != '+' && super.isValid(chr);
         }
     }
-
-    private static class MessageSetCharValidator implements CharacterValidator {
-        @Override
-        public boolean isValid(char chr) {
-            return Character.isDigit(chr) ||
-                    chr == ':' ||
-                    chr == '*' ||
-                    chr == ',';
-        }
-    }
-
 }
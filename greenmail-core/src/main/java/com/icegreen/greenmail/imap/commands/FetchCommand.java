@@ -9,6 +9,7 @@ package com.icegreen.greenmail.imap.commands;
 import com.icegreen.greenmail.imap.*;
 import com.icegreen.greenmail.store.FolderException;
 import com.icegreen.greenmail.store.MessageFlags;
+import com.icegreen.greenmail.store.RawMessage;
 import com.icegreen.greenmail.store.StoredMessage;
 import com.icegreen.greenmail.util.GreenMailUtil;
 import jakarta.mail.BodyPart;
@@ -21,6 +22,7 @@ import jakarta.mail.internet.MimeMultipart;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
 import java.util.*;
 import java.util.regex.Pattern;
 
@@ -38,6 +40,7 @@ class FetchCommand extends SelectedStateCommand implements UidEnabledCommand {
     public static final String ARGS = "<message-set> <fetch-profile>";
     private static final Flags FLAGS_SEEN = new Flags(Flags.Flag.SEEN);
     private static final Pattern NUMBER_MATCHER = Pattern.compile("^\\d+$");
+    private static final Pattern SECTION_MATCHER = Pattern.compile("^\\d+(\\.\\d+)*$");
 
     private final FetchCommandParser fetchParser = new FetchCommandParser();
 
@@ -74,8 +77,7 @@ class FetchCommand extends SelectedStateCommand implements UidEnabledCommand {
 
             if ((useUids && includes(idSet, uid)) ||
                 (!useUids && includes(idSet, msn))) {
-                String msgData = getMessageData(useUids, fetch, mailbox, uid);
-                response.fetchResponse(msn, msgData);
+                outputMessage(msn, useUids, fetch, mailbox, uid, response);
             }
         }
 
@@ -83,8 +85,7 @@ class FetchCommand extends SelectedStateCommand implements UidEnabledCommand {
         // as per https://tools.ietf.org/html/rfc3501#section-6.4.8
         long lastMessageUid = uids.length > 0 ? uids[uids.length - 1] : -1L;
         if (mailbox.getMessageCount() > 0 && includes(idSet, Long.MAX_VALUE) && !includes(idSet, lastMessageUid)) {
-            String msgData = getMessageData(useUids, fetch, mailbox, lastMessageUid);
-            response.fetchResponse(mailbox.getMsn(lastMessageUid), msgData);
+            outputMessage(mailbox.getMsn(lastMessageUid), useUids, fetch, mailbox, lastMessageUid, response);
         }
 
         boolean omitExpunged = !useUids;
@@ -92,14 +93,15 @@ class FetchCommand extends SelectedStateCommand implements UidEnabledCommand {
         response.commandComplete(this);
     }
 
-    private String getMessageData(boolean useUids, FetchRequest fetch, ImapSessionFolder mailbox, long uid) throws FolderException {
+    private void outputMessage(int msn, boolean useUids, FetchRequest fetch, ImapSessionFolder mailbox, long uid,
+                               ImapResponse response) throws FolderException {
         StoredMessage storedMessage = mailbox.getMessage(uid);
-        return outputMessage(fetch, storedMessage, mailbox, useUids);
+        outputMessage(new FetchResponseWriter(response, msn), fetch, storedMessage, mailbox, useUids);
     }
 
 
-    private String outputMessage(FetchRequest fetch, StoredMessage message,
-                                 ImapSessionFolder folder, boolean useUids)
+    private void outputMessage(FetchResponseWriter writer, FetchRequest fetch, StoredMessage message,
+                               ImapSessionFolder folder, boolean useUids)
         throws FolderException {
         // Check if this fetch will cause the "SEEN" flag to be set on this message
         // If so, update the flags, and ensure that a flags response is included in the response.
@@ -113,7 +115,7 @@ class FetchCommand extends SelectedStateCommand implements UidEnabledCommand {
             ensureFlagsResponse = true;
         }
 
-        StringBuilder response = new StringBuilder();
+        StringBuilder response = writer.data();
 
         // FLAGS response
         if (fetch.flags || ensureFlagsResponse) {
@@ -172,19 +174,19 @@ class FetchCommand extends SelectedStateCommand implements UidEnabledCommand {
             // Various mechanisms for returning message body.
             String sectionSpecifier = fetchElement.getParameters();
 
-            MimeMessage mimeMessage = message.getMimeMessage();
             try {
-                handleBodyFetch(mimeMessage, sectionSpecifier, partial, response);
+                if (!handleRawBodyFetch(message.getRawMessage(), sectionSpecifier, partial, writer)) {
+                    handleBodyFetch(message.getMimeMessage(), sectionSpecifier, partial, writer);
+                }
             } catch (Exception e) {
                 throw new FolderException(e);
             }
         }
 
-        if (response.length() > 0) {
-            // Remove the leading " ".
-            return response.substring(1);
-        } else {
-            return "";
+        try {
+            writer.end();
+        } catch (IOException | MessagingException e) {
+            throw new FolderException(e);
         }
     }
 
@@ -199,22 +201,53 @@ class FetchCommand extends SelectedStateCommand implements UidEnabledCommand {
         return Base64.getEncoder().encode(byteArrayOutputStream.toByteArray());
     }
 
+    /**
+     * Serves the section as a slice of the raw message, if available.
+     *
+     * @return true if handled, or false if the section must be extracted from the mime message.
+     */
+    private boolean handleRawBodyFetch(RawMessage rawMessage,
+                                       String sectionSpecifier,
+                                       Partial partial,
+                                       FetchResponseWriter response) throws IOException {
+        RawMessage.Slice slice;
+        if (sectionSpecifier.isEmpty()) {
+            slice = rawMessage.getMessage();
+        } else if ("TEXT".equalsIgnoreCase(sectionSpecifier)) {
+            slice = rawMessage.getText();
+        } else if (sectionSpecifier.endsWith(".MIME")) {
+            slice = rawMessage.getPartHeader(sectionSpecifier.substring(0, sectionSpecifier.length() - ".MIME".length()));
+        } else if (SECTION_MATCHER.matcher(sectionSpecifier).matches()) {
+            slice = rawMessage.getPartBody(sectionSpecifier);
+        } else {
+            slice = null;
+        }
+        if (null == slice) {
+            return false;
+        }
+
+        if (null != partial) {
+            slice = slice.subSlice(partial.computeStart(slice.length()), partial.computeLength(slice.length()));
+            response.data().append('<').append(partial.start).append('>');
+        }
+        response.literal(slice.length(), slice::writeTo);
+        return true;
+    }
+
     private void handleBodyFetch(MimeMessage mimeMessage,
                                  String sectionSpecifier,
                                  Partial partial,
-                                 StringBuilder response) throws IOException, MessagingException {
+                                 FetchResponseWriter response) throws IOException, MessagingException {
         if (log.isDebugEnabled()) {
             log.debug("Fetching body part for section specifier {} and mime message (contentType={})",
                 sectionSpecifier, mimeMessage.getContentType());
         }
 
         if (sectionSpecifier.isEmpty()) {
-            // TODO - need to use an InputStream from the response here.
+            // Serialized once, as only messages without raw content get here
             ByteArrayOutputStream bout = new ByteArrayOutputStream();
             mimeMessage.writeTo(bout);
-            byte[] bytes = bout.toByteArray();
-            bytes = doPartial(partial, bytes, response);
-            addLiteral(bytes, response);
+            addLiteral(partial, bout.toByteArray(), response);
         } else if ("HEADER".equalsIgnoreCase(sectionSpecifier)) {
             Enumeration<?> inum = mimeMessage.getAllHeaderLines();
             addHeaders(inum, response, partial);
@@ -231,8 +264,7 @@ class FetchCommand extends SelectedStateCommand implements UidEnabledCommand {
             int partNumber = Integer.parseInt(strs[0]) - 1;
             MimeMultipart mp = (MimeMultipart) mimeMessage.getContent();
             byte[] bytes = GreenMailUtil.getHeaderAsBytes(mp.getBodyPart(partNumber));
-            bytes = doPartial(partial, bytes, response);
-            addLiteral(bytes, response);
+            addLiteral(partial, bytes, response);
         } else if ("TEXT".equalsIgnoreCase(sectionSpecifier)) {
             handleBodyFetchForText(mimeMessage, partial, response);
         } else {
@@ -241,8 +273,7 @@ class FetchCommand extends SelectedStateCommand implements UidEnabledCommand {
                 handleBodyFetchForText(mimeMessage, partial, response);
             } else if (content instanceof InputStream) {
                 byte[] bytes = readAllBytes((InputStream) content);
-                bytes = doPartial(partial, bytes, response);
-                addLiteral(bytes, response);
+                addLiteral(partial, bytes, response);
             } else {
                 MimeMultipart mp = (MimeMultipart) content;
                 BodyPart part = null;
@@ -286,46 +317,31 @@ class FetchCommand extends SelectedStateCommand implements UidEnabledCommand {
                     handleBodyFetchForText(mimeMessage, partial, response);
                 } else {
                     byte[] bytes = GreenMailUtil.getBodyAsBytes(part);
-                    bytes = doPartial(partial, bytes, response);
-                    addLiteral(bytes, response);
+                    addLiteral(partial, bytes, response);
                 }
             }
         }
     }
 
-    private void handleBodyFetchForText(MimeMessage mimeMessage, Partial partial, StringBuilder response) {
-        // TODO - need to use an InputStream from the response here.
+    private void handleBodyFetchForText(MimeMessage mimeMessage, Partial partial, FetchResponseWriter response)
+        throws IOException {
         // TODO - this is a hack. To get just the body content, I'm using a null
         // input stream to take the headers. Need to have a way of ignoring headers.
 
         byte[] bytes = GreenMailUtil.getBodyAsBytes(mimeMessage);
-        bytes = doPartial(partial, bytes, response);
-        addLiteral(bytes, response);
+        addLiteral(partial, bytes, response);
     }
 
-    private byte[] doPartial(Partial partial, byte[] bytes, StringBuilder response) {
+    private void addLiteral(Partial partial, byte[] bytes, FetchResponseWriter response) {
+        int start = 0;
+        int len = bytes.length;
         if (null != partial) {
-            int len = partial.computeLength(bytes.length);
-            int start = partial.computeStart(bytes.length);
-            byte[] newBytes = new byte[len];
-            System.arraycopy(bytes, start, newBytes, 0, len);
-            bytes = newBytes;
-            response.append('<').append(partial.start).append('>');
-        }
-        return bytes;
-    }
-
-    private void addLiteral(byte[] bytes, StringBuilder response) {
-        response.append('{');
-        response.append(bytes.length);
-        response.append('}');
-        response.append("\r\n");
-
-        for (byte b : bytes) {
-            // See https://github.com/greenmail-mail-test/greenmail/issues/257
-            final char c = (char) (b & 0xFF);
-            response.append(c);
+            start = partial.computeStart(bytes.length);
+            len = partial.computeLength(bytes.length);
+            response.data().append('<').append(partial.start).append('>');
         }
+        // Written as raw octets, see https://github.com/greenmail-mail-test/greenmail/issues/257
+        response.literal(bytes, start, len);
     }
 
     // TODO should do this at parse time.
@@ -350,7 +366,8 @@ class FetchCommand extends SelectedStateCommand implements UidEnabledCommand {
         return strings.toArray(new String[0]);
     }
 
-    private void addHeaders(Enumeration<?> inum, StringBuilder response, Partial partial) {
+    private void addHeaders(Enumeration<?> inum, FetchResponseWriter writer, Partial partial) {
+        StringBuilder response = writer.data();
         StringBuilder buf = new StringBuilder();
 
         int count = 0;
@@ -552,6 +569,90 @@ class FetchCommand extends SelectedStateCommand implements UidEnabledCommand {
         }
     }
 
+    /**
+     * Writes a FETCH response, streaming literals directly to the client.
+     * <p>
+     * All sections get extracted before {@link #end()}, so that a failing section does not leave
+     * a partial untagged response on the wire. The literals added are already serialized, and
+     * {@link #end()} only copies them to the client, which fails only if the connection fails.
+     */
+    private static class FetchResponseWriter {
+        private final ImapResponse response;
+        private final int msn;
+        private final StringBuilder data = new StringBuilder();
+        private final List<Object> parts = new ArrayList<>();
+
+        FetchResponseWriter(ImapResponse response, int msn) {
+            this.response = response;
+            this.msn = msn;
+        }
+
+        /**
+         * @return the buffer for response data preceding the next literal, each data item starting with a space.
+         */
+        StringBuilder data() {
+            return data;
+        }
+
+        void literal(byte[] bytes, int offset, int length) {
+            literal(length, out -> out.write(bytes, offset, length));
+        }
+
+        /**
+         * Adds a literal, written by given source when the response gets written.
+         *
+         * @param length the length of the literal.
+         * @param source writes exactly length octets, of content already serialized.
+         */
+        void literal(int length, LiteralSource source) {
+            addData();
+            parts.add(new Literal(length, source));
+        }
+
+        void end() throws IOException, MessagingException {
+            addData();
+            response.fetchResponseStart(msn);
+            boolean first = true;
+            for (Object part : parts) {
+                if (part instanceof Literal) {
+                    final Literal literal = (Literal) part;
+                    literal.source.writeTo(response.fetchResponseLiteral(literal.length));
+                } else {
+                    final CharSequence chars = (CharSequence) part;
+                    // Remove the leading " ".
+                    response.fetchResponseData(first ? chars.subSequence(1, chars.length()) : chars);
+                }
+                first = false;
+            }
+            response.fetchResponseEnd();
+        }
+
+        private void addData() {
+            if (data.length() > 0) {
+                parts.add(data.toString());
+                data.setLength(0);
+            }
+        }
+    }
+
+    /**
+     * Writes the octets of a literal.
+     */
+    @FunctionalInterface
+    private interface LiteralSource {
+        void writeTo(OutputStream out) throws IOException, MessagingException;
+    }
+
+    private static class Literal {
+        final int length;
+        final LiteralSource source;
+
+        Literal(int length, LiteralSource source) {
+            this.length = length;
+            this.source = source;
+        }
+    }
+
     /**
      * See https://tools.ietf.org/html/rfc3501#page-55 : partial
      */
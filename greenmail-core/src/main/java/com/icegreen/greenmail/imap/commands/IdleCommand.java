@@ -5,8 +5,6 @@ import com.icegreen.greenmail.store.FolderException;
 import com.icegreen.greenmail.store.FolderListener;
 import jakarta.mail.Flags;
 
-import java.net.SocketTimeoutException;
-
 class IdleCommand extends SelectedStateCommand {
     public static final String NAME = "IDLE";
     public static final String ARGS = null;
@@ -20,33 +18,44 @@ class IdleCommand extends SelectedStateCommand {
     protected void doProcess(ImapRequestLineReader request, ImapResponse response, ImapSession session)
             throws ProtocolException, FolderException, AuthorizationException {
         parser.endLine(request);
-        request.consume(); // TODO should be in eol()
         session.unsolicitedResponses(response);
         request.commandContinuationRequest();
         ImapSessionFolder folder = session.getSelected();
         IdleFolderListener listener = new IdleFolderListener(response);
-        try {
-            folder.addListener(listener);
-            waitForClientDone(request);
-            session.unsolicitedResponses(response);
-            response.commandComplete(this);
-        } finally {
-            folder.removeListener(listener);
-        }
+        folder.addListener(listener);
+        // Wait for client DONE without blocking the handling thread
+        session.suspend(new SuspendedIdle(folder, listener, response));
     }
 
-    private void waitForClientDone(ImapRequestLineReader request) throws ProtocolException {
-        while (true) {
+    private class SuspendedIdle implements SuspendedCommand {
+        private final ImapSessionFolder folder;
+        private final IdleFolderListener listener;
+        private final ImapResponse response;
+
+        private SuspendedIdle(ImapSessionFolder folder, IdleFolderListener listener, ImapResponse response) {
+            this.folder = folder;
+            this.listener = listener;
+            this.response = response;
+        }
+
+        @Override
+        public void resume(ImapRequestLineReader request, ImapSession session) {
+            // TODO validate 'DONE'
             try {
-                request.nextChar();
-                break;
-            } catch (ProtocolException e) {
-                if (!(e.getCause() instanceof SocketTimeoutException /* Ignore */)) {
-                    throw e;
-                }
+                session.unsolicitedResponses(response);
+                response.commandComplete(IdleCommand.this);
+            } catch (FolderException e) {
+                log.warn("Error processing command", e);
+                response.commandFailed(IdleCommand.this, e.getResponseCode(), e.getMessage());
+            } finally {
+                cancel();
             }
         }
-        // TODO validate 'DONE'
+
+        @Override
+        public void cancel() {
+            folder.removeListener(listener);
+        }
     }
 
     private static class IdleFolderListener implements FolderListener {
@@ -67,11 +76,13 @@ class IdleCommand extends SelectedStateCommand {
         @Override
         public void expunged(int msn) {
             response.expungeResponse(msn);
+            response.flush(); // Client is idling
         }
 
         @Override
         public void added(int msn) {
             response.existsResponse(msn);
+            response.flush();
         }
     }
 }
@@ -163,6 +163,8 @@ class ListCommand extends AuthenticatedStateCommand {
     }
 
     private static class ListCommandParser extends CommandParser {
+        private final boolean[] listChars = charTable(new ListCharValidator());
+
         /**
          * Reads an argument of type "list_mailbox" from the request, which is
          * the second argument for a LIST or LSUB command. Valid values are a "string"
@@ -181,7 +183,7 @@ class ListCommand extends AuthenticatedStateCommand {
                     name = consumeLiteral(request);
                     break;
                 default:
-                    name = consumeWord(request, new ListCharValidator());
+                    name = consumeWord(request, listChars);
             }
             return BASE64MailboxDecoder.decode(name);
         }
@@ -428,6 +428,13 @@ public abstract class SearchTermBuilder {
             this.idRanges = idRanges;
         }
 
+        /**
+         * @return the id ranges to match.
+         */
+        public List<IdRange> getIdRanges() {
+            return idRanges;
+        }
+
         @Override
         public abstract boolean match(Message msg);
 
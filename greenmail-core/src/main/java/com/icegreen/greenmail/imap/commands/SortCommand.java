@@ -56,7 +56,7 @@ class SortCommand extends SelectedStateCommand implements UidEnabledCommand {
             messages.add(folder.getMessage(uid));
         }
 
-        messages.sort(new StoredMessageSorter(sortTerm));
+        new StoredMessageSorter(sortTerm).sort(messages);
 
         StringBuilder idList = new StringBuilder();
         for (int i = 0; i < messages.size(); i++) {
@@ -38,7 +38,7 @@ class SortCommandParser extends CommandParser {
         }
 
         /* Charset */
-        sortTerm.setCharset(consumeWord(request, new AtomCharValidator()));
+        sortTerm.setCharset(atom(request));
 
         /* Search term */
         sortTerm.setSearchTerm(searchCommandParser.searchTerm(request));
@@ -112,11 +112,10 @@ class StatusCommand extends AuthenticatedStateCommand {
 
             request.nextWordChar();
             consumeChar(request, '(');
-            CharacterValidator validator = new NoopCharValidator();
-            String nextWord = consumeWord(request, validator);
+            String nextWord = consumeWord(request);
             while (!nextWord.endsWith(")")) {
                 addItem(nextWord, items);
-                nextWord = consumeWord(request, validator);
+                nextWord = consumeWord(request);
             }
             // Got the closing ")", may be attached to a word.
             if (nextWord.length() > 1) {
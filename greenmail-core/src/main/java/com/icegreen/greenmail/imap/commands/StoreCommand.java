@@ -74,21 +74,12 @@ class StoreCommand extends SelectedStateCommand implements UidEnabledCommand {
             silentListener = mailbox;
         }
 
-        // TODO do this in one hit.
-        long[] uids = mailbox.getMessageUids();
-        for (long uid : uids) {
-            int msn = mailbox.getMsn(uid);
-
-            if ((useUids && includes(idSet, uid)) ||
-                    (!useUids && includes(idSet, msn))) {
-                if (directive.getSign() < 0) {
-                    mailbox.setFlags(flags, false, uid, silentListener, useUids);
-                } else if (directive.getSign() > 0) {
-                    mailbox.setFlags(flags, true, uid, silentListener, useUids);
-                } else {
-                    mailbox.replaceFlags(flags, uid, silentListener, useUids);
-                }
-            }
+        if (directive.getSign() < 0) {
+            mailbox.setFlags(flags, false, idSet, useUids, silentListener);
+        } else if (directive.getSign() > 0) {
+            mailbox.setFlags(flags, true, idSet, useUids, silentListener);
+        } else {
+            mailbox.replaceFlags(flags, idSet, useUids, silentListener);
         }
 
         boolean omitExpunged = !useUids;
@@ -110,7 +101,7 @@ class StoreCommand extends SelectedStateCommand implements UidEnabledCommand {
                 request.consume();
             } // else default 0
 
-            String directive = consumeWord(request, new NoopCharValidator());
+            String directive = consumeWord(request);
             if ("FLAGS".equalsIgnoreCase(directive)) {
                 silent = false;
             } else if ("FLAGS.SILENT".equalsIgnoreCase(directive)) {
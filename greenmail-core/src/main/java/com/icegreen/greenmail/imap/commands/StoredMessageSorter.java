@@ -1,166 +1,117 @@
 package com.icegreen.greenmail.imap.commands;
 
+import com.icegreen.greenmail.store.MessageSortKeys;
 import com.icegreen.greenmail.store.StoredMessage;
 
-import jakarta.mail.Address;
-import jakarta.mail.Message;
-import jakarta.mail.MessagingException;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Comparator;
-import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.List;
 
 /**
  * Sorts messages by given sort term.
  * <p>
+ * Compares the sort keys of messages, which are extracted once per message.
+ * <p>
  * Created on 10/03/2016.
  *
  * @author Reda.Housni-Alaoui
  */
 class StoredMessageSorter implements Comparator<StoredMessage> {
+    /**
+     * Minimum number of messages for sorting in parallel.
+     */
+    static final int PARALLEL_THRESHOLD = 10000;
 
-    private static final java.util.regex.Pattern LEADER_PATTERN =
-        java.util.regex.Pattern.compile("^(?:\\[[^\\[\\]]*\\]\\s*)*(?:re|fwd|fw)\\s*(?:\\[[^\\[\\]]*\\]\\s*)?:", java.util.regex.Pattern.CASE_INSENSITIVE);
-    private static final java.util.regex.Pattern BLOB_PATTERN =
-        java.util.regex.Pattern.compile("^\\[[^\\[\\]]*\\]\\s*");
-
-    private final SortTerm sortTerm;
-
-    private final AtomicBoolean reverse = new AtomicBoolean();
+    private final SortKey[] keys;
+    private final boolean[] reversed;
 
     StoredMessageSorter(SortTerm sortTerm) {
-        this.sortTerm = sortTerm;
-    }
-
-    @Override
-    public int compare(StoredMessage m1, StoredMessage m2) {
-        try {
-            int compareResult = 0;
-            for (SortKey sortKey : sortTerm.getSortCriteria()) {
-                switch (sortKey) {
-                    case REVERSE:
-                        reverse.set(true);
-                        break;
-                    case ARRIVAL:
-                        compareResult = doCompare(m1.getReceivedDate(), m2.getReceivedDate());
-                        break;
-                    case CC:
-                        compareResult = doCompare(getCc(m1), getCc(m2));
-                        break;
-                    case DATE:
-                        compareResult = doCompare(m1.getMimeMessage().getSentDate(), m2.getMimeMessage().getSentDate());
-                        break;
-                    case FROM:
-                        compareResult = doCompare(getFrom(m1), getFrom(m2));
-                        break;
-                    case SIZE:
-                        compareResult = doCompare(m1.getMimeMessage().getSize(), m2.getMimeMessage().getSize());
-                        break;
-                    case SUBJECT:
-                        compareResult = doCompare(
-                            getBaseSubject(m1.getMimeMessage().getSubject()).toLowerCase(java.util.Locale.ENGLISH),
-                            getBaseSubject(m2.getMimeMessage().getSubject()).toLowerCase(java.util.Locale.ENGLISH)
-                        );
-                        break;
-                    case TO:
-                        compareResult = doCompare(getTo(m1), getTo(m2));
-                        break;
-                    default:
-                        break;
-                }
-                if (compareResult != 0) {
-                    break;
-                }
+        // Resolve REVERSE modifiers up front, each applying to the following key
+        List<SortKey> criteria = new ArrayList<>();
+        List<Boolean> reverse = new ArrayList<>();
+        boolean reverseNext = false;
+        for (SortKey sortKey : sortTerm.getSortCriteria()) {
+            if (sortKey == SortKey.REVERSE) {
+                reverseNext = true;
+            } else {
+                criteria.add(sortKey);
+                reverse.add(reverseNext);
+                reverseNext = false;
             }
-            return compareResult;
-        } catch (MessagingException e) {
-            throw new IllegalArgumentException(e.getMessage(), e);
         }
-    }
-
-    private String getFrom(StoredMessage message) throws MessagingException {
-        Address[] addresses = message.getMimeMessage().getFrom();
-        if (addresses == null || addresses.length == 0) {
-            return null;
+        keys = criteria.toArray(new SortKey[0]);
+        reversed = new boolean[keys.length];
+        for (int i = 0; i < reversed.length; i++) {
+            reversed[i] = reverse.get(i);
         }
-        return String.valueOf(addresses[0]);
     }
 
-    private String getTo(StoredMessage message) throws MessagingException {
-        Address[] addresses = message.getMimeMessage().getRecipients(Message.RecipientType.TO);
-        if (addresses == null || addresses.length == 0) {
-            return null;
+    /**
+     * Sorts messages, in parallel for many messages.
+     *
+     * @param messages the messages to sort.
+     */
+    void sort(List<StoredMessage> messages) {
+        StoredMessage[] sorted = messages.toArray(new StoredMessage[0]);
+        if (sorted.length >= PARALLEL_THRESHOLD) {
+            Arrays.stream(sorted).parallel().forEach(StoredMessage::getSortKeys);
+            Arrays.parallelSort(sorted, this);
+        } else {
+            Arrays.sort(sorted, this);
+        }
+        for (int i = 0; i < sorted.length; i++) {
+            messages.set(i, sorted[i]);
         }
-        return String.valueOf(addresses[0]);
     }
 
-    private String getCc(StoredMessage message) throws MessagingException {
-        Address[] addresses = message.getMimeMessage().getRecipients(Message.RecipientType.CC);
-        if (addresses == null || addresses.length == 0) {
-            return null;
+    @Override
+    public int compare(StoredMessage m1, StoredMessage m2) {
+        final MessageSortKeys k1 = m1.getSortKeys();
+        final MessageSortKeys k2 = m2.getSortKeys();
+        for (int i = 0; i < keys.length; i++) {
+            int compareResult;
+            switch (keys[i]) {
+                case ARRIVAL:
+                    compareResult = doCompare(m1.getReceivedDate(), m2.getReceivedDate());
+                    break;
+                case CC:
+                    compareResult = doCompare(k1.getCc(), k2.getCc());
+                    break;
+                case DATE:
+                    compareResult = doCompare(k1.getSentDate(), k2.getSentDate());
+                    break;
+                case FROM:
+                    compareResult = doCompare(k1.getFrom(), k2.getFrom());
+                    break;
+                case SIZE:
+                    compareResult = Integer.compare(k1.getSize(), k2.getSize());
+                    break;
+                case SUBJECT:
+                    compareResult = doCompare(k1.getBaseSubject(), k2.getBaseSubject());
+                    break;
+                case TO:
+                    compareResult = doCompare(k1.getTo(), k2.getTo());
+                    break;
+                default:
+                    compareResult = 0;
+                    break;
+            }
+            if (compareResult != 0) {
+                return reversed[i] ? -compareResult : compareResult;
+            }
         }
-        return String.valueOf(addresses[0]);
+        return 0;
     }
 
-    private <T extends Comparable<T>> int doCompare(T c1, T c2) {
-        int multiplier = reverse.getAndSet(false) ? -1 : 1;
+    private static <T extends Comparable<T>> int doCompare(T c1, T c2) {
         if (c1 == c2) {
             return 0;
         } else if (c1 == null) {
-            return multiplier;
+            return 1;
         } else if (c2 == null) {
-            return multiplier * -1;
-        }
-        return multiplier * c1.compareTo(c2);
-    }
-
-    private String getBaseSubject(String subject) {
-        if (subject == null) {
-            return "";
-        }
-        String s = subject.replaceAll("[\\t\\r\\n]+", " ");
-        s = s.replaceAll(" {2,}", " ");
-
-        while (true) {
-            // Step 2: Remove Trailers
-            while (true) {
-                if (s.endsWith(" ")) {
-                    s = s.substring(0, s.length() - 1);
-                } else if (s.toLowerCase(java.util.Locale.ENGLISH).endsWith("(fwd)")) {
-                    s = s.substring(0, s.length() - 5);
-                } else {
-                    break;
-                }
-            }
-
-            // Steps 3, 4, 5: Remove Leaders / Blobs / Repeat
-            while (true) {
-                if (s.startsWith(" ")) {
-                    s = s.substring(1);
-                    continue;
-                }
-                java.util.regex.Matcher lm = LEADER_PATTERN.matcher(s);
-                if (lm.find()) {
-                    s = s.substring(lm.end());
-                    continue;
-                }
-                java.util.regex.Matcher bm = BLOB_PATTERN.matcher(s);
-                if (bm.find()) {
-                    String remaining = s.substring(bm.end());
-                    if (!remaining.isEmpty()) {
-                        s = remaining;
-                        continue;
-                    }
-                }
-                break;
-            }
-
-            // Step 6: Handle Forwarding Headers
-            if (s.toLowerCase(java.util.Locale.ENGLISH).startsWith("[fwd:") && s.endsWith("]")) {
-                s = s.substring(5, s.length() - 1);
-                continue;
-            }
-
-            break;
+            return -1;
         }
-        return s;
+        return c1.compareTo(c2);
     }
 }
@@ -0,0 +1,134 @@
+/*
+ * Copyright (c) 2014 Wael Chatila / Icegreen Technologies. All Rights Reserved.
+ * This software is released under the Apache license 2.0
+ */
+package com.icegreen.greenmail.mail;
+
+import com.icegreen.greenmail.store.RawMessage;
+import jakarta.activation.DataHandler;
+import jakarta.mail.MessagingException;
+import jakarta.mail.Session;
+import jakarta.mail.internet.MimeMessage;
+import jakarta.mail.util.SharedByteArrayInputStream;
+
+/**
+ * A mime message parsed from serialized octets, retaining the octets as long as the message is not modified.
+ * <p>
+ * The parsed body shares the octets instead of copying them, and storing the message can
+ * reuse the octets instead of serializing the message again.
+ */
+public class RawMimeMessage extends MimeMessage {
+    private volatile byte[] rawContent;
+    private final int rawContentLength;
+    private volatile RawMessage storedContent;
+
+    /**
+     * Parses a mime message.
+     *
+     * @param session the session.
+     * @param content the serialized message, not copied and must not be modified.
+     * @param length  the length of the serialized message.
+     * @throws MessagingException on error parsing the message.
+     */
+    public RawMimeMessage(Session session, byte[] content, int length) throws MessagingException {
+        super(session, new SharedByteArrayInputStream(content, 0, length));
+        // Only retain octets matching the serialized message, see MimeMessage#writeTo(OutputStream)
+        this.rawContent = isCanonicalHeader(content, length) ? content : null;
+        this.rawContentLength = length;
+    }
+
+    /**
+     * Gets the serialized message, if the message is unmodified.
+     *
+     * @return the octets, or null if modified. Only valid up to {@link #getRawContentLength()}.
+     */
+    public byte[] getRawContent() {
+        return rawContent;
+    }
+
+    /**
+     * @return the length of the serialized message.
+     */
+    public int getRawContentLength() {
+        return rawContentLength;
+    }
+
+    /**
+     * Gets the stored representation of this message, for sharing it when storing the message again.
+     *
+     * @return the stored content, or null if not yet stored or modified.
+     */
+    public RawMessage getStoredContent() {
+        return null == rawContent ? null : storedContent;
+    }
+
+    /**
+     * Sets the stored representation of the (unmodified) message.
+     *
+     * @param storedContent the stored content.
+     */
+    public void setStoredContent(RawMessage storedContent) {
+        this.storedContent = storedContent;
+    }
+
+    /**
+     * Checks if serializing the parsed headers results in identical octets:
+     * ASCII header lines terminated by CRLF, followed by an empty line.
+     */
+    private static boolean isCanonicalHeader(byte[] content, int length) {
+        boolean lineStart = true;
+        for (int i = 0; i < length; i++) {
+            final byte b = content[i];
+            if (b == '\r') {
+                if (i + 1 >= length || content[i + 1] != '\n') {
+                    return false;
+                }
+                if (lineStart) {
+                    return true; // Empty line ends header
+                }
+                i++;
+                lineStart = true;
+            } else if (b == '\n' || b < 0 /* non ASCII */) {
+                return false;
+            } else {
+                lineStart = false;
+            }
+        }
+        return false;
+    }
+
+    private void modified() {
+        rawContent = null;
+        storedContent = null;
+    }
+
+    @Override
+    public void setHeader(String name, String value) throws MessagingException {
+        modified();
+        super.setHeader(name, value);
+    }
+
+    @Override
+    public void addHeader(String name, String value) throws MessagingException {
+        modified();
+        super.addHeader(name, value);
+    }
+
+    @Override
+    public void removeHeader(String name) throws MessagingException {
+        modified();
+        super.removeHeader(name);
+    }
+
+    @Override
+    public void addHeaderLine(String line) throws MessagingException {
+        modified();
+        super.addHeaderLine(line);
+    }
+
+    @Override
+    public void setDataHandler(DataHandler dh) throws MessagingException {
+        modified();
+        super.setDataHandler(dh);
+    }
+}
@@ -0,0 +1,73 @@
+/*
+ * Copyright (c) 2014 Wael Chatila / Icegreen Technologies. All Rights Reserved.
+ * This software is released under the Apache license 2.0
+ */
+package com.icegreen.greenmail.pop3;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Writes the content of a POP3 multi-line response, byte-stuffing each line starting with
+ * the termination octet '.' (RFC 1939 §3).
+ * <p>
+ * A line starts after CRLF, a bare LF or a bare CR. Content is forwarded without copying.
+ */
+public class DotStuffingOutputStream extends FilterOutputStream {
+    private static final byte[] TERMINATION = {'\r', '\n', '.', '\r', '\n'};
+
+    private boolean lineStart = true;
+
+    /**
+     * @param out the target stream, not closed by this stream.
+     */
+    public DotStuffingOutputStream(OutputStream out) {
+        super(out);
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        if (lineStart && b == '.') {
+            out.write('.');
+        }
+        out.write(b);
+        lineStart = b == '\r' || b == '\n';
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        int start = off;
+        final int end = off + len;
+        for (int i = off; i < end; i++) {
+            if (lineStart && b[i] == '.') {
+                // Includes the dot in the next run, doubling it
+                out.write(b, start, i - start + 1);
+                start = i;
+            }
+            lineStart = b[i] == '\r' || b[i] == '\n';
+        }
+        out.write(b, start, end - start);
+    }
+
+    /**
+     * Completes the response by terminating the last line, if not terminated, and writing the
+     * termination line. Flushes the target stream.
+     *
+     * @throws IOException on error writing.
+     */
+    public void finish() throws IOException {
+        if (lineStart) {
+            out.write(TERMINATION, 2, 3);
+        } else {
+            out.write(TERMINATION);
+        }
+        lineStart = true;
+        out.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        flush();
+    }
+}
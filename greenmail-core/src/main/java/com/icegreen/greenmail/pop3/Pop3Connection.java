@@ -7,6 +7,7 @@
 package com.icegreen.greenmail.pop3;
 
 import com.icegreen.greenmail.foedus.util.StreamUtils;
+import com.icegreen.greenmail.store.RawMessage;
 import com.icegreen.greenmail.util.EncodingUtil;
 import com.icegreen.greenmail.util.InternetPrintWriter;
 import com.icegreen.greenmail.util.LoggingInputStream;
@@ -31,26 +32,27 @@ public class Pop3Connection {
     // IO stuff
     BufferedReader in;
     InternetPrintWriter out;
+    OutputStream outputStream;
 
     public Pop3Connection(Pop3Handler handler, Socket socket)
             throws IOException {
+        this.handler = handler;
         configureSocket(socket);
         configureStreams();
-
-        this.handler = handler;
     }
 
     private void configureStreams()
             throws IOException {
         // Output
-        OutputStream o = socket.getOutputStream();
+        OutputStream o = handler.getOutputStream();
         if(log.isDebugEnabled()) {
             o = new LoggingOutputStream(o, "S: ");
         }
+        outputStream = o;
         out = InternetPrintWriter.createForEncoding(o, true, EncodingUtil.CHARSET_EIGHT_BIT_ENCODING);
 
         // Input
-        InputStream i = socket.getInputStream();
+        InputStream i = handler.getInputStream();
         if (log.isDebugEnabled()) {
             i = new LoggingInputStream(i, "C: ");
         }
@@ -94,6 +96,20 @@ public class Pop3Connection {
         println();
     }
 
+    /**
+     * Writes the content of a multi-line response, streaming the octets with byte-stuffing.
+     * Terminates the response.
+     *
+     * @param content the content, for example a message.
+     * @throws IOException on error writing.
+     */
+    public void printMultiLine(RawMessage.Slice content) throws IOException {
+        out.flush();
+        DotStuffingOutputStream stuffed = new DotStuffingOutputStream(outputStream);
+        content.writeTo(stuffed);
+        stuffed.finish();
+    }
+
     public String readLine() throws IOException {
         return in.readLine();
     }
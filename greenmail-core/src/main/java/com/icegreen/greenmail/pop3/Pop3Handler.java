@@ -33,28 +33,30 @@ public class Pop3Handler extends AbstractSocketProtocolHandler {
     }
 
     @Override
-    public void run() {
-        try {
-            conn = new Pop3Connection(this, socket);
-            state = new Pop3State(manager);
+    protected void open() throws IOException {
+        conn = new Pop3Connection(this, socket);
+        state = new Pop3State(manager);
 
-            sendGreetings();
+        sendGreetings();
+    }
 
-            while (!isQuitting()) {
-                handleCommand();
-            }
+    @Override
+    protected boolean hasBufferedInput() {
+        try {
+            return conn.in.ready();
+        } catch (IOException e) {
+            return false;
+        }
+    }
 
-            conn.close();
-        } catch (SocketTimeoutException ste) {
+    @Override
+    protected void handleException(Exception e) {
+        if (e instanceof SocketTimeoutException) {
             conn.println("421 Service shutting down and closing transmission channel " +
                 "(socket timeout, SO_TIMEOUT: " + getSoTimeout() + "ms)");
             conn.quit();
-        } catch (Exception e) {
-            if (!isQuitting()) {
-                throw new IllegalStateException("Can not handle POP3 connection", e);
-            }
-        } finally {
-            close();
+        } else if (!isQuitting()) {
+            throw new IllegalStateException("Can not handle POP3 connection", e);
         }
     }
 
@@ -62,7 +64,8 @@ public class Pop3Handler extends AbstractSocketProtocolHandler {
         conn.println("+OK POP3 GreenMail Server v" + BuildInfo.INSTANCE.getProjectVersion() + " ready");
     }
 
-    void handleCommand() throws IOException {
+    @Override
+    protected void handleCommand() throws IOException {
         currentLine = conn.readLine();
 
         if (currentLine == null) {
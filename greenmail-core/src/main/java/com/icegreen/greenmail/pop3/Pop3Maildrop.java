@@ -0,0 +1,154 @@
+/*
+ * Copyright (c) 2014 Wael Chatila / Icegreen Technologies. All Rights Reserved.
+ * This software is released under the Apache license 2.0
+ */
+package com.icegreen.greenmail.pop3;
+
+import com.icegreen.greenmail.imap.commands.IdRange;
+import com.icegreen.greenmail.store.MailFolder;
+import com.icegreen.greenmail.store.StoredMessage;
+import jakarta.mail.Flags;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The messages of a POP3 session, captured from the INBOX on authentication (RFC 1939).
+ * <p>
+ * Messages keep their number and size for the session, and messages delivered later are not visible.
+ * Messages marked as deleted are removed from the folder in one batch, when the session quits.
+ */
+public class Pop3Maildrop {
+    private final MailFolder folder;
+    private final StoredMessage[] messages;
+    private final long[] uids;
+    private final int[] sizes;
+    private final boolean[] deleted;
+    private int deletedCount;
+    private long size;
+
+    /**
+     * Captures the messages of a folder not flagged for deletion.
+     *
+     * @param folder the folder, usually the INBOX.
+     */
+    public Pop3Maildrop(MailFolder folder) {
+        this.folder = folder;
+        final List<StoredMessage> nonDeleted = folder.getNonDeletedMessages();
+        messages = nonDeleted.toArray(new StoredMessage[0]);
+        uids = new long[messages.length];
+        sizes = new int[messages.length];
+        deleted = new boolean[messages.length];
+        for (int i = 0; i < messages.length; i++) {
+            uids[i] = messages[i].getUid();
+            sizes[i] = messages[i].getRawMessage().getSize();
+            size += sizes[i];
+        }
+    }
+
+    /**
+     * @return the number of messages, including messages marked as deleted.
+     */
+    public int getLastMessageNumber() {
+        return messages.length;
+    }
+
+    /**
+     * @return the number of messages not marked as deleted.
+     */
+    public int getMessageCount() {
+        return messages.length - deletedCount;
+    }
+
+    /**
+     * @return the size in octets of all messages not marked as deleted.
+     */
+    public long getSize() {
+        return size;
+    }
+
+    /**
+     * Checks if a message exists and is not marked as deleted.
+     *
+     * @param messageNumber the message number, starting at 1.
+     * @return true, if the message can be accessed.
+     */
+    public boolean exists(int messageNumber) {
+        return messageNumber >= 1 && messageNumber <= messages.length && !deleted[messageNumber - 1];
+    }
+
+    /**
+     * @param messageNumber the message number, starting at 1.
+     * @return the message, or null if not existing or marked as deleted.
+     */
+    public StoredMessage getMessage(int messageNumber) {
+        return exists(messageNumber) ? messages[messageNumber - 1] : null;
+    }
+
+    /**
+     * @param messageNumber the number of an existing message.
+     * @return the UID.
+     */
+    public long getUid(int messageNumber) {
+        return uids[messageNumber - 1];
+    }
+
+    /**
+     * @param messageNumber the number of an existing message.
+     * @return the size in octets.
+     */
+    public int getSize(int messageNumber) {
+        return sizes[messageNumber - 1];
+    }
+
+    /**
+     * Marks a message as deleted.
+     *
+     * @param messageNumber the message number, starting at 1.
+     * @return false, if the message does not exist or is already marked as deleted.
+     */
+    public boolean delete(int messageNumber) {
+        if (!exists(messageNumber)) {
+            return false;
+        }
+        deleted[messageNumber - 1] = true;
+        deletedCount++;
+        size -= sizes[messageNumber - 1];
+        return true;
+    }
+
+    /**
+     * Unmarks all messages marked as deleted.
+     *
+     * @return the number of unmarked messages.
+     */
+    public int reset() {
+        final int count = deletedCount;
+        for (int i = 0; i < deleted.length; i++) {
+            if (deleted[i]) {
+                deleted[i] = false;
+                size += sizes[i];
+            }
+        }
+        deletedCount = 0;
+        return count;
+    }
+
+    /**
+     * Removes the messages marked as deleted from the folder.
+     */
+    public void commit() {
+        if (deletedCount == 0) {
+            return;
+        }
+        final List<Long> deletedUids = new ArrayList<>(deletedCount);
+        for (int i = 0; i < deleted.length; i++) {
+            if (deleted[i]) {
+                deletedUids.add(uids[i]);
+            }
+        }
+        final IdRange[] ranges = IdRange.convertUidsToIdRangeArray(deletedUids);
+        folder.setFlags(new Flags(Flags.Flag.DELETED), true, ranges, true, null);
+        folder.expunge(ranges);
+    }
+}
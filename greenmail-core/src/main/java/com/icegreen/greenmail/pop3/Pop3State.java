@@ -19,6 +19,7 @@ public class Pop3State {
     UserManager manager;
     GreenMailUser user;
     MailFolder inbox;
+    Pop3Maildrop maildrop;
     private ImapHostManager imapHostManager;
 
     public Pop3State(UserManager manager) {
@@ -55,12 +56,20 @@ public class Pop3State {
             user.authenticate(pass);
         }
         inbox = imapHostManager.getInbox(user);
+        maildrop = null == inbox ? null : new Pop3Maildrop(inbox);
     }
 
     public MailFolder getFolder() {
         return inbox;
     }
 
+    /**
+     * @return the messages captured on authentication, or null if not authenticated.
+     */
+    public Pop3Maildrop getMaildrop() {
+        return maildrop;
+    }
+
     public GreenMailUser findOrCreateUser(String username) throws UserException {
         if (manager.hasUser(username)) {
             return manager.getUser(username);
@@ -6,14 +6,9 @@
  */
 package com.icegreen.greenmail.pop3.commands;
 
-import com.icegreen.greenmail.foedus.util.MsgRangeFilter;
 import com.icegreen.greenmail.pop3.Pop3Connection;
+import com.icegreen.greenmail.pop3.Pop3Maildrop;
 import com.icegreen.greenmail.pop3.Pop3State;
-import com.icegreen.greenmail.store.MailFolder;
-import com.icegreen.greenmail.store.StoredMessage;
-
-import jakarta.mail.Flags;
-import java.util.List;
 
 
 public class DeleCommand
@@ -28,25 +23,22 @@ public class DeleCommand
     public void execute(Pop3Connection conn, Pop3State state,
                         String cmd) {
         try {
-            MailFolder inbox = state.getFolder();
+            Pop3Maildrop maildrop = state.getMaildrop();
             String[] cmdLine = cmd.split(" ");
 
-            String msgNumStr = cmdLine[1];
-            List<StoredMessage> msgList = inbox.getMessages(new MsgRangeFilter(msgNumStr, false));
-            if (msgList.size() != 1) {
+            int msgNum = Integer.parseInt(cmdLine[1]);
+            if (msgNum < 1 || msgNum > maildrop.getLastMessageNumber()) {
                 conn.println("-ERR no such message");
 
                 return;
             }
 
-            StoredMessage msg = msgList.get(0);
-            if (msg.isSet(Flags.Flag.DELETED)) {
+            // Removed from the folder on QUIT
+            if (!maildrop.delete(msgNum)) {
                 conn.println("-ERR message already deleted");
                 return;
             }
 
-            msg.setFlag(Flags.Flag.DELETED, true);
-
             conn.println("+OK message scheduled for deletion");
         } catch (Exception e) {
             conn.println("-ERR " + e);
@@ -6,13 +6,9 @@
  */
 package com.icegreen.greenmail.pop3.commands;
 
-import com.icegreen.greenmail.foedus.util.MsgRangeFilter;
 import com.icegreen.greenmail.pop3.Pop3Connection;
+import com.icegreen.greenmail.pop3.Pop3Maildrop;
 import com.icegreen.greenmail.pop3.Pop3State;
-import com.icegreen.greenmail.store.MailFolder;
-import com.icegreen.greenmail.store.StoredMessage;
-
-import java.util.List;
 
 
 public class ListCommand
@@ -26,24 +22,24 @@ public class ListCommand
     public void execute(Pop3Connection conn, Pop3State state,
                         String cmd) {
         try {
-            MailFolder inbox = state.getFolder();
+            Pop3Maildrop maildrop = state.getMaildrop();
             String[] cmdLine = cmd.split(" ");
             if (cmdLine.length > 1) {
                 String msgNumStr = cmdLine[1];
-                List<StoredMessage> msgList = inbox.getMessages(new MsgRangeFilter(msgNumStr, false));
-                if (msgList.size() != 1) {
+                int msgNum = Integer.parseInt(msgNumStr);
+                if (!maildrop.exists(msgNum)) {
                     conn.println("-ERR no such message");
 
                     return;
                 }
 
-                StoredMessage msg = msgList.get(0);
-                conn.println("+OK " + msgNumStr + " " + msg.getMimeMessage().getSize());
+                conn.println("+OK " + msgNumStr + " " + maildrop.getSize(msgNum));
             } else {
-                List<StoredMessage> messages = inbox.getNonDeletedMessages();
                 conn.println("+OK");
-                for (StoredMessage msg : messages) {
-                    conn.println(inbox.getMsn(msg.getUid()) + " " + msg.getMimeMessage().getSize());
+                for (int msgNum = 1; msgNum <= maildrop.getLastMessageNumber(); msgNum++) {
+                    if (maildrop.exists(msgNum)) {
+                        conn.println(msgNum + " " + maildrop.getSize(msgNum));
+                    }
                 }
 
                 conn.println(".");
@@ -52,4 +48,4 @@ public class ListCommand
             conn.println("-ERR " + me);
         }
     }
-}
\ No newline at end of file
+}
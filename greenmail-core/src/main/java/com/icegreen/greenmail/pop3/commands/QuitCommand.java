@@ -7,9 +7,8 @@
 package com.icegreen.greenmail.pop3.commands;
 
 import com.icegreen.greenmail.pop3.Pop3Connection;
+import com.icegreen.greenmail.pop3.Pop3Maildrop;
 import com.icegreen.greenmail.pop3.Pop3State;
-import com.icegreen.greenmail.store.FolderException;
-import com.icegreen.greenmail.store.MailFolder;
 
 
 public class QuitCommand
@@ -24,17 +23,17 @@ public class QuitCommand
     public void execute(Pop3Connection conn, Pop3State state,
                         String cmd) {
         try {
-            MailFolder folder = state.getFolder();
-            if (folder != null) {
-                folder.expunge();
-
+            Pop3Maildrop maildrop = state.getMaildrop();
+            if (maildrop != null) {
+                // UPDATE state, removing messages marked as deleted
+                maildrop.commit();
             }
 
             conn.println("+OK bye see you soon");
             conn.quit();
-        } catch (FolderException me) {
+        } catch (RuntimeException me) {
             conn.println("+OK Signing off, but message deletion failed");
             conn.quit();
         }
     }
-}
\ No newline at end of file
+}
@@ -6,17 +6,12 @@
  */
 package com.icegreen.greenmail.pop3.commands;
 
-import com.icegreen.greenmail.foedus.util.MsgRangeFilter;
 import com.icegreen.greenmail.pop3.Pop3Connection;
 import com.icegreen.greenmail.pop3.Pop3State;
-import com.icegreen.greenmail.store.MailFolder;
 import com.icegreen.greenmail.store.StoredMessage;
-import com.icegreen.greenmail.util.GreenMailUtil;
 
 import jakarta.mail.Flags;
 
-import java.util.List;
-
 
 public class RetrCommand
         extends Pop3Command {
@@ -30,27 +25,19 @@ public class RetrCommand
     public void execute(Pop3Connection conn, Pop3State state,
                         String cmd) {
         try {
-            MailFolder inbox = state.getFolder();
             String[] cmdLine = cmd.split(" ");
 
-            String msgNumStr = cmdLine[1];
-            List<StoredMessage> msgList = inbox.getMessages(new MsgRangeFilter(msgNumStr, false));
-            if (msgList.size() != 1) {
+            StoredMessage msg = state.getMaildrop().getMessage(Integer.parseInt(cmdLine[1]));
+            if (null == msg) {
                 conn.println("-ERR no such message");
 
                 return;
             }
 
-            StoredMessage msg = msgList.get(0);
-            // RFC 1939 §3: every line of the message that begins with the termination
-            // octet must be byte-stuffed with an extra '.'. Anchoring only on CRLF misses
-            // lines that a stored message ends with a bare LF or CR, so stuff a leading
-            // '.' after any line boundary (and at the start of the message).
-            String email = GreenMailUtil.getWholeMessage(msg.getMimeMessage())
-                .replaceAll("(^|\r\n|\r|\n)\\.", "$1..");
             conn.println("+OK");
-            conn.println(email);
-            conn.println(".");
+            // Streams the stored octets untrimmed, so the client gets the size reported by LIST and STAT.
+            // Lines starting with '.' are byte-stuffed (RFC 1939 §3), also after a bare LF or CR line ending.
+            conn.printMultiLine(msg.getRawMessage().getMessage());
             msg.setFlag(Flags.Flag.SEEN, true);
         } catch (Exception e) {
             conn.println("-ERR " + e);
@@ -7,12 +7,8 @@
 package com.icegreen.greenmail.pop3.commands;
 
 import com.icegreen.greenmail.pop3.Pop3Connection;
+import com.icegreen.greenmail.pop3.Pop3Maildrop;
 import com.icegreen.greenmail.pop3.Pop3State;
-import com.icegreen.greenmail.store.MailFolder;
-import com.icegreen.greenmail.store.StoredMessage;
-
-import jakarta.mail.MessagingException;
-import java.util.List;
 
 
 public class StatCommand
@@ -26,26 +22,10 @@ public class StatCommand
     public void execute(Pop3Connection conn, Pop3State state,
                         String cmd) {
         try {
-            MailFolder inbox = state.getFolder();
-            List<StoredMessage> messages = inbox.getNonDeletedMessages();
-            long size = sumMessageSizes(messages);
-            conn.println("+OK " + messages.size() + " " + size);
+            Pop3Maildrop maildrop = state.getMaildrop();
+            conn.println("+OK " + maildrop.getMessageCount() + " " + maildrop.getSize());
         } catch (Exception me) {
             conn.println("-ERR " + me);
         }
     }
-
-    long sumMessageSizes(List<StoredMessage> messages) {
-        long total = 0;
-
-        for (StoredMessage msg : messages) {
-            try {
-                total += msg.getMimeMessage().getSize();
-            } catch (MessagingException e) {
-                throw new RuntimeException(e);
-            }
-        }
-
-        return total;
-    }
 }
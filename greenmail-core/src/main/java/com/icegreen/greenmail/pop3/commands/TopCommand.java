@@ -6,17 +6,9 @@
  */
 package com.icegreen.greenmail.pop3.commands;
 
-import com.icegreen.greenmail.foedus.util.MsgRangeFilter;
 import com.icegreen.greenmail.pop3.Pop3Connection;
 import com.icegreen.greenmail.pop3.Pop3State;
-import com.icegreen.greenmail.store.MailFolder;
 import com.icegreen.greenmail.store.StoredMessage;
-import com.icegreen.greenmail.util.GreenMailUtil;
-
-import java.io.BufferedReader;
-import java.io.IOException;
-import java.io.StringReader;
-import java.util.List;
 
 
 public class TopCommand
@@ -31,64 +23,25 @@ public class TopCommand
     public void execute(Pop3Connection conn, Pop3State state,
                         String cmd) {
         try {
-            MailFolder inbox = state.getFolder();
             String[] cmdLine = cmd.split(" ");
             if (cmdLine.length < 3)
                 throw new IllegalArgumentException("range and line count required");
 
-            String msgNumStr = cmdLine[1];
-            List<StoredMessage> msgList = inbox.getMessages(new MsgRangeFilter(msgNumStr, false));
-            if (msgList.size() != 1) {
+            StoredMessage msg = state.getMaildrop().getMessage(Integer.parseInt(cmdLine[1]));
+            if (null == msg) {
                 conn.println("-ERR no such message");
 
                 return;
             }
 
-            StoredMessage msg = msgList.get(0);
 
             int numLines = Integer.parseInt(cmdLine[2]);
 
-            try (BufferedReader in = new BufferedReader(
-                    new StringReader(GreenMailUtil.getWholeMessage(msg.getMimeMessage())))) {
-                conn.println("+OK");
-
-                copyHeaders(in, conn);
-                copyLines(in, conn, numLines);
-            }
-            conn.println(".");
+            conn.println("+OK");
+            // Headers, the empty line and the first lines of the body, byte-stuffed (RFC 1939 §3)
+            conn.printMultiLine(msg.getRawMessage().getTop(numLines));
         } catch (Exception e) {
             conn.println("-ERR " + e);
         }
     }
-
-    void copyHeaders(BufferedReader in, Pop3Connection conn)
-            throws IOException {
-        String line;
-        while ((line = in.readLine()) != null) {
-            writeLine(conn, line);
-            if (line.isEmpty())
-                break;
-        }
-    }
-
-    void copyLines(BufferedReader in, Pop3Connection conn,
-                   int numLines)
-            throws IOException {
-        int count = 0;
-        String line;
-        while ((line = in.readLine()) != null && count < numLines) {
-            writeLine(conn, line);
-            count++;
-        }
-    }
-
-    // RFC 1939 §3: any line of a multi-line response that begins with the
-    // termination octet must be byte-stuffed with an extra '.'.
-    private static void writeLine(Pop3Connection conn, String line) {
-        if (line.startsWith(".")) {
-            conn.println("." + line);
-        } else {
-            conn.println(line);
-        }
-    }
 }
@@ -21,12 +21,15 @@ import java.net.ServerSocket;
 import java.net.Socket;
 import java.net.SocketException;
 import java.net.UnknownHostException;
+import java.nio.channels.ServerSocketChannel;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
 import java.util.Map;
 import java.util.Properties;
 import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.TimeUnit;
 
 /**
@@ -46,6 +49,9 @@ public abstract class AbstractServer extends Thread implements Service {
     private volatile boolean keepRunning = false;
     private volatile boolean running = false;
     private final CountDownLatch startupMonitor = new CountDownLatch(1);
+    private NonBlockingConnectionEngine connectionEngine;
+    private ExecutorService executorService;
+    private boolean shutdownExecutorService;
 
     protected AbstractServer(ServerSetup setup, Managers managers) {
         this.setup = setup;
@@ -74,7 +80,13 @@ public abstract class AbstractServer extends Thread implements Service {
     protected ServerSocket openServerSocket() throws IOException {
         final ServerSocket socket;
         if (setup.isSecure()) {
+            if (setup.isNonBlocking()) {
+                log.warn("Non-blocking mode not supported for {}, using a thread per connection", setup.getProtocol());
+            }
             socket = DummySSLServerSocketFactory.getDefault().createServerSocket();
+        } else if (setup.isNonBlocking()) {
+            // Accepted sockets provide a channel, see NonBlockingConnectionEngine
+            socket = ServerSocketChannel.open().socket();
         } else {
             socket = new ServerSocket(); // NOSONAR
         }
@@ -125,6 +137,14 @@ public abstract class AbstractServer extends Thread implements Service {
     protected synchronized void initServerSocket() {
         try {
             serverSocket = openServerSocket();
+            if (null == executorService) {
+                executorService = createExecutorService();
+                shutdownExecutorService = true;
+            }
+            if (null != serverSocket.getChannel()) {
+                connectionEngine = new NonBlockingConnectionEngine(getName(), setup.getWorkerThreads(),
+                    clientSocketTimeout);
+            }
             setRunning(true);
         } catch (IOException e) {
             final String msg = "Can not open server socket for " + getName();
@@ -164,22 +184,67 @@ public abstract class AbstractServer extends Thread implements Service {
         this.clientSocketTimeout = clientSocketTimeout;
     }
 
+    /**
+     * Sets the executor for running client connection handlers, overriding the default created by
+     * {@link #createExecutorService()}.
+     * <p>
+     * Must be set before starting the server. The server does not shut down a provided executor.
+     * As {@link com.icegreen.greenmail.util.GreenMail} creates its servers when starting, use
+     * {@link com.icegreen.greenmail.util.GreenMail#setExecutorService(ExecutorService)} for these.
+     *
+     * @param executorService the executor service.
+     * @see ConnectionExecutors
+     */
+    public void setExecutorService(ExecutorService executorService) {
+        this.executorService = executorService;
+    }
+
+    /**
+     * Creates the default executor for running client connection handlers.
+     * <p>
+     * Uses virtual threads if available (JDK 21+), and limits concurrent client connections
+     * if configured by {@link ServerSetup#getMaxConnections()}.
+     *
+     * @return the executor service.
+     */
+    protected ExecutorService createExecutorService() {
+        if (setup.getMaxConnections() > 0) {
+            return ConnectionExecutors.newBoundedExecutor(getName(), setup.getMaxConnections());
+        }
+        return ConnectionExecutors.newUnboundedExecutor(getName());
+    }
+
     protected void handleClientSocket(Socket clientSocket) throws SocketException {
         clientSocket.setSoTimeout(clientSocketTimeout);
         final ProtocolHandler handler = createProtocolHandler(clientSocket);
         addHandler(handler);
-        String threadName = getName() + "<-" + clientSocket.getInetAddress() + ":" + clientSocket.getPort();
+        if (null != connectionEngine && handler instanceof AbstractSocketProtocolHandler) {
+            log.debug("Handling new client connection {}:{} non-blocking",
+                clientSocket.getInetAddress(), clientSocket.getPort());
+            connectionEngine.handle((AbstractSocketProtocolHandler) handler, () -> removeHandler(handler));
+            return;
+        }
+        final String threadName = getName() + "<-" + clientSocket.getInetAddress() + ":" + clientSocket.getPort();
         log.debug("Handling new client connection {}", threadName);
-        final Thread thread = new Thread(() -> {
-            try {
-                handler.run(); // NOSONAR
-            } finally {
-                // Make sure to de-register, see https://github.com/greenmail-mail-test/greenmail/issues/18
-                removeHandler(handler);
-            }
-        });
-        thread.setName(threadName);
-        thread.start();
+        try {
+            executorService.execute(() -> {
+                final Thread thread = Thread.currentThread();
+                final String previousName = thread.getName();
+                thread.setName(threadName);
+                try {
+                    handler.run(); // NOSONAR
+                } finally {
+                    // Make sure to de-register, see https://github.com/greenmail-mail-test/greenmail/issues/18
+                    removeHandler(handler);
+                    thread.setName(previousName);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            log.warn("Rejecting client connection {}, max connections: {}",
+                threadName, setup.getMaxConnections());
+            removeHandler(handler);
+            handler.close();
+        }
     }
 
     /**
@@ -214,6 +279,12 @@ public abstract class AbstractServer extends Thread implements Service {
             }
             handlers.clear();
         }
+        if (null != connectionEngine) {
+            connectionEngine.stop();
+        }
+        if (shutdownExecutorService) {
+            executorService.shutdown();
+        }
         log.debug("Stopped {}", getName());
     }
 
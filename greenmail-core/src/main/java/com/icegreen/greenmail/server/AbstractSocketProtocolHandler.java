@@ -4,11 +4,18 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.net.Socket;
 import java.net.SocketException;
 
 /**
  * Provides shared helpers for handling a client socket connection.
+ * <p>
+ * The connection is processed step-wise: {@link #open()} prepares the session and greets the client,
+ * and each {@link #handleCommand()} processes a single client command. The default {@link #run()}
+ * blocks a thread per connection, while the {@link NonBlockingConnectionEngine} parks idle connections
+ * on a selector between commands.
  */
 public abstract class AbstractSocketProtocolHandler implements ProtocolHandler {
     protected final Logger log = LoggerFactory.getLogger(getClass());
@@ -19,11 +26,130 @@ public abstract class AbstractSocketProtocolHandler implements ProtocolHandler {
     protected final Socket socket;
     protected volatile boolean quitting = false; // Signal that shutdown is initiated
     protected final Object closeMonitor = new Object();
+    // Streams of sockets with a channel, see NonBlockingConnectionEngine
+    private SocketChannelInputStream channelInput;
+    private SocketChannelOutputStream channelOutput;
 
     protected AbstractSocketProtocolHandler(Socket socket) {
         this.socket = socket;
     }
 
+    @Override
+    public void run() {
+        try {
+            open();
+
+            while (!isQuitting()) {
+                handleCommand();
+            }
+        } catch (Exception e) {
+            handleException(e);
+        } finally {
+            close();
+        }
+    }
+
+    /**
+     * Prepares the connection streams and session state, and sends the server greeting.
+     *
+     * @throws IOException on error.
+     */
+    protected abstract void open() throws IOException;
+
+    /**
+     * Reads and processes the next client command, blocking until the client sends input.
+     * Closes the handler if the client closed the connection.
+     *
+     * @throws IOException on error.
+     */
+    protected abstract void handleCommand() throws IOException;
+
+    /**
+     * Checks if client input is already available, so the next command can be handled
+     * without waiting for the client.
+     *
+     * @return true, if input is available.
+     */
+    protected abstract boolean hasBufferedInput();
+
+    /**
+     * Handles an exception terminating the connection processing.
+     *
+     * @param e the exception.
+     */
+    protected void handleException(Exception e) {
+        // Closing socket on blocked read
+        if (!isQuitting()) {
+            throw new IllegalStateException("Unexpected error handling connection", e);
+        }
+    }
+
+    /**
+     * Checks if waiting for the next client command is exempt from the socket timeout,
+     * such as an IMAP client idling for mailbox notifications.
+     *
+     * @return true, if the connection can wait without timeout.
+     */
+    protected boolean isWaitingWithoutTimeout() {
+        return false;
+    }
+
+    /**
+     * Gets the input stream for reading from the client.
+     * <p>
+     * Sockets handled by the {@link NonBlockingConnectionEngine} read via a buffer, which the engine
+     * fills while the connection is parked waiting for input.
+     *
+     * @return the input stream.
+     * @throws IOException on error.
+     */
+    public InputStream getInputStream() throws IOException {
+        if (null != socket.getChannel()) {
+            return getChannelInput();
+        }
+        return socket.getInputStream();
+    }
+
+    /**
+     * Gets the output stream for writing to the client.
+     * <p>
+     * Sockets handled by the {@link NonBlockingConnectionEngine} write via their channel, so
+     * responses can also be sent while the connection is parked waiting for input.
+     *
+     * @return the output stream.
+     * @throws IOException on error.
+     */
+    public OutputStream getOutputStream() throws IOException {
+        if (null != socket.getChannel()) {
+            return getChannelOutput();
+        }
+        return socket.getOutputStream();
+    }
+
+    synchronized SocketChannelInputStream getChannelInput() {
+        if (null == channelInput) {
+            channelInput = new SocketChannelInputStream(socket);
+        }
+        return channelInput;
+    }
+
+    private synchronized SocketChannelOutputStream getChannelOutput() throws IOException {
+        if (null == channelOutput) {
+            channelOutput = new SocketChannelOutputStream(socket.getChannel(), socket.getSoTimeout());
+        }
+        return channelOutput;
+    }
+
+    /**
+     * Switches the blocking mode of the socket channel, once no response waits for a congested channel.
+     *
+     * @param block if true, switch to blocking mode.
+     * @throws IOException on error.
+     */
+    void configureBlocking(boolean block) throws IOException {
+        getChannelOutput().configureBlocking(block);
+    }
+
     /**
      * Preparing for closing handler connection?
      *
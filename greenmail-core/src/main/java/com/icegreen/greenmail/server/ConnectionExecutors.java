@@ -0,0 +1,186 @@
+/*
+ * Copyright (c) 2014 Wael Chatila / Icegreen Technologies. All Rights Reserved.
+ * This software is released under the Apache license 2.0
+ */
+package com.icegreen.greenmail.server;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.List;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Factory for executors running the protocol handlers of client connections.
+ * <p>
+ * Prefers virtual threads if available (JDK 21+), so that blocking client reads park cheaply.
+ * Falls back to platform threads otherwise.
+ *
+ * @see AbstractServer#setExecutorService(ExecutorService)
+ */
+public final class ConnectionExecutors {
+    private static final Logger log = LoggerFactory.getLogger(ConnectionExecutors.class);
+
+    private ConnectionExecutors() {
+        // No instantiation.
+    }
+
+    /**
+     * Creates an unbounded executor, running each client connection on a new thread.
+     *
+     * @param name the name prefix for threads.
+     * @return the executor service.
+     */
+    public static ExecutorService newUnboundedExecutor(String name) {
+        final ThreadFactory threadFactory = newThreadFactory(name);
+        if (isVirtualThreadFactory(threadFactory)) {
+            // Virtual threads are cheap and not meant to be pooled
+            try {
+                return (ExecutorService) Executors.class.getMethod("newThreadPerTaskExecutor", ThreadFactory.class)
+                    .invoke(null, threadFactory);
+            } catch (ReflectiveOperationException e) {
+                log.debug("Can not create thread per task executor, falling back to cached thread pool", e);
+            }
+        }
+        return Executors.newCachedThreadPool(threadFactory);
+    }
+
+    /**
+     * Creates a bounded executor, rejecting client connections exceeding the max number of concurrent connections.
+     * <p>
+     * Runs each client connection like {@link #newUnboundedExecutor(String)}, and bounds admission by a semaphore
+     * instead of pooling (virtual) threads.
+     *
+     * @param name           the name prefix for threads.
+     * @param maxConnections max number of concurrently handled client connections.
+     * @return the executor service.
+     */
+    public static ExecutorService newBoundedExecutor(String name, int maxConnections) {
+        if (maxConnections < 1) {
+            throw new IllegalArgumentException("Expected at least one connection, but got " + maxConnections);
+        }
+        return new BoundedExecutor(newUnboundedExecutor(name), maxConnections);
+    }
+
+    /**
+     * Creates a thread factory for daemon threads, preferring virtual threads if available.
+     *
+     * @param name the name prefix for threads.
+     * @return the thread factory.
+     */
+    public static ThreadFactory newThreadFactory(String name) {
+        try {
+            final Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+            final Class<?> builderClass = Class.forName("java.lang.Thread$Builder");
+            final Object namedBuilder = builderClass.getMethod("name", String.class, long.class)
+                .invoke(builder, name + "-", 0L);
+            return (ThreadFactory) builderClass.getMethod("factory").invoke(namedBuilder);
+        } catch (ReflectiveOperationException e) {
+            // JDK < 21
+            log.trace("Virtual threads not available, using platform threads", e);
+        }
+        return newPlatformThreadFactory(name);
+    }
+
+    /**
+     * Creates a thread factory for daemon platform threads.
+     *
+     * @param name the name prefix for threads.
+     * @return the thread factory.
+     */
+    public static ThreadFactory newPlatformThreadFactory(String name) {
+        final AtomicInteger count = new AtomicInteger();
+        return r -> {
+            Thread t = new Thread(r, name + '-' + count.getAndIncrement());
+            t.setDaemon(true);
+            return t;
+        };
+    }
+
+    /**
+     * Checks if the factory creates virtual threads, by asking an unstarted thread created by the factory.
+     * <p>
+     * Uses reflection for {@code Thread.isVirtual()}, as it is only available in JDK 21+.
+     *
+     * @param threadFactory the thread factory.
+     * @return true, if the factory creates virtual threads.
+     */
+    static boolean isVirtualThreadFactory(ThreadFactory threadFactory) {
+        final Thread probe = threadFactory.newThread(() -> {
+            // Never started
+        });
+        if (null == probe) {
+            return false;
+        }
+        try {
+            return (Boolean) Thread.class.getMethod("isVirtual").invoke(probe);
+        } catch (ReflectiveOperationException e) {
+            // JDK < 21
+            return false;
+        }
+    }
+
+    /**
+     * Runs tasks on a delegate executor, rejecting tasks exceeding the max number of concurrently running tasks.
+     */
+    private static final class BoundedExecutor extends AbstractExecutorService {
+        private final ExecutorService delegate;
+        private final Semaphore permits;
+
+        private BoundedExecutor(ExecutorService delegate, int maxTasks) {
+            this.delegate = delegate;
+            permits = new Semaphore(maxTasks);
+        }
+
+        @Override
+        public void execute(Runnable command) {
+            if (!permits.tryAcquire()) {
+                throw new RejectedExecutionException("Exceeds max number of concurrently running tasks");
+            }
+            try {
+                delegate.execute(() -> {
+                    try {
+                        command.run();
+                    } finally {
+                        permits.release();
+                    }
+                });
+            } catch (RejectedExecutionException e) {
+                permits.release();
+                throw e;
+            }
+        }
+
+        @Override
+        public void shutdown() {
+            delegate.shutdown();
+        }
+
+        @Override
+        public List<Runnable> shutdownNow() {
+            return delegate.shutdownNow();
+        }
+
+        @Override
+        public boolean isShutdown() {
+            return delegate.isShutdown();
+        }
+
+        @Override
+        public boolean isTerminated() {
+            return delegate.isTerminated();
+        }
+
+        @Override
+        public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+            return delegate.awaitTermination(timeout, unit);
+        }
+    }
+}
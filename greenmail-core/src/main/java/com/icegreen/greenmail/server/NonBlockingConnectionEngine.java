@@ -0,0 +1,269 @@
+/*
+ * Copyright (c) 2014 Wael Chatila / Icegreen Technologies. All Rights Reserved.
+ * This software is released under the Apache license 2.0
+ */
+package com.icegreen.greenmail.server;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.net.SocketTimeoutException;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Handles client connections with a bounded number of threads.
+ * <p>
+ * Instead of blocking a thread per connection while waiting for the next client command,
+ * an idle connection gets parked on a selector. The selector reads client input into a buffer
+ * per connection (see {@link SocketChannelInputStream}), and hands the connection to a pool of worker
+ * threads once a complete command line has arrived. The worker processes the command using the
+ * regular (blocking) protocol handler, and then parks the connection again.
+ * <p>
+ * Data following a command line, such as an SMTP DATA message or an IMAP literal, is read by the
+ * worker blocking on the socket, bounded by the socket timeout. Clients sending such data slowly
+ * therefore still occupy a worker thread.
+ * <p>
+ * Supports any {@link AbstractSocketProtocolHandler} with a socket channel, which excludes SSL sockets.
+ *
+ * @see com.icegreen.greenmail.util.ServerSetup#nonBlocking(boolean)
+ */
+public class NonBlockingConnectionEngine {
+    private static final Logger log = LoggerFactory.getLogger(NonBlockingConnectionEngine.class);
+    private static final long SELECT_TIMEOUT_MS = 1000L;
+
+    private final String name;
+    private final long idleTimeoutMillis;
+    private final Queue<Connection> parkedConnections = new ConcurrentLinkedQueue<>();
+    private final ExecutorService workers;
+    private final Selector selector;
+    private final Thread selectorThread;
+    private volatile boolean running = true;
+
+    /**
+     * Creates and starts a new engine.
+     *
+     * @param name              the name, used for naming threads.
+     * @param workerThreads     number of threads processing client commands.
+     * @param idleTimeoutMillis max time to wait for a client command (0 for infinite).
+     * @throws IOException if the selector can not be opened.
+     */
+    public NonBlockingConnectionEngine(String name, int workerThreads, long idleTimeoutMillis) throws IOException {
+        this.name = name;
+        this.idleTimeoutMillis = idleTimeoutMillis;
+        workers = Executors.newFixedThreadPool(workerThreads,
+            ConnectionExecutors.newPlatformThreadFactory(name + "-worker"));
+        selector = Selector.open();
+        selectorThread = new Thread(this::selectLoop, name + "-selector");
+        selectorThread.setDaemon(true);
+        selectorThread.start();
+    }
+
+    /**
+     * Starts handling a new client connection.
+     *
+     * @param handler        the protocol handler.
+     * @param onDisconnected callback when the connection has been closed.
+     */
+    public void handle(AbstractSocketProtocolHandler handler, Runnable onDisconnected) {
+        final Connection connection = new Connection(handler, onDisconnected);
+        execute(connection, () -> {
+            try {
+                handler.open();
+                process(connection);
+            } catch (Exception e) {
+                terminate(connection, e);
+            }
+        });
+    }
+
+    /**
+     * Stops processing. Does not close any connections.
+     */
+    public void stop() {
+        running = false;
+        workers.shutdownNow();
+        try {
+            selector.close();
+        } catch (IOException e) {
+            log.warn("Can not close selector of {}", name, e);
+        }
+        try {
+            selectorThread.join(SELECT_TIMEOUT_MS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Processes commands till no more client input is available or the connection is closed,
+     * and parks the connection waiting for client input.
+     */
+    private void process(Connection connection) throws IOException {
+        final AbstractSocketProtocolHandler handler = connection.handler;
+        while (!handler.isQuitting() && handler.hasBufferedInput()) {
+            handler.handleCommand();
+        }
+        if (handler.isQuitting()) {
+            terminate(connection, null);
+        } else {
+            handler.configureBlocking(false);
+            connection.parkedSince = System.currentTimeMillis();
+            parkedConnections.add(connection);
+            selector.wakeup();
+        }
+    }
+
+    private void resume(Connection connection) {
+        try {
+            connection.handler.configureBlocking(true);
+            connection.handler.handleCommand();
+            process(connection);
+        } catch (Exception e) {
+            terminate(connection, e);
+        }
+    }
+
+    private void timeout(Connection connection) {
+        try {
+            connection.handler.configureBlocking(true);
+            terminate(connection, new SocketTimeoutException(
+                "Client connection idle for more than " + idleTimeoutMillis + "ms"));
+        } catch (IOException e) {
+            terminate(connection, e);
+        }
+    }
+
+    private void terminate(Connection connection, Exception cause) {
+        try {
+            if (null != cause) {
+                connection.handler.handleException(cause);
+            }
+        } catch (RuntimeException e) {
+            log.warn("Error handling connection of {}", name, e);
+        } finally {
+            connection.handler.close();
+            connection.onDisconnected.run();
+        }
+    }
+
+    private void execute(Connection connection, Runnable task) {
+        try {
+            workers.execute(task);
+        } catch (RejectedExecutionException e) {
+            // Engine stopped
+            connection.handler.close();
+            connection.onDisconnected.run();
+        }
+    }
+
+    private void selectLoop() {
+        long lastIdleCheck = System.currentTimeMillis();
+        try {
+            while (running) {
+                selector.select(SELECT_TIMEOUT_MS);
+                registerParkedConnections();
+
+                final List<Connection> ready = new ArrayList<>();
+                final List<Connection> expired = new ArrayList<>();
+                final List<Connection> failed = new ArrayList<>();
+                collectSelectedConnections(ready, failed);
+                final long now = System.currentTimeMillis();
+                if (idleTimeoutMillis > 0L && now - lastIdleCheck >= SELECT_TIMEOUT_MS) {
+                    lastIdleCheck = now;
+                    collectExpiredConnections(now, expired);
+                }
+                if (!ready.isEmpty() || !expired.isEmpty() || !failed.isEmpty()) {
+                    // Flush cancelled keys, so channels get deregistered and can switch back to blocking mode
+                    while (selector.selectNow() > 0) {
+                        collectSelectedConnections(ready, failed);
+                    }
+                }
+
+                for (Connection connection : ready) {
+                    execute(connection, () -> resume(connection));
+                }
+                for (Connection connection : expired) {
+                    execute(connection, () -> timeout(connection));
+                }
+                for (Connection connection : failed) {
+                    execute(connection, () -> terminate(connection, connection.failure));
+                }
+            }
+        } catch (ClosedSelectorException e) {
+            log.trace("Closed selector of {}", name);
+        } catch (IOException e) {
+            log.error("Stopping selector of {} due to error", name, e);
+        }
+    }
+
+    private void registerParkedConnections() {
+        Connection connection;
+        while (null != (connection = parkedConnections.poll())) {
+            try {
+                connection.channel().register(selector, SelectionKey.OP_READ, connection);
+            } catch (IOException e) {
+                terminate(connection, e);
+            }
+        }
+    }
+
+    /**
+     * Reads the available input of selected connections, collecting the connections with a complete command line.
+     */
+    private void collectSelectedConnections(List<Connection> ready, List<Connection> failed) {
+        final Set<SelectionKey> selectedKeys = selector.selectedKeys();
+        for (SelectionKey key : selectedKeys) {
+            final Connection connection = (Connection) key.attachment();
+            try {
+                if (connection.handler.getChannelInput().readAvailable()) {
+                    key.cancel();
+                    ready.add(connection);
+                }
+            } catch (IOException e) {
+                key.cancel();
+                connection.failure = e;
+                failed.add(connection);
+            }
+        }
+        selectedKeys.clear();
+    }
+
+    private void collectExpiredConnections(long now, List<Connection> expired) {
+        for (SelectionKey key : selector.keys()) {
+            final Connection connection = (Connection) key.attachment();
+            if (key.isValid() && !connection.handler.isWaitingWithoutTimeout()
+                && now - connection.parkedSince > idleTimeoutMillis) {
+                key.cancel();
+                expired.add(connection);
+            }
+        }
+    }
+
+    private static class Connection {
+        final AbstractSocketProtocolHandler handler;
+        final Runnable onDisconnected;
+        volatile long parkedSince;
+        volatile IOException failure; // Reading available input
+
+        Connection(AbstractSocketProtocolHandler handler, Runnable onDisconnected) {
+            this.handler = handler;
+            this.onDisconnected = onDisconnected;
+        }
+
+        SocketChannel channel() {
+            return handler.socket.getChannel();
+        }
+    }
+}
@@ -0,0 +1,151 @@
+/*
+ * Copyright (c) 2014 Wael Chatila / Icegreen Technologies. All Rights Reserved.
+ * This software is released under the Apache license 2.0
+ */
+package com.icegreen.greenmail.server;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+
+/**
+ * Reads from a socket channel, buffering client input while the channel is non-blocking.
+ * <p>
+ * While a connection is parked, the {@link NonBlockingConnectionEngine} reads available input into the buffer
+ * without blocking. Only complete lines are released for reading, so the connection is handed to a worker
+ * once a complete command line arrived, and a worker is not blocked by a client sending a partial line.
+ * <p>
+ * Reading beyond the released input, such as the remaining message data of an SMTP DATA command or an
+ * IMAP literal, blocks on the (then blocking) socket, honouring the socket timeout.
+ */
+class SocketChannelInputStream extends InputStream {
+    static final int BUFFER_SIZE = 8192;
+    private static final byte LF = '\n';
+    private final Socket socket;
+    private final byte[] buffer = new byte[BUFFER_SIZE];
+    private InputStream socketInput; // Blocking, with timeout
+    private int position; // Next byte to read
+    private int released; // End of the bytes released for reading
+    private int limit; // End of the buffered bytes
+    private boolean endOfStream;
+
+    /**
+     * Creates a new stream.
+     *
+     * @param socket the socket, providing a channel.
+     */
+    SocketChannelInputStream(Socket socket) {
+        this.socket = socket;
+    }
+
+    /**
+     * Reads the input available on the non-blocking channel.
+     *
+     * @return true, if a complete line or the end of stream has been read.
+     * @throws IOException on error.
+     */
+    boolean readAvailable() throws IOException {
+        compact();
+        int count;
+        while (limit < buffer.length
+            && (count = socket.getChannel().read(ByteBuffer.wrap(buffer, limit, buffer.length - limit))) != 0) {
+            if (count < 0) {
+                endOfStream = true;
+                break;
+            }
+            limit += count;
+        }
+        if (endOfStream || limit == buffer.length) {
+            // Line exceeding the buffer, read further by the worker
+            released = limit;
+        } else {
+            releaseLines();
+        }
+        return position < released || endOfStream;
+    }
+
+    @Override
+    public int read() throws IOException {
+        if (position == released && !fill()) {
+            return -1;
+        }
+        return buffer[position++] & 0xff;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (len == 0) {
+            return 0;
+        }
+        if (position == released && !fill()) {
+            return -1;
+        }
+        final int count = Math.min(len, released - position);
+        System.arraycopy(buffer, position, b, off, count);
+        position += count;
+        return count;
+    }
+
+    /**
+     * Gets the number of bytes released for reading, which excludes a trailing partial line.
+     *
+     * @return the number of bytes readable without blocking.
+     */
+    @Override
+    public int available() {
+        return released - position;
+    }
+
+    @Override
+    public void close() throws IOException {
+        socket.close();
+    }
+
+    /**
+     * Releases buffered input, or reads from the blocking socket if none buffered.
+     *
+     * @return false, on end of stream.
+     */
+    private boolean fill() throws IOException {
+        if (released == limit) {
+            if (endOfStream) {
+                return false;
+            }
+            compact();
+            if (null == socketInput) {
+                socketInput = socket.getInputStream();
+            }
+            final int count = socketInput.read(buffer, limit, buffer.length - limit);
+            if (count < 0) {
+                endOfStream = true;
+                return false;
+            }
+            limit += count;
+        }
+        releaseLines();
+        if (position == released) {
+            // Partial line or binary data, eg of a literal
+            released = limit;
+        }
+        return true;
+    }
+
+    private void releaseLines() {
+        for (int i = limit - 1; i >= released; i--) {
+            if (buffer[i] == LF) {
+                released = i + 1;
+                return;
+            }
+        }
+    }
+
+    private void compact() {
+        if (position > 0) {
+            System.arraycopy(buffer, position, buffer, 0, limit - position);
+            released -= position;
+            limit -= position;
+            position = 0;
+        }
+    }
+}
@@ -0,0 +1,76 @@
+package com.icegreen.greenmail.server;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+
+/**
+ * Writes to a socket channel, independent of the channel being in blocking or non-blocking mode.
+ * <p>
+ * A socket stream rejects writes while its channel is non-blocking, which is the case when the
+ * {@link NonBlockingConnectionEngine} parks a connection waiting for client input.
+ * <p>
+ * Writes are synchronized on the stream, which is also held when switching the blocking mode
+ * (see {@link AbstractSocketProtocolHandler#configureBlocking(boolean)}), so the mode does not change
+ * while waiting for a congested channel.
+ */
+class SocketChannelOutputStream extends OutputStream {
+    private final SocketChannel channel;
+    private final long writeTimeoutMillis;
+
+    /**
+     * Creates a new stream.
+     *
+     * @param channel            the socket channel.
+     * @param writeTimeoutMillis max time to wait for a congested channel to accept data, 0 for infinite.
+     */
+    SocketChannelOutputStream(SocketChannel channel, long writeTimeoutMillis) {
+        this.channel = channel;
+        this.writeTimeoutMillis = writeTimeoutMillis;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        write(new byte[]{(byte) b}, 0, 1);
+    }
+
+    @Override
+    public synchronized void write(byte[] b, int off, int len) throws IOException {
+        ByteBuffer buf = ByteBuffer.wrap(b, off, len);
+        channel.write(buf);
+        if (buf.hasRemaining()) {
+            // Non-blocking channel with full send buffer, wait till the client reads
+            try (Selector selector = Selector.open()) {
+                channel.register(selector, SelectionKey.OP_WRITE);
+                final long start = System.currentTimeMillis();
+                while (buf.hasRemaining()) {
+                    if (selector.select(writeTimeoutMillis) == 0 && writeTimeoutMillis > 0L
+                        && System.currentTimeMillis() - start >= writeTimeoutMillis) {
+                        throw new SocketTimeoutException("Write timed out after " + writeTimeoutMillis + "ms");
+                    }
+                    selector.selectedKeys().clear();
+                    channel.write(buf);
+                }
+            }
+        }
+    }
+
+    /**
+     * Switches the blocking mode, once no write waits for the channel.
+     *
+     * @param block if true, switch to blocking mode.
+     * @throws IOException on error.
+     */
+    synchronized void configureBlocking(boolean block) throws IOException {
+        channel.configureBlocking(block);
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+}
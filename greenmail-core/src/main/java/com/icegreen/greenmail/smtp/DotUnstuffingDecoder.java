@@ -0,0 +1,93 @@
+/*
+ * Copyright (c) 2014 Wael Chatila / Icegreen Technologies. All Rights Reserved.
+ * This software is released under the Apache license 2.0
+ */
+package com.icegreen.greenmail.smtp;
+
+import java.util.Arrays;
+
+/**
+ * Decodes SMTP DATA content in chunks, removing dot-stuffing until &lt;CRLF&gt;.&lt;CRLF&gt; is encountered.
+ * <p>
+ * Runs of plain content get copied in bulk into a growing buffer.
+ * See <a href="https://tools.ietf.org/html/rfc5321#section-4.5.2">RFC 5321 section 4.5.2</a>.
+ */
+class DotUnstuffingDecoder {
+    private static final int CR_LF_DOT = '\r' << 16 | '\n' << 8 | '.';
+    private static final int CR_LF_DOT_CR = '\r' << 24 | '\n' << 16 | '.' << 8 | '\r';
+
+    private byte[] buf;
+    private int count;
+    private int cbuf = '\r' << 8 | '\n'; // Caches current last 4 bytes. Initialize with CRLF as we are at the start of a line.
+    private boolean complete;
+
+    /**
+     * @param initialContent initial content, prepended to the decoded content.
+     */
+    DotUnstuffingDecoder(byte[] initialContent) {
+        buf = Arrays.copyOf(initialContent, Math.max(1024, initialContent.length * 2));
+        count = initialContent.length;
+    }
+
+    /**
+     * Decodes a chunk of content.
+     *
+     * @param src the content.
+     * @param off the offset.
+     * @param len the length.
+     * @return the number of consumed bytes, less than len if the end of data was reached within the chunk.
+     */
+    int decode(byte[] src, int off, int len) {
+        final int end = off + len;
+        int runStart = off;
+        for (int i = off; i < end; i++) {
+            final int b = src[i] & 0xFF;
+            if (cbuf == CR_LF_DOT_CR && b == '\n') { // CRLF-DOT-CRLF
+                append(src, runStart, i - runStart);
+                count = Math.max(0, count - 4 /* CR + LF + DOT + CR */);
+                complete = true;
+                return i + 1 - off;
+            } else if ((cbuf & 0xffffff) == CR_LF_DOT && b == '.') { // CR_LF_DOT and DOT => Skip dot once
+                // When a line of mail text is received by the SMTP server, it checks
+                // the line.  If the line is composed of a single period, it is
+                // treated as the end of mail indicator.  If the first character is a
+                // period and there are other characters on the line, the first
+                // character is deleted.
+                append(src, runStart, i - runStart);
+                runStart = i + 1;
+            }
+            cbuf = (cbuf << 8) | b;
+        }
+        append(src, runStart, end - runStart);
+        return len;
+    }
+
+    private void append(byte[] src, int off, int len) {
+        if (count + len > buf.length) {
+            buf = Arrays.copyOf(buf, Math.max(count + len, buf.length * 2));
+        }
+        System.arraycopy(src, off, buf, count, len);
+        count += len;
+    }
+
+    /**
+     * @return true, if end of data was reached.
+     */
+    boolean isComplete() {
+        return complete;
+    }
+
+    /**
+     * @return the decoded content buffer, valid up to {@link #getLength()}.
+     */
+    byte[] getBuffer() {
+        return buf;
+    }
+
+    /**
+     * @return the decoded content length.
+     */
+    int getLength() {
+        return count;
+    }
+}
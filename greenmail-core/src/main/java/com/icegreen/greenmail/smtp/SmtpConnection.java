@@ -7,9 +7,12 @@
 package com.icegreen.greenmail.smtp;
 
 import com.icegreen.greenmail.util.EncodingUtil;
+import com.icegreen.greenmail.util.GreenMailUtil;
 import com.icegreen.greenmail.util.InternetPrintWriter;
 import com.icegreen.greenmail.util.LoggingInputStream;
 import com.icegreen.greenmail.util.LoggingOutputStream;
+import jakarta.mail.internet.MimeMessage;
+import jakarta.mail.util.SharedByteArrayInputStream;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -36,14 +39,14 @@ public class SmtpConnection {
         clientAddress = sock.getInetAddress();
 
         // Output
-        OutputStream o = sock.getOutputStream();
+        OutputStream o = handler.getOutputStream();
         if(log.isDebugEnabled()) {
             o = new LoggingOutputStream(o, "S: ");
         }
         out = InternetPrintWriter.createForEncoding(o, true, EncodingUtil.CHARSET_EIGHT_BIT_ENCODING);
 
         // Input
-        InputStream is = sock.getInputStream();
+        InputStream is = handler.getInputStream();
         if (log.isDebugEnabled()) {
             is = new LoggingInputStream(is, "C: ");
         }
@@ -83,8 +86,7 @@ public class SmtpConnection {
         }
     }
 
-    private static final int CR_LF_DOT = '\r' << 16 | '\n' << 8 | '.';
-    private static final int CR_LF_DOT_CR = '\r' << 24 | '\n' << 16 | '.' << 8 | '\r';
+    private static final int DATA_CHUNK_SIZE = 8192;
 
     /**
      * Reads the contents of the stream until
@@ -94,35 +96,55 @@ public class SmtpConnection {
      * @return a limited input stream.
      */
     public InputStream dotLimitedInputStream(byte[] initialContent) {
-        ByteArrayOutputStream bos = new ByteArrayOutputStream(1024);
-        try {
-            bos.write(initialContent); // Insert initial prefix content
+        final DotUnstuffingDecoder decoder = readDotLimitedContent(initialContent);
+        return new SharedByteArrayInputStream(decoder.getBuffer(), 0, decoder.getLength());
+    }
 
-            int cbuf = '\r' << 8 | '\n'; // Caches current last 4 bytes. Initialize with CRLF as we are at the start of a line.
-            while (true) {
-                int b = in.read();
-                if (b < 0) {
-                    throw new IllegalStateException("Unexpected end of stream, read " + bos.size() + " bytes: " + bos);
-                }
+    /**
+     * Reads a message until &lt;CRLF&gt;.&lt;CRLF&gt; is encountered.
+     * <p>
+     * The message shares the read content, and can be stored without serializing it again.
+     *
+     * @param initialContent initial content
+     * @return the message.
+     */
+    public MimeMessage readDotLimitedMessage(byte[] initialContent) {
+        final DotUnstuffingDecoder decoder = readDotLimitedContent(initialContent);
+        return GreenMailUtil.newMimeMessage(decoder.getBuffer(), decoder.getLength());
+    }
 
-                if (cbuf == CR_LF_DOT_CR && b == '\n') { // CRLF-DOT-CRLF
-                    final byte[] buf = bos.toByteArray();
-                    int maxLen = Math.min(bos.size(), bos.size() - 4 /* CR + LF + DOT + CR */);
-                    return new ByteArrayInputStream(buf, 0, maxLen);
-                } else if ((cbuf & 0xffffff) == CR_LF_DOT && b == '.') { // CR_LF_DOT and DOT => Skip dot once
-                    // https://tools.ietf.org/html/rfc5321#section-4.5.2 :
-                    // When a line of mail text is received by the SMTP server, it checks
-                    // the line.  If the line is composed of a single period, it is
-                    // treated as the end of mail indicator.  If the first character is a
-                    // period and there are other characters on the line, the first
-                    // character is deleted.
-                } else {
-                    bos.write(b);
+    private DotUnstuffingDecoder readDotLimitedContent(byte[] initialContent) {
+        final DotUnstuffingDecoder decoder = new DotUnstuffingDecoder(initialContent);
+        final byte[] chunk = new byte[DATA_CHUNK_SIZE];
+        try {
+            while (!decoder.isComplete()) {
+                // Must not consume any input following end of data, such as pipelined commands
+                in.mark(chunk.length);
+                final int len = in.read(chunk, 0, chunk.length);
+                if (len < 0) {
+                    throw new IllegalStateException("Unexpected end of stream, read " + decoder.getLength() + " bytes: "
+                        + new String(decoder.getBuffer(), 0, decoder.getLength(), EncodingUtil.CHARSET_EIGHT_BIT_ENCODING));
+                }
+                final int consumed = decoder.decode(chunk, 0, len);
+                if (consumed < len) {
+                    in.reset();
+                    skipFully(consumed);
                 }
-                cbuf = (cbuf << 8) | b;
             }
         } catch (IOException ex) {
-            throw new IllegalStateException("Can not read line, read " + bos.size() + " bytes: " + bos, ex);
+            throw new IllegalStateException("Can not read line, read " + decoder.getLength() + " bytes: "
+                + new String(decoder.getBuffer(), 0, decoder.getLength(), EncodingUtil.CHARSET_EIGHT_BIT_ENCODING), ex);
+        }
+        return decoder;
+    }
+
+    private void skipFully(long n) throws IOException {
+        while (n > 0) {
+            final long skipped = in.skip(n);
+            if (skipped <= 0) {
+                throw new IOException("Can not skip " + n + " bytes");
+            }
+            n -= skipped;
         }
     }
 
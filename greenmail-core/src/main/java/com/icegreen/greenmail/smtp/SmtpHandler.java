@@ -39,38 +39,47 @@ public class SmtpHandler extends AbstractSocketProtocolHandler {
     }
 
     @Override
-    public void run() {
-        try {
-            conn = new SmtpConnection(this, socket);
-            state = new SmtpState();
+    protected void open() throws IOException {
+        conn = new SmtpConnection(this, socket);
+        state = new SmtpState();
+
+        sendGreetings();
+    }
 
-            sendGreetings();
+    @Override
+    protected boolean hasBufferedInput() {
+        try {
+            return conn.in.available() > 0;
+        } catch (IOException e) {
+            return false;
+        }
+    }
 
-            while (!isQuitting()) {
-                handleCommand();
-            }
-        } catch (SocketTimeoutException ste) {
+    @Override
+    protected void handleException(Exception e) {
+        if (e instanceof SocketTimeoutException) {
             conn.send("421 Service shutting down and closing transmission channel " +
                 "(socket timeout, SO_TIMEOUT: " + getSoTimeout() + "ms)");
             conn.quit();
-        } catch (Exception e) {
-            // Closing socket on blocked read
-            if (!isQuitting()) {
-                throw new IllegalStateException("Unexpected error handling connection", e);
-            }
-        } finally {
-            if (null != state) {
-                state.clearMessage();
-            }
-            close();
+        } else {
+            super.handleException(e);
         }
     }
 
+    @Override
+    public void close() {
+        if (null != state) {
+            state.clearMessage();
+        }
+        super.close();
+    }
+
     protected void sendGreetings() {
         conn.send("220 " + conn.getServerGreetingsName() +
             " GreenMail SMTP Service v" + BuildInfo.INSTANCE.getProjectVersion() + " ready");
     }
 
+    @Override
     protected void handleCommand()
         throws IOException {
         currentLine = conn.readLine();
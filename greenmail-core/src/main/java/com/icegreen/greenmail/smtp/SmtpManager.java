@@ -7,14 +7,19 @@
 package com.icegreen.greenmail.smtp;
 
 
-import java.util.ArrayList;
-import java.util.Collections;
-import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import com.icegreen.greenmail.imap.ImapHostManager;
 import com.icegreen.greenmail.mail.MailAddress;
 import com.icegreen.greenmail.mail.MovingMessage;
+import com.icegreen.greenmail.server.ConnectionExecutors;
+import com.icegreen.greenmail.store.StoredMessageCounter;
 import com.icegreen.greenmail.user.UserManager;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -26,13 +31,13 @@ public class SmtpManager {
     final Incoming incomingQueue;
     final UserManager userManager;
     private final ImapHostManager imapHostManager;
-    final List<CountDownLatch> notifyList;
+    private volatile AsyncDelivery asyncDelivery;
+    private final AtomicInteger deliveryFailures = new AtomicInteger();
 
     public SmtpManager(ImapHostManager imapHostManager, UserManager userManager) {
         this.imapHostManager = imapHostManager;
         this.userManager = userManager;
         incomingQueue = new Incoming();
-        notifyList = Collections.synchronizedList(new ArrayList<>());
     }
 
 
@@ -51,24 +56,94 @@ public class SmtpManager {
         return null;
     }
 
-    public synchronized void send(SmtpState state) {
-        incomingQueue.enqueue(state.getMessage());
-        for (CountDownLatch o : notifyList) {
-            o.countDown();
+    /**
+     * Delivers the current message of given state.
+     * <p>
+     * If asynchronous delivery is enabled, the message gets queued for delivery by a delivery worker,
+     * blocking if the queue is full.
+     *
+     * @param state the SMTP state.
+     */
+    public void send(SmtpState state) {
+        final AsyncDelivery delivery = asyncDelivery;
+        if (null != delivery) {
+            delivery.enqueue(state.getMessage());
+        } else {
+            incomingQueue.enqueue(state.getMessage());
+        }
+    }
+
+    /**
+     * Creates a latch counted down once the store contains at least given number of messages.
+     * <p>
+     * Waiters get notified by the store, see {@link StoredMessageCounter}.
+     *
+     * @param emailCount the expected number of messages.
+     * @return the latch, already counted down if no need to wait.
+     */
+    public CountDownLatch createAndAddNewWaitObject(int emailCount) {
+        return imapHostManager.getStore().getMessageCounter().newLatch(emailCount);
+    }
+
+    /**
+     * Enables asynchronous delivery.
+     * <p>
+     * Instead of delivering inline before replying to the SMTP client,
+     * received messages get queued and delivered concurrently by a pool of delivery workers.
+     * Waiting for incoming emails accounts for queued messages, as waiters only get notified once stored.
+     *
+     * @param workers       the number of delivery workers.
+     * @param queueCapacity the maximum number of queued messages before SMTP sessions block.
+     */
+    public synchronized void startAsyncDelivery(int workers, int queueCapacity) {
+        if (workers < 1 || queueCapacity < 1) {
+            throw new IllegalArgumentException("Expected positive workers and queue capacity, but got workers="
+                + workers + " and queueCapacity=" + queueCapacity);
         }
+        if (null != asyncDelivery) {
+            throw new IllegalStateException("Asynchronous delivery already started");
+        }
+        asyncDelivery = new AsyncDelivery(workers, queueCapacity);
     }
 
     /**
-     * @return null if no need to wait. Otherwise, caller must call wait() on the returned object
+     * Stops asynchronous delivery, if enabled.
+     * <p>
+     * Delivers messages still queued before returning: workers drain the queue, and messages left once
+     * the workers did not terminate in time get delivered by the calling thread.
      */
-    public synchronized CountDownLatch createAndAddNewWaitObject(int emailCount) {
-        final int existingCount = imapHostManager.getAllMessages().size();
-        if (existingCount >= emailCount) {
-            return new CountDownLatch(0); // Requires no count down, therefore not added to notification list
+    public synchronized void stopAsyncDelivery() {
+        if (null != asyncDelivery) {
+            asyncDelivery.shutdown();
+            asyncDelivery = null;
         }
-        CountDownLatch latch = new CountDownLatch(emailCount - existingCount);
-        notifyList.add(latch);
-        return latch;
+    }
+
+    /**
+     * @return true, if asynchronous delivery is enabled.
+     */
+    public boolean isAsyncDeliveryEnabled() {
+        return null != asyncDelivery;
+    }
+
+    /**
+     * @return the number of messages queued for asynchronous delivery, not including messages being delivered.
+     */
+    public int getDeliveryQueueSize() {
+        final AsyncDelivery delivery = asyncDelivery;
+        return null == delivery ? 0 : delivery.queue.size();
+    }
+
+    /**
+     * Gets the number of failed asynchronous deliveries.
+     * <p>
+     * Asynchronously delivered messages are already acknowledged to the SMTP client,
+     * so a failure is only logged and counted, once per recipient.
+     *
+     * @return the number of recipients a queued message could not be delivered to.
+     */
+    public int getDeliveryFailureCount() {
+        return deliveryFailures.get();
     }
 
     //~----------------------------------------------------------------------------------------------------------------
@@ -91,6 +166,75 @@ public class SmtpManager {
         }
     }
 
+    private class AsyncDelivery {
+        private static final long POLL_MILLIS = 100L;
+        private final BlockingQueue<MovingMessage> queue;
+        private final ExecutorService workers;
+        private volatile boolean draining; // Workers terminate once the queue is empty
+
+        AsyncDelivery(int workerCount, int queueCapacity) {
+            queue = new ArrayBlockingQueue<>(queueCapacity);
+            workers = Executors.newFixedThreadPool(workerCount,
+                ConnectionExecutors.newPlatformThreadFactory("greenmail-delivery"));
+            for (int i = 0; i < workerCount; i++) {
+                workers.execute(this::deliverQueued);
+            }
+        }
+
+        void enqueue(MovingMessage msg) {
+            try {
+                queue.put(msg);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("Interrupted while queueing message " + msg + " for delivery", e);
+            }
+        }
+
+        private void deliverQueued() {
+            while (!Thread.currentThread().isInterrupted()) {
+                final MovingMessage msg;
+                try {
+                    msg = queue.poll(POLL_MILLIS, TimeUnit.MILLISECONDS);
+                } catch (InterruptedException e) {
+                    return; // Shutdown
+                }
+                if (null != msg) {
+                    deliver(msg);
+                } else if (draining) {
+                    return;
+                }
+            }
+        }
+
+        private void deliver(MovingMessage msg) {
+            // Delivers to remaining recipients, even if delivering to a recipient fails
+            for (MailAddress address : msg.getToAddresses()) {
+                try {
+                    incomingQueue.handle(msg, address);
+                } catch (RuntimeException e) {
+                    deliveryFailures.incrementAndGet();
+                    log.error("Can not deliver message {} to {}", msg, address, e);
+                }
+            }
+        }
+
+        void shutdown() {
+            draining = true;
+            workers.shutdown();
+            try {
+                if (!workers.awaitTermination(5, TimeUnit.SECONDS)) {
+                    log.warn("Delivery workers did not terminate, delivering {} queued messages", queue.size());
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            // Left by workers not terminating in time, or queued by SMTP sessions while stopping
+            for (MovingMessage msg = queue.poll(); null != msg; msg = queue.poll()) {
+                deliver(msg);
+            }
+        }
+    }
+
     public UserManager getUserManager() {
         return userManager;
     }
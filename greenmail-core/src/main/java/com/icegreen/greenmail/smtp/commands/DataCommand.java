@@ -10,10 +10,8 @@ import com.icegreen.greenmail.mail.MovingMessage;
 import com.icegreen.greenmail.smtp.SmtpConnection;
 import com.icegreen.greenmail.smtp.SmtpManager;
 import com.icegreen.greenmail.smtp.SmtpState;
-import com.icegreen.greenmail.util.GreenMailUtil;
 
 import java.io.IOException;
-import java.io.InputStream;
 import java.nio.charset.StandardCharsets;
 
 /**
@@ -52,9 +50,7 @@ public class DataCommand extends SmtpCommand {
             heloName + "); " +
             new java.util.Date() + "\r\n";
 
-        try (final InputStream messageIs = conn.dotLimitedInputStream(initialContent.getBytes(StandardCharsets.UTF_8))) {
-            msg.setMimeMessage(GreenMailUtil.newMimeMessage(messageIs));
-        }
+        msg.setMimeMessage(conn.readDotLimitedMessage(initialContent.getBytes(StandardCharsets.UTF_8)));
 
         String err = manager.checkData(state);
         if (err != null) {
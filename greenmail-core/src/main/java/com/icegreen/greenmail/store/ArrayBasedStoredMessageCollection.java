@@ -0,0 +1,236 @@
+/* -------------------------------------------------------------------
+ * This software is released under the Apache license 2.0
+ * -------------------------------------------------------------------
+ */
+package com.icegreen.greenmail.store;
+
+import com.icegreen.greenmail.foedus.util.MsgRangeFilter;
+import com.icegreen.greenmail.imap.commands.IdRange;
+import jakarta.mail.Flags;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * Stores messages in UID order, backed by a sorted primitive UID array.
+ * <p>
+ * As UIDs strictly ascend with message sequence numbers (MSN), looking up the MSN or message of a UID
+ * is a binary search instead of a linear scan. Expunging compacts the arrays in a single pass.
+ * <p>
+ * Thread safe: Readers work on an immutable snapshot published via a volatile reference, and never block.
+ * Writers synchronize on the collection instance. Appending fills spare capacity of the current arrays,
+ * beyond the size of any published snapshot, while removing messages copies the arrays.
+ */
+public class ArrayBasedStoredMessageCollection implements StoredMessageCollection {
+    private static final int INITIAL_CAPACITY = 16;
+
+    private volatile Snapshot snapshot = new Snapshot(new long[INITIAL_CAPACITY],
+        new StoredMessage[INITIAL_CAPACITY], 0);
+
+    /**
+     * Messages and UIDs at a point in time. Array elements below size never change.
+     */
+    private static final class Snapshot {
+        final long[] uids;
+        final StoredMessage[] messages;
+        final int size;
+
+        Snapshot(long[] uids, StoredMessage[] messages, int size) {
+            this.uids = uids;
+            this.messages = messages;
+            this.size = size;
+        }
+
+        int indexOf(long uid) {
+            return Arrays.binarySearch(uids, 0, size, uid);
+        }
+    }
+
+    @Override
+    public int size() {
+        return snapshot.size;
+    }
+
+    @Override
+    public synchronized void add(StoredMessage storedMessage) {
+        final long uid = storedMessage.getUid();
+        final Snapshot current = snapshot;
+        final int size = current.size;
+        if (size == 0 || uid > current.uids[size - 1]) {
+            // Common case: UIDs get assigned in ascending order
+            long[] uids = current.uids;
+            StoredMessage[] messages = current.messages;
+            if (size == uids.length) {
+                final int newCapacity = size + Math.max(INITIAL_CAPACITY, size >> 1);
+                uids = Arrays.copyOf(uids, newCapacity);
+                messages = Arrays.copyOf(messages, newCapacity);
+            }
+            uids[size] = uid;
+            messages[size] = storedMessage;
+            snapshot = new Snapshot(uids, messages, size + 1);
+        } else {
+            final int idx = current.indexOf(uid);
+            if (idx >= 0) {
+                throw new IllegalArgumentException("Message for uid " + uid + " already exists");
+            }
+            final int insertAt = -(idx + 1);
+            final int capacity = Math.max(current.uids.length, size + 1);
+            final long[] uids = new long[capacity];
+            final StoredMessage[] messages = new StoredMessage[capacity];
+            System.arraycopy(current.uids, 0, uids, 0, insertAt);
+            System.arraycopy(current.messages, 0, messages, 0, insertAt);
+            uids[insertAt] = uid;
+            messages[insertAt] = storedMessage;
+            System.arraycopy(current.uids, insertAt, uids, insertAt + 1, size - insertAt);
+            System.arraycopy(current.messages, insertAt, messages, insertAt + 1, size - insertAt);
+            snapshot = new Snapshot(uids, messages, size + 1);
+        }
+    }
+
+    @Override
+    public synchronized StoredMessage remove(long uid) {
+        final Snapshot current = snapshot;
+        final int idx = current.indexOf(uid);
+        if (idx < 0) {
+            throw new IllegalArgumentException("No message for uid " + uid + " exists");
+        }
+        final StoredMessage message = current.messages[idx];
+        final long[] uids = new long[current.uids.length];
+        final StoredMessage[] messages = new StoredMessage[current.uids.length];
+        System.arraycopy(current.uids, 0, uids, 0, idx);
+        System.arraycopy(current.messages, 0, messages, 0, idx);
+        final int tail = current.size - idx - 1;
+        System.arraycopy(current.uids, idx + 1, uids, idx, tail);
+        System.arraycopy(current.messages, idx + 1, messages, idx, tail);
+        snapshot = new Snapshot(uids, messages, current.size - 1);
+        return message;
+    }
+
+    @Override
+    public synchronized void clear() {
+        snapshot = new Snapshot(new long[INITIAL_CAPACITY], new StoredMessage[INITIAL_CAPACITY], 0);
+    }
+
+    @Override
+    public int getFirstUnseen() {
+        final Snapshot current = snapshot;
+        for (int i = 0; i < current.size; i++) {
+            if (!current.messages[i].isSet(Flags.Flag.SEEN)) {
+                return i + 1;
+            }
+        }
+        return -1;
+    }
+
+    @Override
+    public int getMsn(long uid) throws FolderException {
+        final int idx = snapshot.indexOf(uid);
+        if (idx < 0) {
+            throw new FolderException("No such message of uid " + uid + ".");
+        }
+        return idx + 1;
+    }
+
+    @Override
+    public StoredMessage findByUid(long uid) {
+        final Snapshot current = snapshot;
+        final int idx = current.indexOf(uid);
+        return idx < 0 ? null : current.messages[idx];
+    }
+
+    @Override
+    public List<StoredMessage> getMessages(MsgRangeFilter range) {
+        final Snapshot current = snapshot;
+        List<StoredMessage> ret = new ArrayList<>();
+        for (int i = 0; i < current.size; i++) {
+            if (range.includes(i + 1)) {
+                ret.add(current.messages[i]);
+            }
+        }
+        return ret;
+    }
+
+    /**
+     * Gets the messages at this point in time, in MSN order.
+     * <p>
+     * Returns an unmodifiable view of the current snapshot without copying, unaffected by later changes.
+     *
+     * @return the messages.
+     */
+    @Override
+    public List<StoredMessage> getMessages() {
+        final Snapshot current = snapshot;
+        return Collections.unmodifiableList(Arrays.asList(current.messages).subList(0, current.size));
+    }
+
+    @Override
+    public long[] getMessageUids() {
+        final Snapshot current = snapshot;
+        return Arrays.copyOf(current.uids, current.size);
+    }
+
+    @Override
+    public void expunge(List<FolderListener> folderListeners) {
+        expunge(folderListeners, null);
+    }
+
+    @Override
+    public synchronized void expunge(List<FolderListener> folderListeners, IdRange[] idRanges) {
+        final Snapshot current = snapshot;
+        int[] expungedMsns = null;
+        int expungedCount = 0;
+        long[] uids = null;
+        StoredMessage[] messages = null;
+        int retained = 0;
+        for (int i = 0; i < current.size; i++) {
+            final StoredMessage message = current.messages[i];
+            if (message.isSet(Flags.Flag.DELETED) &&
+                (idRanges == null || IdRange.containsUid(idRanges, current.uids[i]))) {
+                if (null == expungedMsns) {
+                    expungedMsns = new int[current.size - i];
+                    uids = new long[current.uids.length];
+                    messages = new StoredMessage[current.uids.length];
+                    System.arraycopy(current.uids, 0, uids, 0, i);
+                    System.arraycopy(current.messages, 0, messages, 0, i);
+                }
+                expungedMsns[expungedCount++] = i + 1; // MSNs start counting at 1
+            } else {
+                if (null != uids) {
+                    uids[retained] = current.uids[i];
+                    messages[retained] = message;
+                }
+                retained++;
+            }
+        }
+        if (expungedCount == 0) {
+            return;
+        }
+        snapshot = new Snapshot(uids, messages, retained);
+
+        // Notify in descending order, so each MSN is still valid when announced
+        synchronized (folderListeners) {
+            for (int i = expungedCount - 1; i >= 0; i--) {
+                for (FolderListener expungeListener : folderListeners) {
+                    expungeListener.expunged(expungedMsns[i]);
+                }
+            }
+        }
+    }
+
+    @Override
+    public StoredMessage get(int i) {
+        final Snapshot current = snapshot;
+        if (i < 0 || i >= current.size) {
+            throw new IndexOutOfBoundsException("Index: " + i + ", Size: " + current.size);
+        }
+        return current.messages[i];
+    }
+
+    @Override
+    public Iterator<StoredMessage> iterator() {
+        return getMessages().iterator();
+    }
+}
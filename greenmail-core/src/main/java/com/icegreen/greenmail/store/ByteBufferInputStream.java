@@ -0,0 +1,97 @@
+/*
+ * Copyright (c) 2014 Wael Chatila / Icegreen Technologies. All Rights Reserved.
+ * This software is released under the Apache license 2.0
+ */
+package com.icegreen.greenmail.store;
+
+import jakarta.mail.internet.SharedInputStream;
+
+import java.io.InputStream;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+
+/**
+ * Reads a range of a buffer, sharing the buffer with the streams of parsed MIME parts
+ * like {@link jakarta.mail.util.SharedByteArrayInputStream} does for byte arrays.
+ */
+final class ByteBufferInputStream extends InputStream implements SharedInputStream {
+    private final ByteBuffer buffer;
+    private final int start;
+    private final int end;
+    private int position;
+    private int mark;
+
+    /**
+     * @param buffer the buffer, read with absolute offsets.
+     * @param start  the start offset.
+     * @param end    the end offset, exclusive.
+     */
+    ByteBufferInputStream(ByteBuffer buffer, int start, int end) {
+        this.buffer = buffer;
+        this.start = start;
+        this.end = end;
+        this.position = start;
+        this.mark = start;
+    }
+
+    @Override
+    public int read() {
+        return position < end ? buffer.get(position++) & 0xFF : -1;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) {
+        if (position >= end) {
+            return -1;
+        }
+        final int count = Math.min(len, end - position);
+        final ByteBuffer source = buffer.duplicate();
+        ((Buffer) source).position(position);
+        source.get(b, off, count);
+        position += count;
+        return count;
+    }
+
+    @Override
+    public long skip(long n) {
+        final int count = (int) Math.max(0, Math.min(n, end - position));
+        position += count;
+        return count;
+    }
+
+    @Override
+    public int available() {
+        return end - position;
+    }
+
+    @Override
+    public boolean markSupported() {
+        return true;
+    }
+
+    @Override
+    public synchronized void mark(int readLimit) {
+        mark = position;
+    }
+
+    @Override
+    public synchronized void reset() {
+        position = mark;
+    }
+
+    @Override
+    public long getPosition() {
+        return (long) position - start;
+    }
+
+    @Override
+    public InputStream newStream(long start, long end) {
+        if (start < 0) {
+            throw new IllegalArgumentException("start < 0");
+        }
+        if (end == -1) {
+            end = (long) this.end - this.start;
+        }
+        return new ByteBufferInputStream(buffer, this.start + (int) start, this.start + (int) end);
+    }
+}
@@ -0,0 +1,500 @@
+/*
+ * Copyright (c) 2014 Wael Chatila / Icegreen Technologies. All Rights Reserved.
+ * This software is released under the Apache license 2.0
+ */
+package com.icegreen.greenmail.store;
+
+import jakarta.mail.Flags;
+import jakarta.mail.Session;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * A {@link Store} persisting mailboxes and messages in a directory, recovered when opening the store again.
+ * <p>
+ * The serialized messages are appended to memory-mapped segment files, so that the message content is not held
+ * on heap. Mailbox and message changes are appended to a journal, which is replayed and compacted on opening,
+ * and compacted again when grown to twice its compacted size.
+ * Recovery restores the mailbox hierarchy including UIDVALIDITY and UIDNEXT, and the UIDs and flags of messages.
+ * Journal records of messages carry a checksum of the content, and messages whose content was not completely
+ * written are skipped when recovering.
+ * <p>
+ * Changes are written to the file system immediately, and survive the JVM terminating unexpectedly. They are only
+ * forced to the storage device when closing the store, so changes may be lost if the operating system crashes.
+ * <p>
+ * Users are not persisted, and reattach to their recovered mailboxes when created again.
+ */
+public class FileBackedStore extends InMemoryStore implements Closeable {
+    private static final Logger log = LoggerFactory.getLogger(FileBackedStore.class);
+    private static final String JOURNAL = "journal.dat";
+    private static final long MIN_COMPACTION_SIZE = 1024L * 1024L;
+    private static final int ROOT_ID = 0;
+    // Journal record types
+    private static final int FOLDER = 1;
+    private static final int DELETE_FOLDER = 2;
+    private static final int APPEND = 3;
+    private static final int FLAGS = 4;
+    private static final int REMOVE = 5;
+
+    private final Path directory;
+    private final MessageSegments segments;
+    private final Session session = Session.getInstance(new Properties());
+    // Appending records holds the read lock, as appends are atomic. Compacting and closing hold the write lock.
+    private final ReadWriteLock journalLock = new ReentrantReadWriteLock();
+    private final AtomicLong journalSize = new AtomicLong();
+    private final long minCompactionSize;
+    private FileChannel journal;
+    private long compactionSize; // Journal size triggering compaction
+    private int nextFolderId = ROOT_ID + 1;
+
+    /**
+     * Opens a store, recovering mailboxes and messages stored before.
+     *
+     * @param directory the directory of the store, created if not existing.
+     * @throws IOException on error recovering the store.
+     */
+    public FileBackedStore(Path directory) throws IOException {
+        this(directory, MessageSegments.DEFAULT_SEGMENT_SIZE, MIN_COMPACTION_SIZE);
+    }
+
+    FileBackedStore(Path directory, int segmentSize) throws IOException {
+        this(directory, segmentSize, MIN_COMPACTION_SIZE);
+    }
+
+    FileBackedStore(Path directory, int segmentSize, long minCompactionSize) throws IOException {
+        this.directory = Files.createDirectories(directory);
+        this.minCompactionSize = minCompactionSize;
+        segments = new MessageSegments(directory, segmentSize);
+        getRootMailbox().setStorage(segments);
+        recover();
+    }
+
+    /**
+     * @return the number of segment files, for testing.
+     */
+    int getSegmentCount() {
+        return segments.getSegmentCount();
+    }
+
+    /**
+     * Ignored, as message content is always stored outside the heap in the segment files.
+     *
+     * @param enabled ignored.
+     */
+    @Override
+    public void setOffHeapStorageEnabled(boolean enabled) {
+        // Nothing to do
+    }
+
+    @Override
+    public MailFolder createMailbox(MailFolder parent, String mailboxName, boolean selectable) throws FolderException {
+        HierarchicalFolder child = (HierarchicalFolder) super.createMailbox(parent, mailboxName, selectable);
+        synchronized (this) {
+            child.setJournal(new FolderLog(nextFolderId++));
+        }
+        writeFolder(child);
+        return child;
+    }
+
+    @Override
+    public void deleteMailbox(MailFolder folder) throws FolderException {
+        super.deleteMailbox(folder);
+        final int id = folderId((HierarchicalFolder) folder);
+        write(out -> {
+            out.writeByte(DELETE_FOLDER);
+            out.writeInt(id);
+        });
+    }
+
+    @Override
+    public void renameMailbox(MailFolder existingFolder, String newName) throws FolderException {
+        super.renameMailbox(existingFolder, newName);
+        writeFolder((HierarchicalFolder) existingFolder);
+    }
+
+    @Override
+    public MailFolder setSelectable(MailFolder folder, boolean selectable) {
+        super.setSelectable(folder, selectable);
+        writeFolder((HierarchicalFolder) folder);
+        return folder;
+    }
+
+    /**
+     * @return the size of the journal, for testing.
+     */
+    long getJournalSize() {
+        return journalSize.get();
+    }
+
+    /**
+     * Forces pending changes to the storage device and closes the journal. The store must not be modified afterwards.
+     */
+    @Override
+    public void close() throws IOException {
+        journalLock.writeLock().lock();
+        try {
+            segments.close();
+            if (null != journal) {
+                journal.force(true);
+                journal.close();
+                journal = null;
+            }
+        } finally {
+            journalLock.writeLock().unlock();
+        }
+    }
+
+    private int folderId(HierarchicalFolder folder) {
+        return folder == getRootMailbox() ? ROOT_ID : ((FolderLog) folder.getJournal()).id;
+    }
+
+    private void writeFolder(HierarchicalFolder folder) {
+        write(out -> writeFolder(out, folder));
+    }
+
+    private void writeFolder(DataOutputStream out, HierarchicalFolder folder) throws IOException {
+        out.writeByte(FOLDER);
+        out.writeInt(folderId(folder));
+        out.writeInt(folderId(folder.getParent()));
+        out.writeUTF(folder.getName());
+        out.writeLong(folder.getUidValidity());
+        out.writeLong(folder.getUIDNext());
+        out.writeBoolean(folder.isSelectable());
+    }
+
+    private void writeAppend(DataOutputStream out, int folderId, StoredMessage message) throws IOException {
+        final RawMessage content = message.getRawMessage();
+        if (content.getAddress() < 0) {
+            throw new IllegalStateException("Content of message " + message.getUid() + " is not stored");
+        }
+        out.writeByte(APPEND);
+        out.writeInt(folderId);
+        out.writeLong(message.getUid());
+        out.writeLong(message.getReceivedDate().getTime());
+        out.writeLong(content.getAddress());
+        out.writeInt(content.getSize());
+        out.writeInt((int) content.getChecksum()); // Computed before locking, see FolderLog#adding
+        writeFlags(out, message.getFlags());
+    }
+
+    private static void writeFlags(DataOutputStream out, Flags flags) throws IOException {
+        out.writeInt(FlagBits.systemBits(flags));
+        final String[] userFlags = flags.getUserFlags();
+        out.writeShort(userFlags.length);
+        for (String userFlag : userFlags) {
+            out.writeUTF(userFlag);
+        }
+    }
+
+    private static Flags readFlags(DataInputStream in) throws IOException {
+        final Flags flags = FlagBits.toFlags(in.readInt());
+        for (int i = in.readUnsignedShort(); i > 0; i--) {
+            flags.add(in.readUTF());
+        }
+        return flags;
+    }
+
+    /**
+     * Appends a journal record, serialized without locking, and compacts the journal if grown too large.
+     */
+    private void write(JournalWriter writer) {
+        final ByteArrayOutputStream record = new ByteArrayOutputStream(64);
+        final long size;
+        try {
+            final DataOutputStream out = new DataOutputStream(record);
+            writer.write(out);
+            out.flush();
+            final ByteBuffer buffer = ByteBuffer.wrap(record.toByteArray());
+            journalLock.readLock().lock();
+            try {
+                if (null == journal) {
+                    throw new IllegalStateException("Store " + directory + " is closed");
+                }
+                while (buffer.hasRemaining()) {
+                    journal.write(buffer);
+                }
+                size = journalSize.addAndGet(record.size());
+            } finally {
+                journalLock.readLock().unlock();
+            }
+        } catch (IOException e) {
+            throw new IllegalStateException("Can not write journal of store " + directory, e);
+        }
+        if (size > compactionSize) {
+            compact();
+        }
+    }
+
+    /**
+     * Replaces the journal by a compacted one, unless compacted meanwhile.
+     * <p>
+     * Reads the folders and messages without locking them. Changes journaled after reading the changed state
+     * again are harmless, as replaying records is idempotent.
+     */
+    private void compact() {
+        journalLock.writeLock().lock();
+        try {
+            if (null != journal && journalSize.get() > compactionSize) {
+                openCompactedJournal(directory.resolve(JOURNAL));
+            }
+        } catch (IOException e) {
+            throw new IllegalStateException("Can not compact journal of store " + directory, e);
+        } finally {
+            journalLock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Writes the current state to a new journal, which replaces the journal appended to.
+     */
+    private void openCompactedJournal(Path journalFile) throws IOException {
+        final Path compacted = directory.resolve(JOURNAL + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(compacted)))) {
+            writeChildren(out, getRootMailbox());
+        }
+        if (null != journal) {
+            journal.close();
+        }
+        Files.move(compacted, journalFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        journal = FileChannel.open(journalFile, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        journalSize.set(journal.size());
+        compactionSize = Math.max(minCompactionSize, 2 * journalSize.get());
+    }
+
+    /**
+     * Replays the journal, restores the mailboxes and messages, and replaces the journal by a compacted one.
+     */
+    private void recover() throws IOException {
+        final Path journalFile = directory.resolve(JOURNAL);
+        final Map<Integer, FolderRecord> folders = new TreeMap<>();
+        if (Files.exists(journalFile)) {
+            try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(journalFile)))) {
+                replay(in, folders);
+            }
+        }
+
+        final Map<Integer, List<FolderRecord>> childRecords = new HashMap<>();
+        for (FolderRecord folder : folders.values()) {
+            childRecords.computeIfAbsent(folder.parentId, id -> new ArrayList<>()).add(folder);
+            nextFolderId = Math.max(nextFolderId, folder.id + 1);
+        }
+        restoreChildren(getRootMailbox(), ROOT_ID, childRecords, new HashMap<>());
+        segments.recovered();
+
+        // Compacts by writing the current state only
+        openCompactedJournal(journalFile);
+    }
+
+    private void replay(DataInputStream in, Map<Integer, FolderRecord> folders) throws IOException {
+        int type;
+        try {
+            while ((type = in.read()) >= 0) {
+                switch (type) {
+                    case FOLDER: {
+                        final int id = in.readInt();
+                        final FolderRecord folder = folders.computeIfAbsent(id, FolderRecord::new);
+                        folder.parentId = in.readInt();
+                        folder.name = in.readUTF();
+                        folder.uidValidity = in.readLong();
+                        folder.uidNext = Math.max(folder.uidNext, in.readLong());
+                        folder.selectable = in.readBoolean();
+                        break;
+                    }
+                    case DELETE_FOLDER:
+                        folders.remove(in.readInt());
+                        break;
+                    case APPEND: {
+                        final FolderRecord folder = folders.get(in.readInt());
+                        final MessageRecord message = new MessageRecord(in.readLong(), in.readLong(), in.readLong(),
+                            in.readInt(), in.readInt(), readFlags(in));
+                        if (null != folder) {
+                            folder.messages.put(message.uid, message);
+                            folder.uidNext = Math.max(folder.uidNext, message.uid + 1);
+                        }
+                        break;
+                    }
+                    case FLAGS: {
+                        final FolderRecord folder = folders.get(in.readInt());
+                        final long uid = in.readLong();
+                        final Flags flags = readFlags(in);
+                        final MessageRecord message = null == folder ? null : folder.messages.get(uid);
+                        if (null != message) {
+                            message.flags = flags;
+                        }
+                        break;
+                    }
+                    case REMOVE: {
+                        final FolderRecord folder = folders.get(in.readInt());
+                        final long uid = in.readLong();
+                        if (null != folder) {
+                            folder.messages.remove(uid);
+                        }
+                        break;
+                    }
+                    default:
+                        throw new IOException("Unknown journal record type " + type + " in store " + directory);
+                }
+            }
+        } catch (EOFException e) {
+            // Eg when stopped while writing
+            log.warn("Ignoring incomplete last journal record of store {}", directory);
+        }
+    }
+
+    private void restoreChildren(HierarchicalFolder parent, int parentId, Map<Integer, List<FolderRecord>> childRecords,
+                                 Map<Long, RawMessage> contents) {
+        for (FolderRecord record : childRecords.getOrDefault(parentId, Collections.emptyList())) {
+            final HierarchicalFolder folder = parent.createChild(record.name);
+            folder.setSelectable(record.selectable);
+            folder.restore(record.uidValidity, record.uidNext);
+            for (MessageRecord message : record.messages.values()) {
+                try {
+                    folder.restore(restoreMessage(message, contents));
+                } catch (RuntimeException e) {
+                    log.warn("Can not recover message {} of mailbox {} in store {}", message.uid,
+                        folder.getFullName(), directory, e);
+                }
+            }
+            folder.setJournal(new FolderLog(record.id));
+            restoreChildren(folder, record.id, childRecords, contents);
+        }
+    }
+
+    private StoredMessage restoreMessage(MessageRecord message, Map<Long, RawMessage> contents) {
+        final Date receivedDate = new Date(message.receivedDate);
+        final RawMessage shared = contents.get(message.address);
+        final StoredMessage storedMessage;
+        if (null == shared) {
+            storedMessage = new StoredMessage(session, segments.get(message.address, message.length),
+                message.address, segments, message.flags, receivedDate, message.uid, getKeywordTable());
+            if ((int) storedMessage.getRawMessage().getChecksum() != message.checksum) {
+                // Eg appended to the journal, but not written to the segment before the system crashed
+                throw new IllegalStateException("Content does not match checksum");
+            }
+        } else {
+            storedMessage = new StoredMessage(shared, message.flags, receivedDate, message.uid, getKeywordTable());
+        }
+        segments.recover(message.address, message.length);
+        contents.put(message.address, storedMessage.getRawMessage());
+        return storedMessage;
+    }
+
+    private void writeChildren(DataOutputStream out, HierarchicalFolder parent) throws IOException {
+        for (HierarchicalFolder folder : parent.getChildren()) {
+            if (null == folder.getJournal()) {
+                continue; // Being created, journaled once created
+            }
+            writeFolder(out, folder);
+            final int id = folderId(folder);
+            for (StoredMessage message : folder.getMessages()) {
+                writeAppend(out, id, message);
+            }
+            writeChildren(out, folder);
+        }
+    }
+
+    @FunctionalInterface
+    private interface JournalWriter {
+        void write(DataOutputStream out) throws IOException;
+    }
+
+    /**
+     * Journals the message changes of a folder.
+     */
+    private final class FolderLog implements FolderJournal {
+        private final int id;
+
+        private FolderLog(int id) {
+            this.id = id;
+        }
+
+        @Override
+        public void adding(StoredMessage message) {
+            message.getRawMessage().getChecksum();
+        }
+
+        @Override
+        public void added(StoredMessage message) {
+            write(out -> writeAppend(out, id, message));
+        }
+
+        @Override
+        public void flagsChanged(StoredMessage message) {
+            write(out -> {
+                out.writeByte(FLAGS);
+                out.writeInt(id);
+                out.writeLong(message.getUid());
+                writeFlags(out, message.getFlags());
+            });
+        }
+
+        @Override
+        public void removed(List<StoredMessage> messages) {
+            write(out -> {
+                for (StoredMessage message : messages) {
+                    out.writeByte(REMOVE);
+                    out.writeInt(id);
+                    out.writeLong(message.getUid());
+                }
+            });
+        }
+    }
+
+    private static final class FolderRecord {
+        private final int id;
+        private int parentId;
+        private String name;
+        private long uidValidity;
+        private long uidNext = 1;
+        private boolean selectable;
+        private final Map<Long, MessageRecord> messages = new TreeMap<>();
+
+        private FolderRecord(int id) {
+            this.id = id;
+        }
+    }
+
+    private static final class MessageRecord {
+        private final long uid;
+        private final long receivedDate;
+        private final long address;
+        private final int length;
+        private final int checksum;
+        private Flags flags;
+
+        private MessageRecord(long uid, long receivedDate, long address, int length, int checksum, Flags flags) {
+            this.uid = uid;
+            this.receivedDate = receivedDate;
+            this.address = address;
+            this.length = length;
+            this.checksum = checksum;
+            this.flags = flags;
+        }
+    }
+}
@@ -0,0 +1,112 @@
+/*
+ * Copyright (c) 2014 Wael Chatila / Icegreen Technologies. All Rights Reserved.
+ * This software is released under the Apache license 2.0
+ */
+package com.icegreen.greenmail.store;
+
+import jakarta.mail.Flags;
+
+import java.util.Arrays;
+
+/**
+ * Compact message flags, with system flags as bits and user flags (keywords) as bit set of keyword IDs.
+ * <p>
+ * Keyword IDs are interned by the {@link KeywordTable} of a store.
+ * Keyword bit sets are shared between messages and never modified once created.
+ */
+final class FlagBits {
+    static final long[] NO_KEYWORDS = new long[0];
+
+    private static final Flags.Flag[] SYSTEM_FLAGS = {
+        Flags.Flag.ANSWERED, Flags.Flag.DELETED, Flags.Flag.DRAFT, Flags.Flag.FLAGGED,
+        Flags.Flag.RECENT, Flags.Flag.SEEN, Flags.Flag.USER
+    };
+
+    private FlagBits() {
+        // Static helper
+    }
+
+    /**
+     * @param flag the system flag.
+     * @return the bit of the flag, or 0 if unknown.
+     */
+    static int bit(Flags.Flag flag) {
+        for (int i = 0; i < SYSTEM_FLAGS.length; i++) {
+            if (SYSTEM_FLAGS[i] == flag) {
+                return 1 << i;
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * @param flags the flags.
+     * @return the bits of the system flags.
+     */
+    static int systemBits(Flags flags) {
+        int bits = 0;
+        for (Flags.Flag flag : flags.getSystemFlags()) {
+            bits |= bit(flag);
+        }
+        return bits;
+    }
+
+    /**
+     * @param systemBits the bits of the system flags.
+     * @return the system flags.
+     */
+    static Flags toFlags(int systemBits) {
+        final Flags flags = new Flags();
+        for (int i = 0; i < SYSTEM_FLAGS.length; i++) {
+            if ((systemBits & (1 << i)) != 0) {
+                flags.add(SYSTEM_FLAGS[i]);
+            }
+        }
+        return flags;
+    }
+
+    static long[] union(long[] ids, long[] added) {
+        if (containsAll(ids, added)) {
+            return ids;
+        }
+        final long[] merged = Arrays.copyOf(ids, Math.max(ids.length, added.length));
+        for (int i = 0; i < added.length; i++) {
+            merged[i] |= added[i];
+        }
+        return merged;
+    }
+
+    static long[] difference(long[] ids, long[] removed) {
+        if (!containsAny(ids, removed)) {
+            return ids;
+        }
+        final long[] remaining = ids.clone();
+        for (int i = 0; i < Math.min(remaining.length, removed.length); i++) {
+            remaining[i] &= ~removed[i];
+        }
+        int length = remaining.length;
+        while (length > 0 && remaining[length - 1] == 0L) {
+            length--;
+        }
+        return length == 0 ? NO_KEYWORDS : Arrays.copyOf(remaining, length);
+    }
+
+    static boolean containsAll(long[] ids, long[] required) {
+        for (int i = 0; i < required.length; i++) {
+            final long present = i < ids.length ? ids[i] : 0L;
+            if ((present & required[i]) != required[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    static boolean containsAny(long[] ids, long[] candidates) {
+        for (int i = 0; i < Math.min(ids.length, candidates.length); i++) {
+            if ((ids[i] & candidates[i]) != 0L) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
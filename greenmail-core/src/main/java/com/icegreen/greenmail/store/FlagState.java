@@ -0,0 +1,121 @@
+/*
+ * Copyright (c) 2014 Wael Chatila / Icegreen Technologies. All Rights Reserved.
+ * This software is released under the Apache license 2.0
+ */
+package com.icegreen.greenmail.store;
+
+import jakarta.mail.Flags;
+
+/**
+ * Flags of a stored message, as bits and a bit set of interned keyword IDs instead of a {@link Flags} instance.
+ * <p>
+ * Shared by a stored message and its parsed mime message, so flags are kept without parsing the message.
+ *
+ * @see FlagBits
+ */
+final class FlagState {
+    private volatile int systemFlags;
+    private volatile long[] keywords = FlagBits.NO_KEYWORDS;
+    private final KeywordTable keywordTable;
+    private FolderCounters counters; // Of the folder containing the message, if any
+
+    /**
+     * @param flags        the initial flags, or null.
+     * @param keywordTable the keywords of the store.
+     */
+    FlagState(Flags flags, KeywordTable keywordTable) {
+        this.keywordTable = keywordTable;
+        if (null != flags) {
+            systemFlags = FlagBits.systemBits(flags);
+            keywords = keywordTable.keywordIds(flags);
+        }
+    }
+
+    /**
+     * @return the keywords of the store, interning the keyword IDs.
+     */
+    KeywordTable getKeywordTable() {
+        return keywordTable;
+    }
+
+    synchronized Flags getFlags() {
+        return keywordTable.toFlags(systemFlags, keywords);
+    }
+
+    boolean isSet(Flags.Flag flag) {
+        return (systemFlags & FlagBits.bit(flag)) != 0;
+    }
+
+    synchronized void setFlag(Flags.Flag flag, boolean set) {
+        final int bit = FlagBits.bit(flag);
+        updateSystemFlags(set ? systemFlags | bit : systemFlags & ~bit);
+    }
+
+    synchronized void setFlags(Flags flag, boolean set) {
+        final int bits = FlagBits.systemBits(flag);
+        final long[] ids = keywordTable.keywordIds(flag);
+        if (set) {
+            updateSystemFlags(systemFlags | bits);
+            keywords = FlagBits.union(keywords, ids);
+        } else {
+            updateSystemFlags(systemFlags & ~bits);
+            keywords = FlagBits.difference(keywords, ids);
+        }
+    }
+
+    /**
+     * Replaces all flags, including user flags.
+     *
+     * @param flags the new flags.
+     */
+    synchronized void replaceFlags(Flags flags) {
+        updateSystemFlags(FlagBits.systemBits(flags));
+        keywords = keywordTable.keywordIds(flags);
+    }
+
+    private void updateSystemFlags(int bits) {
+        final int oldBits = systemFlags;
+        systemFlags = bits;
+        if (null != counters && oldBits != bits) {
+            counters.changed(oldBits, bits);
+        }
+    }
+
+    /**
+     * Starts counting the message flags, when added to a folder.
+     *
+     * @param folderCounters the counters of the folder.
+     */
+    synchronized void attach(FolderCounters folderCounters) {
+        counters = folderCounters;
+        counters.added(systemFlags);
+    }
+
+    /**
+     * Stops counting the message flags, when removed from a folder.
+     */
+    synchronized void detach() {
+        if (null != counters) {
+            counters.removed(systemFlags);
+            counters = null;
+        }
+    }
+
+    /**
+     * Matches flags without creating a {@link Flags} instance.
+     *
+     * @param bits     the system flag bits.
+     * @param keywords the keyword IDs as bit set, interned by the {@link #getKeywordTable() keyword table}.
+     * @param set      true if all flags must be set, false if all flags must be unset.
+     * @return true, if matching.
+     * @see StoredFlagTerm
+     */
+    boolean matchFlags(int bits, long[] keywords, boolean set) {
+        final int currentBits = systemFlags;
+        final long[] currentKeywords = this.keywords;
+        if (set) {
+            return (currentBits & bits) == bits && FlagBits.containsAll(currentKeywords, keywords);
+        }
+        return (currentBits & bits) == 0 && !FlagBits.containsAny(currentKeywords, keywords);
+    }
+}
@@ -0,0 +1,61 @@
+/*
+ * Copyright (c) 2014 Wael Chatila / Icegreen Technologies. All Rights Reserved.
+ * This software is released under the Apache license 2.0
+ */
+package com.icegreen.greenmail.store;
+
+import jakarta.mail.Flags;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Counts messages of a folder by flag, as reported by IMAP STATUS and SELECT.
+ * <p>
+ * Maintained on append, flag change and removal of messages, so reading counts requires neither a scan nor a lock.
+ */
+final class FolderCounters {
+    private static final int SEEN = FlagBits.bit(Flags.Flag.SEEN);
+    private static final int RECENT = FlagBits.bit(Flags.Flag.RECENT);
+
+    private final AtomicInteger messages = new AtomicInteger();
+    private final AtomicInteger seen = new AtomicInteger();
+    private final AtomicInteger recent = new AtomicInteger();
+
+    void added(int flagBits) {
+        messages.incrementAndGet();
+        changed(0, flagBits);
+    }
+
+    void removed(int flagBits) {
+        changed(flagBits, 0);
+        messages.decrementAndGet();
+    }
+
+    void changed(int oldFlagBits, int newFlagBits) {
+        update(seen, SEEN, oldFlagBits, newFlagBits);
+        update(recent, RECENT, oldFlagBits, newFlagBits);
+    }
+
+    private static void update(AtomicInteger counter, int bit, int oldFlagBits, int newFlagBits) {
+        if ((oldFlagBits & bit) != (newFlagBits & bit)) {
+            if ((newFlagBits & bit) != 0) {
+                counter.incrementAndGet();
+            } else {
+                counter.decrementAndGet();
+            }
+        }
+    }
+
+    int getMessageCount() {
+        return messages.get();
+    }
+
+    int getUnseenCount() {
+        // Seen gets decremented before messages on removal, so never negative
+        return Math.max(0, messages.get() - seen.get());
+    }
+
+    int getRecentCount() {
+        return recent.get();
+    }
+}
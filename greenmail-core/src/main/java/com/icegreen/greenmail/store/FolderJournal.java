@@ -0,0 +1,38 @@
+/*
+ * Copyright (c) 2014 Wael Chatila / Icegreen Technologies. All Rights Reserved.
+ * This software is released under the Apache license 2.0
+ */
+package com.icegreen.greenmail.store;
+
+import java.util.List;
+
+/**
+ * Records the message changes of a folder, for recovering the folder.
+ *
+ * @see FileBackedStore
+ */
+interface FolderJournal {
+    /**
+     * Prepares journaling a message about to be added, before the folder gets locked.
+     *
+     * @param message the message.
+     */
+    default void adding(StoredMessage message) {
+        // Nothing to prepare
+    }
+
+    /**
+     * @param message the message added to the folder, with its initial flags.
+     */
+    void added(StoredMessage message);
+
+    /**
+     * @param message the message whose flags changed.
+     */
+    void flagsChanged(StoredMessage message);
+
+    /**
+     * @param messages the messages removed from the folder.
+     */
+    void removed(List<StoredMessage> messages);
+}
@@ -16,5 +16,20 @@ public interface FolderListener {
 
     void flagsUpdated(int msn, Flags flags, Long uid);
 
+    /**
+     * Notifies about flag updates of several messages at once, e.g. for a STORE on a message set.
+     * <p>
+     * Defaults to notifying each update via {@link #flagsUpdated(int, Flags, Long)}.
+     *
+     * @param msns  the message sequence numbers.
+     * @param flags the updated flags, by index of the MSNs.
+     * @param uids  the UIDs by index of the MSNs, or null if not to be included in responses.
+     */
+    default void flagsUpdated(int[] msns, Flags[] flags, long[] uids) {
+        for (int i = 0; i < msns.length; i++) {
+            flagsUpdated(msns[i], flags[i], null == uids ? null : uids[i]);
+        }
+    }
+
     void mailboxDeleted();
 }
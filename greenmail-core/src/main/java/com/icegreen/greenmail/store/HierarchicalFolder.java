@@ -16,13 +16,13 @@ import jakarta.mail.internet.MimeMessage;
 import jakarta.mail.search.SearchTerm;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.Date;
-import java.util.HashMap;
 import java.util.List;
-import java.util.Map;
 import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
 
 /**
@@ -40,18 +40,42 @@ class HierarchicalFolder implements MailFolder, UIDFolder {
     private final Flags permanentFlags = new Flags();
 
 
-    private final StoredMessageCollection mailMessages = new ListBasedStoredMessageCollection();
+    private final StoredMessageCollection mailMessages = new ArrayBasedStoredMessageCollection();
     private final List<FolderListener> _mailboxListeners = Collections.synchronizedList(new ArrayList<>());
     protected String name;
     private final Collection<HierarchicalFolder> children = new CopyOnWriteArrayList<>();
     private HierarchicalFolder parent;
     private boolean isSelectable = false;
     private final AtomicLong nextUid = new AtomicLong(1);
-    private final long uidValidity;
+    private static final long UNASSIGNED_UID = 0; // Until adding the message
+    private long uidValidity; // Only restored before use
+    private final StoredMessageCounter messageCounter;
+    private final KeywordTable keywordTable; // Shared by all folders of a store
+    private final AtomicInteger accountMessageCount; // Shared by all folders of an account
+    private final FolderCounters counters = new FolderCounters();
+    private volatile SearchIndex searchIndex; // Optional
+    private volatile MessageStorage storage; // Optional, shared by all folders of a store
+    private volatile FolderJournal journal; // Optional
 
     protected HierarchicalFolder(HierarchicalFolder parent, String name) {
+        this(parent, name, parent.keywordTable);
+    }
+
+    /**
+     * @param parent       the parent folder, or null for a root folder.
+     * @param name         the folder name.
+     * @param keywordTable the keywords of the store.
+     */
+    protected HierarchicalFolder(HierarchicalFolder parent, String name, KeywordTable keywordTable) {
         this.name = name;
         this.parent = parent;
+        this.keywordTable = keywordTable;
+        messageCounter = null == parent ? new StoredMessageCounter() : parent.messageCounter;
+        if (null == parent) {
+            accountMessageCount = null; // Root
+        } else {
+            accountMessageCount = null == parent.accountMessageCount ? new AtomicInteger() : parent.accountMessageCount;
+        }
         // From https://tools.ietf.org/html/rfc3501#section-2.3.1.1 :
         // "A good UIDVALIDITY value to use in this case
         //  is a 32-bit representation of the creation date/time of
@@ -81,6 +105,72 @@ class HierarchicalFolder implements MailFolder, UIDFolder {
         return parent;
     }
 
+    /**
+     * @return the counter of messages in all folders of this folder hierarchy.
+     */
+    StoredMessageCounter getMessageCounter() {
+        return messageCounter;
+    }
+
+    @Override
+    public int getAccountMessageCount() {
+        return null == accountMessageCount ? messageCounter.getCount() : accountMessageCount.get();
+    }
+
+    private void countAdded(StoredMessage message) {
+        if (null != accountMessageCount) {
+            accountMessageCount.incrementAndGet();
+        }
+        messageCounter.added(message);
+    }
+
+    private void countRemoved(List<StoredMessage> messages) {
+        if (null != accountMessageCount) {
+            accountMessageCount.addAndGet(-messages.size());
+        }
+        messageCounter.removed(messages);
+    }
+
+    /**
+     * Sets the storage for the content of messages added afterwards, for this folder and its children.
+     *
+     * @param storage the storage, or null for storing content on heap.
+     */
+    void setStorage(MessageStorage storage) {
+        this.storage = storage;
+        for (HierarchicalFolder child : children) {
+            child.setStorage(storage);
+        }
+    }
+
+    FolderJournal getJournal() {
+        return journal;
+    }
+
+    void setJournal(FolderJournal journal) {
+        this.journal = journal;
+    }
+
+    /**
+     * Restores the UID values of a recovered folder, before any message is added.
+     *
+     * @param uidValidity the UIDVALIDITY.
+     * @param uidNext     the next UID.
+     */
+    void restore(long uidValidity, long uidNext) {
+        this.uidValidity = uidValidity;
+        nextUid.set(uidNext);
+    }
+
+    /**
+     * Adds a recovered message.
+     *
+     * @param message the message, with a UID less than the next UID.
+     */
+    void restore(StoredMessage message) {
+        storeAndNotifyListeners(message, false);
+    }
+
     void moveToNewParent(HierarchicalFolder newParent) {
         if (!newParent.children.contains(this)) {
             parent = newParent;
@@ -103,6 +193,10 @@ class HierarchicalFolder implements MailFolder, UIDFolder {
         if(children.stream().anyMatch(it->mailboxName.equals(it.name))) {
             throw new IllegalStateException("Mailbox "+mailboxName+ " already exists in "+children);
         }
+        if (null != searchIndex) {
+            child.setSearchIndexEnabled(true);
+        }
+        child.storage = storage;
         children.add(child);
         return child;
     }
@@ -141,9 +235,7 @@ class HierarchicalFolder implements MailFolder, UIDFolder {
 
     @Override
     public int getMessageCount() {
-        synchronized (mailMessages) {
-            return mailMessages.size();
-        }
+        return counters.getMessageCount();
     }
 
     @Override
@@ -158,15 +250,7 @@ class HierarchicalFolder implements MailFolder, UIDFolder {
 
     @Override
     public int getUnseenCount() {
-        int count = 0;
-        synchronized (mailMessages) {
-            for (StoredMessage message : mailMessages) {
-                if (!message.isSet(Flags.Flag.SEEN)) {
-                    count++;
-                }
-            }
-        }
-        return count;
+        return counters.getUnseenCount();
     }
 
     /**
@@ -181,6 +265,9 @@ class HierarchicalFolder implements MailFolder, UIDFolder {
 
     @Override
     public int getRecentCount(boolean reset) {
+        if (!reset || counters.getRecentCount() == 0) {
+            return counters.getRecentCount();
+        }
         int count = 0;
         synchronized (mailMessages) {
             for (StoredMessage message : mailMessages) {
@@ -224,15 +311,11 @@ class HierarchicalFolder implements MailFolder, UIDFolder {
     @Override
     public List<StoredMessage> getNonDeletedMessages() {
         List<StoredMessage> ret = new ArrayList<>();
-
-        synchronized (mailMessages) {
-            for (StoredMessage mailMessage : mailMessages) {
-                if (!mailMessage.getFlags().contains(Flags.Flag.DELETED)) {
-                    ret.add(mailMessage);
-                }
+        for (StoredMessage mailMessage : mailMessages) {
+            if (!mailMessage.isSet(Flags.Flag.DELETED)) {
+                ret.add(mailMessage);
             }
         }
-
         return ret;
     }
 
@@ -249,19 +332,16 @@ class HierarchicalFolder implements MailFolder, UIDFolder {
     public long appendMessage(MimeMessage message,
                               Flags flags,
                               Date receivedDate) {
-        final long uid = nextUid.getAndIncrement();
-
         try {
             message.setFlags(flags, true);
             message.setFlag(Flags.Flag.RECENT, true);
         } catch (MessagingException e) {
             throw new IllegalStateException("Can not set flags", e);
         }
-        StoredMessage storedMessage = new StoredMessage(message,
-                receivedDate, uid);
-        storeAndNotifyListeners(storedMessage);
-
-        return uid;
+        // Captures the content before locking, and assigns the UID when adding
+        StoredMessage content = new StoredMessage(message,
+                receivedDate, UNASSIGNED_UID, storage, keywordTable);
+        return storeAndNotifyListeners(content, true);
     }
 
     private void recordUserFlags(Flags flags) {
@@ -277,12 +357,63 @@ class HierarchicalFolder implements MailFolder, UIDFolder {
         }
     }
 
-    private void storeAndNotifyListeners(StoredMessage storedMessage) {
+    /**
+     * Enables or disables indexing messages for searching, for this folder and its children.
+     *
+     * @param enabled true, if enabling.
+     */
+    void setSearchIndexEnabled(boolean enabled) {
+        synchronized (mailMessages) {
+            if (!enabled) {
+                searchIndex = null;
+            } else if (null == searchIndex) {
+                SearchIndex index = new SearchIndex();
+                for (StoredMessage message : mailMessages) {
+                    index.add(message.getUid(), SearchIndex.grams(message.getMimeMessage()));
+                }
+                searchIndex = index;
+            }
+        }
+        for (HierarchicalFolder child : children) {
+            child.setSearchIndexEnabled(enabled);
+        }
+    }
+
+    /**
+     * Adds a message.
+     *
+     * @param content   the message.
+     * @param assignUid true for adding the message with the next UID, false for keeping the UID of the message.
+     * @return the UID of the added message.
+     */
+    private long storeAndNotifyListeners(StoredMessage content, boolean assignUid) {
+        // Extracts text and prepares journaling before locking
+        long[] grams = null == searchIndex ? null : SearchIndex.grams(content.getMimeMessage());
+        final FolderJournal preparingJournal = journal;
+        if (null != preparingJournal) {
+            preparingJournal.adding(content);
+        }
+        final StoredMessage storedMessage;
         int newMsn;
         synchronized (mailMessages) {
+            // Assigns the UID while adding, so that the messages and the search index stay ascending by UID
+            storedMessage = assignUid ? new StoredMessage(content, content.getReceivedDate(), nextUid.getAndIncrement())
+                : content;
+            final SearchIndex index = searchIndex;
+            if (null != index) {
+                // Indexes before adding, as searches read messages without locking
+                index.add(storedMessage.getUid(),
+                    null == grams ? SearchIndex.grams(storedMessage.getMimeMessage()) : grams);
+            }
             mailMessages.add(storedMessage);
+            final FolderJournal folderJournal = journal;
+            if (null != folderJournal) {
+                folderJournal.added(storedMessage);
+            }
+            storedMessage.attach(counters, folderJournal);
             newMsn = mailMessages.size();
         }
+        countAdded(storedMessage);
         recordUserFlags(storedMessage.getFlags());
 
         // Notify all the listeners of the new message
@@ -291,6 +422,7 @@ class HierarchicalFolder implements MailFolder, UIDFolder {
                 _mailboxListener.added(newMsn);
             }
         }
+        return storedMessage.getUid();
     }
 
     @Override
@@ -316,10 +448,8 @@ class HierarchicalFolder implements MailFolder, UIDFolder {
         int msn = getMsn(uid);
         StoredMessage message = mailMessages.get(msn - 1);
         // Clear every currently set flag, not only the system flags in ALL_FLAGS, so the
-        // replace form of STORE also drops user keywords. getFlags() returns a copy, so
-        // clearing from it while mutating the message is safe.
-        message.setFlags(message.getFlags(), false);
-        message.setFlags(flags, true);
+        // replace form of STORE also drops user keywords.
+        message.replaceFlags(flags);
 
         recordUserFlags(flags);
 
@@ -330,6 +460,75 @@ class HierarchicalFolder implements MailFolder, UIDFolder {
         notifyFlagUpdate(msn, message.getFlags(), uidNotification, silentListener);
     }
 
+    @Override
+    public void setFlags(Flags flags, boolean value, IdRange[] idSet, boolean useUids, FolderListener silentListener) {
+        updateFlags(flags, value ? 1 : -1, idSet, useUids, silentListener);
+        if (value) {
+            recordUserFlags(flags);
+        }
+    }
+
+    @Override
+    public void replaceFlags(Flags flags, IdRange[] idSet, boolean useUids, FolderListener silentListener) {
+        updateFlags(flags, 0, idSet, useUids, silentListener);
+        recordUserFlags(flags);
+    }
+
+    /**
+     * Updates flags of all messages in the message set in a single pass, notifying listeners once.
+     *
+     * @param flags          the flags.
+     * @param sign           positive for setting, negative for clearing, or 0 for replacing flags.
+     * @param idSet          the message set.
+     * @param useUids        true, if the message set contains UIDs instead of MSNs.
+     * @param silentListener the listener not to notify, or null.
+     */
+    private void updateFlags(Flags flags, int sign, IdRange[] idSet, boolean useUids, FolderListener silentListener) {
+        int count = 0;
+        int[] msns;
+        Flags[] updatedFlags;
+        long[] uids;
+        synchronized (mailMessages) {
+            final int size = mailMessages.size();
+            msns = new int[size];
+            updatedFlags = new Flags[size];
+            uids = new long[size];
+            int msn = 0;
+            for (StoredMessage message : mailMessages) {
+                msn++;
+                final long uid = message.getUid();
+                if (!IdRange.containsUid(idSet, useUids ? uid : msn)) {
+                    continue;
+                }
+                if (sign > 0) {
+                    message.setFlags(flags, true);
+                } else if (sign < 0) {
+                    message.setFlags(flags, false);
+                } else {
+                    message.replaceFlags(flags);
+                }
+                msns[count] = msn;
+                updatedFlags[count] = message.getFlags();
+                uids[count] = uid;
+                count++;
+            }
+        }
+        if (count == 0) {
+            return;
+        }
+
+        msns = Arrays.copyOf(msns, count);
+        updatedFlags = Arrays.copyOf(updatedFlags, count);
+        uids = useUids ? Arrays.copyOf(uids, count) : null;
+        synchronized (_mailboxListeners) {
+            for (FolderListener listener : _mailboxListeners) {
+                if (listener != silentListener) {
+                    listener.flagsUpdated(msns, updatedFlags, uids);
+                }
+            }
+        }
+    }
+
     private void notifyFlagUpdate(int msn, Flags flags, Long uidNotification, FolderListener silentListener) {
         synchronized (_mailboxListeners) {
             for (FolderListener listener : _mailboxListeners) {
@@ -344,9 +543,18 @@ class HierarchicalFolder implements MailFolder, UIDFolder {
 
     @Override
     public void deleteAllMessages() {
+        final List<StoredMessage> deleted;
         synchronized (mailMessages) {
+            deleted = mailMessages.getMessages();
             mailMessages.clear();
+            final SearchIndex index = searchIndex;
+            if (null != index) {
+                index.clear();
+            }
+            deleted.forEach(StoredMessage::detach);
         }
+        countRemoved(deleted);
+        released(deleted);
     }
 
     @Override
@@ -364,14 +572,7 @@ class HierarchicalFolder implements MailFolder, UIDFolder {
 
     @Override
     public StoredMessage getMessage(long uid) {
-        synchronized (mailMessages) {
-            for (StoredMessage mailMessage : mailMessages) {
-                if (mailMessage.getUid() == uid) {
-                    return mailMessage;
-                }
-            }
-        }
-        return null;
+        return mailMessages.findByUid(uid);
     }
 
     @Override
@@ -381,27 +582,9 @@ class HierarchicalFolder implements MailFolder, UIDFolder {
 
     @Override
     public long[] search(SearchTerm searchTerm) {
-        List<StoredMessage> matchedMessages = new ArrayList<>();
-
-        synchronized (mailMessages) {
-            for (int i = 0; i < mailMessages.size(); i++) {
-                StoredMessage mailMessage = mailMessages.get(i);
-                // Update message sequence number for potential sequence set search
-                // https://tools.ietf.org/html/rfc3501#page-10
-                mailMessage.updateMessageNumber(i + 1);
-                if (searchTerm.match(mailMessage.getMimeMessage())) {
-                    matchedMessages.add(mailMessage);
-                }
-            }
-        }
-
-        long[] matchedUids = new long[matchedMessages.size()];
-        for (int i = 0; i < matchedUids.length; i++) {
-            StoredMessage storedMessage = matchedMessages.get(i);
-            long uid = storedMessage.getUid();
-            matchedUids[i] = uid;
-        }
-        return matchedUids;
+        // Searches a snapshot without locking, so that long searches do not block appending messages
+        final List<StoredMessage> messages = mailMessages.getMessages();
+        return SearchPlan.plan(searchTerm, searchIndex, keywordTable).search(messages);
     }
 
     @Override
@@ -420,8 +603,15 @@ class HierarchicalFolder implements MailFolder, UIDFolder {
 
     @Override
     public long moveMessage(long uid, MailFolder toFolder) throws FolderException {
-        int msn = mailMessages.getMsn(uid);
-        StoredMessage msg = mailMessages.remove(uid);
+        int msn;
+        StoredMessage msg;
+        synchronized (mailMessages) {
+            msn = mailMessages.getMsn(uid);
+            msg = mailMessages.remove(uid);
+            msg.detach();
+            removeFromSearchIndex(1);
+        }
+        countRemoved(Collections.singletonList(msg));
         synchronized (_mailboxListeners) { // Notify listeners of message deleted
             for (FolderListener _mailboxListener : _mailboxListeners) {
                 _mailboxListener.expunged(msn);
@@ -429,22 +619,62 @@ class HierarchicalFolder implements MailFolder, UIDFolder {
         }
 
         final HierarchicalFolder targetFolder = (HierarchicalFolder) toFolder;
-        final long newUid = targetFolder.nextUid.getAndIncrement();
-        StoredMessage storedMessage = new StoredMessage(msg.getMimeMessage(), msg.getReceivedDate(), newUid);
-        storedMessage.setFlag(Flags.Flag.RECENT, true); // Behaves as COPY
-        targetFolder.storeAndNotifyListeners(storedMessage);
+        StoredMessage content = new StoredMessage(msg, msg.getReceivedDate(), UNASSIGNED_UID);
+        content.setFlag(Flags.Flag.RECENT, true); // Behaves as COPY
+        content.getRawMessage().retain();
+        final long newUid = targetFolder.storeAndNotifyListeners(content, true);
+        released(Collections.singletonList(msg)); // After retaining the shared content
 
         return newUid;
     }
 
     @Override
     public void expunge() {
-        mailMessages.expunge(_mailboxListeners);
+        expunge(null);
     }
 
     @Override
     public void expunge(IdRange[] idRanges) {
-        mailMessages.expunge(_mailboxListeners, idRanges);
+        final List<StoredMessage> expunged = new ArrayList<>();
+        synchronized (mailMessages) {
+            for (StoredMessage message : mailMessages) {
+                if (message.isSet(Flags.Flag.DELETED)) {
+                    expunged.add(message); // Candidate
+                }
+            }
+            if (expunged.isEmpty()) {
+                return;
+            }
+            mailMessages.expunge(_mailboxListeners, idRanges);
+            expunged.removeIf(message -> mailMessages.findByUid(message.getUid()) == message);
+            expunged.forEach(StoredMessage::detach);
+            removeFromSearchIndex(expunged.size());
+        }
+        countRemoved(expunged);
+        released(expunged);
+    }
+
+    /**
+     * Records removal of messages, and releases their stored content.
+     */
+    private void released(List<StoredMessage> messages) {
+        if (messages.isEmpty()) {
+            return;
+        }
+        final FolderJournal folderJournal = journal;
+        if (null != folderJournal) {
+            folderJournal.removed(messages);
+        }
+        for (StoredMessage message : messages) {
+            message.getRawMessage().release();
+        }
+    }
+
+    private void removeFromSearchIndex(int count) {
+        final SearchIndex index = searchIndex;
+        if (null != index) {
+            index.removed(count, mailMessages::getMessageUids);
+        }
     }
 
     @Override
@@ -482,45 +712,36 @@ class HierarchicalFolder implements MailFolder, UIDFolder {
 
     @Override
     public Message[] getMessagesByUID(long start, long end) {
-        synchronized (mailMessages) {
-            List<Message> messages = new ArrayList<>();
-            for (StoredMessage mailMessage : mailMessages) {
-                final long uid = mailMessage.getUid();
-                if (uid >= start && uid <= end) {
-                    messages.add(mailMessage.getMimeMessage());
-                }
+        List<Message> messages = new ArrayList<>();
+        for (StoredMessage mailMessage : mailMessages) {
+            final long uid = mailMessage.getUid();
+            if (uid >= start && uid <= end) {
+                messages.add(mailMessage.getMimeMessage());
             }
-            return messages.toArray(new Message[0]);
         }
+        return messages.toArray(new Message[0]);
     }
 
     @Override
     public Message[] getMessagesByUID(long[] uids) {
-        synchronized (mailMessages) {
-            List<Message> messages = new ArrayList<>(uids.length);
-            Map<Long, StoredMessage> uid2Msg = new HashMap<>(mailMessages.size());
-            for (StoredMessage mailMessage : mailMessages) {
-                uid2Msg.put(mailMessage.getUid(), mailMessage);
+        List<Message> messages = new ArrayList<>(uids.length);
+        for (long uid : uids) {
+            final StoredMessage storedMessage = mailMessages.findByUid(uid);
+            if (storedMessage != null) {
+                messages.add(storedMessage.getMimeMessage());
             }
-            for (long uid : uids) {
-                final StoredMessage storedMessage = uid2Msg.get(uid);
-                if (storedMessage != null) {
-                    messages.add(storedMessage.getMimeMessage());
-                }
-            }
-            return messages.toArray(new Message[0]);
         }
+        return messages.toArray(new Message[0]);
     }
 
 
     @Override
     public long getUID(Message message) {
-        // Check if we have a message with same object reference ... otherwise, not supported.
-        synchronized (mailMessages) {
-            for (StoredMessage mailMessage : mailMessages) {
-                if (mailMessage.getMimeMessage() == message) {
-                    return mailMessage.getUid();
-                }
+        // Match by UID, as a message may be parsed again once the cached one got garbage collected
+        if (message instanceof StoredMessage.UidAwareMimeMessage) {
+            final long uid = ((StoredMessage.UidAwareMimeMessage) message).getUid();
+            if (null != mailMessages.findByUid(uid)) {
+                return uid;
             }
         }
         throw new IllegalStateException("No match found for " + message);
@@ -23,9 +23,46 @@ import com.icegreen.greenmail.imap.ImapConstants;
 public class InMemoryStore
     implements Store, ImapConstants {
     boolean quotaSupported = true;
-    private final RootFolder rootMailbox = new RootFolder();
+    private final KeywordTable keywordTable = new KeywordTable();
+    private final RootFolder rootMailbox = new RootFolder(keywordTable);
     private final Map<String, Set<Quota>> quotaMap = new HashMap<>();
+    private MessageArena arena; // Created when enabling off-heap storage
 
+    /**
+     * @return the keywords (user flags) of all messages of this store.
+     */
+    KeywordTable getKeywordTable() {
+        return keywordTable;
+    }
+
+    /**
+     * Enables or disables indexing the text of messages in all mailboxes, which speeds up searching
+     * by subject, address or body text at the cost of memory and delivery time.
+     *
+     * @param enabled true, if enabling.
+     */
+    public void setSearchIndexEnabled(boolean enabled) {
+        rootMailbox.setSearchIndexEnabled(enabled);
+    }
+
+    /**
+     * Enables or disables storing the content of messages added afterwards outside the heap, in all mailboxes.
+     * <p>
+     * Reduces heap usage and garbage collection for large numbers of messages.
+     * Memory of removed messages is reused for new messages instead of being returned.
+     *
+     * @param enabled true, if enabling.
+     */
+    public synchronized void setOffHeapStorageEnabled(boolean enabled) {
+        if (enabled && null == arena) {
+            arena = new MessageArena();
+        }
+        rootMailbox.setStorage(enabled ? arena : null);
+    }
+
+    HierarchicalFolder getRootMailbox() {
+        return rootMailbox;
+    }
 
     @Override
     public MailFolder getMailbox(String absoluteMailboxName) {
@@ -309,6 +346,11 @@ public class InMemoryStore
         }
     }
 
+    @Override
+    public StoredMessageCounter getMessageCounter() {
+        return rootMailbox.getMessageCounter();
+    }
+
     @Override
     public boolean isQuotaSupported() {
         return quotaSupported;
@@ -0,0 +1,86 @@
+/*
+ * Copyright (c) 2014 Wael Chatila / Icegreen Technologies. All Rights Reserved.
+ * This software is released under the Apache license 2.0
+ */
+package com.icegreen.greenmail.store;
+
+import jakarta.mail.Flags;
+
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Interned keywords (user flags) of a store, for keeping message keywords as a bit set of keyword IDs.
+ * <p>
+ * Owned by a store, so that keywords and their IDs live as long as the store and do not depend on other stores.
+ * Keywords are case-insensitive, and keep the spelling first seen.
+ *
+ * @see FlagBits
+ */
+final class KeywordTable {
+    private final Map<String, Integer> ids = new ConcurrentHashMap<>();
+    private volatile String[] keywords = new String[0];
+
+    /**
+     * Gets the keyword IDs of the user flags.
+     *
+     * @param flags the flags.
+     * @return the IDs as bit set, or {@link FlagBits#NO_KEYWORDS}.
+     */
+    long[] keywordIds(Flags flags) {
+        final String[] userFlags = flags.getUserFlags();
+        if (userFlags.length == 0) {
+            return FlagBits.NO_KEYWORDS;
+        }
+        long[] bitSet = FlagBits.NO_KEYWORDS;
+        for (String userFlag : userFlags) {
+            final int id = keywordId(userFlag);
+            if (id >> 6 >= bitSet.length) {
+                bitSet = Arrays.copyOf(bitSet, (id >> 6) + 1);
+            }
+            bitSet[id >> 6] |= 1L << id;
+        }
+        return bitSet;
+    }
+
+    private int keywordId(String keyword) {
+        final String key = keyword.toLowerCase(Locale.ENGLISH);
+        final Integer id = ids.get(key);
+        if (null != id) {
+            return id;
+        }
+        synchronized (ids) {
+            return ids.computeIfAbsent(key, k -> {
+                final String[] extended = Arrays.copyOf(keywords, keywords.length + 1);
+                extended[keywords.length] = keyword;
+                keywords = extended;
+                return extended.length - 1;
+            });
+        }
+    }
+
+    /**
+     * @param systemBits the system flag bits.
+     * @param keywordIds the keyword IDs as bit set.
+     * @return the flags.
+     */
+    Flags toFlags(int systemBits, long[] keywordIds) {
+        final Flags flags = FlagBits.toFlags(systemBits);
+        final String[] names = keywords;
+        for (int word = 0; word < keywordIds.length; word++) {
+            for (long bits = keywordIds[word]; bits != 0L; bits &= bits - 1) {
+                flags.add(names[(word << 6) + Long.numberOfTrailingZeros(bits)]);
+            }
+        }
+        return flags;
+    }
+
+    /**
+     * @return the number of interned keywords.
+     */
+    int size() {
+        return keywords.length;
+    }
+}
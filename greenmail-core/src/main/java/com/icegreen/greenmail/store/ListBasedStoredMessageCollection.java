@@ -85,6 +85,18 @@ public class ListBasedStoredMessageCollection implements StoredMessageCollection
         throw new FolderException("No such message of uid " + uid + ".");
     }
 
+    @Override
+    public StoredMessage findByUid(long uid) {
+        synchronized (mailMessages) {
+            for (StoredMessage message : mailMessages) {
+                if (message.getUid() == uid) {
+                    return message;
+                }
+            }
+        }
+        return null;
+    }
+
     @Override
     public List<StoredMessage> getMessages(MsgRangeFilter range) {
         List<StoredMessage> ret = new ArrayList<>();
@@ -53,6 +53,15 @@ public interface MailFolder {
 
     int getMessageCount();
 
+    /**
+     * Gets the number of messages in all folders of the account containing this folder.
+     * <p>
+     * Maintained when adding or removing messages, so counting requires no scan of the folders.
+     *
+     * @return the number of messages.
+     */
+    int getAccountMessageCount();
+
     int getRecentCount(boolean reset);
 
     long getUidValidity();
@@ -111,6 +120,27 @@ public interface MailFolder {
 
     void replaceFlags(Flags flags, long uid, FolderListener silentListener, boolean addUid) throws FolderException;
 
+    /**
+     * Sets or clears flags of all messages in a message set, in a single pass.
+     *
+     * @param flags          the flags.
+     * @param value          true for setting, false for clearing the flags.
+     * @param idSet          the message set.
+     * @param useUids        true, if the message set contains UIDs instead of MSNs.
+     * @param silentListener the listener not to notify, or null.
+     */
+    void setFlags(Flags flags, boolean value, IdRange[] idSet, boolean useUids, FolderListener silentListener);
+
+    /**
+     * Replaces flags of all messages in a message set, in a single pass.
+     *
+     * @param flags          the flags.
+     * @param idSet          the message set.
+     * @param useUids        true, if the message set contains UIDs instead of MSNs.
+     * @param silentListener the listener not to notify, or null.
+     */
+    void replaceFlags(Flags flags, IdRange[] idSet, boolean useUids, FolderListener silentListener);
+
     int getMsn(long uid) throws FolderException;
 
     void signalDeletion();
@@ -77,6 +77,11 @@ public class MapBasedStoredMessageCollection implements StoredMessageCollection
         }
     }
 
+    @Override
+    public StoredMessage findByUid(long uid) {
+        return mailMessages.get(uid);
+    }
+
     @Override
     public List<StoredMessage> getMessages(MsgRangeFilter range) {
         final List<StoredMessage> messagesInRange = new ArrayList<>();
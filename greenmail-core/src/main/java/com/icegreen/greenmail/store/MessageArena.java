@@ -0,0 +1,294 @@
+/*
+ * Copyright (c) 2014 Wael Chatila / Icegreen Technologies. All Rights Reserved.
+ * This software is released under the Apache license 2.0
+ */
+package com.icegreen.greenmail.store;
+
+import java.lang.ref.PhantomReference;
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Stores message content in direct buffer slabs outside the heap, reusing the blocks of released content.
+ * <p>
+ * Blocks have power of two sizes, and released blocks are kept in a free list per size for reuse.
+ * Each block starts with a header holding the reference count and the size class.
+ * Content larger than a slab gets a dedicated buffer, which is left to the garbage collector when released.
+ * An address combines the slab number (upper 32 bits) and the block offset within the slab.
+ * <p>
+ * Slabs are never returned, so the arena keeps the memory required by the most messages stored at once.
+ * <p>
+ * Released content is reclaimed once the buffer got for it is unreachable, as messages removed from a folder
+ * may still be read, eg by a FETCH or by a POP3 session. Reclaimed blocks are overwritten when reused.
+ * As off-heap content hardly adds to heap usage, the garbage collector may take long to find released content
+ * unreachable. So before allocating another slab while released content of at least a slab's size is waiting,
+ * the arena requests a garbage collection and briefly waits for reclaiming.
+ * <p>
+ * Getting content does not lock, as slabs are published before their addresses.
+ */
+final class MessageArena implements MessageStorage {
+    static final int DEFAULT_SLAB_SIZE = 4 * 1024 * 1024;
+    private static final int MIN_BLOCK_SHIFT = 8; // 256 bytes
+    private static final int HEADER_SIZE = 8; // Reference count and size class
+    private static final int DEDICATED = -1; // Size class of dedicated buffers
+    private static final long RECLAIM_WAIT_MS = 100L;
+
+    private final int slabSize;
+    private volatile ByteBuffer[] slabs = new ByteBuffer[16]; // Grown by copying, read without locking
+    private int slabCount;
+    private final LongStack freeSlabs = new LongStack(); // Numbers of released dedicated slabs
+    private final LongStack[] freeBlocks;
+    // Released content, by address, reclaimed once the content buffer is unreachable
+    private final Map<Long, ReleasedContent> released = new HashMap<>();
+    private final ReferenceQueue<ByteBuffer> unreachable = new ReferenceQueue<>();
+    private long releasedBytes; // Of released content not yet reclaimed
+    private long forcedReclaimCapacity = -1L; // Capacity when forcing reclaiming last failed
+    private ByteBuffer current; // Allocated from
+    private int currentSlab;
+    private int currentPosition;
+    private long capacity;
+
+    MessageArena() {
+        this(DEFAULT_SLAB_SIZE);
+    }
+
+    /**
+     * @param slabSize the slab size, a power of two of at least 256 bytes.
+     */
+    MessageArena(int slabSize) {
+        if (Integer.bitCount(slabSize) != 1 || slabSize < 1 << MIN_BLOCK_SHIFT) {
+            throw new IllegalArgumentException("Expected slab size as power of two >= 256, but got " + slabSize);
+        }
+        this.slabSize = slabSize;
+        freeBlocks = new LongStack[sizeClass(slabSize) + 1];
+        for (int i = 0; i < freeBlocks.length; i++) {
+            freeBlocks[i] = new LongStack();
+        }
+    }
+
+    /**
+     * @return the size class of a block, whose size is 256 bytes shifted left by the size class.
+     */
+    private static int sizeClass(int blockSize) {
+        final int shift = 32 - Integer.numberOfLeadingZeros(Math.max(blockSize, 1 << MIN_BLOCK_SHIFT) - 1);
+        return shift - MIN_BLOCK_SHIFT;
+    }
+
+    private static long address(int slab, int offset) {
+        return (long) slab << 32 | offset;
+    }
+
+    private ByteBuffer slab(long address) {
+        return slabs[(int) (address >>> 32)];
+    }
+
+    @Override
+    public synchronized long store(byte[] content, int length) {
+        reclaim();
+        final long address;
+        final int sizeClass;
+        if (length + HEADER_SIZE > slabSize) {
+            sizeClass = DEDICATED;
+            address = allocateDedicated(length + HEADER_SIZE);
+        } else {
+            sizeClass = sizeClass(length + HEADER_SIZE);
+            address = allocate(sizeClass);
+        }
+        final ByteBuffer slab = slab(address);
+        final int offset = (int) address;
+        slab.putInt(offset, 1);
+        slab.putInt(offset + 4, sizeClass);
+        final ByteBuffer target = slab.duplicate();
+        ((Buffer) target).position(offset + HEADER_SIZE);
+        target.put(content, 0, length);
+        return address;
+    }
+
+    private long allocate(int sizeClass) {
+        final LongStack free = freeBlocks[sizeClass];
+        final int blockSize = 1 << (sizeClass + MIN_BLOCK_SHIFT);
+        if (free.isEmpty() && (null == current || slabSize - currentPosition < blockSize)) {
+            forceReclaim(slabSize);
+        }
+        if (!free.isEmpty()) {
+            return free.pop();
+        }
+        if (null == current || slabSize - currentPosition < blockSize) {
+            current = ByteBuffer.allocateDirect(slabSize);
+            currentSlab = addSlab(current);
+            currentPosition = 0;
+            capacity += slabSize;
+        }
+        final long address = address(currentSlab, currentPosition);
+        currentPosition += blockSize;
+        return address;
+    }
+
+    private long allocateDedicated(int size) {
+        forceReclaim(size);
+        capacity += size;
+        return address(addSlab(ByteBuffer.allocateDirect(size)), 0);
+    }
+
+    private int addSlab(ByteBuffer slab) {
+        if (!freeSlabs.isEmpty()) {
+            final int number = (int) freeSlabs.pop();
+            slabs[number] = slab;
+            return number;
+        }
+        if (slabCount == slabs.length) {
+            slabs = Arrays.copyOf(slabs, slabCount * 2);
+        }
+        slabs[slabCount] = slab;
+        return slabCount++;
+    }
+
+    @Override
+    public ByteBuffer get(long address, int length) {
+        // Slab positions never change, so duplicating is safe without locking
+        final ByteBuffer content = slab(address).duplicate();
+        final int offset = (int) address + HEADER_SIZE;
+        ((Buffer) content).limit(offset + length);
+        ((Buffer) content).position(offset);
+        return content.slice();
+    }
+
+    @Override
+    public synchronized void retain(long address) {
+        final ByteBuffer slab = slab(address);
+        final int offset = (int) address;
+        slab.putInt(offset, slab.getInt(offset) + 1);
+    }
+
+    @Override
+    public synchronized void release(long address, ByteBuffer content) {
+        reclaim();
+        final ByteBuffer slab = slab(address);
+        final int offset = (int) address;
+        final int references = slab.getInt(offset) - 1;
+        slab.putInt(offset, references);
+        if (references <= 0 && !released.containsKey(address)) {
+            released.put(address, new ReleasedContent(content, address, unreachable));
+            releasedBytes += blockSize(address);
+        }
+    }
+
+    /**
+     * Frees the blocks of released content, whose content buffers are no longer reachable.
+     */
+    private void reclaim() {
+        for (Reference<? extends ByteBuffer> ref = unreachable.poll(); null != ref; ref = unreachable.poll()) {
+            reclaim((ReleasedContent) ref);
+        }
+    }
+
+    private void reclaim(ReleasedContent ref) {
+        final long address = ref.address;
+        released.remove(address);
+        releasedBytes -= blockSize(address);
+        if (slab(address).getInt((int) address) <= 0) { // Unless retained again
+            free(address);
+        }
+    }
+
+    /**
+     * Requests a garbage collection for reclaiming released content, before allocating memory.
+     * Skipped if less released content than required is waiting, or if not allocated more since forcing
+     * reclaimed nothing, as the released content is still in use.
+     *
+     * @param size the number of bytes to allocate.
+     */
+    private void forceReclaim(int size) {
+        if (releasedBytes < size || capacity <= forcedReclaimCapacity) {
+            return;
+        }
+        final long waiting = releasedBytes;
+        System.gc(); // NOSONAR
+        try {
+            final Reference<? extends ByteBuffer> ref = unreachable.remove(RECLAIM_WAIT_MS);
+            if (null != ref) {
+                reclaim((ReleasedContent) ref);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        reclaim();
+        forcedReclaimCapacity = releasedBytes < waiting ? -1L : capacity;
+    }
+
+    private int blockSize(long address) {
+        final ByteBuffer slab = slab(address);
+        final int sizeClass = slab.getInt((int) address + 4);
+        return sizeClass == DEDICATED ? slab.capacity() : 1 << (sizeClass + MIN_BLOCK_SHIFT);
+    }
+
+    private void free(long address) {
+        final ByteBuffer slab = slab(address);
+        final int offset = (int) address;
+        final int sizeClass = slab.getInt(offset + 4);
+        if (sizeClass == DEDICATED) {
+            final int number = (int) (address >>> 32);
+            capacity -= slab.capacity();
+            slabs[number] = null;
+            freeSlabs.push(number);
+        } else {
+            freeBlocks[sizeClass].push(address);
+        }
+    }
+
+    /**
+     * @return the number of bytes allocated outside the heap.
+     */
+    synchronized long getCapacity() {
+        reclaim();
+        return capacity;
+    }
+
+    /**
+     * @return the number of released content blocks not yet reclaimed, as still reachable.
+     */
+    synchronized int getReleasedCount() {
+        reclaim();
+        return released.size();
+    }
+
+    /**
+     * Released content, enqueued once the content buffer is unreachable.
+     */
+    private static final class ReleasedContent extends PhantomReference<ByteBuffer> {
+        private final long address;
+
+        private ReleasedContent(ByteBuffer content, long address, ReferenceQueue<ByteBuffer> queue) {
+            super(content, queue);
+            this.address = address;
+        }
+    }
+
+    /**
+     * Growable stack of primitive values, avoiding an object per free block.
+     */
+    private static final class LongStack {
+        private long[] values = new long[16];
+        private int size;
+
+        boolean isEmpty() {
+            return size == 0;
+        }
+
+        void push(long value) {
+            if (size == values.length) {
+                values = Arrays.copyOf(values, size * 2);
+            }
+            values[size++] = value;
+        }
+
+        long pop() {
+            return values[--size];
+        }
+    }
+}
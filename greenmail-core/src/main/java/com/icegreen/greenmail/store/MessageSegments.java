@@ -0,0 +1,257 @@
+/*
+ * Copyright (c) 2014 Wael Chatila / Icegreen Technologies. All Rights Reserved.
+ * This software is released under the Apache license 2.0
+ */
+package com.icegreen.greenmail.store;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.lang.ref.PhantomReference;
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * Stores message content in memory-mapped segment files, appending to the latest segment.
+ * <p>
+ * An address combines the segment number (upper 32 bits) and the offset within the segment.
+ * Segments are deleted once no stored message refers to their content, and the segment appended to once another
+ * segment is appended to.
+ * As messages may still be in use, eg by an IMAP session, the file of a deleted segment is only deleted
+ * once its mapping is no longer reachable. Existing segments are mapped on first access when recovering.
+ */
+final class MessageSegments implements MessageStorage, Closeable {
+    private static final Logger log = LoggerFactory.getLogger(MessageSegments.class);
+    static final int DEFAULT_SEGMENT_SIZE = 64 * 1024 * 1024;
+    private static final String PREFIX = "segment-";
+    private static final String SUFFIX = ".dat";
+
+    private final Path directory;
+    private final int segmentSize;
+    private final Map<Integer, Segment> segments = new TreeMap<>();
+    // Files of deleted segments, deleted once their mapping is unreachable
+    private final ReferenceQueue<MappedByteBuffer> unmapped = new ReferenceQueue<>();
+    private final Set<MappedFile> mappedFiles = new HashSet<>();
+    private Segment active; // Appended to
+    private int nextIndex = 1;
+
+    /**
+     * Opens the existing segments of a directory, to be recovered.
+     *
+     * @param directory   the directory.
+     * @param segmentSize the size of new segments.
+     * @throws IOException on error listing the segments.
+     * @see #recover(long, int)
+     * @see #recovered()
+     */
+    MessageSegments(Path directory, int segmentSize) throws IOException {
+        this.directory = directory;
+        this.segmentSize = segmentSize;
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, PREFIX + "*" + SUFFIX)) {
+            for (Path file : files) {
+                final String name = file.getFileName().toString();
+                final int index = Integer.parseInt(name.substring(PREFIX.length(), name.length() - SUFFIX.length()));
+                segments.put(index, new Segment(index, file, null));
+                nextIndex = Math.max(nextIndex, index + 1);
+            }
+        }
+    }
+
+    private static MappedByteBuffer map(Path file, int size, StandardOpenOption... options) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, options)) {
+            // The mapping stays valid after closing the channel
+            return channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+        }
+    }
+
+    private static long address(int index, int offset) {
+        return (long) index << 32 | offset;
+    }
+
+    private Segment segment(long address) {
+        final Segment segment = segments.get((int) (address >>> 32));
+        if (null == segment) {
+            throw new IllegalStateException("No segment for address " + Long.toHexString(address) + " in " + directory);
+        }
+        if (null == segment.buffer) {
+            try {
+                segment.buffer = map(segment.file, (int) Files.size(segment.file),
+                    StandardOpenOption.READ, StandardOpenOption.WRITE);
+            } catch (IOException e) {
+                throw new IllegalStateException("Can not map segment " + segment.file, e);
+            }
+        }
+        return segment;
+    }
+
+    @Override
+    public synchronized long store(byte[] content, int length) {
+        deleteUnmapped();
+        if (null == active || active.buffer.capacity() - active.position < length) {
+            if (null != active && active.references <= 0) {
+                delete(active); // Released while appended to
+            }
+            final int index = nextIndex++;
+            final Path file = directory.resolve(String.format("%s%08d%s", PREFIX, index, SUFFIX));
+            try {
+                active = new Segment(index, file, map(file, Math.max(segmentSize, length),
+                    StandardOpenOption.CREATE_NEW, StandardOpenOption.READ, StandardOpenOption.WRITE));
+            } catch (IOException e) {
+                throw new IllegalStateException("Can not create segment " + file, e);
+            }
+            segments.put(index, active);
+        }
+        final ByteBuffer target = active.buffer.duplicate();
+        ((Buffer) target).position(active.position);
+        target.put(content, 0, length);
+        final long address = address(active.index, active.position);
+        active.position += length;
+        active.references++;
+        return address;
+    }
+
+    @Override
+    public synchronized ByteBuffer get(long address, int length) {
+        final ByteBuffer content = segment(address).buffer.duplicate();
+        final int offset = (int) address;
+        if (offset + length > content.capacity()) {
+            throw new IllegalStateException("Address " + Long.toHexString(address) + " with length " + length
+                + " exceeds segment in " + directory);
+        }
+        ((Buffer) content).limit(offset + length);
+        ((Buffer) content).position(offset);
+        return content.slice();
+    }
+
+    @Override
+    public synchronized void retain(long address) {
+        segment(address).references++;
+    }
+
+    @Override
+    public synchronized void release(long address, ByteBuffer content) {
+        // Content buffers keep the mapping reachable, which defers deleting the file
+        deleteUnmapped();
+        final Segment segment = segment(address);
+        segment.references--;
+        if (segment.references <= 0 && segment != active) {
+            delete(segment);
+        }
+    }
+
+    /**
+     * Counts a recovered message referring to the content.
+     *
+     * @param address the address.
+     * @param length  the length of the content.
+     */
+    synchronized void recover(long address, int length) {
+        final Segment segment = segment(address);
+        segment.references++;
+        segment.position = Math.max(segment.position, (int) address + length);
+    }
+
+    /**
+     * Deletes the segments no recovered message refers to, and continues appending to the latest segment.
+     */
+    synchronized void recovered() {
+        for (Segment segment : new ArrayList<>(segments.values())) {
+            if (segment.references <= 0) {
+                delete(segment);
+            } else {
+                active = segment; // Ascending segment numbers
+            }
+        }
+    }
+
+    /**
+     * @return the number of segments.
+     */
+    synchronized int getSegmentCount() {
+        return segments.size();
+    }
+
+    private void delete(Segment segment) {
+        segments.remove(segment.index);
+        if (null == segment.buffer) {
+            deleteFile(segment.file);
+        } else {
+            // Messages still in use keep the mapping reachable by the buffers of their content
+            mappedFiles.add(new MappedFile(segment.buffer, segment.file, unmapped));
+            segment.buffer = null;
+        }
+    }
+
+    /**
+     * Deletes the files of deleted segments, whose mappings are no longer reachable.
+     */
+    private void deleteUnmapped() {
+        for (Reference<? extends MappedByteBuffer> ref = unmapped.poll(); null != ref; ref = unmapped.poll()) {
+            mappedFiles.remove(ref);
+            deleteFile(((MappedFile) ref).file);
+        }
+    }
+
+    private void deleteFile(Path file) {
+        try {
+            Files.deleteIfExists(file);
+        } catch (IOException e) {
+            log.warn("Can not delete unused segment {}", file, e);
+        }
+    }
+
+    /**
+     * Writes the content of all segments to the files, and deletes the files of unreachable deleted segments.
+     * Files of deleted segments still in use are deleted when opening the directory again.
+     */
+    @Override
+    public synchronized void close() {
+        for (Segment segment : segments.values()) {
+            if (null != segment.buffer) {
+                segment.buffer.force();
+            }
+        }
+        deleteUnmapped();
+    }
+
+    private static final class Segment {
+        private final int index;
+        private final Path file;
+        private MappedByteBuffer buffer; // Mapped on first access, if existing
+        private int position;
+        private int references;
+
+        private Segment(int index, Path file, MappedByteBuffer buffer) {
+            this.index = index;
+            this.file = file;
+            this.buffer = buffer;
+        }
+    }
+
+    /**
+     * The file of a deleted segment, enqueued once its mapping is unreachable.
+     */
+    private static final class MappedFile extends PhantomReference<MappedByteBuffer> {
+        private final Path file;
+
+        private MappedFile(MappedByteBuffer buffer, Path file, ReferenceQueue<MappedByteBuffer> queue) {
+            super(buffer, queue);
+            this.file = file;
+        }
+    }
+}
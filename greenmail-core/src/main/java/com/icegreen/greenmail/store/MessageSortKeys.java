@@ -0,0 +1,189 @@
+/*
+ * Copyright (c) 2014 Wael Chatila / Icegreen Technologies. All Rights Reserved.
+ * This software is released under the Apache license 2.0
+ */
+package com.icegreen.greenmail.store;
+
+import jakarta.mail.Address;
+import jakarta.mail.MessagingException;
+import jakarta.mail.Session;
+import jakarta.mail.internet.InternetAddress;
+import jakarta.mail.internet.MailDateFormat;
+import jakarta.mail.internet.MimeUtility;
+
+import java.io.UnsupportedEncodingException;
+import java.text.ParseException;
+import java.util.Date;
+import java.util.Locale;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Values of a stored message for sorting, as by the IMAP SORT command.
+ * <p>
+ * Extracted once per message from the headers indexed by the raw message, without parsing the message,
+ * as the message content does not change.
+ *
+ * @see <a href="https://tools.ietf.org/html/rfc5256">RFC 5256</a>
+ */
+public final class MessageSortKeys {
+    private static final Pattern LEADER_PATTERN =
+        Pattern.compile("^(?:\\[[^\\[\\]]*\\]\\s*)*(?:re|fwd|fw)\\s*(?:\\[[^\\[\\]]*\\]\\s*)?:", Pattern.CASE_INSENSITIVE);
+    private static final Pattern BLOB_PATTERN = Pattern.compile("^\\[[^\\[\\]]*\\]\\s*");
+
+    private final Date sentDate;
+    private final String from;
+    private final String to;
+    private final String cc;
+    private final int size;
+    private final String baseSubject;
+
+    MessageSortKeys(RawMessage message) throws MessagingException {
+        final boolean strict = isStrictAddressing(message.getSession());
+        this.sentDate = parseDate(message.getHeader("Date", null));
+        String fromHeader = message.getHeader("From", ",");
+        if (null == fromHeader) {
+            fromHeader = message.getHeader("Sender", ",");
+        }
+        this.from = firstAddress(fromHeader, strict);
+        this.to = firstAddress(message.getHeader("To", ","), strict);
+        this.cc = firstAddress(message.getHeader("Cc", ","), strict);
+        this.size = message.getSize();
+        this.baseSubject = getBaseSubject(decodeSubject(message.getHeader("Subject", null)))
+            .toLowerCase(Locale.ENGLISH);
+    }
+
+    // Same as MimeMessage#getSentDate()
+    private static Date parseDate(String date) {
+        if (null == date) {
+            return null;
+        }
+        try {
+            return new MailDateFormat().parse(date);
+        } catch (ParseException e) {
+            return null;
+        }
+    }
+
+    // Same as MimeMessage#getSubject()
+    private static String decodeSubject(String subject) {
+        if (null == subject) {
+            return null;
+        }
+        try {
+            return MimeUtility.decodeText(MimeUtility.unfold(subject));
+        } catch (UnsupportedEncodingException e) {
+            return subject;
+        }
+    }
+
+    private static boolean isStrictAddressing(Session session) {
+        final Object value = null == session ? null : session.getProperties().get("mail.mime.address.strict");
+        return null == value || !"false".equalsIgnoreCase(value.toString());
+    }
+
+    private static String firstAddress(String header, boolean strict) throws MessagingException {
+        return null == header ? null : firstAddress(InternetAddress.parseHeader(header, strict));
+    }
+
+    private static String firstAddress(Address[] addresses) {
+        if (addresses == null || addresses.length == 0) {
+            return null;
+        }
+        return String.valueOf(addresses[0]);
+    }
+
+    /**
+     * @return the sent date, or null if none.
+     */
+    public Date getSentDate() {
+        return sentDate;
+    }
+
+    /**
+     * @return the first from address, or null if none.
+     */
+    public String getFrom() {
+        return from;
+    }
+
+    /**
+     * @return the first to address, or null if none.
+     */
+    public String getTo() {
+        return to;
+    }
+
+    /**
+     * @return the first cc address, or null if none.
+     */
+    public String getCc() {
+        return cc;
+    }
+
+    /**
+     * @return the RFC822.SIZE.
+     */
+    public int getSize() {
+        return size;
+    }
+
+    /**
+     * @return the lower case base subject, see RFC 5256 section 2.1.
+     */
+    public String getBaseSubject() {
+        return baseSubject;
+    }
+
+    static String getBaseSubject(String subject) {
+        if (subject == null) {
+            return "";
+        }
+        String s = subject.replaceAll("[\\t\\r\\n]+", " ");
+        s = s.replaceAll(" {2,}", " ");
+
+        while (true) {
+            // Step 2: Remove Trailers
+            while (true) {
+                if (s.endsWith(" ")) {
+                    s = s.substring(0, s.length() - 1);
+                } else if (s.toLowerCase(Locale.ENGLISH).endsWith("(fwd)")) {
+                    s = s.substring(0, s.length() - 5);
+                } else {
+                    break;
+                }
+            }
+
+            // Steps 3, 4, 5: Remove Leaders / Blobs / Repeat
+            while (true) {
+                if (s.startsWith(" ")) {
+                    s = s.substring(1);
+                    continue;
+                }
+                Matcher lm = LEADER_PATTERN.matcher(s);
+                if (lm.find()) {
+                    s = s.substring(lm.end());
+                    continue;
+                }
+                Matcher bm = BLOB_PATTERN.matcher(s);
+                if (bm.find()) {
+                    String remaining = s.substring(bm.end());
+                    if (!remaining.isEmpty()) {
+                        s = remaining;
+                        continue;
+                    }
+                }
+                break;
+            }
+
+            // Step 6: Handle Forwarding Headers
+            if (s.toLowerCase(Locale.ENGLISH).startsWith("[fwd:") && s.endsWith("]")) {
+                s = s.substring(5, s.length() - 1);
+                continue;
+            }
+
+            break;
+        }
+        return s;
+    }
+}
@@ -0,0 +1,49 @@
+/*
+ * Copyright (c) 2014 Wael Chatila / Icegreen Technologies. All Rights Reserved.
+ * This software is released under the Apache license 2.0
+ */
+package com.icegreen.greenmail.store;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Holds the serialized content of stored messages outside the heap.
+ * <p>
+ * Content is addressed by the value returned when storing, and reference counted by the stored messages
+ * referring to it, so that it can be reclaimed once the last referring message is removed.
+ */
+interface MessageStorage {
+    /**
+     * Stores content, counting one reference for the stored message being created.
+     *
+     * @param content the content.
+     * @param length  the length of the content.
+     * @return the address.
+     */
+    long store(byte[] content, int length);
+
+    /**
+     * @param address the address.
+     * @param length  the length of the content.
+     * @return the stored content, from position 0 to the limit.
+     */
+    ByteBuffer get(long address, int length);
+
+    /**
+     * Counts another stored message referring to the content.
+     *
+     * @param address the address.
+     */
+    void retain(long address);
+
+    /**
+     * Releases the reference of a removed stored message.
+     * <p>
+     * As sessions may still read removed messages, eg for a FETCH, the content must not be reclaimed
+     * while the buffer got for it is reachable.
+     *
+     * @param address the address.
+     * @param content the buffer got for the address, referred to by all readers of the content.
+     */
+    void release(long address, ByteBuffer content);
+}
@@ -0,0 +1,653 @@
+/*
+ * Copyright (c) 2014 Wael Chatila / Icegreen Technologies. All Rights Reserved.
+ * This software is released under the Apache license 2.0
+ */
+package com.icegreen.greenmail.store;
+
+import com.icegreen.greenmail.util.EncodingUtil;
+import jakarta.mail.BodyPart;
+import jakarta.mail.MessagingException;
+import jakarta.mail.Multipart;
+import jakarta.mail.Session;
+import jakarta.mail.internet.ContentType;
+import jakarta.mail.internet.InternetHeaders;
+import jakarta.mail.internet.MimeMessage;
+import jakarta.mail.internet.MimePart;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+/**
+ * Immutable serialized RFC822 representation of a stored message.
+ * <p>
+ * Captured once on delivery, so that serving a message or a section of a message is a slice of
+ * the raw octets instead of serializing the mime message again.
+ * The MIME part offsets of multipart messages are computed once, on first section access.
+ * A few headers are indexed when capturing the message, for reading them without parsing the message.
+ * <p>
+ * Shared by all stored messages of the same content, for example when delivering to many recipients.
+ * The octets are held by a heap buffer, or by a buffer of a {@link MessageStorage} outside the heap.
+ */
+public final class RawMessage {
+    private static final Logger log = LoggerFactory.getLogger(RawMessage.class);
+    private static final byte[] CRLF = {'\r', '\n'};
+    private static final byte[] CRLF_CRLF = {'\r', '\n', '\r', '\n'};
+    private static final byte[] DASHES = {'-', '-'};
+
+    private static final int COPY_BUFFER_SIZE = 8192;
+    // Headers whose values are indexed, see #getHeader(String, String)
+    private static final String[] INDEXED_HEADERS = {"Date", "From", "Sender", "To", "Cc", "Subject"};
+
+    private final ByteBuffer content;
+    private final int size;
+    private final long address;
+    private final MessageStorage storage;
+    private final Session session;
+    // Indexed header occurrences as triples of header, value start and value end
+    private final int[] headerIndex;
+    private volatile InternetHeaders headers; // Parsed on first message access
+    private int bodyOffset; // Written before headers
+    private volatile MimeMessage structure; // Parsed on first section access
+    private volatile SimpleMessageAttributes attributes;
+    // Section number (eg "1.2") mapped to part start and end offset
+    private volatile Map<String, int[]> sections;
+    private volatile long checksum = -1L; // Computed on first access
+
+    /**
+     * @param content   the serialized message octets, not copied and must not be modified.
+     * @param size      the size of the serialized message.
+     * @param session   the session for parsing the content.
+     */
+    RawMessage(byte[] content, int size, Session session) {
+        this(ByteBuffer.wrap(content, 0, size).slice(), -1, null, session);
+    }
+
+    /**
+     * @param content   the serialized message octets from position 0 to the limit, must not be modified.
+     * @param address   the storage address of the content, or -1 if not stored by a {@link MessageStorage}.
+     * @param storage   the storage of the content, or null.
+     * @param session   the session for parsing the content.
+     */
+    RawMessage(ByteBuffer content, long address, MessageStorage storage, Session session) {
+        this.content = content;
+        this.size = content.limit();
+        this.address = address;
+        this.storage = storage;
+        this.session = session;
+        this.headerIndex = indexHeaders();
+    }
+
+    /**
+     * Scans the header fields for the values of the indexed headers, as parsed by
+     * {@link jakarta.mail.internet.InternetHeaders}.
+     */
+    private int[] indexHeaders() {
+        int[] index = new int[0];
+        int header = -1; // Of current field, if indexed
+        int valueStart = 0;
+        int valueEnd = 0;
+        int pos = 0;
+        while (pos < size) {
+            final int lineStart = pos;
+            while (pos < size && content.get(pos) != '\r' && content.get(pos) != '\n') {
+                pos++;
+            }
+            final int lineEnd = pos;
+            if (pos < size && content.get(pos++) == '\r' && pos < size && content.get(pos) == '\n') {
+                pos++;
+            }
+            final boolean continuation = lineEnd > lineStart && lineStart > 0
+                && (content.get(lineStart) == ' ' || content.get(lineStart) == '\t');
+            if (continuation) {
+                valueEnd = lineEnd;
+                continue;
+            }
+            index = addHeader(index, header, valueStart, valueEnd);
+            header = -1;
+            if (lineEnd == lineStart) {
+                break; // Empty line ends headers
+            }
+            header = indexedHeader(lineStart, lineEnd);
+            valueStart = lineStart;
+            valueEnd = lineEnd;
+        }
+        return addHeader(index, header, valueStart, valueEnd);
+    }
+
+    private static int[] addHeader(int[] index, int header, int valueStart, int valueEnd) {
+        if (header < 0) {
+            return index;
+        }
+        final int[] extended = Arrays.copyOf(index, index.length + 3);
+        extended[index.length] = header;
+        extended[index.length + 1] = valueStart;
+        extended[index.length + 2] = valueEnd;
+        return extended;
+    }
+
+    /**
+     * @return the indexed header of a header line, or -1 if not indexed.
+     */
+    private int indexedHeader(int lineStart, int lineEnd) {
+        int colon = lineStart;
+        while (colon < lineEnd && content.get(colon) != ':') {
+            colon++;
+        }
+        int start = lineStart;
+        int end = colon;
+        while (start < end && (content.get(start) & 0xFF) <= ' ') {
+            start++;
+        }
+        while (end > start && (content.get(end - 1) & 0xFF) <= ' ') {
+            end--;
+        }
+        for (int h = 0; h < INDEXED_HEADERS.length; h++) {
+            final String name = INDEXED_HEADERS[h];
+            if (name.length() == end - start && name.equalsIgnoreCase(decode(start, end))) {
+                return h;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Gets the values of an indexed header, as {@link MimeMessage#getHeader(String, String)} does.
+     *
+     * @param name      the header name, one of Date, From, Sender, To, Cc or Subject.
+     * @param delimiter the delimiter for joining several values, or null for the first value only.
+     * @return the header values, or null if none.
+     */
+    String getHeader(String name, String delimiter) {
+        int header = -1;
+        for (int h = 0; h < INDEXED_HEADERS.length; h++) {
+            if (INDEXED_HEADERS[h].equalsIgnoreCase(name)) {
+                header = h;
+            }
+        }
+        if (header < 0) {
+            throw new IllegalArgumentException("Header " + name + " is not indexed");
+        }
+        StringBuilder values = null;
+        for (int i = 0; i < headerIndex.length; i += 3) {
+            if (headerIndex[i] != header) {
+                continue;
+            }
+            final String value = headerValue(headerIndex[i + 1], headerIndex[i + 2]);
+            if (null == delimiter) {
+                return value;
+            }
+            if (null == values) {
+                values = new StringBuilder(value);
+            } else {
+                values.append(delimiter).append(value);
+            }
+        }
+        return null == values ? null : values.toString();
+    }
+
+    /**
+     * @return the value of a header field, with line breaks of folded lines as CRLF like InternetHeaders.
+     */
+    private String headerValue(int start, int end) {
+        // Skips name, colon and whitespace as InternetHeader#getValue()
+        int pos = start;
+        while (pos < end && content.get(pos) != ':') {
+            pos++;
+        }
+        pos++;
+        while (pos < end && (content.get(pos) == ' ' || content.get(pos) == '\t'
+            || content.get(pos) == '\r' || content.get(pos) == '\n')) {
+            pos++;
+        }
+        if (pos >= end) {
+            return "";
+        }
+        final String value = decode(pos, end);
+        return value.indexOf('\r') < 0 && value.indexOf('\n') < 0 ? value : value.replaceAll("\r\n|\r|\n", "\r\n");
+    }
+
+    private String decode(int start, int end) {
+        final byte[] octets = new byte[end - start];
+        for (int i = start; i < end; i++) {
+            octets[i - start] = content.get(i);
+        }
+        return new String(octets, isUtf8Headers() ? StandardCharsets.UTF_8 : EncodingUtil.CHARSET_EIGHT_BIT_ENCODING);
+    }
+
+    private boolean isUtf8Headers() {
+        final Object value = null == session ? null : session.getProperties().get("mail.mime.allowutf8");
+        return value instanceof Boolean ? (Boolean) value : null != value && Boolean.parseBoolean(value.toString());
+    }
+
+    /**
+     * @return a new stream for parsing the content, sharing the octets with streams of parsed parts.
+     */
+    InputStream newInputStream() {
+        return new ByteBufferInputStream(content, 0, size);
+    }
+
+    /**
+     * Gets the header fields, parsed once and shared by all messages parsed from the content.
+     *
+     * @return the headers, must not be modified.
+     * @throws MessagingException on error parsing the headers.
+     */
+    InternetHeaders getHeaders() throws MessagingException {
+        InternetHeaders parsed = headers;
+        if (null == parsed) {
+            synchronized (this) {
+                parsed = headers;
+                if (null == parsed) {
+                    final ByteBufferInputStream in = new ByteBufferInputStream(content, 0, size);
+                    parsed = new InternetHeaders(in, isUtf8Headers());
+                    bodyOffset = (int) in.getPosition();
+                    headers = parsed;
+                }
+            }
+        }
+        return parsed;
+    }
+
+    /**
+     * @return a new stream for parsing the body following the headers, sharing the octets.
+     * @throws MessagingException on error parsing the headers.
+     * @see #getHeaders()
+     */
+    InputStream newBodyInputStream() throws MessagingException {
+        getHeaders(); // Computes body offset
+        return new ByteBufferInputStream(content, bodyOffset, size);
+    }
+
+    /**
+     * @return the storage address, or -1 if not stored by a {@link MessageStorage}.
+     */
+    long getAddress() {
+        return address;
+    }
+
+    /**
+     * @return the CRC32 checksum of the content, computed on first access.
+     */
+    long getChecksum() {
+        long crc = checksum;
+        if (crc < 0L) {
+            final CRC32 computed = new CRC32();
+            computed.update(content.duplicate());
+            crc = computed.getValue();
+            checksum = crc;
+        }
+        return crc;
+    }
+
+    /**
+     * @return the storage of the content, or null if on heap.
+     */
+    MessageStorage getStorage() {
+        return storage;
+    }
+
+    /**
+     * Counts another stored message referring to the content, if stored by a {@link MessageStorage}.
+     */
+    void retain() {
+        if (null != storage) {
+            storage.retain(address);
+        }
+    }
+
+    /**
+     * Releases the reference of a removed stored message, if stored by a {@link MessageStorage}.
+     * <p>
+     * All readers of the content, such as parsed messages and their streams, refer to the content buffer,
+     * which keeps the content from being reclaimed while in use.
+     */
+    void release() {
+        if (null != storage) {
+            storage.release(address, content);
+        }
+    }
+
+    Session getSession() {
+        return session;
+    }
+
+    /**
+     * @return the attributes parsed from the content, computed for the received date of the first stored message.
+     */
+    SimpleMessageAttributes getAttributes() {
+        return attributes;
+    }
+
+    void setAttributes(SimpleMessageAttributes attributes) {
+        this.attributes = attributes;
+    }
+
+    /**
+     * @return the size of the message in octets.
+     */
+    public int getSize() {
+        return size;
+    }
+
+    /**
+     * @return the number of lines, as terminated by LF.
+     */
+    public int getLineCount() {
+        int lines = 0;
+        for (int i = 0; i < size; i++) {
+            if (content.get(i) == '\n') {
+                lines++;
+            }
+        }
+        return lines;
+    }
+
+    /**
+     * @return the whole message.
+     */
+    public Slice getMessage() {
+        return new Slice(0, size);
+    }
+
+    /**
+     * Gets the headers and the first lines of the body, as for the POP3 TOP command.
+     * <p>
+     * Lines are terminated by LF, optionally preceded by CR.
+     *
+     * @param lines the maximum number of body lines.
+     * @return the trimmed message, up to and including the last line.
+     */
+    public Slice getTop(int lines) {
+        final Slice message = getMessage().trim();
+        final int end = message.offset + message.length;
+        int pos = message.offset;
+        boolean header = true;
+        int bodyLines = 0;
+        while (pos < end && (header || bodyLines < lines)) {
+            int lineEnd = pos;
+            while (lineEnd < end && content.get(lineEnd) != '\n') {
+                lineEnd++;
+            }
+            lineEnd = Math.min(lineEnd + 1, end);
+            if (header) {
+                // Headers end with an empty line
+                header = !(lineEnd - pos == 1 && content.get(pos) == '\n'
+                    || lineEnd - pos == 2 && content.get(pos) == '\r' && content.get(pos + 1) == '\n');
+            } else {
+                bodyLines++;
+            }
+            pos = lineEnd;
+        }
+        return new Slice(message.offset, pos - message.offset);
+    }
+
+    /**
+     * Gets the body of the message, with same semantics as {@link com.icegreen.greenmail.util.GreenMailUtil#getBody(jakarta.mail.Part)}.
+     *
+     * @return the message body.
+     */
+    public Slice getText() {
+        return getMessage().trim().body();
+    }
+
+    /**
+     * Gets the headers of a body part, with same semantics as
+     * {@link com.icegreen.greenmail.util.GreenMailUtil#getHeaders(jakarta.mail.Part)}.
+     *
+     * @param section the part section number, eg "1" or "2.1".
+     * @return the part headers, or null if not available for given section.
+     */
+    public Slice getPartHeader(String section) {
+        final int[] range = getSections().get(section);
+        return null == range ? null : new Slice(range[0], range[1] - range[0]).trim().header();
+    }
+
+    /**
+     * Gets the body of a body part, with same semantics as
+     * {@link com.icegreen.greenmail.util.GreenMailUtil#getBody(jakarta.mail.Part)}.
+     *
+     * @param section the part section number, eg "1" or "2.1".
+     * @return the part body, or null if not available for given section.
+     */
+    public Slice getPartBody(String section) {
+        final int[] range = getSections().get(section);
+        return null == range ? null : new Slice(range[0], range[1] - range[0]).trim().body();
+    }
+
+    private Map<String, int[]> getSections() {
+        Map<String, int[]> map = sections;
+        if (null == map) {
+            map = new HashMap<>();
+            try {
+                MimeMessage parsed = structure;
+                if (null == parsed) {
+                    parsed = new MimeMessage(session, newInputStream());
+                    structure = parsed;
+                }
+                addParts(parsed, "", 0, size, map);
+            } catch (MessagingException | IOException | RuntimeException e) {
+                log.debug("Can not compute MIME part offsets, falling back to mime message", e);
+                map = Collections.emptyMap();
+            }
+            sections = map;
+        }
+        return map;
+    }
+
+    private void addParts(MimePart part, String prefix, int start, int end, Map<String, int[]> map)
+        throws MessagingException, IOException {
+        if (!part.isMimeType("multipart/*")) {
+            return;
+        }
+        final String boundary = new ContentType(part.getContentType()).getParameter("boundary");
+        final Object partContent = part.getContent();
+        if (null == boundary || !(partContent instanceof Multipart)) {
+            return;
+        }
+        final Multipart multipart = (Multipart) partContent;
+
+        int bodyStart;
+        if (startsWith(CRLF, start, end)) {
+            bodyStart = start + CRLF.length; // No headers
+        } else {
+            bodyStart = indexOf(CRLF_CRLF, start, end);
+            if (bodyStart < 0) {
+                return;
+            }
+            bodyStart += CRLF_CRLF.length;
+        }
+
+        // Scan for delimiter lines, see https://www.rfc-editor.org/rfc/rfc2046#section-5.1.1
+        final byte[] delimiter = ("--" + boundary).getBytes(EncodingUtil.CHARSET_EIGHT_BIT_ENCODING);
+        final List<int[]> parts = new ArrayList<>();
+        int partStart = -1;
+        int pos = bodyStart;
+        while (pos < end) {
+            int lineEnd = indexOf(CRLF, pos, end);
+            if (lineEnd < 0) {
+                lineEnd = end;
+            }
+            if (startsWith(delimiter, pos, lineEnd)) {
+                int next = pos + delimiter.length;
+                final boolean close = startsWith(DASHES, next, lineEnd);
+                if (close) {
+                    next += DASHES.length;
+                }
+                if (isWhitespace(next, lineEnd)) {
+                    if (partStart >= 0) {
+                        // The CRLF preceding the delimiter belongs to the delimiter
+                        parts.add(new int[]{partStart, Math.max(partStart, pos - CRLF.length)});
+                    }
+                    if (close) {
+                        break;
+                    }
+                    partStart = Math.min(lineEnd + CRLF.length, end);
+                }
+            }
+            pos = lineEnd + CRLF.length;
+        }
+
+        if (parts.size() != multipart.getCount()) {
+            throw new IllegalStateException("Found " + parts.size() + " parts for boundary " + boundary +
+                " but expected " + multipart.getCount());
+        }
+        for (int i = 0; i < parts.size(); i++) {
+            final BodyPart bodyPart = multipart.getBodyPart(i);
+            if (bodyPart instanceof MimePart && !bodyPart.isMimeType("message/*")) {
+                // Sections of encapsulated messages are left to the mime message
+                final String section = prefix + (i + 1);
+                final int[] range = parts.get(i);
+                map.put(section, range);
+                addParts((MimePart) bodyPart, section + '.', range[0], range[1], map);
+            }
+        }
+    }
+
+    private boolean startsWith(byte[] prefix, int start, int end) {
+        if (end - start < prefix.length) {
+            return false;
+        }
+        for (int i = 0; i < prefix.length; i++) {
+            if (content.get(start + i) != prefix[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private int indexOf(byte[] pattern, int start, int end) {
+        for (int i = start; i <= end - pattern.length; i++) {
+            if (startsWith(pattern, i, end)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private boolean isWhitespace(int start, int end) {
+        for (int i = start; i < end; i++) {
+            if (content.get(i) != ' ' && content.get(i) != '\t') {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * A range of the raw message octets.
+     */
+    public final class Slice {
+        private final int offset;
+        private final int length;
+
+        private Slice(int offset, int length) {
+            this.offset = offset;
+            this.length = length;
+        }
+
+        /**
+         * @return the length in octets.
+         */
+        public int length() {
+            return length;
+        }
+
+        /**
+         * Gets a sub range, for example for a partial IMAP fetch.
+         *
+         * @param start  the start offset, relative to this slice.
+         * @param length the length.
+         * @return the sub range.
+         */
+        public Slice subSlice(int start, int length) {
+            if (start < 0 || length < 0 || start + length > this.length) {
+                throw new IndexOutOfBoundsException("Range " + start + '+' + length + " exceeds length " + this.length);
+            }
+            return new Slice(offset + start, length);
+        }
+
+        /**
+         * @return the slice without leading and trailing whitespace or control characters, like {@link String#trim()}.
+         */
+        public Slice trim() {
+            int start = offset;
+            int end = offset + length;
+            while (start < end && (content.get(start) & 0xFF) <= ' ') {
+                start++;
+            }
+            while (end > start && (content.get(end - 1) & 0xFF) <= ' ') {
+                end--;
+            }
+            return new Slice(start, end - start);
+        }
+
+        private Slice header() {
+            final int idx = indexOf(CRLF_CRLF, offset, offset + length);
+            return idx < 0 ? this : new Slice(offset, idx - offset);
+        }
+
+        private Slice body() {
+            final int end = offset + length;
+            final int idx = indexOf(CRLF_CRLF, offset, end);
+            return idx < 0 ? new Slice(end, 0) /* empty body */ : new Slice(idx + 4, end - idx - 4);
+        }
+
+        /**
+         * Writes the octets.
+         *
+         * @param out the target output stream.
+         * @throws IOException on error writing.
+         */
+        public void writeTo(OutputStream out) throws IOException {
+            if (content.hasArray()) {
+                out.write(content.array(), content.arrayOffset() + offset, length);
+                return;
+            }
+            // Copies chunks, for content not on heap
+            final ByteBuffer source = content.duplicate();
+            ((Buffer) source).position(offset);
+            final byte[] chunk = new byte[Math.min(length, COPY_BUFFER_SIZE)];
+            for (int remaining = length; remaining > 0; remaining -= chunk.length) {
+                final int count = Math.min(remaining, chunk.length);
+                source.get(chunk, 0, count);
+                out.write(chunk, 0, count);
+            }
+        }
+
+        /**
+         * @return a stream for reading the octets.
+         */
+        public InputStream getInputStream() {
+            return new ByteBufferInputStream(content, offset, offset + length);
+        }
+
+        /**
+         * @return the octets as string, mapping each octet to a char (ISO-8859-1).
+         */
+        @Override
+        public String toString() {
+            if (content.hasArray()) {
+                return new String(content.array(), content.arrayOffset() + offset, length,
+                    EncodingUtil.CHARSET_EIGHT_BIT_ENCODING);
+            }
+            final byte[] octets = new byte[length];
+            final ByteBuffer source = content.duplicate();
+            ((Buffer) source).position(offset);
+            source.get(octets);
+            return new String(octets, EncodingUtil.CHARSET_EIGHT_BIT_ENCODING);
+        }
+    }
+}
@@ -0,0 +1,312 @@
+/*
+ * Copyright (c) 2014 Wael Chatila / Icegreen Technologies. All Rights Reserved.
+ * This software is released under the Apache license 2.0
+ */
+package com.icegreen.greenmail.store;
+
+import jakarta.mail.Address;
+import jakarta.mail.Message;
+import jakarta.mail.MessagingException;
+import jakarta.mail.Multipart;
+import jakarta.mail.Part;
+import jakarta.mail.internet.InternetAddress;
+import jakarta.mail.search.AddressTerm;
+import jakarta.mail.search.AndTerm;
+import jakarta.mail.search.BodyTerm;
+import jakarta.mail.search.FromStringTerm;
+import jakarta.mail.search.FromTerm;
+import jakarta.mail.search.OrTerm;
+import jakarta.mail.search.RecipientStringTerm;
+import jakarta.mail.search.RecipientTerm;
+import jakarta.mail.search.SearchTerm;
+import jakarta.mail.search.StringTerm;
+import jakarta.mail.search.SubjectTerm;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.Supplier;
+
+/**
+ * Trigram index of the subject, addresses and body text of the messages of a folder.
+ * <p>
+ * Narrows a search to candidate messages containing all trigrams of the searched substrings,
+ * which the search term then verifies. Characters are case folded, as IMAP SEARCH matches ignoring case.
+ * Messages whose content can not be indexed are always candidates.
+ */
+final class SearchIndex {
+    private static final Message.RecipientType[] RECIPIENT_TYPES = {
+        Message.RecipientType.TO, Message.RecipientType.CC, Message.RecipientType.BCC
+    };
+    private static final int GRAM_LENGTH = 3;
+
+    private final Map<Long, UidList> postings = new HashMap<>();
+    private final UidList unindexed = new UidList();
+    private int indexed;
+    private int removed;
+
+    /**
+     * Extracts the sorted, distinct trigrams of a message.
+     *
+     * @param message the message.
+     * @return the trigrams, or null if the message can not be indexed.
+     */
+    static long[] grams(Message message) {
+        StringBuilder text = new StringBuilder();
+        try {
+            appendText(text, message.getSubject());
+            appendAddresses(text, message.getFrom());
+            for (Message.RecipientType type : RECIPIENT_TYPES) {
+                appendAddresses(text, message.getRecipients(type));
+            }
+            appendBody(text, message);
+        } catch (MessagingException | IOException | RuntimeException e) {
+            return null;
+        }
+
+        long[] grams = new long[Math.max(0, text.length() - GRAM_LENGTH + 1)];
+        int count = 0;
+        for (int i = 0; i < grams.length; i++) {
+            long gram = gram(text, i);
+            if (gram >= 0) {
+                grams[count++] = gram;
+            }
+        }
+        Arrays.sort(grams, 0, count);
+        int distinct = 0;
+        for (int i = 0; i < count; i++) {
+            if (distinct == 0 || grams[distinct - 1] != grams[i]) {
+                grams[distinct++] = grams[i];
+            }
+        }
+        return Arrays.copyOf(grams, distinct);
+    }
+
+    private static void appendText(StringBuilder text, String value) {
+        if (null != value) {
+            text.append(value).append('\n');
+        }
+    }
+
+    private static void appendAddresses(StringBuilder text, Address[] addresses) {
+        if (null != addresses) {
+            for (Address address : addresses) {
+                // Same representation as matched by AddressStringTerm
+                appendText(text, address instanceof InternetAddress ?
+                    ((InternetAddress) address).toUnicodeString() : address.toString());
+            }
+        }
+    }
+
+    /**
+     * Appends the text parts, as matched by {@link BodyTerm}.
+     */
+    private static void appendBody(StringBuilder text, Part part) throws MessagingException, IOException {
+        if (part.isMimeType("text/*")) {
+            Object content = part.getContent();
+            if (content instanceof String) {
+                appendText(text, (String) content);
+            }
+        } else if (part.isMimeType("multipart/*")) {
+            Multipart multipart = (Multipart) part.getContent();
+            for (int i = 0; i < multipart.getCount(); i++) {
+                appendBody(text, multipart.getBodyPart(i));
+            }
+        } else if (part.isMimeType("message/rfc822")) {
+            appendBody(text, (Part) part.getContent());
+        }
+    }
+
+    /**
+     * @return the case folded trigram starting at given index, or -1 if containing surrogates.
+     */
+    private static long gram(CharSequence text, int start) {
+        long gram = 0;
+        for (int i = start; i < start + GRAM_LENGTH; i++) {
+            char c = text.charAt(i);
+            if (Character.isSurrogate(c)) {
+                return -1;
+            }
+            // Folds as String.regionMatches(ignoreCase) compares
+            gram = gram << Character.SIZE | Character.toLowerCase(Character.toUpperCase(c));
+        }
+        return gram;
+    }
+
+    /**
+     * Adds a message.
+     *
+     * @param uid   the UID, greater than any UID added before.
+     * @param grams the trigrams of the message, or null if not indexable.
+     */
+    synchronized void add(long uid, long[] grams) {
+        if (null == grams) {
+            unindexed.add(uid);
+        } else {
+            for (long gram : grams) {
+                postings.computeIfAbsent(gram, g -> new UidList()).add(uid);
+            }
+        }
+        indexed++;
+    }
+
+    /**
+     * Records removal of messages, compacting the index once most indexed messages are removed.
+     *
+     * @param count   the number of removed messages.
+     * @param liveUids supplies the sorted UIDs of the messages not removed.
+     */
+    synchronized void removed(int count, Supplier<long[]> liveUids) {
+        removed += count;
+        if (removed > indexed / 2) {
+            long[] live = liveUids.get();
+            postings.values().removeIf(uids -> uids.retain(live));
+            unindexed.retain(live);
+            indexed = live.length;
+            removed = 0;
+        }
+    }
+
+    synchronized void clear() {
+        postings.clear();
+        unindexed.clear();
+        indexed = 0;
+        removed = 0;
+    }
+
+    /**
+     * Gets the candidates for matching a search term.
+     * <p>
+     * Candidates may include removed messages.
+     *
+     * @param term the search term.
+     * @return sorted UIDs of candidates, or null if the index can not narrow the search.
+     */
+    synchronized long[] candidates(SearchTerm term) {
+        if (term instanceof SubjectTerm || term instanceof BodyTerm
+            || term instanceof FromStringTerm || term instanceof RecipientStringTerm) {
+            return candidates(((StringTerm) term).getPattern());
+        }
+        if (term instanceof FromTerm || term instanceof RecipientTerm) {
+            Address address = ((AddressTerm) term).getAddress();
+            return address instanceof InternetAddress ? candidates(((InternetAddress) address).getAddress()) : null;
+        }
+        if (term instanceof AndTerm) {
+            long[] result = null;
+            for (SearchTerm child : ((AndTerm) term).getTerms()) {
+                long[] candidates = candidates(child);
+                if (null != candidates) {
+                    result = null == result ? candidates : intersect(result, candidates);
+                }
+            }
+            return result;
+        }
+        if (term instanceof OrTerm) {
+            long[] result = new long[0];
+            for (SearchTerm child : ((OrTerm) term).getTerms()) {
+                long[] candidates = candidates(child);
+                if (null == candidates) {
+                    return null;
+                }
+                result = union(result, candidates);
+            }
+            return result;
+        }
+        return null;
+    }
+
+    private long[] candidates(String pattern) {
+        if (null == pattern || pattern.length() < GRAM_LENGTH) {
+            return null;
+        }
+        long[] result = null;
+        for (int i = 0; i + GRAM_LENGTH <= pattern.length(); i++) {
+            long gram = gram(pattern, i);
+            if (gram < 0) {
+                return null;
+            }
+            UidList uids = postings.get(gram);
+            if (null == uids) {
+                result = new long[0];
+                break;
+            }
+            result = null == result ? uids.toArray() : intersect(result, uids.toArray());
+        }
+        return union(result, unindexed.toArray());
+    }
+
+    static long[] intersect(long[] a, long[] b) {
+        long[] result = new long[Math.min(a.length, b.length)];
+        int count = 0;
+        for (int i = 0, j = 0; i < a.length && j < b.length; ) {
+            if (a[i] < b[j]) {
+                i++;
+            } else if (a[i] > b[j]) {
+                j++;
+            } else {
+                result[count++] = a[i];
+                i++;
+                j++;
+            }
+        }
+        return Arrays.copyOf(result, count);
+    }
+
+    static long[] union(long[] a, long[] b) {
+        long[] result = new long[a.length + b.length];
+        int count = 0;
+        int i = 0;
+        int j = 0;
+        while (i < a.length || j < b.length) {
+            long next;
+            if (j == b.length || i < a.length && a[i] < b[j]) {
+                next = a[i++];
+            } else if (i == a.length || b[j] < a[i]) {
+                next = b[j++];
+            } else {
+                next = a[i++];
+                j++;
+            }
+            result[count++] = next;
+        }
+        return Arrays.copyOf(result, count);
+    }
+
+    /**
+     * Growable list of ascending UIDs.
+     */
+    private static final class UidList {
+        private long[] uids = new long[4];
+        private int size;
+
+        void add(long uid) {
+            if (size == uids.length) {
+                uids = Arrays.copyOf(uids, size * 2);
+            }
+            uids[size++] = uid;
+        }
+
+        long[] toArray() {
+            return Arrays.copyOf(uids, size);
+        }
+
+        /**
+         * @return true, if no UID remains.
+         */
+        boolean retain(long[] live) {
+            int count = 0;
+            for (int i = 0; i < size; i++) {
+                if (Arrays.binarySearch(live, uids[i]) >= 0) {
+                    uids[count++] = uids[i];
+                }
+            }
+            size = count;
+            return size == 0;
+        }
+
+        void clear() {
+            size = 0;
+        }
+    }
+}
@@ -0,0 +1,379 @@
+/*
+ * Copyright (c) 2014 Wael Chatila / Icegreen Technologies. All Rights Reserved.
+ * This software is released under the Apache license 2.0
+ */
+package com.icegreen.greenmail.store;
+
+import com.icegreen.greenmail.imap.commands.IdRange;
+import com.icegreen.greenmail.imap.commands.SearchTermBuilder;
+import jakarta.mail.Message;
+import jakarta.mail.search.AddressTerm;
+import jakarta.mail.search.AndTerm;
+import jakarta.mail.search.BodyTerm;
+import jakarta.mail.search.HeaderTerm;
+import jakarta.mail.search.IntegerComparisonTerm;
+import jakarta.mail.search.NotTerm;
+import jakarta.mail.search.OrTerm;
+import jakarta.mail.search.ReceivedDateTerm;
+import jakarta.mail.search.SearchTerm;
+import jakarta.mail.search.SentDateTerm;
+import jakarta.mail.search.SizeTerm;
+import jakarta.mail.search.StringTerm;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Plans searching the messages of a folder.
+ * <p>
+ * Orders the terms of AND and OR terms by estimated cost, so that cheap terms such as flags short-circuit
+ * content matching. Narrows the messages to match by MSN and UID ranges of the top level terms
+ * and by the optional search index.
+ */
+final class SearchPlan {
+    private static final Logger log = LoggerFactory.getLogger(SearchPlan.class);
+
+    // Estimated costs of matching a message
+    private static final int COST_CACHED = 1; // Eg flags, UID or received date
+    private static final int COST_HEADER = 4;
+    private static final int COST_UNKNOWN = 8;
+    private static final int COST_BODY = 32;
+
+    private final SearchTerm term;
+    private final List<List<IdRange>> msnRanges = new ArrayList<>();
+    private final List<List<IdRange>> uidRanges = new ArrayList<>();
+    private final long[] candidates;
+    private int messageNumber; // Of the message being matched, by index in the searched messages
+
+    private SearchPlan(SearchTerm term, SearchIndex index, KeywordTable keywordTable) {
+        this.term = optimize(StoredFlagTerm.replaceFlagTerms(term, keywordTable));
+        for (SearchTerm conjunct : this.term instanceof AndTerm ?
+            ((AndTerm) this.term).getTerms() : new SearchTerm[]{this.term}) {
+            if (conjunct instanceof SnapshotMessageNumberTerm) {
+                msnRanges.add(((SnapshotMessageNumberTerm) conjunct).term.getIdRanges());
+            } else if (conjunct instanceof SearchTermBuilder.UidSearchTerm) {
+                uidRanges.add(((SearchTermBuilder.AbstractIdSearchTerm) conjunct).getIdRanges());
+            }
+        }
+        candidates = null == index ? null : index.candidates(this.term);
+    }
+
+    /**
+     * Plans a search.
+     *
+     * @param term         the search term.
+     * @param index        the search index, or null.
+     * @param keywordTable the keywords of the store to search.
+     * @return the plan.
+     */
+    static SearchPlan plan(SearchTerm term, SearchIndex index, KeywordTable keywordTable) {
+        return new SearchPlan(term, index, keywordTable);
+    }
+
+    /**
+     * @return the search term, with reordered and replaced terms.
+     */
+    SearchTerm getTerm() {
+        return term;
+    }
+
+    /**
+     * Searches messages.
+     *
+     * @param messages the messages of the folder, ascending by UID.
+     * @return the UIDs of matching messages.
+     */
+    long[] search(List<StoredMessage> messages) {
+        int[] windows = new int[]{0, messages.size()};
+        for (List<IdRange> ranges : msnRanges) {
+            windows = intersect(windows, msnWindows(ranges, messages.size()));
+        }
+        for (List<IdRange> ranges : uidRanges) {
+            windows = intersect(windows, uidWindows(ranges, messages));
+        }
+        if (log.isDebugEnabled()) {
+            log.debug("Searching {} messages using {}", count(windows), this);
+        }
+
+        long[] matchedUids = new long[count(windows)];
+        int matched = 0;
+        int candidate = 0;
+        for (int w = 0; w < windows.length; w += 2) {
+            for (int i = windows[w]; i < windows[w + 1]; i++) {
+                StoredMessage mailMessage = messages.get(i);
+                if (null != candidates) {
+                    // Both ascending by UID
+                    final long uid = mailMessage.getUid();
+                    while (candidate < candidates.length && candidates[candidate] < uid) {
+                        candidate++;
+                    }
+                    if (candidate == candidates.length) {
+                        return Arrays.copyOf(matchedUids, matched);
+                    }
+                    if (candidates[candidate] != uid) {
+                        continue;
+                    }
+                }
+                // Message sequence number for potential sequence set search, of the searched messages
+                // https://tools.ietf.org/html/rfc3501#page-10
+                messageNumber = i + 1;
+                if (term.match(mailMessage.getMimeMessage())) {
+                    matchedUids[matched++] = mailMessage.getUid();
+                }
+            }
+        }
+        return Arrays.copyOf(matchedUids, matched);
+    }
+
+    /**
+     * Flattens nested AND and OR terms and orders their terms by cost, matches size by the stored size
+     * and matches MSNs by the index in the searched messages.
+     */
+    private SearchTerm optimize(SearchTerm term) {
+        if (term instanceof AndTerm) {
+            List<SearchTerm> terms = new ArrayList<>();
+            for (SearchTerm child : ((AndTerm) term).getTerms()) {
+                SearchTerm optimized = optimize(child);
+                terms.addAll(Arrays.asList(optimized instanceof AndTerm ?
+                    ((AndTerm) optimized).getTerms() : new SearchTerm[]{optimized}));
+            }
+            return new AndTerm(sortByCost(terms));
+        }
+        if (term instanceof OrTerm) {
+            List<SearchTerm> terms = new ArrayList<>();
+            for (SearchTerm child : ((OrTerm) term).getTerms()) {
+                SearchTerm optimized = optimize(child);
+                terms.addAll(Arrays.asList(optimized instanceof OrTerm ?
+                    ((OrTerm) optimized).getTerms() : new SearchTerm[]{optimized}));
+            }
+            return new OrTerm(sortByCost(terms));
+        }
+        if (term instanceof NotTerm) {
+            return new NotTerm(optimize(((NotTerm) term).getTerm()));
+        }
+        if (term instanceof SizeTerm) {
+            return new StoredSizeTerm((SizeTerm) term);
+        }
+        if (term instanceof SearchTermBuilder.MessageNumberSearchTerm) {
+            return new SnapshotMessageNumberTerm((SearchTermBuilder.MessageNumberSearchTerm) term);
+        }
+        return term;
+    }
+
+    private static SearchTerm[] sortByCost(List<SearchTerm> terms) {
+        // Stable, keeping the order of equally expensive terms
+        terms.sort(Comparator.comparingInt(SearchPlan::cost));
+        return terms.toArray(new SearchTerm[0]);
+    }
+
+    static int cost(SearchTerm term) {
+        if (term instanceof StoredFlagTerm || term instanceof SearchTermBuilder.AbstractIdSearchTerm
+            || term instanceof SnapshotMessageNumberTerm || term instanceof ReceivedDateTerm || term instanceof StoredSizeTerm
+            || term == SearchTermBuilder.ALL_SEARCH_TERM) {
+            return COST_CACHED;
+        }
+        if (term instanceof BodyTerm) {
+            return COST_BODY;
+        }
+        if (term instanceof StringTerm || term instanceof AddressTerm || term instanceof SentDateTerm) {
+            return COST_HEADER;
+        }
+        if (term instanceof NotTerm) {
+            return cost(((NotTerm) term).getTerm());
+        }
+        SearchTerm[] terms = term instanceof AndTerm ? ((AndTerm) term).getTerms()
+            : term instanceof OrTerm ? ((OrTerm) term).getTerms() : null;
+        if (null == terms) {
+            return COST_UNKNOWN;
+        }
+        int cost = 0;
+        for (SearchTerm child : terms) {
+            cost += cost(child);
+        }
+        return cost;
+    }
+
+    /**
+     * @return sorted, non overlapping pairs of start and end index of messages with MSNs in any range.
+     */
+    private static int[] msnWindows(List<IdRange> ranges, int size) {
+        List<int[]> windows = new ArrayList<>();
+        for (IdRange range : ranges) {
+            windows.add(new int[]{(int) Math.min(size, Math.max(0, range.getLowVal() - 1)),
+                (int) Math.min(size, Math.max(0, range.getHighVal()))});
+        }
+        return merge(windows);
+    }
+
+    /**
+     * @return sorted, non overlapping pairs of start and end index of messages with UIDs in any range.
+     */
+    private static int[] uidWindows(List<IdRange> ranges, List<StoredMessage> messages) {
+        List<int[]> windows = new ArrayList<>();
+        for (IdRange range : ranges) {
+            windows.add(new int[]{indexOf(messages, range.getLowVal()),
+                range.getHighVal() == Long.MAX_VALUE ? messages.size() : indexOf(messages, range.getHighVal() + 1)});
+        }
+        return merge(windows);
+    }
+
+    /**
+     * @return the index of the first message with given or greater UID.
+     */
+    private static int indexOf(List<StoredMessage> messages, long uid) {
+        int low = 0;
+        int high = messages.size();
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (messages.get(mid).getUid() < uid) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    private static int[] merge(List<int[]> windows) {
+        windows.sort(Comparator.comparingInt(window -> window[0]));
+        int[] merged = new int[windows.size() * 2];
+        int count = 0;
+        for (int[] window : windows) {
+            if (window[0] >= window[1]) {
+                continue;
+            }
+            if (count > 0 && window[0] <= merged[count - 1]) {
+                merged[count - 1] = Math.max(merged[count - 1], window[1]);
+            } else {
+                merged[count++] = window[0];
+                merged[count++] = window[1];
+            }
+        }
+        return Arrays.copyOf(merged, count);
+    }
+
+    private static int[] intersect(int[] a, int[] b) {
+        int[] result = new int[a.length + b.length];
+        int count = 0;
+        for (int i = 0, j = 0; i < a.length && j < b.length; ) {
+            int start = Math.max(a[i], b[j]);
+            int end = Math.min(a[i + 1], b[j + 1]);
+            if (start < end) {
+                result[count++] = start;
+                result[count++] = end;
+            }
+            if (a[i + 1] < b[j + 1]) {
+                i += 2;
+            } else {
+                j += 2;
+            }
+        }
+        return Arrays.copyOf(result, count);
+    }
+
+    private static int count(int[] windows) {
+        int count = 0;
+        for (int w = 0; w < windows.length; w += 2) {
+            count += windows[w + 1] - windows[w];
+        }
+        return count;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder buf = new StringBuilder("SearchPlan{term=");
+        describe(buf, term);
+        for (List<IdRange> ranges : msnRanges) {
+            buf.append(", msns=").append(IdRange.idRangesToString(ranges.toArray(new IdRange[0])));
+        }
+        for (List<IdRange> ranges : uidRanges) {
+            buf.append(", uids=").append(IdRange.idRangesToString(ranges.toArray(new IdRange[0])));
+        }
+        if (null != candidates) {
+            buf.append(", indexCandidates=").append(candidates.length);
+        }
+        return buf.append('}').toString();
+    }
+
+    private static void describe(StringBuilder buf, SearchTerm term) {
+        SearchTerm[] terms = null;
+        if (term instanceof AndTerm) {
+            buf.append("AND(");
+            terms = ((AndTerm) term).getTerms();
+        } else if (term instanceof OrTerm) {
+            buf.append("OR(");
+            terms = ((OrTerm) term).getTerms();
+        } else if (term instanceof NotTerm) {
+            buf.append("NOT(");
+            terms = new SearchTerm[]{((NotTerm) term).getTerm()};
+        } else if (term instanceof StoredFlagTerm) {
+            buf.append(((StoredFlagTerm) term).getTestSet() ? "FLAGS[" : "UNFLAGS[")
+                .append(((StoredFlagTerm) term).getFlags()).append(']');
+        } else if (term instanceof SnapshotMessageNumberTerm) {
+            buf.append(SearchTermBuilder.MessageNumberSearchTerm.class.getSimpleName());
+        } else if (term instanceof HeaderTerm) {
+            buf.append("HEADER[").append(((HeaderTerm) term).getHeaderName()).append("]'")
+                .append(((HeaderTerm) term).getPattern()).append('\'');
+        } else if (term instanceof StringTerm) {
+            buf.append(term.getClass().getSimpleName()).append('\'')
+                .append(((StringTerm) term).getPattern()).append('\'');
+        } else {
+            buf.append(term.getClass().getSimpleName());
+        }
+        if (null != terms) {
+            for (int i = 0; i < terms.length; i++) {
+                if (i > 0) {
+                    buf.append(", ");
+                }
+                describe(buf, terms[i]);
+            }
+            buf.append(')');
+        }
+    }
+
+    /**
+     * Size search term like {@link SizeTerm}, matching the RFC822.SIZE of stored messages
+     * as reported by FETCH instead of serializing the message content.
+     */
+    static class StoredSizeTerm extends IntegerComparisonTerm {
+        private static final long serialVersionUID = 2463124638296174932L;
+
+        StoredSizeTerm(SizeTerm term) {
+            super(term.getComparison(), term.getNumber());
+        }
+
+        @Override
+        public boolean match(Message msg) {
+            int size = -1;
+            if (msg instanceof StoredMessage.UidAwareMimeMessage) {
+                size = ((StoredMessage.UidAwareMimeMessage) msg).getRfc822Size();
+            }
+            if (size < 0) {
+                return new SizeTerm(getComparison(), getNumber()).match(msg);
+            }
+            return super.match(size);
+        }
+    }
+
+    /**
+     * Matches MSNs by the index of the message in the searched messages, instead of updating
+     * the message number of messages shared with concurrent searches.
+     */
+    private final class SnapshotMessageNumberTerm extends SearchTerm {
+        private static final long serialVersionUID = 2425385400765383817L;
+        private final SearchTermBuilder.MessageNumberSearchTerm term;
+
+        SnapshotMessageNumberTerm(SearchTermBuilder.MessageNumberSearchTerm term) {
+            this.term = term;
+        }
+
+        @Override
+        public boolean match(Message msg) {
+            return term.match(messageNumber);
+        }
+    }
+}
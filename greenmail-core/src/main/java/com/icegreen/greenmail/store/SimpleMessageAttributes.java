@@ -33,7 +33,7 @@ import java.util.*;
  * @author <a href="mailto:charles@benett1.demon.co.uk">Charles Benett</a>
  */
 public class SimpleMessageAttributes
-        implements MailMessageAttributes {
+        implements MailMessageAttributes, Cloneable {
     // Logging.
     protected final Logger log = LoggerFactory.getLogger(getClass());
     private static final String SP = " ";
@@ -75,9 +75,19 @@ public class SimpleMessageAttributes
     private String contentEncoding;
     private String receivedDateString;
     private String sentDateEnvelopeString;
+    private boolean sentDateDefaulted; // No sent date, so envelope date is the received date
     private Header contentDisposition;
 
     SimpleMessageAttributes(MimeMessage msg, Date receivedDate) throws MessagingException {
+        this(msg, receivedDate, null);
+    }
+
+    /**
+     * @param msg          the message.
+     * @param receivedDate the received date.
+     * @param rawMessage   the serialized message, for size and line count. Optional, null for serializing msg.
+     */
+    SimpleMessageAttributes(MimeMessage msg, Date receivedDate, RawMessage rawMessage) throws MessagingException {
         Date sentDate = getSentDate(msg, receivedDate);
 
         if(null != receivedDate) {
@@ -87,9 +97,16 @@ public class SimpleMessageAttributes
         if(null != sentDate) {
             sentDateEnvelopeString = new MailDateFormat().format(sentDate);
         }
+        sentDateDefaulted = sentDate == receivedDate;
 
         if (msg != null) {
-            parseMimePart(msg);
+            if (null != rawMessage) {
+                size = rawMessage.getSize();
+                lineCount = rawMessage.getLineCount();
+                parseMimePart(msg, false);
+            } else {
+                parseMimePart(msg);
+            }
         }
     }
 
@@ -116,6 +133,32 @@ public class SimpleMessageAttributes
         }
     }
 
+    /**
+     * Gets the attributes of a message with same content but different received date.
+     * <p>
+     * Avoids parsing the message again, when storing the same content in multiple mailboxes.
+     *
+     * @param receivedDate the received date.
+     * @return the attributes, possibly this instance.
+     */
+    SimpleMessageAttributes withReceivedDate(Date receivedDate) {
+        if (Objects.equals(this.receivedDate, receivedDate)) {
+            return this;
+        }
+        final SimpleMessageAttributes copy;
+        try {
+            copy = (SimpleMessageAttributes) clone();
+        } catch (CloneNotSupportedException e) {
+            throw new IllegalStateException("Can not copy attributes", e);
+        }
+        copy.receivedDate = receivedDate;
+        copy.receivedDateString = null == receivedDate ? null : INTERNALDATE.format(receivedDate);
+        if (sentDateDefaulted) {
+            copy.sentDateEnvelopeString = null == receivedDate ? null : new MailDateFormat().format(receivedDate);
+        }
+        return copy;
+    }
+
     void setUID(int thisUID) {
         uid = thisUID;
     }
@@ -125,6 +168,10 @@ public class SimpleMessageAttributes
      * TODO this is a mess, and should be completely revamped.
      */
     void parseMimePart(MimePart part) {
+        parseMimePart(part, true);
+    }
+
+    private void computeSizeAndLineCount(MimePart part) {
         // RFC822.SIZE must be the full RFC-822 octet count (headers + blank line + body),
         // so GreenMailUtil.getBody(part).length() can not be used for size computation.
         try {
@@ -144,6 +191,12 @@ public class SimpleMessageAttributes
             size = 0;
             lineCount = 0;
         }
+    }
+
+    private void parseMimePart(MimePart part, boolean computeSize) {
+        if (computeSize) {
+            computeSizeAndLineCount(part);
+        }
 
         // Section 1 - Message Headers
         if (part instanceof MimeMessage) {
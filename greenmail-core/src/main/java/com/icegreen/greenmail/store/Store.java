@@ -147,4 +147,11 @@ public interface Store {
      * @param pQuotaSupported true, if supported.
      */
     void setQuotaSupported(boolean pQuotaSupported);
+
+    /**
+     * Gets the counter of messages in all mailboxes of this store.
+     *
+     * @return the message counter.
+     */
+    StoredMessageCounter getMessageCounter();
 }
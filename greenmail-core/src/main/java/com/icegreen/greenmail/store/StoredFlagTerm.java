@@ -0,0 +1,122 @@
+/*
+ * Copyright (c) 2014 Wael Chatila / Icegreen Technologies. All Rights Reserved.
+ * This software is released under the Apache license 2.0
+ */
+package com.icegreen.greenmail.store;
+
+import jakarta.mail.Flags;
+import jakarta.mail.Message;
+import jakarta.mail.search.AndTerm;
+import jakarta.mail.search.FlagTerm;
+import jakarta.mail.search.NotTerm;
+import jakarta.mail.search.OrTerm;
+import jakarta.mail.search.SearchTerm;
+
+import java.util.Arrays;
+
+/**
+ * Flag search term like {@link FlagTerm}, matching stored messages by flag bits without copying message flags.
+ */
+class StoredFlagTerm extends SearchTerm {
+    private static final long serialVersionUID = -4317215262347851377L;
+
+    private final FlagTerm flagTerm;
+    private final int bits;
+    private final transient KeywordTable keywordTable;
+    private final long[] keywords;
+    private final boolean set;
+
+    /**
+     * @param flags        the flags to match.
+     * @param set          true if all flags must be set, false if all flags must be unset.
+     * @param keywordTable the keywords of the store to search.
+     */
+    public StoredFlagTerm(Flags flags, boolean set, KeywordTable keywordTable) {
+        this.flagTerm = new FlagTerm(flags, set);
+        this.bits = FlagBits.systemBits(flags);
+        this.keywordTable = keywordTable;
+        this.keywords = keywordTable.keywordIds(flags);
+        this.set = set;
+    }
+
+    /**
+     * Replaces flag terms of a search term by stored flag terms, for faster matching of stored messages.
+     *
+     * @param term         the search term, eg as parsed from an IMAP SEARCH command.
+     * @param keywordTable the keywords of the store to search.
+     * @return the search term, or an equivalent search term with replaced flag terms.
+     */
+    static SearchTerm replaceFlagTerms(SearchTerm term, KeywordTable keywordTable) {
+        if (term instanceof FlagTerm) {
+            return new StoredFlagTerm(((FlagTerm) term).getFlags(), ((FlagTerm) term).getTestSet(), keywordTable);
+        }
+        if (term instanceof NotTerm) {
+            final SearchTerm inner = ((NotTerm) term).getTerm();
+            final SearchTerm replaced = replaceFlagTerms(inner, keywordTable);
+            return replaced == inner ? term : new NotTerm(replaced);
+        }
+        if (term instanceof AndTerm) {
+            final SearchTerm[] terms = ((AndTerm) term).getTerms();
+            return replaceFlagTerms(terms, keywordTable) ? new AndTerm(terms) : term;
+        }
+        if (term instanceof OrTerm) {
+            final SearchTerm[] terms = ((OrTerm) term).getTerms();
+            return replaceFlagTerms(terms, keywordTable) ? new OrTerm(terms) : term;
+        }
+        return term;
+    }
+
+    private static boolean replaceFlagTerms(SearchTerm[] terms, KeywordTable keywordTable) {
+        boolean replaced = false;
+        for (int i = 0; i < terms.length; i++) {
+            final SearchTerm term = replaceFlagTerms(terms[i], keywordTable);
+            replaced |= term != terms[i];
+            terms[i] = term;
+        }
+        return replaced;
+    }
+
+    /**
+     * @return a copy of the flags to match.
+     */
+    public Flags getFlags() {
+        return flagTerm.getFlags();
+    }
+
+    /**
+     * @return true if all flags must be set, false if all flags must be unset.
+     */
+    public boolean getTestSet() {
+        return set;
+    }
+
+    @Override
+    public boolean match(Message msg) {
+        if (msg instanceof StoredMessage.UidAwareMimeMessage) {
+            final StoredMessage.UidAwareMimeMessage message = (StoredMessage.UidAwareMimeMessage) msg;
+            // Keyword IDs are only comparable within the same store
+            if (message.getKeywordTable() == keywordTable) {
+                return message.matchFlags(bits, keywords, set);
+            }
+        }
+        return flagTerm.match(msg);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof StoredFlagTerm)) {
+            return false;
+        }
+        StoredFlagTerm that = (StoredFlagTerm) o;
+        return bits == that.bits && set == that.set && keywordTable == that.keywordTable
+            && Arrays.equals(keywords, that.keywords);
+    }
+
+    @Override
+    public int hashCode() {
+        return flagTerm.hashCode();
+    }
+}
@@ -6,11 +6,22 @@
  */
 package com.icegreen.greenmail.store;
 
+import com.icegreen.greenmail.mail.RawMimeMessage;
 import jakarta.mail.Flags;
 import jakarta.mail.MessagingException;
+import jakarta.mail.Session;
+import jakarta.mail.internet.InternetHeaders;
 import jakarta.mail.internet.MimeMessage;
+import jakarta.mail.util.SharedByteArrayInputStream;
 
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.ref.SoftReference;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
 import java.util.Date;
+import java.util.Enumeration;
 
 /**
  * A mail message with all the extra stuff that IMAP requires.
@@ -21,10 +32,17 @@ import java.util.Date;
  * @version $Revision: 109034 $
  */
 public class StoredMessage {
-    private UidAwareMimeMessage mimeMessage;
+    // Parsed on access, and dropped under memory pressure as the raw message keeps the content
+    private volatile SoftReference<UidAwareMimeMessage> mimeMessage;
     private Date receivedDate;
     private long uid;
-    private SimpleMessageAttributes attributes;
+    private volatile SimpleMessageAttributes attributes; // Computed on first access
+    private RawMessage rawMessage;
+    private FlagState flagState;
+    private volatile int messageNumber;
+    private volatile long sequence;
+    private volatile MessageSortKeys sortKeys; // Extracted on first use
+    private volatile FolderJournal journal; // Of the folder containing the message, if recording
 
     /**
      * Wraps a mime message and provides support for uid.
@@ -34,14 +52,88 @@ public class StoredMessage {
      */
     public static class UidAwareMimeMessage extends MimeMessage {
         private long uid;
+        private volatile long sequence;
         private Date receivedDate;
+        private int rfc822Size = -1;
+        private final FlagState flagState;
 
         public UidAwareMimeMessage(MimeMessage source, long uid, Date receivedDate) throws MessagingException {
             super(source);
+            flagState = new FlagState(source.getFlags(), new KeywordTable());
             this.uid = uid;
             this.receivedDate = receivedDate;
         }
 
+        /**
+         * Creates a message parsed from the serialized content, sharing the content octets.
+         *
+         * @param session      the session.
+         * @param content      the serialized message.
+         * @param length       the length of the serialized message.
+         * @param flags        the message flags.
+         * @param uid          the UID.
+         * @param receivedDate the received date.
+         * @throws MessagingException on error parsing the content.
+         */
+        public UidAwareMimeMessage(Session session, byte[] content, int length, Flags flags, long uid,
+                                   Date receivedDate) throws MessagingException {
+            this(session, new SharedByteArrayInputStream(content, 0, length), length,
+                new FlagState(flags, new KeywordTable()), uid,
+                receivedDate);
+        }
+
+        /**
+         * Creates a message parsed from the serialized content, sharing the flags of a stored message.
+         *
+         * @param session      the session.
+         * @param content      the serialized message, preferably a shared input stream.
+         * @param length       the length of the serialized message.
+         * @param flagState    the flags of the stored message.
+         * @param uid          the UID.
+         * @param receivedDate the received date.
+         * @throws MessagingException on error parsing the content.
+         */
+        UidAwareMimeMessage(Session session, InputStream content, int length, FlagState flagState, long uid,
+                            Date receivedDate) throws MessagingException {
+            super(session, content);
+            this.flagState = flagState;
+            this.uid = uid;
+            this.receivedDate = receivedDate;
+            this.rfc822Size = length;
+        }
+
+        /**
+         * Creates a message from already parsed headers, sharing the body octets.
+         *
+         * @param session      the session.
+         * @param headers      the parsed headers, copied and not modified.
+         * @param body         the serialized body, a shared input stream.
+         * @param length       the length of the serialized message including headers.
+         * @param flagState    the flags of the stored message.
+         * @param uid          the UID.
+         * @param receivedDate the received date.
+         */
+        UidAwareMimeMessage(Session session, InternetHeaders headers, InputStream body, int length,
+                            FlagState flagState, long uid, Date receivedDate) {
+            super(session);
+            // Same state as after parsing, see MimeMessage#parse(InputStream)
+            this.headers = new CopiedHeaders(headers);
+            this.contentStream = body;
+            this.modified = false;
+            this.saved = true;
+            this.flagState = flagState;
+            this.uid = uid;
+            this.receivedDate = receivedDate;
+            this.rfc822Size = length;
+        }
+
+        /**
+         * @return the keywords interning the keyword IDs of the flags.
+         */
+        KeywordTable getKeywordTable() {
+            return flagState.getKeywordTable();
+        }
+
         @Override
         public Date getReceivedDate() {
             return receivedDate;
@@ -54,6 +146,20 @@ public class StoredMessage {
             return uid;
         }
 
+        /**
+         * @return the sequence number of the stored message, see {@link StoredMessage#getSequence()}.
+         */
+        public long getSequence() {
+            return sequence;
+        }
+
+        /**
+         * @return the size of the serialized message including headers, or -1 if unknown.
+         */
+        public int getRfc822Size() {
+            return rfc822Size;
+        }
+
         /**
          * Updates the MSN.
          *
@@ -62,56 +168,250 @@ public class StoredMessage {
         public void updateMessageNumber(int messageNumber) {
             setMessageNumber(messageNumber);
         }
+
+        @Override
+        public Flags getFlags() {
+            return flagState.getFlags();
+        }
+
+        @Override
+        public boolean isSet(Flags.Flag flag) {
+            return flagState.isSet(flag);
+        }
+
+        @Override
+        public void setFlag(Flags.Flag flag, boolean set) {
+            flagState.setFlag(flag, set);
+        }
+
+        @Override
+        public void setFlags(Flags flag, boolean set) {
+            flagState.setFlags(flag, set);
+        }
+
+        /**
+         * Matches flags without creating a {@link Flags} instance.
+         *
+         * @see FlagState#matchFlags(int, long[], boolean)
+         */
+        boolean matchFlags(int bits, long[] keywords, boolean set) {
+            return flagState.matchFlags(bits, keywords, set);
+        }
+    }
+
+    /**
+     * Copies header lines without parsing them again, so that modifying a message leaves the source unchanged.
+     */
+    private static final class CopiedHeaders extends InternetHeaders {
+        CopiedHeaders(InternetHeaders source) {
+            headers = new ArrayList<>();
+            for (Enumeration<String> lines = source.getAllHeaderLines(); lines.hasMoreElements(); ) {
+                headers.add(new InternetHeader(lines.nextElement()));
+            }
+        }
     }
 
     StoredMessage(MimeMessage mimeMessage,
             Date receivedDate, long uid) {
+        this(mimeMessage, receivedDate, uid, null, new KeywordTable());
+    }
+
+    /**
+     * Creates a stored message.
+     * <p>
+     * Only captures the serialized message, while parsing the message and computing the IMAP attributes
+     * is deferred until first access.
+     *
+     * @param mimeMessage  the message.
+     * @param receivedDate the received date.
+     * @param uid          the UID.
+     * @param storage      the storage for the serialized message, or null for keeping it on heap.
+     * @param keywordTable the keywords of the store.
+     */
+    StoredMessage(MimeMessage mimeMessage, Date receivedDate, long uid, MessageStorage storage,
+                  KeywordTable keywordTable) {
         this.receivedDate = receivedDate;
         this.uid = uid;
         try {
-            this.mimeMessage = new UidAwareMimeMessage(mimeMessage, uid, receivedDate);
-            this.attributes = new SimpleMessageAttributes(mimeMessage, receivedDate);
-        } catch (MessagingException e) {
-            throw new IllegalStateException("Could not parse mime message " + mimeMessage + " with uid " + uid, e);
+            this.flagState = new FlagState(mimeMessage.getFlags(), keywordTable);
+            final RawMimeMessage rawMimeMessage =
+                mimeMessage instanceof RawMimeMessage ? (RawMimeMessage) mimeMessage : null; // Eg received via SMTP
+            final RawMessage sharedContent = null != rawMimeMessage ? rawMimeMessage.getStoredContent() : null;
+            if (null != sharedContent && sharedContent.getStorage() == storage) {
+                // Same content already stored, eg for another recipient
+                sharedContent.retain();
+                this.rawMessage = sharedContent;
+                return;
+            }
+
+            byte[] octets = null;
+            int length = 0;
+            if (null != rawMimeMessage) {
+                octets = rawMimeMessage.getRawContent();
+                length = rawMimeMessage.getRawContentLength();
+            }
+            if (null == octets) {
+                final int size = mimeMessage.getSize();
+                ByteArrayOutputStream content = new ByteArrayOutputStream(size > 0 ? size : 1024);
+                mimeMessage.writeTo(content);
+                octets = content.toByteArray();
+                length = octets.length;
+            }
+            if (null == storage) {
+                this.rawMessage = new RawMessage(octets, length, mimeMessage.getSession());
+            } else {
+                final long address = storage.store(octets, length);
+                this.rawMessage = new RawMessage(storage.get(address, length), address, storage,
+                    mimeMessage.getSession());
+            }
+            if (null != rawMimeMessage && octets == rawMimeMessage.getRawContent()) {
+                rawMimeMessage.setStoredContent(rawMessage);
+            }
+        } catch (MessagingException | IOException e) {
+            throw new IllegalStateException("Could not store mime message " + mimeMessage + " with uid " + uid, e);
         }
     }
 
+    /**
+     * Creates a stored message sharing the content of an already stored message.
+     *
+     * @param source       the stored message.
+     * @param receivedDate the received date.
+     * @param uid          the UID.
+     */
+    StoredMessage(StoredMessage source, Date receivedDate, long uid) {
+        this(source.rawMessage, source.getFlags(), receivedDate, uid, source.flagState.getKeywordTable());
+    }
+
+    /**
+     * Creates a stored message for content recovered from a {@link MessageStorage}.
+     *
+     * @param session      the session for parsing the content.
+     * @param content      the stored content.
+     * @param address      the storage address of the content.
+     * @param storage      the storage of the content.
+     * @param flags        the flags.
+     * @param receivedDate the received date.
+     * @param uid          the UID.
+     * @param keywordTable the keywords of the store.
+     */
+    StoredMessage(Session session, ByteBuffer content, long address, MessageStorage storage, Flags flags,
+                  Date receivedDate, long uid, KeywordTable keywordTable) {
+        this(new RawMessage(content, address, storage, session), flags, receivedDate, uid, keywordTable);
+    }
+
+    /**
+     * Creates a stored message sharing already stored content.
+     *
+     * @param content      the content.
+     * @param flags        the flags.
+     * @param receivedDate the received date.
+     * @param uid          the UID.
+     * @param keywordTable the keywords of the store.
+     */
+    StoredMessage(RawMessage content, Flags flags, Date receivedDate, long uid, KeywordTable keywordTable) {
+        this.receivedDate = receivedDate;
+        this.uid = uid;
+        this.rawMessage = content;
+        this.flagState = new FlagState(flags, keywordTable);
+    }
+
+    /**
+     * Gets the message, parsed from the raw message unless still cached.
+     * <p>
+     * The message is a snapshot of the stored content: the cached message may be garbage collected and parsed
+     * again, so changes to the returned message are not stored and may get lost. Flags are shared with the store.
+     *
+     * @return the message.
+     */
     public MimeMessage getMimeMessage() {
-        return mimeMessage;
+        UidAwareMimeMessage message = cachedMimeMessage();
+        if (null == message) {
+            synchronized (this) {
+                message = cachedMimeMessage();
+                if (null == message) {
+                    try {
+                        // Headers are parsed once per content, and shared eg by all recipients
+                        message = new UidAwareMimeMessage(rawMessage.getSession(), rawMessage.getHeaders(),
+                            rawMessage.newBodyInputStream(), rawMessage.getSize(), flagState, uid, receivedDate);
+                    } catch (MessagingException e) {
+                        throw new IllegalStateException("Could not parse stored message with uid " + uid, e);
+                    }
+                    message.updateMessageNumber(messageNumber);
+                    message.sequence = sequence;
+                    mimeMessage = new SoftReference<>(message);
+                }
+            }
+        }
+        return message;
+    }
+
+    /**
+     * @return true, if the message has been parsed.
+     * @see #getMimeMessage()
+     */
+    boolean isMimeMessageParsed() {
+        return null != cachedMimeMessage();
+    }
+
+    private UidAwareMimeMessage cachedMimeMessage() {
+        final SoftReference<UidAwareMimeMessage> ref = mimeMessage;
+        return null == ref ? null : ref.get();
     }
 
     public Flags getFlags() {
-        try {
-            return getMimeMessage().getFlags();
-        } catch (MessagingException e) {
-            throw new IllegalStateException("Can not access flags", e);
-        }
+        return flagState.getFlags();
     }
 
     public boolean isSet(Flags.Flag flag) {
-        try {
-            return getMimeMessage().isSet(flag);
-        } catch (MessagingException e) {
-            throw new IllegalStateException("Can not access flag " + flag, e);
-        }
+        return flagState.isSet(flag);
     }
 
     public void setFlag(Flags.Flag flag, boolean value) {
-        try {
-            getMimeMessage().setFlag(flag, value);
-        } catch (MessagingException e) {
-            throw new IllegalStateException("Can not set flag " + flag + " to " + value, e);
-        }
+        flagState.setFlag(flag, value);
+        flagsChanged();
     }
 
     public void setFlags(Flags flags, boolean value) {
-        try {
-            getMimeMessage().setFlags(flags, value);
-        } catch (MessagingException e) {
-            throw new IllegalStateException("Can not set flags " + flags + " to " + value, e);
+        flagState.setFlags(flags, value);
+        flagsChanged();
+    }
+
+    /**
+     * Replaces all flags, including user flags.
+     *
+     * @param flags the new flags.
+     */
+    public void replaceFlags(Flags flags) {
+        flagState.replaceFlags(flags);
+        flagsChanged();
+    }
+
+    private void flagsChanged() {
+        final FolderJournal folderJournal = journal;
+        if (null != folderJournal) {
+            folderJournal.flagsChanged(this);
         }
     }
 
+    /**
+     * Matches flags without creating a {@link Flags} instance.
+     *
+     * @see FlagState#matchFlags(int, long[], boolean)
+     */
+    boolean matchFlags(int bits, long[] keywords, boolean set) {
+        return flagState.matchFlags(bits, keywords, set);
+    }
+
+    void attach(FolderCounters counters, FolderJournal folderJournal) {
+        flagState.attach(counters);
+        journal = folderJournal;
+    }
+
+    void detach() {
+        journal = null;
+        flagState.detach();
+    }
     public Date getReceivedDate() {
         return receivedDate;
     }
@@ -120,8 +420,76 @@ public class StoredMessage {
         return uid;
     }
 
+    /**
+     * Gets the sequence number assigned when storing the message, increasing across all mailboxes of a store.
+     *
+     * @return the sequence number, or 0 if not stored.
+     * @see StoredMessageCounter#getMessagesSince(long)
+     */
+    public long getSequence() {
+        return sequence;
+    }
+
+    void setSequence(long sequence) {
+        this.sequence = sequence;
+        final UidAwareMimeMessage message = cachedMimeMessage();
+        if (null != message) {
+            message.sequence = sequence;
+        }
+    }
+
+    /**
+     * Gets the IMAP attributes such as envelope and body structure, computed on first access.
+     * <p>
+     * Computed once per raw message, and shared by all messages storing the same content.
+     *
+     * @return the attributes.
+     */
     public MailMessageAttributes getAttributes() {
-        return attributes;
+        SimpleMessageAttributes messageAttributes = attributes;
+        if (null == messageAttributes) {
+            SimpleMessageAttributes contentAttributes = rawMessage.getAttributes();
+            if (null == contentAttributes) {
+                try {
+                    contentAttributes = new SimpleMessageAttributes(getMimeMessage(), receivedDate, rawMessage);
+                } catch (MessagingException e) {
+                    throw new IllegalStateException("Could not parse attributes of message with uid " + uid, e);
+                }
+                rawMessage.setAttributes(contentAttributes);
+            }
+            messageAttributes = contentAttributes.withReceivedDate(receivedDate);
+            attributes = messageAttributes;
+        }
+        return messageAttributes;
+    }
+
+    /**
+     * Gets the values for sorting, extracted on first use.
+     *
+     * @return the sort keys.
+     */
+    public MessageSortKeys getSortKeys() {
+        MessageSortKeys keys = sortKeys;
+        if (null == keys) {
+            try {
+                keys = new MessageSortKeys(rawMessage);
+            } catch (MessagingException e) {
+                throw new IllegalStateException("Can not extract sort keys of message with uid " + uid, e);
+            }
+            sortKeys = keys;
+        }
+        return keys;
+    }
+
+    /**
+     * Gets the serialized message, as captured when storing the message.
+     * <p>
+     * Prefer over serializing {@link #getMimeMessage()} for serving message content.
+     *
+     * @return the raw message.
+     */
+    public RawMessage getRawMessage() {
+        return rawMessage;
     }
 
     /**
@@ -130,6 +498,10 @@ public class StoredMessage {
      * @param messageNumber the MSN.
      */
     public void updateMessageNumber(int messageNumber) {
-        mimeMessage.updateMessageNumber(messageNumber);
+        this.messageNumber = messageNumber;
+        final UidAwareMimeMessage message = cachedMimeMessage();
+        if (null != message) {
+            message.updateMessageNumber(messageNumber);
+        }
     }
 }
@@ -25,6 +25,14 @@ public interface StoredMessageCollection extends Iterable<StoredMessage> {
 
     int getMsn(long uid) throws FolderException;
 
+    /**
+     * Finds a message by UID.
+     *
+     * @param uid the message UID.
+     * @return the message, or null if no message of given UID exists.
+     */
+    StoredMessage findByUid(long uid);
+
     List<StoredMessage> getMessages(MsgRangeFilter range);
 
     List<StoredMessage> getMessages();
@@ -0,0 +1,214 @@
+/*
+ * Copyright (c) 2014 Wael Chatila / Icegreen Technologies. All Rights Reserved.
+ * This software is released under the Apache license 2.0
+ */
+package com.icegreen.greenmail.store;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Counts the messages of all mailboxes of a store, and lets threads wait for a minimum message count.
+ * <p>
+ * Maintained by the store when messages get added or removed, so counting requires no scan of mailboxes.
+ * Neither counting nor waiting acquires locks, and waiters get removed once satisfied or timed out.
+ * <p>
+ * Additionally, every stored message gets a sequence number in storing order,
+ * so that callers can incrementally fetch messages stored since a previously seen sequence number.
+ */
+public class StoredMessageCounter {
+    private final AtomicInteger count = new AtomicInteger();
+    private final Set<Waiter> waiters = ConcurrentHashMap.newKeySet();
+
+    // Log of stored messages in storing order, with removed messages set to null.
+    // Entries before head got removed, and the log gets compacted once removed entries prevail.
+    private static final int MIN_LOG_CAPACITY = 64;
+    private final Object logLock = new Object();
+    private StoredMessage[] log = new StoredMessage[MIN_LOG_CAPACITY];
+    private long[] sequences = new long[MIN_LOG_CAPACITY]; // Ascending, of log entries
+    private int head;
+    private int tail;
+    private int removedEntries; // Between head and tail
+    private long lastSequence;
+
+    /**
+     * @return the current number of stored messages.
+     */
+    public int getCount() {
+        return count.get();
+    }
+
+    /**
+     * @return the sequence number of the most recently stored message, or 0 if none.
+     */
+    public long getSequence() {
+        synchronized (logLock) {
+            return lastSequence;
+        }
+    }
+
+    /**
+     * Gets messages stored after given sequence number, which are not yet removed.
+     * <p>
+     * Runs in time proportional to the number of messages stored since, not to the total number of messages.
+     * Moving a message into another mailbox stores it again with a new sequence number.
+     *
+     * @param sequence the sequence number, e.g. of the last message seen or 0 for all messages.
+     * @return the messages in storing order.
+     * @see StoredMessage#getSequence()
+     */
+    public List<StoredMessage> getMessagesSince(long sequence) {
+        synchronized (logLock) {
+            int start = Arrays.binarySearch(sequences, head, tail, sequence);
+            start = start < 0 ? -start - 1 : start + 1;
+            List<StoredMessage> messages = new ArrayList<>(tail - start);
+            for (int i = start; i < tail; i++) {
+                if (null != log[i]) {
+                    messages.add(log[i]);
+                }
+            }
+            return messages;
+        }
+    }
+
+    void added(StoredMessage message) {
+        synchronized (logLock) {
+            if (tail == log.length) {
+                final int live = tail - head - removedEntries;
+                compact(live > log.length / 2 ? log.length * 2 : log.length);
+            }
+            message.setSequence(++lastSequence);
+            sequences[tail] = lastSequence;
+            log[tail++] = message;
+        }
+
+        final int newCount = count.incrementAndGet();
+        if (!waiters.isEmpty()) {
+            for (Waiter waiter : waiters) {
+                if (waiter.expectedCount <= newCount) {
+                    waiter.latch.countDown();
+                    waiters.remove(waiter);
+                }
+            }
+        }
+    }
+
+    void removed(Collection<StoredMessage> messages) {
+        if (messages.isEmpty()) {
+            return;
+        }
+        synchronized (logLock) {
+            for (StoredMessage message : messages) {
+                final int index = Arrays.binarySearch(sequences, head, tail, message.getSequence());
+                if (index >= 0 && log[index] == message) {
+                    log[index] = null;
+                    removedEntries++;
+                }
+            }
+            while (head < tail && null == log[head]) {
+                head++;
+                removedEntries--;
+            }
+            // Compacts when messages stored long ago stay, while newer ones get removed
+            final int live = tail - head - removedEntries;
+            if (removedEntries > MIN_LOG_CAPACITY && removedEntries > live) {
+                compact(Math.max(MIN_LOG_CAPACITY, live * 2));
+            }
+        }
+        count.addAndGet(-messages.size());
+    }
+
+    /**
+     * Moves the remaining entries to the start of a log with given capacity, dropping removed entries.
+     */
+    private void compact(int capacity) {
+        final StoredMessage[] compactedLog = capacity == log.length ? log : new StoredMessage[capacity];
+        final long[] compactedSequences = capacity == log.length ? sequences : new long[capacity];
+        int live = 0;
+        for (int i = head; i < tail; i++) {
+            if (null != log[i]) {
+                compactedSequences[live] = sequences[i];
+                compactedLog[live++] = log[i];
+            }
+        }
+        Arrays.fill(compactedLog, live, Math.min(tail, capacity), null);
+        log = compactedLog;
+        sequences = compactedSequences;
+        head = 0;
+        tail = live;
+        removedEntries = 0;
+    }
+
+    /**
+     * Creates a latch counted down once the store contains at least the expected number of messages.
+     * <p>
+     * Prefer {@link #awaitCount(int, long, TimeUnit)}, which removes the waiter on timeout.
+     *
+     * @param expectedCount the expected number of messages.
+     * @return the latch, already counted down if the store contains enough messages.
+     */
+    public CountDownLatch newLatch(int expectedCount) {
+        if (count.get() >= expectedCount) {
+            return new CountDownLatch(0);
+        }
+        return register(expectedCount).latch;
+    }
+
+    private Waiter register(int expectedCount) {
+        final Waiter waiter = new Waiter(expectedCount);
+        waiters.add(waiter);
+        // Re-check, as messages might have been added before registering the waiter
+        if (count.get() >= expectedCount) {
+            waiter.latch.countDown();
+            waiters.remove(waiter);
+        }
+        return waiter;
+    }
+
+    /**
+     * Waits until the store contains at least the expected number of messages.
+     *
+     * @param expectedCount the expected number of messages.
+     * @param timeout       the maximum time to wait.
+     * @param unit          the time unit of the timeout.
+     * @return true, if the store contains the expected number of messages, or false on timeout.
+     * @throws InterruptedException if interrupted while waiting.
+     */
+    public boolean awaitCount(int expectedCount, long timeout, TimeUnit unit) throws InterruptedException {
+        if (count.get() >= expectedCount) {
+            return true;
+        }
+        final Waiter waiter = register(expectedCount);
+        try {
+            return waiter.latch.await(timeout, unit);
+        } finally {
+            waiters.remove(waiter);
+        }
+    }
+
+    int getWaiterCount() {
+        return waiters.size();
+    }
+
+    int getLogCapacity() {
+        synchronized (logLock) {
+            return log.length;
+        }
+    }
+
+    private static class Waiter {
+        final int expectedCount;
+        final CountDownLatch latch = new CountDownLatch(1);
+
+        Waiter(int expectedCount) {
+            this.expectedCount = expectedCount;
+        }
+    }
+}
@@ -47,12 +47,18 @@ public class UserManager {
         }
         GreenMailUser user = getUserByEmail(email);
         if(null==user) {
-            String login = email;
-            String password = email;
-            user = createUser(email, login, password);
-            log.info(
-                "Created user login {} for address {} with password {} because it didn't exist before.",
-                login, email, password);
+            // Concurrent delivery workers might create the same user
+            synchronized (this) {
+                user = getUserByEmail(email);
+                if (null == user) {
+                    String login = email;
+                    String password = email;
+                    user = createUser(email, login, password);
+                    log.info(
+                        "Created user login {} for address {} with password {} because it didn't exist before.",
+                        login, email, password);
+                }
+            }
         }
         return user;
     };
@@ -79,7 +85,7 @@ public class UserManager {
         return loginToUser.values().stream().filter(predicate);
     }
 
-    public GreenMailUser createUser(String email, String login, String password) throws UserException {
+    public synchronized GreenMailUser createUser(String email, String login, String password) throws UserException {
         log.debug("Creating user {}", email);
         // Check that user does not exist
         if(getUserByEmail(email)!=null) {
@@ -25,12 +25,14 @@ import jakarta.mail.internet.MimeMessage;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.Closeable;
 import java.io.IOException;
 import java.io.InputStream;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.util.*;
-import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.TimeUnit;
 import java.util.function.Predicate;
 import java.util.stream.Collectors;
@@ -44,6 +46,7 @@ public class GreenMail extends ConfiguredGreenMail {
     protected Managers managers;
     protected final Map<String, AbstractServer> services = new HashMap<>();
     protected ServerSetup[] config;
+    private ExecutorService executorService; // Optional, shared by all servers
 
     /**
      * Creates a SMTP, SMTPS, POP3, POP3S, IMAP, and IMAPS server binding onto non-default ports.
@@ -88,12 +91,25 @@ public class GreenMail extends ConfiguredGreenMail {
      * Initialize
      */
     private void init() {
-        if (managers == null) {
-            managers = new Managers();
+        services.clear();
+        services.putAll(createServices(config, getManagers()));
+        if (null != executorService) {
+            for (AbstractServer service : services.values()) {
+                service.setExecutorService(executorService);
+            }
         }
+    }
 
-        services.clear();
-        services.putAll(createServices(config, managers));
+    /**
+     * Sets the executor for running the client connection handlers of all servers, instead of an executor
+     * created by each server (see {@link AbstractServer#createExecutorService()}).
+     * <p>
+     * Applies to servers created when (re)starting. Stopping does not shut down the provided executor.
+     *
+     * @param executorService the executor service, or null for the default executors.
+     */
+    public synchronized void setExecutorService(ExecutorService executorService) {
+        this.executorService = executorService;
     }
 
     @Override
@@ -140,7 +156,43 @@ public class GreenMail extends ConfiguredGreenMail {
         }
         services.clear();
 
-        managers = new Managers();
+        if (null != managers) {
+            managers.getSmtpManager().stopAsyncDelivery();
+            closeStore();
+            managers = null; // Created again when starting, opening the store again
+        }
+    }
+
+    /**
+     * Creates the managers, with a file backed store if configured.
+     *
+     * @return the managers.
+     * @see GreenMailConfiguration#withStoreDir(String)
+     */
+    protected Managers createManagers() {
+        final GreenMailConfiguration configuration = getConfiguration();
+        if (null == configuration || !configuration.hasStoreDir()) {
+            return new Managers();
+        }
+        try {
+            return new Managers(new FileBackedStore(Paths.get(configuration.getStoreDir())));
+        } catch (IOException e) {
+            throw new IllegalStateException("Can not open store " + configuration.getStoreDir(), e);
+        }
+    }
+
+    private void closeStore() {
+        if (null == managers) {
+            return;
+        }
+        final Store store = managers.getImapHostManager().getStore();
+        if (store instanceof Closeable) {
+            try {
+                ((Closeable) store).close();
+            } catch (IOException e) {
+                log.warn("Can not close store {}", store, e);
+            }
+        }
     }
 
     @Override
@@ -207,6 +259,9 @@ public class GreenMail extends ConfiguredGreenMail {
 
     @Override
     public synchronized Managers getManagers() {
+        if (null == managers) {
+            managers = createManagers();
+        }
         return managers;
     }
 
@@ -218,20 +273,27 @@ public class GreenMail extends ConfiguredGreenMail {
     //~ Convenience Methods, often needed while testing ---------------------------------------------------------------
     @Override
     public boolean waitForIncomingEmail(long timeout, int emailCount) {
-        final CountDownLatch waitObject = getManagers().getSmtpManager().createAndAddNewWaitObject(emailCount);
+        final StoredMessageCounter counter = getManagers().getImapHostManager().getStore().getMessageCounter();
         final long endTime = System.currentTimeMillis() + timeout;
-        while (waitObject.getCount() > 0) {
+        while (true) {
             final long waitTime = endTime - System.currentTimeMillis();
             if (waitTime < 0L) {
-                return waitObject.getCount() == 0;
+                final boolean received = counter.getCount() >= emailCount;
+                final int failures = getDeliveryFailureCount();
+                if (!received && failures > 0) {
+                    log.warn("Timed out waiting for {} messages, with {} failed asynchronous deliveries",
+                        emailCount, failures);
+                }
+                return received;
             }
             try {
-                waitObject.await(waitTime, TimeUnit.MILLISECONDS);
+                if (counter.awaitCount(emailCount, waitTime, TimeUnit.MILLISECONDS)) {
+                    return true;
+                }
             } catch (InterruptedException e) {
                 // Continue loop, in case of pre-mature interruption
             }
         }
-        return waitObject.getCount() == 0;
     }
 
     @Override
@@ -239,6 +301,16 @@ public class GreenMail extends ConfiguredGreenMail {
         return waitForIncomingEmail(5000L, emailCount);
     }
 
+    @Override
+    public int getDeliveryFailureCount() {
+        return getManagers().getSmtpManager().getDeliveryFailureCount();
+    }
+
+    @Override
+    public int getDeliveryQueueSize() {
+        return getManagers().getSmtpManager().getDeliveryQueueSize();
+    }
+
     @Override
     public MimeMessage[] getReceivedMessages() {
         List<StoredMessage> msgs = getManagers().getImapHostManager().getAllMessages();
@@ -250,6 +322,18 @@ public class GreenMail extends ConfiguredGreenMail {
         return ret;
     }
 
+    @Override
+    public long getReceivedMessageSequence() {
+        return getManagers().getImapHostManager().getMessageSequence();
+    }
+
+    @Override
+    public MimeMessage[] getReceivedMessagesSince(long sequence) {
+        return getManagers().getImapHostManager().getMessagesSince(sequence).stream()
+            .map(StoredMessage::getMimeMessage)
+            .toArray(MimeMessage[]::new);
+    }
+
     @Override
     public MimeMessage[] getReceivedMessagesForDomain(String domain) {
         List<StoredMessage> msgs = getManagers().getImapHostManager().getAllMessages();
@@ -322,6 +406,11 @@ public class GreenMail extends ConfiguredGreenMail {
     public GreenMail withConfiguration(GreenMailConfiguration config) {
         // Just overriding to return more specific type
         super.withConfiguration(config);
+        if (config.hasStoreDir() && !isRunning()) {
+            // Replaces the managers created before configuring the store
+            closeStore();
+            managers = null;
+        }
         return this;
     }
 
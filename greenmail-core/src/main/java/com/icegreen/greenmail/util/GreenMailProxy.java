@@ -87,6 +87,26 @@ public abstract class GreenMailProxy extends ConfiguredGreenMail {
         return getGreenMail().getReceivedMessagesForDomain(domain);
     }
 
+    @Override
+    public int getDeliveryFailureCount() {
+        return getGreenMail().getDeliveryFailureCount();
+    }
+
+    @Override
+    public int getDeliveryQueueSize() {
+        return getGreenMail().getDeliveryQueueSize();
+    }
+
+    @Override
+    public long getReceivedMessageSequence() {
+        return getGreenMail().getReceivedMessageSequence();
+    }
+
+    @Override
+    public MimeMessage[] getReceivedMessagesSince(long sequence) {
+        return getGreenMail().getReceivedMessagesSince(sequence);
+    }
+
     @Override
     public GreenMailUser setUser(String login, String password) {
         return getGreenMail().setUser(login, password);
@@ -4,6 +4,7 @@
  */
 package com.icegreen.greenmail.util;
 
+import com.icegreen.greenmail.mail.RawMimeMessage;
 import com.icegreen.greenmail.user.GreenMailUser;
 import jakarta.activation.DataHandler;
 import jakarta.activation.DataSource;
@@ -63,14 +64,35 @@ public class GreenMailUtil {
      */
     public static MimeMessage newMimeMessage(InputStream inputStream) {
         try {
-            final Properties props = new Properties();
-            props.setProperty("mail.mime.allowutf8", System.getProperty("mail.mime.allowutf8","true"));
-            return new MimeMessage(Session.getDefaultInstance(props), inputStream);
+            return new MimeMessage(newMimeMessageSession(), inputStream);
         } catch (MessagingException e) {
             throw new IllegalArgumentException("Can not generate mime message for input stream " + inputStream, e);
         }
     }
 
+    /**
+     * Convenience method which creates a new {@link MimeMessage} from serialized octets.
+     * <p>
+     * The message shares instead of copies the octets, see {@link RawMimeMessage}.
+     *
+     * @param content the serialized message, must not be modified afterwards.
+     * @param length  the length of the serialized message.
+     * @return the created mime message.
+     */
+    public static MimeMessage newMimeMessage(byte[] content, int length) {
+        try {
+            return new RawMimeMessage(newMimeMessageSession(), content, length);
+        } catch (MessagingException e) {
+            throw new IllegalArgumentException("Can not generate mime message for content of length " + length, e);
+        }
+    }
+
+    private static Session newMimeMessageSession() {
+        final Properties props = new Properties();
+        props.setProperty("mail.mime.allowutf8", System.getProperty("mail.mime.allowutf8", "true"));
+        return Session.getDefaultInstance(props);
+    }
+
     /**
      * Convenience method which creates a new {@link MimeMessage} from a string
      */
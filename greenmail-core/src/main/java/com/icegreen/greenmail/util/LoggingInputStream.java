@@ -3,12 +3,16 @@ package com.icegreen.greenmail.util;
 import java.io.FilterInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
 
 /**
  * Logs stream for debugging purpose on DEBUG level.
  */
 public class LoggingInputStream extends FilterInputStream {
     protected final LineLoggingBuffer loggingBuffer;
+    // Not using synchronized, which pins virtual threads blocking on socket I/O
+    private final Lock lock = new ReentrantLock();
 
     /**
      * Creates an input stream filter built on top of the specified
@@ -26,10 +30,15 @@ public class LoggingInputStream extends FilterInputStream {
     }
 
     @Override
-    public synchronized int read() throws IOException {
-        int b = super.read();
-        loggingBuffer.append(b);
-        return b;
+    public int read() throws IOException {
+        lock.lock();
+        try {
+            int b = super.read();
+            loggingBuffer.append(b);
+            return b;
+        } finally {
+            lock.unlock();
+        }
     }
 
     @Override
@@ -42,8 +51,13 @@ public class LoggingInputStream extends FilterInputStream {
     }
 
     @Override
-    public synchronized void close() throws IOException {
-        loggingBuffer.logLine();
-        super.close();
+    public void close() throws IOException {
+        lock.lock();
+        try {
+            loggingBuffer.logLine();
+            super.close();
+        } finally {
+            lock.unlock();
+        }
     }
 }
@@ -3,12 +3,16 @@ package com.icegreen.greenmail.util;
 import java.io.FilterOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
 
 /**
  * Logs stream for debugging purpose on DEBUG level.
  */
 public class LoggingOutputStream extends FilterOutputStream {
     protected final LineLoggingBuffer loggingBuffer;
+    // Not using synchronized, which pins virtual threads blocking on socket I/O
+    private final Lock lock = new ReentrantLock();
 
     /**
      * Creates an output stream filter built on top of the specified
@@ -26,21 +30,36 @@ public class LoggingOutputStream extends FilterOutputStream {
     }
 
     @Override
-    public synchronized void write(int b) throws IOException {
-        loggingBuffer.append(b);
-        super.write(b);
+    public void write(int b) throws IOException {
+        lock.lock();
+        try {
+            loggingBuffer.append(b);
+            super.write(b);
+        } finally {
+            lock.unlock();
+        }
     }
 
 
     @Override
-    public synchronized void flush() throws IOException {
-        loggingBuffer.logLine();
-        super.flush();
+    public void flush() throws IOException {
+        lock.lock();
+        try {
+            loggingBuffer.logLine();
+            super.flush();
+        } finally {
+            lock.unlock();
+        }
     }
 
     @Override
-    public synchronized void close() throws IOException {
-        loggingBuffer.logLine();
-        super.close();
+    public void close() throws IOException {
+        lock.lock();
+        try {
+            loggingBuffer.logLine();
+            super.close();
+        } finally {
+            lock.unlock();
+        }
     }
 }
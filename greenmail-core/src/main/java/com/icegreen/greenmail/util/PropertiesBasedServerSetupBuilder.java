@@ -40,6 +40,9 @@ import java.util.Properties;
  * <li>greenmail.startup.timeout : timeout for server startup (defaults to {@link ServerSetup#SERVER_STARTUP_TIMEOUT}<</li>
  * <li>greenmail.hostname : The default hostname to bind to, eg localhost or 0.0.0.0</li>
  * <li>greenmail.verbose : Enables verbose mode including debug output</li>
+ * <li>greenmail.nonblocking : Enables non-blocking connection handling, see {@link ServerSetup#setNonBlocking(boolean)}</li>
+ * <li>greenmail.worker.threads : Number of threads processing client commands in non-blocking mode</li>
+ * <li>greenmail.max.connections : Max number of concurrently handled client connections</li>
  * </ul>
  */
 public class PropertiesBasedServerSetupBuilder {
@@ -51,6 +54,12 @@ public class PropertiesBasedServerSetupBuilder {
     public static final String GREENMAIL_SETUP_ALL = "greenmail.setup.all";
     public static final String GREENMAIL_SETUP_TEST_ALL = "greenmail.setup.test.all";
     public static final String GREENMAIL_HOSTNAME = "greenmail.hostname";
+    /**
+     * Enables non-blocking connection handling.
+     */
+    public static final String GREENMAIL_NONBLOCKING = "greenmail.nonblocking";
+    public static final String GREENMAIL_WORKER_THREADS = "greenmail.worker.threads";
+    public static final String GREENMAIL_MAX_CONNECTIONS = "greenmail.max.connections";
 
     /**
      * Creates a server setup based on provided properties.
@@ -64,6 +73,8 @@ public class PropertiesBasedServerSetupBuilder {
         String hostname = properties.getProperty(GREENMAIL_HOSTNAME, ServerSetup.getLocalHostAddress());
         long serverStartupTimeout =
                 Long.parseLong(properties.getProperty("greenmail.startup.timeout", "-1"));
+        int workerThreads = Integer.parseInt(properties.getProperty(GREENMAIL_WORKER_THREADS, "-1"));
+        int maxConnections = Integer.parseInt(properties.getProperty(GREENMAIL_MAX_CONNECTIONS, "-1"));
 
         // Default setups
         addDefaultSetups(hostname, properties, serverSetups);
@@ -83,6 +94,15 @@ public class PropertiesBasedServerSetupBuilder {
             if (serverStartupTimeout >= 0L) {
                 setup.setServerStartupTimeout(serverStartupTimeout);
             }
+            if (properties.containsKey(GREENMAIL_NONBLOCKING)) {
+                setup.setNonBlocking(true);
+            }
+            if (workerThreads > 0) {
+                setup.setWorkerThreads(workerThreads);
+            }
+            if (maxConnections > 0) {
+                setup.setMaxConnections(maxConnections);
+            }
         }
 
         return serverSetups.toArray(new ServerSetup[0]);
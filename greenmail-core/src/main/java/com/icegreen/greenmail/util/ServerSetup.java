@@ -41,6 +41,12 @@ public class ServerSetup {
     public static final int PORT_IMAP = 143;
     public static final int PORT_IMAPS = 993;
 
+    /**
+     * Default number of threads processing client commands in non-blocking mode.
+     * Initialized before the default setups below.
+     */
+    public static final int DEFAULT_WORKER_THREADS = Math.max(4, 2 * Runtime.getRuntime().availableProcessors());
+
     public static final ServerSetup SMTP = new ServerSetup(PORT_SMTP, null, PROTOCOL_SMTP);
     public static final ServerSetup SMTPS = new ServerSetup(PORT_SMTPS, null, PROTOCOL_SMTPS);
     public static final ServerSetup POP3 = new ServerSetup(PORT_POP3, null, PROTOCOL_POP3);
@@ -81,6 +87,9 @@ public class ServerSetup {
     private long connectionTimeout = -1L;
     private long writeTimeout = -1L;
     private boolean verbose = false;
+    private boolean nonBlocking = false;
+    private int workerThreads = DEFAULT_WORKER_THREADS;
+    private int maxConnections = -1;
 
     /**
      * Timeout when GreenMail starts a server, in milliseconds.
@@ -228,6 +237,84 @@ public class ServerSetup {
         return createCopy().setVerbose(verbose);
     }
 
+    public boolean isNonBlocking() {
+        return nonBlocking;
+    }
+
+    /**
+     * Configures non-blocking mode, handling client connections with a bounded number of worker threads.
+     * <p>
+     * A connection only occupies a worker once a complete command line has been received. Data following
+     * a command, such as an SMTP DATA message or an IMAP literal, is read by the worker, so clients sending
+     * such data slowly occupy a worker until done or till the read timeout.
+     *
+     * @param nonBlocking if true, idle client connections wait on a selector instead of blocking a thread each.
+     *                    Not supported for SSL protocols, which fall back to a thread per connection.
+     * @see #setWorkerThreads(int)
+     */
+    public ServerSetup setNonBlocking(boolean nonBlocking) {
+        this.nonBlocking = nonBlocking;
+        return this;
+    }
+
+    /**
+     * Creates a deep copy with non-blocking mode configured.
+     *
+     * @param nonBlocking if true, idle client connections wait on a selector instead of blocking a thread each.
+     * @return a deep copy with non-blocking mode configured
+     */
+    public ServerSetup nonBlocking(boolean nonBlocking) {
+        return createCopy().setNonBlocking(nonBlocking);
+    }
+
+    public int getWorkerThreads() {
+        return workerThreads;
+    }
+
+    /**
+     * @param workerThreads number of threads processing client commands in non-blocking mode.
+     */
+    public ServerSetup setWorkerThreads(int workerThreads) {
+        if (workerThreads < 1) {
+            throw new IllegalArgumentException("Expected at least one worker thread, but got " + workerThreads);
+        }
+        this.workerThreads = workerThreads;
+        return this;
+    }
+
+    /**
+     * Creates a deep copy with number of worker threads configured.
+     *
+     * @param workerThreads number of threads processing client commands in non-blocking mode.
+     * @return a deep copy with number of worker threads configured
+     */
+    public ServerSetup workerThreads(int workerThreads) {
+        return createCopy().setWorkerThreads(workerThreads);
+    }
+
+    public int getMaxConnections() {
+        return maxConnections;
+    }
+
+    /**
+     * @param maxConnections max number of concurrently handled client connections, or -1 for unlimited.
+     *                       Additional client connections get rejected.
+     */
+    public ServerSetup setMaxConnections(int maxConnections) {
+        this.maxConnections = maxConnections;
+        return this;
+    }
+
+    /**
+     * Creates a deep copy with max number of concurrent client connections configured.
+     *
+     * @param maxConnections max number of concurrently handled client connections, or -1 for unlimited.
+     * @return a deep copy with max number of concurrent client connections configured
+     */
+    public ServerSetup maxConnections(int maxConnections) {
+        return createCopy().setMaxConnections(maxConnections);
+    }
+
     /**
      * Sets the server startup timeout in milliseconds.
      *
@@ -332,6 +419,9 @@ public class ServerSetup {
             connectionTimeout == that.connectionTimeout &&
             writeTimeout == that.writeTimeout &&
             verbose == that.verbose &&
+            nonBlocking == that.nonBlocking &&
+            workerThreads == that.workerThreads &&
+            maxConnections == that.maxConnections &&
             serverStartupTimeout == that.serverStartupTimeout &&
             bindAddress.equals(that.bindAddress) &&
             protocol.equals(that.protocol) &&
@@ -340,7 +430,7 @@ public class ServerSetup {
 
     @Override
     public int hashCode() {
-        return Objects.hash(port, bindAddress, protocol, readTimeout, connectionTimeout, writeTimeout, verbose, serverStartupTimeout, mailSessionProperties);
+        return Objects.hash(port, bindAddress, protocol, readTimeout, connectionTimeout, writeTimeout, verbose, nonBlocking, workerThreads, maxConnections, serverStartupTimeout, mailSessionProperties);
     }
 
     @Override
@@ -353,6 +443,9 @@ public class ServerSetup {
             ", connectionTimeout=" + connectionTimeout +
             ", writeTimeout=" + writeTimeout +
             ", verbose=" + verbose +
+            ", nonBlocking=" + nonBlocking +
+            ", workerThreads=" + workerThreads +
+            ", maxConnections=" + maxConnections +
             ", serverStartupTimeout=" + serverStartupTimeout +
             ", mailProperties=" + mailSessionProperties +
             '}';
@@ -393,6 +486,9 @@ public class ServerSetup {
         setup.setReadTimeout(getReadTimeout());
         setup.setWriteTimeout(getWriteTimeout());
         setup.setVerbose(isVerbose());
+        setup.setNonBlocking(isNonBlocking());
+        setup.setWorkerThreads(getWorkerThreads());
+        setup.setMaxConnections(getMaxConnections());
         setup.mailSessionProperties.putAll(mailSessionProperties);
 
         return setup;
@@ -0,0 +1,126 @@
+package com.icegreen.greenmail;
+
+import com.icegreen.greenmail.configuration.GreenMailConfiguration;
+import com.icegreen.greenmail.junit.GreenMailRule;
+import com.icegreen.greenmail.smtp.SmtpManager;
+import com.icegreen.greenmail.user.MessageDeliveryHandler;
+import com.icegreen.greenmail.user.UserException;
+import com.icegreen.greenmail.user.UserManager;
+import com.icegreen.greenmail.util.GreenMailUtil;
+import com.icegreen.greenmail.util.ServerSetupTest;
+import org.junit.Rule;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Verifies delivery of messages received via SMTP by delivery workers.
+ */
+public class AsyncDeliveryTest {
+    @Rule
+    public final GreenMailRule greenMail = new GreenMailRule(ServerSetupTest.SMTP_IMAP)
+        .withConfiguration(new GreenMailConfiguration().withAsyncDelivery(3, 2));
+
+    @Test
+    public void deliversConcurrentlySentMessages() throws InterruptedException {
+        final SmtpManager smtpManager = greenMail.getManagers().getSmtpManager();
+        assertThat(smtpManager.isAsyncDeliveryEnabled()).isTrue();
+
+        final int senders = 4;
+        final int messagesPerSender = 5;
+        List<Thread> threads = new ArrayList<>();
+        for (int i = 0; i < senders; i++) {
+            final String to = "to" + i + "@localhost";
+            threads.add(new Thread(() -> {
+                for (int j = 0; j < messagesPerSender; j++) {
+                    // Recipients get created on-the-fly by concurrent workers
+                    GreenMailUtil.sendTextEmailTest(to + ",shared@localhost", "from@localhost", "subject " + j, "body");
+                }
+            }));
+        }
+        threads.forEach(Thread::start);
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        final int expected = 2 * senders * messagesPerSender;
+        assertThat(greenMail.waitForIncomingEmail(10000L, expected)).isTrue();
+        assertThat(greenMail.getReceivedMessages()).hasSize(expected);
+        assertThat(smtpManager.getDeliveryQueueSize()).isZero();
+        assertThat(greenMail.getUserManager().getUserByEmail("shared@localhost")).isNotNull();
+    }
+
+    @Test
+    public void countsDeliveryFailures() {
+        final UserManager userManager = greenMail.getUserManager();
+        final MessageDeliveryHandler defaultHandler = userManager.getMessageDeliveryHandler();
+        userManager.setMessageDeliveryHandler((msg, mailAddress) -> {
+            if (mailAddress.getEmail().startsWith("fail")) {
+                throw new UserException("Rejecting " + mailAddress);
+            }
+            return defaultHandler.handle(msg, mailAddress);
+        });
+
+        // Acknowledged to the SMTP client, as delivery happens afterwards
+        GreenMailUtil.sendTextEmailTest("fail@localhost,to@localhost", "from@localhost", "subject", "body");
+
+        // Still delivers to other recipients
+        assertThat(greenMail.waitForIncomingEmail(5000L, 1)).isTrue();
+        assertThat(greenMail.waitForIncomingEmail(100L, 2)).isFalse();
+        assertThat(greenMail.getDeliveryFailureCount()).isEqualTo(1);
+    }
+
+    @Test
+    public void deliversQueuedMessagesWhenStopping() throws InterruptedException {
+        final UserManager userManager = greenMail.getUserManager();
+        final MessageDeliveryHandler defaultHandler = userManager.getMessageDeliveryHandler();
+        final CountDownLatch blocked = new CountDownLatch(1);
+        final AtomicInteger delivered = new AtomicInteger();
+        userManager.setMessageDeliveryHandler((msg, mailAddress) -> {
+            try {
+                blocked.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            delivered.incrementAndGet();
+            return defaultHandler.handle(msg, mailAddress);
+        });
+
+        // Keeps all workers busy and fills the queue
+        for (int i = 0; i < 5; i++) {
+            GreenMailUtil.sendTextEmailTest("to@localhost", "from@localhost", "subject " + i, "body");
+        }
+        final long deadline = System.currentTimeMillis() + 5000L;
+        while (greenMail.getDeliveryQueueSize() > 2 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10L);
+        }
+        assertThat(greenMail.getDeliveryQueueSize()).isEqualTo(2);
+
+        final Thread unblocker = new Thread(() -> {
+            try {
+                Thread.sleep(200L);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            blocked.countDown();
+        });
+        unblocker.start();
+        greenMail.stop();
+        unblocker.join();
+        assertThat(delivered.get()).isEqualTo(5);
+    }
+
+    @Test
+    public void stopsDeliveryWorkers() {
+        final SmtpManager smtpManager = greenMail.getManagers().getSmtpManager();
+        greenMail.stop();
+        assertThat(smtpManager.isAsyncDeliveryEnabled()).isFalse();
+        greenMail.start();
+        assertThat(greenMail.getManagers().getSmtpManager().isAsyncDeliveryEnabled()).isTrue();
+    }
+}
@@ -96,6 +96,32 @@ public class PropertiesBasedGreenMailConfigurationBuilderTest {
         assertThat(config.isDiscardAttachmentsEnabled()).isFalse();
     }
 
+    @Test
+    public void testBuildWithAsyncDelivery() {
+        GreenMailConfiguration config = new PropertiesBasedGreenMailConfigurationBuilder().build(new Properties());
+        assertThat(config.isAsyncDeliveryEnabled()).isFalse();
+
+        Properties props = createPropertiesFor(PropertiesBasedGreenMailConfigurationBuilder.GREENMAIL_DELIVERY_WORKERS, "4");
+        config = new PropertiesBasedGreenMailConfigurationBuilder().build(props);
+        assertThat(config.isAsyncDeliveryEnabled()).isTrue();
+        assertThat(config.getDeliveryWorkers()).isEqualTo(4);
+        assertThat(config.getDeliveryQueueCapacity()).isEqualTo(GreenMailConfiguration.DEFAULT_DELIVERY_QUEUE_CAPACITY);
+
+        props.setProperty(PropertiesBasedGreenMailConfigurationBuilder.GREENMAIL_DELIVERY_QUEUE_CAPACITY, "10");
+        config = new PropertiesBasedGreenMailConfigurationBuilder().build(props);
+        assertThat(config.getDeliveryQueueCapacity()).isEqualTo(10);
+    }
+
+    @Test
+    public void testBuildWithSearchIndex() {
+        GreenMailConfiguration config = new PropertiesBasedGreenMailConfigurationBuilder().build(new Properties());
+        assertThat(config.isSearchIndexEnabled()).isFalse();
+
+        Properties props = createPropertiesFor(PropertiesBasedGreenMailConfigurationBuilder.GREENMAIL_SEARCH_INDEX, "true");
+        config = new PropertiesBasedGreenMailConfigurationBuilder().build(props);
+        assertThat(config.isSearchIndexEnabled()).isTrue();
+    }
+
     private Properties createPropertiesFor(String key, String value) {
         Properties props = new Properties();
         props.setProperty(key, value);
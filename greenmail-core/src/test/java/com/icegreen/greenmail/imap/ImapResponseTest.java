@@ -0,0 +1,48 @@
+package com.icegreen.greenmail.imap;
+
+import org.junit.Test;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class ImapResponseTest {
+    private final ByteArrayOutputStream sent = new ByteArrayOutputStream();
+    private final BufferedOutputStream output = new BufferedOutputStream(sent, 8192);
+    private final ImapResponse response = new ImapResponse(output);
+
+    @Test
+    public void sendsResponsesOnFlush() {
+        response.setTag("a1");
+        response.existsResponse(2);
+        response.recentResponse(1);
+        response.taggedResponse("OK done");
+        assertThat(sent.size()).isZero();
+
+        response.flush();
+        assertThat(sent()).isEqualTo("* 2 EXISTS\r\n* 1 RECENT\r\na1 OK done\r\n");
+    }
+
+    @Test
+    public void keepsOrderOfLiterals() throws IOException {
+        response.fetchResponseStart(1);
+        response.fetchResponseData("BODY[] ");
+        response.fetchResponseLiteral("abc".getBytes(StandardCharsets.US_ASCII), 0, 3);
+        response.fetchResponseEnd();
+        response.flush();
+        assertThat(sent()).isEqualTo("* 1 FETCH (BODY[] {3}\r\nabc)\r\n");
+    }
+
+    @Test
+    public void sendsByeImmediately() {
+        response.byeResponse("Server shutting down");
+        assertThat(sent()).isEqualTo("* BYE Server shutting down\r\n");
+    }
+
+    private String sent() {
+        return new String(sent.toByteArray(), StandardCharsets.US_ASCII);
+    }
+}
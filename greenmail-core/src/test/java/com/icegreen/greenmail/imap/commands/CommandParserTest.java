@@ -5,6 +5,7 @@ import com.icegreen.greenmail.imap.ProtocolException;
 import org.junit.Test;
 
 import java.io.ByteArrayInputStream;
+import java.io.InputStream;
 import java.nio.charset.StandardCharsets;
 
 import static org.assertj.core.api.Assertions.assertThat;
@@ -36,6 +37,71 @@ public class CommandParserTest {
             .isInstanceOf(ProtocolException.class);
     }
 
+    @Test
+    public void parsesWordsSpanningBufferRefills() throws ProtocolException {
+        // Delivers one byte per read, so every word spans refills of the reader buffer
+        InputStream in = new ByteArrayInputStream(
+            "a001 SELECT \"IN\\\"BOX\" 4:*,7\r\n".getBytes(StandardCharsets.ISO_8859_1)) {
+            @Override
+            public synchronized int read(byte[] b, int off, int len) {
+                return super.read(b, off, Math.min(len, 1));
+            }
+        };
+        ImapRequestLineReader request = new ImapRequestLineReader(in, null);
+        CommandParser parser = new CommandParser();
+        assertThat(parser.tag(request)).isEqualTo("a001");
+        assertThat(parser.atom(request)).isEqualTo("SELECT");
+        assertThat(parser.astring(request)).isEqualTo("IN\"BOX");
+        assertThat(parser.parseIdRange(request)).hasSize(2);
+        parser.endLine(request);
+    }
+
+    @Test
+    public void wordRejectsInvalidCharacter() {
+        ByteArrayInputStream in = new ByteArrayInputStream("a(b \r\n".getBytes(StandardCharsets.ISO_8859_1));
+        assertThatThrownBy(() -> new CommandParser().atom(new ImapRequestLineReader(in, null)))
+            .isInstanceOf(ProtocolException.class)
+            .hasMessage("Invalid character: '('");
+    }
+
+    @Test
+    public void honoursOverriddenAtomSpecials() throws ProtocolException {
+        CommandParser parser = new CommandParser() {
+            @Override
+            protected boolean isAtomSpecial(char next) {
+                return next == '-' || super.isAtomSpecial(next);
+            }
+        };
+        ByteArrayInputStream in = new ByteArrayInputStream("a(b a-b a]b \r\n".getBytes(StandardCharsets.ISO_8859_1));
+        ImapRequestLineReader request = new ImapRequestLineReader(in, null);
+        assertThat(parser.consumeWord(request, parser.new AtomCharValidator() {
+            @Override
+            public boolean isValid(char chr) {
+                return chr == '(' || super.isValid(chr);
+            }
+        })).isEqualTo("a(b");
+        assertThatThrownBy(() -> parser.atom(request))
+            .isInstanceOf(ProtocolException.class)
+            .hasMessage("Invalid character: '-'");
+        request.consume();
+        assertThat(parser.atomOnly(request)).isEqualTo("b");
+        assertThat(parser.consumeWordOnly(request, new CommandParser.DigitCharValidator())).isEmpty();
+        assertThat(parser.consumeWord(request, new CommandParser.NoopCharValidator())).isEqualTo("a]b");
+    }
+
+    @Test
+    public void readerBuffersPipelinedCommands() throws ProtocolException {
+        ByteArrayInputStream in = new ByteArrayInputStream("a1 NOOP\r\na2 NOOP\r\n".getBytes(StandardCharsets.ISO_8859_1));
+        ImapRequestLineReader request = new ImapRequestLineReader(in, null);
+        CommandParser parser = new CommandParser();
+        assertThat(parser.tag(request)).isEqualTo("a1");
+        request.consumeLine();
+        assertThat(request.hasBufferedInput()).isTrue();
+        assertThat(parser.tag(request)).isEqualTo("a2");
+        request.consumeLine();
+        assertThat(request.hasBufferedInput()).isFalse();
+    }
+
     private static String consumeQuoted(String line) throws ProtocolException {
         ByteArrayInputStream in = new ByteArrayInputStream(line.getBytes(StandardCharsets.ISO_8859_1));
         return new CommandParser().consumeQuoted(new ImapRequestLineReader(in, null));
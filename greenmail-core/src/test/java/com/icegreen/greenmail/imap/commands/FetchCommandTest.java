@@ -19,6 +19,7 @@ import org.junit.Rule;
 import org.junit.Test;
 
 import java.util.ArrayList;
+import java.util.Comparator;
 import java.util.List;
 import java.util.stream.Collectors;
 
@@ -81,4 +82,52 @@ public class FetchCommandTest {
             store.close();
         }
     }
+
+    @Test
+    public void testFetchPartialBody() throws Exception {
+        store.connect("foo@localhost", "pwd");
+        try {
+            IMAPFolder folder = (IMAPFolder) store.getFolder("INBOX");
+            folder.open(Folder.READ_ONLY);
+
+            String cmd = "UID FETCH 1 (BODY.PEEK[] BODY.PEEK[]<10.20> BODY.PEEK[]<1000000.5>)";
+            Response[] ret = (Response[]) folder.doCommand(protocol -> protocol.command(cmd, null));
+
+            IMAPResponse okResponse = (IMAPResponse) ret[1];
+            assertThat(okResponse.isOK()).isTrue();
+
+            List<BODY> items = FetchResponse.getItems(ret, 1, BODY.class);
+            assertThat(items).hasSize(3);
+            items.sort(Comparator.comparingInt(BODY::getOrigin)); // Response order is not guaranteed
+            String whole = new String(items.get(0).getByteArray().getNewBytes());
+            assertThat(whole).contains("Part 20");
+            assertThat(items.get(1).getOrigin()).isEqualTo(10);
+            assertThat(new String(items.get(1).getByteArray().getNewBytes())).isEqualTo(whole.substring(10, 30));
+            assertThat(items.get(2).getByteArray().getCount()).isZero();
+        } finally {
+            store.close();
+        }
+    }
+
+    @Test
+    public void testFetchFailingSectionWritesNoPartialResponse() throws Exception {
+        store.connect("foo@localhost", "pwd");
+        try {
+            IMAPFolder folder = (IMAPFolder) store.getFolder("INBOX");
+            folder.open(Folder.READ_ONLY);
+
+            String cmd = "UID FETCH 1 (FLAGS BODY.PEEK[1.1] BODY.PEEK[1.99])";
+            Response[] ret = (Response[]) folder.doCommand(protocol -> protocol.command(cmd, null));
+
+            assertThat(ret).hasSize(1);
+            assertThat(ret[0].isNO()).isTrue();
+
+            // Connection is still in sync
+            String noop = "NOOP";
+            ret = (Response[]) folder.doCommand(protocol -> protocol.command(noop, null));
+            assertThat(ret[ret.length - 1].isOK()).isTrue();
+        } finally {
+            store.close();
+        }
+    }
 }
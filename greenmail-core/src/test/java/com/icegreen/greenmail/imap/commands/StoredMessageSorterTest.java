@@ -0,0 +1,93 @@
+package com.icegreen.greenmail.imap.commands;
+
+import com.icegreen.greenmail.store.InMemoryStore;
+import com.icegreen.greenmail.store.MailFolder;
+import com.icegreen.greenmail.store.StoredMessage;
+import jakarta.mail.Flags;
+import jakarta.mail.Session;
+import jakarta.mail.internet.MimeMessage;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Properties;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class StoredMessageSorterTest {
+    private final Session session = Session.getInstance(new Properties());
+    private MailFolder folder;
+
+    @Before
+    public void setUp() throws Exception {
+        InMemoryStore store = new InMemoryStore();
+        folder = store.createMailbox(store.getMailbox("#mail"), "INBOX", true);
+        appendMessage("Re: [list] Beta", "b@example.com", text(200));
+        appendMessage("alpha (fwd)", "a@example.com", text(800));
+        appendMessage("[Fwd: Gamma]", null, text(1));
+        appendMessage("Fw: ALPHA", "c@example.com", text(400));
+    }
+
+    @Test
+    public void sortsBySubjectAndReverseArrival() {
+        assertThat(sort(SortKey.SUBJECT, SortKey.REVERSE, SortKey.ARRIVAL)).containsExactly(4L, 2L, 1L, 3L);
+        assertThat(sort(SortKey.REVERSE, SortKey.SUBJECT, SortKey.ARRIVAL)).containsExactly(3L, 1L, 2L, 4L);
+    }
+
+    @Test
+    public void sortsMissingValuesLast() {
+        assertThat(sort(SortKey.FROM)).containsExactly(2L, 1L, 4L, 3L);
+        assertThat(sort(SortKey.REVERSE, SortKey.FROM)).containsExactly(3L, 4L, 1L, 2L);
+    }
+
+    @Test
+    public void sortsByStoredSize() {
+        assertThat(sort(SortKey.SIZE)).containsExactly(3L, 1L, 4L, 2L);
+        StoredMessage message = folder.getMessage(1);
+        assertThat(message.getSortKeys().getSize()).isEqualTo(message.getRawMessage().getSize());
+        assertThat(message.getSortKeys()).isSameAs(message.getSortKeys());
+    }
+
+    @Test
+    public void ignoresTrailingReverse() {
+        StoredMessageSorter sorter = sorter(SortKey.ARRIVAL, SortKey.REVERSE);
+        assertThat(sorter.compare(folder.getMessage(1), folder.getMessage(2))).isNegative();
+        assertThat(sorter.compare(folder.getMessage(1), folder.getMessage(2))).isNegative();
+    }
+
+    private long[] sort(SortKey... keys) {
+        List<StoredMessage> messages = new ArrayList<>(folder.getMessages());
+        sorter(keys).sort(messages);
+        return messages.stream().mapToLong(StoredMessage::getUid).toArray();
+    }
+
+    private static StoredMessageSorter sorter(SortKey... keys) {
+        SortTerm sortTerm = new SortTerm();
+        for (SortKey key : keys) {
+            sortTerm.getSortCriteria().add(key);
+        }
+        return new StoredMessageSorter(sortTerm);
+    }
+
+    private static String text(int length) {
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < length; i++) {
+            text.append('x');
+        }
+        return text.toString();
+    }
+
+    private void appendMessage(String subject, String from, String text) throws Exception {
+        MimeMessage msg = new MimeMessage(session);
+        msg.setSubject(subject);
+        if (null != from) {
+            msg.setFrom(from);
+        }
+        msg.setText(text);
+        msg.saveChanges();
+        // Arrival order is the order of appending
+        folder.appendMessage(msg, new Flags(), new Date(1704103200000L + folder.getMessageCount() * 60000L));
+    }
+}
@@ -0,0 +1,38 @@
+package com.icegreen.greenmail.pop3;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class DotStuffingOutputStreamTest {
+    @Test
+    public void stuffsDotsAtLineStart() throws IOException {
+        assertThat(stuff(".a\r\n.\r\nb.c\n.d\r.e")).isEqualTo("..a\r\n..\r\nb.c\n..d\r..e\r\n.\r\n");
+        assertThat(stuff("a\r\n")).isEqualTo("a\r\n.\r\n");
+        assertThat(stuff("")).isEqualTo(".\r\n");
+    }
+
+    @Test
+    public void stuffsAcrossWrites() throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DotStuffingOutputStream out = new DotStuffingOutputStream(bytes);
+        out.write("a\r".getBytes(StandardCharsets.US_ASCII));
+        out.write('\n');
+        out.write('.');
+        out.write(".b".getBytes(StandardCharsets.US_ASCII));
+        out.finish();
+        assertThat(bytes.toString("US-ASCII")).isEqualTo("a\r\n...b\r\n.\r\n");
+    }
+
+    private static String stuff(String content) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DotStuffingOutputStream out = new DotStuffingOutputStream(bytes);
+        out.write(content.getBytes(StandardCharsets.US_ASCII));
+        out.finish();
+        return bytes.toString("US-ASCII");
+    }
+}
@@ -8,6 +8,8 @@ import com.icegreen.greenmail.user.UserException;
 import com.icegreen.greenmail.util.GreenMailUtil;
 import com.icegreen.greenmail.util.ServerSetup;
 import com.icegreen.greenmail.util.ServerSetupTest;
+import jakarta.mail.Flags;
+import jakarta.mail.internet.MimeMessage;
 import org.junit.Before;
 import org.junit.Rule;
 import org.junit.Test;
@@ -20,6 +22,7 @@ import java.net.Socket;
 import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.Base64;
+import java.util.Date;
 import java.util.List;
 
 import static org.assertj.core.api.Assertions.assertThat;
@@ -186,6 +189,106 @@ public class POP3CommandTest {
         });
     }
 
+    @Test
+    public void topLimitsBodyLines() throws IOException {
+        String to = "test@localhost";
+        greenMail.setUser(to, "pwd");
+        GreenMailUtil.sendTextEmailTest(to, "from@localhost", "s", "first\r\nsecond\r\nthird");
+        greenMail.waitForIncomingEmail(5000, 1);
+
+        withConnection((printStream, reader) -> {
+            assertThat(reader.readLine()).startsWith("+OK POP3 GreenMail Server v");
+            printStream.print("USER " + to + CRLF);
+            assertThat(reader.readLine()).startsWith("+OK");
+            printStream.print("PASS pwd" + CRLF);
+            assertThat(reader.readLine()).startsWith("+OK");
+            printStream.print("TOP 1 2" + CRLF);
+            assertThat(reader.readLine()).startsWith("+OK");
+
+            List<String> lines = new ArrayList<>();
+            String line;
+            while ((line = reader.readLine()) != null && !".".equals(line)) {
+                lines.add(line);
+            }
+            assertThat(line).isEqualTo(".");
+            assertThat(lines).contains("Subject: s");
+            assertThat(lines.subList(lines.indexOf(""), lines.size())).containsExactly("", "first", "second");
+        });
+    }
+
+    @Test
+    public void maildropIsCapturedOnAuthentication() throws Exception {
+        String to = "test@localhost";
+        GreenMailUser user = greenMail.setUser(to, "pwd");
+        MailFolder inbox = greenMail.getManagers().getImapHostManager().getFolder(user, "INBOX");
+        inbox.store(GreenMailUtil.newMimeMessage("Subject: first\r\n\r\nfirst"));
+        inbox.store(GreenMailUtil.newMimeMessage("Subject: second\r\n\r\nsecond"));
+        int firstSize = inbox.getMessage(1).getRawMessage().getSize();
+        int secondSize = inbox.getMessage(2).getRawMessage().getSize();
+        MimeMessage third = GreenMailUtil.newMimeMessage("Subject: third\r\n\r\nthird");
+
+        withConnection((printStream, reader) -> {
+            assertThat(reader.readLine()).startsWith("+OK POP3 GreenMail Server v");
+            printStream.print("USER " + to + CRLF);
+            assertThat(reader.readLine()).startsWith("+OK");
+            printStream.print("PASS pwd" + CRLF);
+            assertThat(reader.readLine()).startsWith("+OK");
+
+            // Not visible till next session
+            inbox.appendMessage(third, new Flags(), new Date());
+            printStream.print("STAT" + CRLF);
+            assertThat(reader.readLine()).isEqualTo("+OK 2 " + (firstSize + secondSize));
+
+            printStream.print("DELE 1" + CRLF);
+            assertThat(reader.readLine()).startsWith("+OK");
+            printStream.print("DELE 1" + CRLF);
+            assertThat(reader.readLine()).isEqualTo("-ERR message already deleted");
+            printStream.print("RETR 1" + CRLF);
+            assertThat(reader.readLine()).isEqualTo("-ERR no such message");
+            printStream.print("LIST" + CRLF);
+            assertThat(reader.readLine()).isEqualTo("+OK");
+            assertThat(reader.readLine()).isEqualTo("2 " + secondSize);
+            assertThat(reader.readLine()).isEqualTo(".");
+            // Deleted on QUIT
+            assertThat(inbox.getMessageCount()).isEqualTo(3);
+
+            printStream.print("QUIT" + CRLF);
+            assertThat(reader.readLine()).startsWith("+OK");
+            assertThat(inbox.getMessageCount()).isEqualTo(2);
+            assertThat(inbox.getMessage(1)).isNull();
+        });
+    }
+
+    @Test
+    public void retrSendsListedSize() throws Exception {
+        String to = "test@localhost";
+        GreenMailUser user = greenMail.setUser(to, "pwd");
+        MailFolder inbox = greenMail.getManagers().getImapHostManager().getFolder(user, "INBOX");
+        // Trailing empty lines belong to the message
+        inbox.store(GreenMailUtil.newMimeMessage("Subject: s\r\nFrom: from@localhost\r\n\r\nbody\r\n\r\n"));
+        int size = inbox.getMessage(1).getRawMessage().getSize();
+
+        withConnection((printStream, reader) -> {
+            assertThat(reader.readLine()).startsWith("+OK POP3 GreenMail Server v");
+            printStream.print("USER " + to + CRLF);
+            assertThat(reader.readLine()).startsWith("+OK");
+            printStream.print("PASS pwd" + CRLF);
+            assertThat(reader.readLine()).startsWith("+OK");
+            printStream.print("LIST 1" + CRLF);
+            assertThat(reader.readLine()).isEqualTo("+OK 1 " + size);
+            printStream.print("RETR 1" + CRLF);
+            assertThat(reader.readLine()).startsWith("+OK");
+
+            int octets = 0;
+            String line;
+            while ((line = reader.readLine()) != null && !".".equals(line)) {
+                octets += line.length() + CRLF.length();
+            }
+            assertThat(line).isEqualTo(".");
+            assertThat(octets).isEqualTo(size);
+        });
+    }
+
     @Test
     public void retrByteStuffsLinesEndingWithBareLf() throws Exception {
         String to = "test@localhost";
@@ -0,0 +1,140 @@
+/*
+ * Copyright (c) 2014 Wael Chatila / Icegreen Technologies. All Rights Reserved.
+ * This software is released under the Apache license 2.0
+ */
+package com.icegreen.greenmail.server;
+
+import com.icegreen.greenmail.junit.GreenMailRule;
+import com.icegreen.greenmail.util.GreenMail;
+import com.icegreen.greenmail.util.ServerSetup;
+import jakarta.mail.MessagingException;
+import jakarta.mail.Store;
+import org.junit.Rule;
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+/**
+ * Tests admission control via {@link ServerSetup#maxConnections(int)}.
+ */
+public class MaxConnectionsTest {
+    @Rule
+    public final GreenMailRule greenMail = new GreenMailRule(ServerSetup.IMAP.dynamicPort().maxConnections(1));
+
+    @Test
+    public void testRejectsConnectionsExceedingMax() throws MessagingException, InterruptedException {
+        greenMail.setUser("foo@localhost", "pwd");
+
+        try (Store store = greenMail.getImap().createStore()) {
+            store.connect("foo@localhost", "pwd");
+            assertThat(store.isConnected()).isTrue();
+
+            try (Store rejectedStore = greenMail.getImap().createStore()) {
+                assertThatThrownBy(() -> rejectedStore.connect("foo@localhost", "pwd"))
+                    .isInstanceOf(MessagingException.class);
+            }
+        }
+
+        // Connection gets available again after handler terminated
+        MessagingException lastError = null;
+        for (int i = 0; i < 50; i++) {
+            try (Store store = greenMail.getImap().createStore()) {
+                store.connect("foo@localhost", "pwd");
+                assertThat(store.isConnected()).isTrue();
+                return;
+            } catch (MessagingException e) {
+                lastError = e;
+                Thread.sleep(100);
+            }
+        }
+        throw lastError;
+    }
+
+    @Test
+    public void testThreadFactory() {
+        final ThreadFactory threadFactory = ConnectionExecutors.newPlatformThreadFactory("test");
+        final Thread thread = threadFactory.newThread(() -> {
+        });
+        assertThat(thread.getName()).isEqualTo("test-0");
+        assertThat(thread.isDaemon()).isTrue();
+        assertThat(ConnectionExecutors.isVirtualThreadFactory(threadFactory)).isFalse();
+
+        final ExecutorService executorService = ConnectionExecutors.newUnboundedExecutor("test");
+        try {
+            assertThat(executorService.isShutdown()).isFalse();
+        } finally {
+            executorService.shutdown();
+        }
+    }
+
+    @Test
+    public void testBoundedExecutor() throws InterruptedException {
+        final ExecutorService executorService = ConnectionExecutors.newBoundedExecutor("test", 1);
+        try {
+            final CountDownLatch running = new CountDownLatch(1);
+            final CountDownLatch release = new CountDownLatch(1);
+            executorService.execute(() -> {
+                running.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            });
+            running.await();
+            assertThatThrownBy(() -> executorService.execute(() -> {
+            })).isInstanceOf(RejectedExecutionException.class);
+
+            // Admits again once the running task completed
+            release.countDown();
+            final CountDownLatch admitted = new CountDownLatch(1);
+            for (int i = 0; i < 50 && admitted.getCount() > 0; i++) {
+                try {
+                    executorService.execute(admitted::countDown);
+                } catch (RejectedExecutionException e) {
+                    Thread.sleep(100);
+                }
+            }
+            assertThat(admitted.await(5, TimeUnit.SECONDS)).isTrue();
+        } finally {
+            executorService.shutdown();
+        }
+    }
+
+    @Test
+    public void testExecutorServiceOfGreenMail() throws MessagingException {
+        final AtomicInteger executed = new AtomicInteger();
+        final ExecutorService executorService = new ThreadPoolExecutor(0, Integer.MAX_VALUE, 60L, TimeUnit.SECONDS,
+            new SynchronousQueue<>()) {
+            @Override
+            protected void beforeExecute(Thread t, Runnable r) {
+                executed.incrementAndGet();
+            }
+        };
+        final GreenMail mail = new GreenMail(ServerSetup.IMAP.dynamicPort());
+        try {
+            // Applied to the servers created when starting
+            mail.setExecutorService(executorService);
+            mail.start();
+            mail.setUser("foo@localhost", "pwd");
+            try (Store store = mail.getImap().createStore()) {
+                store.connect("foo@localhost", "pwd");
+            }
+            assertThat(executed.get()).isEqualTo(1);
+        } finally {
+            mail.stop();
+            assertThat(executorService.isShutdown()).isFalse();
+            executorService.shutdown();
+        }
+    }
+}
@@ -0,0 +1,168 @@
+/*
+ * Copyright (c) 2014 Wael Chatila / Icegreen Technologies. All Rights Reserved.
+ * This software is released under the Apache license 2.0
+ */
+package com.icegreen.greenmail.server;
+
+import com.icegreen.greenmail.junit.GreenMailRule;
+import com.icegreen.greenmail.util.GreenMailUtil;
+import com.icegreen.greenmail.util.ServerSetup;
+import com.icegreen.greenmail.util.ServerSetupTest;
+import jakarta.mail.Folder;
+import jakarta.mail.Message;
+import jakarta.mail.MessagingException;
+import jakarta.mail.Store;
+import jakarta.mail.event.MessageCountAdapter;
+import jakarta.mail.event.MessageCountEvent;
+import org.eclipse.angus.mail.imap.IMAPFolder;
+import org.eclipse.angus.mail.imap.IMAPStore;
+import org.junit.Rule;
+import org.junit.Test;
+
+import java.io.BufferedReader;
+import java.io.InputStreamReader;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Tests handling more client connections than worker threads, using non-blocking mode.
+ */
+public class NonBlockingConnectionTest {
+    private static final int WORKER_THREADS = 2;
+    private static final int CONNECTIONS = 10;
+
+    @Rule
+    public final GreenMailRule greenMail = new GreenMailRule(ServerSetup.createCopy(ServerSetupTest.SMTP_POP3_IMAP,
+        setup -> setup.dynamicPort().nonBlocking(true).workerThreads(WORKER_THREADS)));
+
+    @Test
+    public void testServerSetup() {
+        final ServerSetup setup = greenMail.getImap().getServerSetup();
+        assertThat(setup.isNonBlocking()).isTrue();
+        assertThat(setup.getWorkerThreads()).isEqualTo(WORKER_THREADS);
+        assertThat(setup.createCopy()).isEqualTo(setup);
+        assertThat(setup.nonBlocking(false)).isNotEqualTo(setup);
+    }
+
+    @Test
+    public void testManyOpenConnections() throws MessagingException {
+        greenMail.setUser("foo@localhost", "pwd");
+        GreenMailUtil.sendTextEmail("foo@localhost", "bar@localhost", "Test subject", "Test message",
+            greenMail.getSmtp().getServerSetup());
+
+        final List<Store> stores = new ArrayList<>();
+        try {
+            // Keep more connections open than worker threads available
+            for (int i = 0; i < CONNECTIONS; i++) {
+                final Store imapStore = greenMail.getImap().createStore();
+                imapStore.connect("foo@localhost", "pwd");
+                stores.add(imapStore);
+                final Store pop3Store = greenMail.getPop3().createStore();
+                pop3Store.connect("foo@localhost", "pwd");
+                stores.add(pop3Store);
+            }
+
+            for (Store store : stores) {
+                final Folder inbox = store.getFolder("INBOX");
+                inbox.open(Folder.READ_ONLY);
+                final Message[] messages = inbox.getMessages();
+                assertThat(messages).hasSize(1);
+                assertThat(messages[0].getSubject()).isEqualTo("Test subject");
+                assertThat(GreenMailUtil.getBody(messages[0])).isEqualTo("Test message");
+                inbox.close(false);
+            }
+        } finally {
+            for (Store store : stores) {
+                store.close();
+            }
+        }
+    }
+
+    @Test(timeout = 10000)
+    public void testIdleConnectionsDoNotBlockWorkers() throws Exception {
+        greenMail.setUser("foo@localhost", "pwd");
+
+        final List<Thread> idleThreads = new ArrayList<>();
+        final List<IMAPStore> stores = new ArrayList<>();
+        final AtomicInteger notified = new AtomicInteger();
+        try {
+            // Idle on more connections than worker threads available
+            for (int i = 0; i < CONNECTIONS; i++) {
+                final IMAPStore store = greenMail.getImap().createStore();
+                store.connect("foo@localhost", "pwd");
+                stores.add(store);
+                final IMAPFolder inbox = (IMAPFolder) store.getFolder("INBOX");
+                inbox.open(Folder.READ_ONLY);
+                inbox.addMessageCountListener(new MessageCountAdapter() {
+                    @Override
+                    public void messagesAdded(MessageCountEvent e) {
+                        notified.incrementAndGet();
+                    }
+                });
+                final Thread idleThread = new Thread(() -> {
+                    try {
+                        inbox.idle(true);
+                    } catch (MessagingException e) {
+                        throw new IllegalStateException(e);
+                    }
+                });
+                idleThread.start();
+                idleThreads.add(idleThread);
+            }
+            Thread.sleep(200);
+
+            GreenMailUtil.sendTextEmail("foo@localhost", "bar@localhost", "Test subject", "Test message",
+                greenMail.getSmtp().getServerSetup());
+
+            for (Thread idleThread : idleThreads) {
+                idleThread.join();
+            }
+            assertThat(notified.get()).isEqualTo(CONNECTIONS);
+        } finally {
+            for (IMAPStore store : stores) {
+                store.close();
+            }
+        }
+    }
+
+    @Test(timeout = 10000)
+    public void testPartialLinesDoNotBlockWorkers() throws Exception {
+        greenMail.setUser("foo@localhost", "pwd");
+        final ServerSetup smtp = greenMail.getSmtp().getServerSetup();
+
+        final List<Socket> clients = new ArrayList<>();
+        try {
+            // Send partial command lines on more connections than worker threads available
+            for (int i = 0; i < CONNECTIONS; i++) {
+                final Socket client = new Socket(smtp.getBindAddress(), smtp.getPort());
+                clients.add(client);
+                final BufferedReader reader = new BufferedReader(new InputStreamReader(client.getInputStream(),
+                    StandardCharsets.US_ASCII));
+                assertThat(reader.readLine()).startsWith("220 ");
+                client.getOutputStream().write("NO".getBytes(StandardCharsets.US_ASCII));
+                client.getOutputStream().flush();
+            }
+            Thread.sleep(200);
+
+            GreenMailUtil.sendTextEmail("foo@localhost", "bar@localhost", "Test subject", "Test message", smtp);
+            assertThat(greenMail.getReceivedMessages()).hasSize(1);
+
+            // Completes the command once the line is complete
+            final Socket client = clients.get(0);
+            client.getOutputStream().write("OP\r\n".getBytes(StandardCharsets.US_ASCII));
+            client.getOutputStream().flush();
+            final BufferedReader reader = new BufferedReader(new InputStreamReader(client.getInputStream(),
+                StandardCharsets.US_ASCII));
+            assertThat(reader.readLine()).startsWith("250 ");
+        } finally {
+            for (Socket client : clients) {
+                client.close();
+            }
+        }
+    }
+}
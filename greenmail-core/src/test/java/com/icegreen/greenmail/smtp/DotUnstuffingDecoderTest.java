@@ -0,0 +1,61 @@
+package com.icegreen.greenmail.smtp;
+
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class DotUnstuffingDecoderTest {
+    private static byte[] bytes(String s) {
+        return s.getBytes(StandardCharsets.ISO_8859_1);
+    }
+
+    private static String decoded(DotUnstuffingDecoder decoder) {
+        return new String(decoder.getBuffer(), 0, decoder.getLength(), StandardCharsets.ISO_8859_1);
+    }
+
+    @Test
+    public void decodesInSingleChunk() {
+        DotUnstuffingDecoder decoder = new DotUnstuffingDecoder(bytes("Received: x\r\n"));
+        byte[] data = bytes("Subject: s\r\n\r\n..leading dot\r\n.\r\nQUIT\r\n");
+
+        int consumed = decoder.decode(data, 0, data.length);
+
+        assertThat(decoder.isComplete()).isTrue();
+        assertThat(consumed).isEqualTo(data.length - "QUIT\r\n".length());
+        assertThat(decoded(decoder)).isEqualTo("Received: x\r\nSubject: s\r\n\r\n.leading dot");
+    }
+
+    @Test
+    public void decodesAcrossChunkBoundaries() {
+        final String content = "Subject: s\r\n\r\nline\r\n..dot\r\n...dots\r\n";
+        final byte[] data = bytes(content + ".\r\nNOOP\r\n");
+        // Split at every possible position, including within CRLF.CRLF and dot-stuffing
+        for (int split = 0; split <= data.length; split++) {
+            DotUnstuffingDecoder decoder = new DotUnstuffingDecoder(new byte[0]);
+            int consumed = decoder.decode(data, 0, split);
+            if (!decoder.isComplete()) {
+                consumed += decoder.decode(data, split, data.length - split);
+            }
+            assertThat(decoder.isComplete()).isTrue();
+            assertThat(consumed).isEqualTo(data.length - "NOOP\r\n".length());
+            assertThat(decoded(decoder)).isEqualTo("Subject: s\r\n\r\nline\r\n.dot\r\n..dots");
+        }
+    }
+
+    @Test
+    public void growsBuffer() {
+        StringBuilder buf = new StringBuilder();
+        for (int i = 0; i < 10000; i++) {
+            buf.append("line ").append(i).append("\r\n");
+        }
+        DotUnstuffingDecoder decoder = new DotUnstuffingDecoder(new byte[0]);
+        byte[] data = bytes(buf + ".\r\n");
+        for (int off = 0; off < data.length && !decoder.isComplete(); off += 100) {
+            decoder.decode(data, off, Math.min(100, data.length - off));
+        }
+        assertThat(decoder.isComplete()).isTrue();
+        assertThat(decoded(decoder)).isEqualTo(buf.substring(0, buf.length() - 2));
+    }
+}
@@ -0,0 +1,154 @@
+package com.icegreen.greenmail.store;
+
+import com.icegreen.greenmail.foedus.util.MsgRangeFilter;
+import com.icegreen.greenmail.imap.commands.IdRange;
+import jakarta.mail.Flags;
+import jakarta.mail.Session;
+import jakarta.mail.internet.MimeMessage;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.Properties;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+public class ArrayBasedStoredMessageCollectionTest {
+    private final Session session = Session.getInstance(new Properties());
+
+    private StoredMessage message(long uid) throws Exception {
+        String raw = "From: a@b.com\r\nSubject: m" + uid + "\r\n\r\nbody\r\n";
+        MimeMessage msg = new MimeMessage(session,
+                new ByteArrayInputStream(raw.getBytes(StandardCharsets.US_ASCII)));
+        return new StoredMessage(msg, new Date(), uid);
+    }
+
+    private static class RecordingListener implements FolderListener {
+        final List<Integer> expunged = new ArrayList<>();
+
+        @Override
+        public void expunged(int msn) {
+            expunged.add(msn);
+        }
+
+        @Override
+        public void added(int msn) {
+        }
+
+        @Override
+        public void flagsUpdated(int msn, Flags flags, Long uid) {
+        }
+
+        @Override
+        public void mailboxDeleted() {
+        }
+    }
+
+    @Test
+    public void lookupByUid() throws Exception {
+        ArrayBasedStoredMessageCollection collection = new ArrayBasedStoredMessageCollection();
+        for (long uid = 10; uid <= 100; uid += 10) {
+            collection.add(message(uid));
+        }
+
+        assertThat(collection.size()).isEqualTo(10);
+        assertThat(collection.getMsn(10)).isEqualTo(1);
+        assertThat(collection.getMsn(50)).isEqualTo(5);
+        assertThat(collection.getMsn(100)).isEqualTo(10);
+        assertThat(collection.findByUid(70).getUid()).isEqualTo(70);
+        assertThat(collection.findByUid(71)).isNull();
+        assertThat(collection.get(2).getUid()).isEqualTo(30);
+        assertThat(collection.getMessageUids()).containsExactly(10, 20, 30, 40, 50, 60, 70, 80, 90, 100);
+        assertThatThrownBy(() -> collection.getMsn(11)).isInstanceOf(FolderException.class);
+        assertThatThrownBy(() -> collection.get(10)).isInstanceOf(IndexOutOfBoundsException.class);
+        assertThat(collection.getMessages(new MsgRangeFilter("2:3", false)))
+            .extracting(StoredMessage::getUid).containsExactly(20L, 30L);
+    }
+
+    @Test
+    public void addKeepsUidOrder() throws Exception {
+        ArrayBasedStoredMessageCollection collection = new ArrayBasedStoredMessageCollection();
+        collection.add(message(3));
+        collection.add(message(1));
+        collection.add(message(2));
+
+        assertThat(collection.getMessageUids()).containsExactly(1, 2, 3);
+        assertThat(collection.getMsn(3)).isEqualTo(3);
+        StoredMessage duplicate = message(2);
+        assertThatThrownBy(() -> collection.add(duplicate)).isInstanceOf(IllegalArgumentException.class);
+    }
+
+    @Test
+    public void removeShiftsSequenceNumbers() throws Exception {
+        ArrayBasedStoredMessageCollection collection = new ArrayBasedStoredMessageCollection();
+        for (long uid = 1; uid <= 5; uid++) {
+            collection.add(message(uid));
+        }
+
+        assertThat(collection.remove(2).getUid()).isEqualTo(2);
+        assertThat(collection.getMsn(3)).isEqualTo(2);
+        assertThat(collection.size()).isEqualTo(4);
+        assertThatThrownBy(() -> collection.remove(2)).isInstanceOf(IllegalArgumentException.class);
+    }
+
+    @Test
+    public void expungeReportsSequenceNumbersInDescendingOrder() throws Exception {
+        ArrayBasedStoredMessageCollection collection = new ArrayBasedStoredMessageCollection();
+        for (long uid = 1; uid <= 5; uid++) {
+            collection.add(message(uid));
+        }
+        collection.get(1).setFlag(Flags.Flag.DELETED, true);
+        collection.get(3).setFlag(Flags.Flag.DELETED, true);
+
+        RecordingListener listener = new RecordingListener();
+        collection.expunge(Collections.singletonList(listener));
+
+        // Same as list based collection: highest MSN first, so no MSN shifts before being reported
+        assertThat(listener.expunged).containsExactly(4, 2);
+        assertThat(collection.getMessageUids()).containsExactly(1, 3, 5);
+        assertThat(collection.getMsn(5)).isEqualTo(3);
+    }
+
+    @Test
+    public void expungeOnlyUidRanges() throws Exception {
+        ArrayBasedStoredMessageCollection collection = new ArrayBasedStoredMessageCollection();
+        for (long uid = 1; uid <= 5; uid++) {
+            collection.add(message(uid));
+            collection.get((int) uid - 1).setFlag(Flags.Flag.DELETED, true);
+        }
+
+        RecordingListener listener = new RecordingListener();
+        collection.expunge(Collections.singletonList(listener), new IdRange[]{IdRange.parseRange("2:3")});
+
+        assertThat(listener.expunged).containsExactly(3, 2);
+        assertThat(collection.getMessageUids()).containsExactly(1, 4, 5);
+    }
+
+    /**
+     * Regression test for quadratic FETCH/STORE scaling, when each UID of a message set got
+     * resolved to its MSN by a linear scan.
+     */
+    @Test(timeout = 10000)
+    public void lookupAllUids() throws Exception {
+        final int count = 10000;
+        ArrayBasedStoredMessageCollection collection = new ArrayBasedStoredMessageCollection();
+        final StoredMessage template = message(0);
+        for (long uid = 1; uid <= count; uid++) {
+            collection.add(new StoredMessage(template.getMimeMessage(), template.getReceivedDate(), uid));
+        }
+
+        final long[] uids = collection.getMessageUids();
+        int mismatches = 0;
+        for (int i = 0; i < uids.length; i++) {
+            if (collection.getMsn(uids[i]) != i + 1 || collection.findByUid(uids[i]) != collection.get(i)) {
+                mismatches++;
+            }
+        }
+        assertThat(mismatches).isZero();
+    }
+}
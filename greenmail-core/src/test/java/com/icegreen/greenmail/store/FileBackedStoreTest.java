@@ -0,0 +1,224 @@
+package com.icegreen.greenmail.store;
+
+import com.icegreen.greenmail.configuration.GreenMailConfiguration;
+import com.icegreen.greenmail.imap.commands.IdRange;
+import com.icegreen.greenmail.util.GreenMail;
+import com.icegreen.greenmail.util.GreenMailUtil;
+import com.icegreen.greenmail.util.ServerSetupTest;
+import jakarta.mail.Flags;
+import jakarta.mail.Session;
+import jakarta.mail.internet.MimeMessage;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Date;
+import java.util.Properties;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class FileBackedStoreTest {
+    @Rule
+    public final TemporaryFolder temporaryFolder = new TemporaryFolder();
+    private final Session session = Session.getInstance(new Properties());
+
+    @Test
+    public void recoversMailboxesAndMessages() throws Exception {
+        Path directory = temporaryFolder.getRoot().toPath();
+        long uidValidity;
+        String content;
+        try (FileBackedStore store = new FileBackedStore(directory)) {
+            MailFolder userRoot = store.createMailbox(store.getMailbox("#mail"), "foo@localhost", false);
+            MailFolder inbox = store.createMailbox(userRoot, "INBOX", true);
+            MailFolder drafts = store.createMailbox(inbox, "drafts", true);
+            for (int i = 1; i <= 3; i++) {
+                inbox.appendMessage(createMessage("message " + i), new Flags(), new Date());
+            }
+            inbox.setFlags(new Flags(Flags.Flag.DELETED), true, new IdRange[]{new IdRange(2)}, true, null);
+            inbox.expunge();
+            inbox.getMessage(3).setFlag(Flags.Flag.SEEN, true);
+            inbox.moveMessage(3, drafts);
+            store.renameMailbox(drafts, "INBOX.archive");
+            uidValidity = inbox.getUidValidity();
+            content = inbox.getMessage(1).getRawMessage().getMessage().toString();
+        }
+
+        try (FileBackedStore store = new FileBackedStore(directory)) {
+            MailFolder inbox = store.getMailbox("#mail.foo@localhost.INBOX");
+            assertThat(inbox.isSelectable()).isTrue();
+            assertThat(inbox.getUidValidity()).isEqualTo(uidValidity);
+            assertThat(inbox.getUIDNext()).isEqualTo(4);
+            assertThat(inbox.getMessageUids()).containsExactly(1L);
+            assertThat(inbox.getMessage(1).getRawMessage().getMessage().toString()).isEqualTo(content);
+            assertThat(inbox.getMessage(1).getMimeMessage().getSubject()).isEqualTo("message 1");
+            assertThat(store.getMailbox("#mail.foo@localhost").isSelectable()).isFalse();
+
+            MailFolder archive = store.getMailbox("#mail.foo@localhost.INBOX.archive");
+            assertThat(archive.getMessageUids()).containsExactly(1L);
+            StoredMessage moved = archive.getMessage(1);
+            assertThat(moved.isSet(Flags.Flag.SEEN)).isTrue();
+            assertThat(moved.getMimeMessage().getSubject()).isEqualTo("message 3");
+            assertThat(moved.getAttributes().getSize()).isEqualTo(moved.getRawMessage().getSize());
+
+            // Continues with next UID
+            assertThat(inbox.appendMessage(createMessage("message 4"), new Flags(), new Date())).isEqualTo(4);
+        }
+    }
+
+    @Test
+    public void deletesSegmentsOfRemovedMessages() throws Exception {
+        Path directory = temporaryFolder.getRoot().toPath();
+        try (FileBackedStore store = new FileBackedStore(directory, 1024)) {
+            MailFolder inbox = store.createMailbox(store.getMailbox("#mail"), "INBOX", true);
+            StringBuilder text = new StringBuilder();
+            while (text.length() < 2048) {
+                text.append("Larger than a segment.\r\n");
+            }
+            for (int i = 0; i < 3; i++) {
+                inbox.appendMessage(createMessage("message " + i, text.toString()), new Flags(), new Date());
+            }
+            assertThat(store.getSegmentCount()).isEqualTo(3);
+
+            inbox.deleteAllMessages();
+            // Keeps the segment appended to
+            assertThat(store.getSegmentCount()).isEqualTo(1);
+
+            // Till appending to another segment
+            inbox.appendMessage(createMessage("message 3", text.toString()), new Flags(), new Date());
+            assertThat(store.getSegmentCount()).isEqualTo(1);
+        }
+
+        try (FileBackedStore store = new FileBackedStore(directory, 1024)) {
+            assertThat(store.getMailbox("#mail.INBOX").getMessageCount()).isEqualTo(1);
+            assertThat(store.getSegmentCount()).isEqualTo(1);
+        }
+    }
+
+    @Test
+    public void compactsJournalWhenGrown() throws Exception {
+        Path directory = temporaryFolder.getRoot().toPath();
+        try (FileBackedStore store = new FileBackedStore(directory, 1024 * 1024, 1024)) {
+            MailFolder inbox = store.createMailbox(store.getMailbox("#mail"), "INBOX", true);
+            for (int i = 1; i <= 100; i++) {
+                inbox.deleteAllMessages();
+                inbox.appendMessage(createMessage("message " + i), new Flags(), new Date());
+                assertThat(store.getJournalSize()).isLessThanOrEqualTo(1024);
+            }
+            assertThat(Files.size(directory.resolve("journal.dat"))).isEqualTo(store.getJournalSize());
+        }
+
+        try (FileBackedStore store = new FileBackedStore(directory, 1024 * 1024, 1024)) {
+            MailFolder inbox = store.getMailbox("#mail.INBOX");
+            assertThat(inbox.getMessageUids()).containsExactly(100L);
+            assertThat(inbox.getMessage(100).getMimeMessage().getSubject()).isEqualTo("message 100");
+        }
+    }
+
+    @Test
+    public void keepsSegmentFilesOfContentInUse() throws Exception {
+        Path directory = temporaryFolder.getRoot().toPath();
+        MessageSegments segments = new MessageSegments(directory, 1024);
+        long address = segments.store(new byte[]{'a', 'b', 'c'}, 3);
+        segments.store(new byte[1024], 1024); // Continues in a new segment
+        Path file = directory.resolve("segment-00000001.dat");
+        ByteBuffer content = segments.get(address, 3);
+
+        segments.release(address, content);
+        assertThat(segments.getSegmentCount()).isEqualTo(1);
+        // Still readable, eg by an IMAP session
+        assertThat(file).exists();
+        assertThat(content.get(2)).isEqualTo((byte) 'c');
+
+        content = null;
+        for (int i = 0; i < 100 && Files.exists(file); i++) {
+            System.gc();
+            Thread.sleep(10);
+            segments.close(); // Deletes files of unreachable segments
+        }
+        assertThat(content).isNull();
+        assertThat(file).doesNotExist();
+    }
+
+    @Test
+    public void skipsMessagesNotMatchingChecksum() throws Exception {
+        Path directory = temporaryFolder.getRoot().toPath();
+        try (FileBackedStore store = new FileBackedStore(directory, 1024)) {
+            MailFolder inbox = store.createMailbox(store.getMailbox("#mail"), "INBOX", true);
+            inbox.appendMessage(createMessage("intact"), new Flags(), new Date());
+            inbox.appendMessage(createMessage("corrupted"), new Flags(), new Date());
+        }
+        // Eg when the system crashed before writing the content
+        Path segment = directory.resolve("segment-00000001.dat");
+        byte[] octets = Files.readAllBytes(segment);
+        String text = new String(octets, StandardCharsets.ISO_8859_1);
+        octets[text.lastIndexOf("corrupted")] = 'C';
+        Files.write(segment, octets);
+
+        try (FileBackedStore store = new FileBackedStore(directory, 1024)) {
+            MailFolder inbox = store.getMailbox("#mail.INBOX");
+            assertThat(inbox.getMessageUids()).containsExactly(1L);
+            assertThat(inbox.getMessage(1).getMimeMessage().getSubject()).isEqualTo("intact");
+        }
+    }
+
+    @Test
+    public void greenMailOpensStoreWhenStarting() throws Exception {
+        GreenMail greenMail = new GreenMail(ServerSetupTest.SMTP).withConfiguration(GreenMailConfiguration.aConfig()
+            .withStoreDir(temporaryFolder.getRoot().getPath())
+            .withUser("foo@localhost", "foo", "pwd"));
+        greenMail.start();
+        try {
+            GreenMailUtil.sendTextEmailTest("foo@localhost", "from@localhost", "first", "body");
+            String userRoot = greenMail.getUserManager().getUser("foo").getQualifiedMailboxName();
+            greenMail.stop();
+
+            // Not opened again by stopping
+            try (FileBackedStore store = new FileBackedStore(temporaryFolder.getRoot().toPath())) {
+                store.getMailbox("#mail." + userRoot + ".INBOX")
+                    .appendMessage(createMessage("second"), new Flags(), new Date());
+            }
+
+            greenMail.start();
+            assertThat(greenMail.getReceivedMessages()).extracting(MimeMessage::getSubject)
+                .containsExactly("first", "second");
+        } finally {
+            greenMail.stop();
+        }
+    }
+
+    @Test
+    public void greenMailKeepsMessagesWhenRestarting() {
+        GreenMail greenMail = new GreenMail(ServerSetupTest.SMTP).withConfiguration(GreenMailConfiguration.aConfig()
+            .withStoreDir(temporaryFolder.getRoot().getPath())
+            .withUser("foo@localhost", "foo", "pwd"));
+        greenMail.start();
+        try {
+            GreenMailUtil.sendTextEmailTest("foo@localhost", "from@localhost", "persisted", "body");
+            assertThat(greenMail.getReceivedMessages()).hasSize(1);
+
+            greenMail.reset();
+
+            MimeMessage[] messages = greenMail.getReceivedMessages();
+            assertThat(messages).hasSize(1);
+            assertThat(GreenMailUtil.getBody(messages[0])).isEqualTo("body");
+        } finally {
+            greenMail.stop();
+        }
+    }
+
+    private MimeMessage createMessage(String subject) throws Exception {
+        return createMessage(subject, "text");
+    }
+
+    private MimeMessage createMessage(String subject, String text) throws Exception {
+        MimeMessage msg = new MimeMessage(session);
+        msg.setSubject(subject);
+        msg.setText(text);
+        msg.saveChanges();
+        return msg;
+    }
+}
@@ -0,0 +1,183 @@
+package com.icegreen.greenmail.store;
+
+import com.icegreen.greenmail.imap.commands.IdRange;
+import jakarta.mail.Flags;
+import jakarta.mail.Message;
+import jakarta.mail.Session;
+import jakarta.mail.internet.MimeMessage;
+import jakarta.mail.search.SearchTerm;
+import jakarta.mail.search.SubjectTerm;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class FolderConcurrencyTest {
+    private final Session session = Session.getInstance(new Properties());
+
+    @Test
+    public void searchDoesNotBlockAppend() throws Exception {
+        InMemoryStore store = new InMemoryStore();
+        MailFolder inbox = store.createMailbox(store.getMailbox("#mail"), "INBOX", true);
+        appendMessage(inbox, "first");
+
+        CountDownLatch searching = new CountDownLatch(1);
+        CountDownLatch appended = new CountDownLatch(1);
+        SearchTerm blockingTerm = new SearchTerm() {
+            @Override
+            public boolean match(Message msg) {
+                searching.countDown();
+                try {
+                    // Append must complete while searching
+                    return appended.await(10, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return false;
+                }
+            }
+        };
+
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            Future<long[]> search = executor.submit(() -> inbox.search(blockingTerm));
+            assertThat(searching.await(10, TimeUnit.SECONDS)).isTrue();
+            appendMessage(inbox, "second");
+            appended.countDown();
+
+            // Search works on the snapshot taken when starting
+            assertThat(search.get(10, TimeUnit.SECONDS)).containsExactly(1L);
+            assertThat(inbox.getMessageCount()).isEqualTo(2);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void concurrentReadersAndWriters() throws Exception {
+        final int writers = 2;
+        final int readers = 4;
+        final int messagesPerWriter = 500;
+        InMemoryStore store = new InMemoryStore();
+        MailFolder inbox = store.createMailbox(store.getMailbox("#mail"), "INBOX", true);
+
+        ExecutorService executor = Executors.newFixedThreadPool(writers + readers + 1);
+        try {
+            AtomicBoolean writing = new AtomicBoolean(true);
+            List<Future<?>> writerResults = new ArrayList<>();
+            for (int w = 0; w < writers; w++) {
+                final int writer = w;
+                writerResults.add(executor.submit(() -> {
+                    for (int i = 0; i < messagesPerWriter; i++) {
+                        appendMessage(inbox, "writer" + writer + " message" + i);
+                    }
+                    return null;
+                }));
+            }
+            // Expunges the oldest messages while appending
+            Future<?> expunger = executor.submit(() -> {
+                while (writing.get()) {
+                    inbox.setFlags(new Flags(Flags.Flag.DELETED), true, new IdRange[]{new IdRange(1, 2)}, false, null);
+                    inbox.expunge();
+                }
+                return null;
+            });
+            List<Future<Integer>> readerResults = new ArrayList<>();
+            for (int r = 0; r < readers; r++) {
+                readerResults.add(executor.submit(() -> {
+                    int searches = 0;
+                    while (writing.get()) {
+                        // Each snapshot is consistent: UIDs ascend in MSN order
+                        List<StoredMessage> messages = inbox.getMessages();
+                        long previousUid = 0;
+                        for (StoredMessage message : messages) {
+                            assertThat(message.getUid()).isGreaterThan(previousUid);
+                            previousUid = message.getUid();
+                        }
+                        long[] uids = inbox.search(new SubjectTerm("message"));
+                        assertThat(uids).isSorted();
+                        for (long uid : uids) {
+                            // Concurrently expunged messages are not found
+                            StoredMessage message = inbox.getMessage(uid);
+                            assertThat(message == null || message.getUid() == uid).isTrue();
+                        }
+                        searches++;
+                    }
+                    return searches;
+                }));
+            }
+
+            for (Future<?> writer : writerResults) {
+                writer.get(60, TimeUnit.SECONDS);
+            }
+            writing.set(false);
+            expunger.get(60, TimeUnit.SECONDS);
+            for (Future<Integer> reader : readerResults) {
+                assertThat(reader.get(60, TimeUnit.SECONDS)).isPositive();
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+
+        // Final state is consistent
+        inbox.expunge();
+        List<StoredMessage> messages = inbox.getMessages();
+        assertThat(inbox.getMessageCount()).isEqualTo(messages.size());
+        assertThat(inbox.getMessageUids()).hasSize(messages.size()).isSorted();
+        assertThat(messages).noneMatch(m -> m.isSet(Flags.Flag.DELETED));
+        assertThat(inbox.getUIDNext()).isEqualTo(writers * messagesPerWriter + 1L);
+    }
+
+    @Test
+    public void concurrentAppendsKeepIndexedSearchComplete() throws Exception {
+        final int writers = 4;
+        final int messagesPerWriter = 250;
+        InMemoryStore store = new InMemoryStore();
+        store.setSearchIndexEnabled(true);
+        MailFolder inbox = store.createMailbox(store.getMailbox("#mail"), "INBOX", true);
+
+        ExecutorService executor = Executors.newFixedThreadPool(writers);
+        try {
+            CountDownLatch start = new CountDownLatch(1);
+            List<Future<?>> writerResults = new ArrayList<>();
+            for (int w = 0; w < writers; w++) {
+                final int writer = w;
+                writerResults.add(executor.submit(() -> {
+                    start.await();
+                    for (int i = 0; i < messagesPerWriter; i++) {
+                        appendMessage(inbox, "writer" + writer + " message" + i);
+                    }
+                    return null;
+                }));
+            }
+            start.countDown();
+            for (Future<?> writer : writerResults) {
+                writer.get(60, TimeUnit.SECONDS);
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+
+        // Indexed candidates and messages ascend by UID, so that no match gets lost
+        assertThat(inbox.getMessageUids()).hasSize(writers * messagesPerWriter).isSorted();
+        assertThat(inbox.search(new SubjectTerm("message"))).containsExactly(inbox.getMessageUids());
+        assertThat(inbox.search(new SubjectTerm("writer1 "))).hasSize(messagesPerWriter);
+    }
+
+    private void appendMessage(MailFolder folder, String subject) throws Exception {
+        MimeMessage msg = new MimeMessage(session);
+        msg.setSubject(subject);
+        msg.setText("text");
+        msg.saveChanges();
+        folder.appendMessage(msg, new Flags(), new Date());
+    }
+}
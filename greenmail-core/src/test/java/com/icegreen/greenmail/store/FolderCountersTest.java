@@ -0,0 +1,66 @@
+package com.icegreen.greenmail.store;
+
+import com.icegreen.greenmail.imap.commands.IdRange;
+import jakarta.mail.Flags;
+import jakarta.mail.Session;
+import jakarta.mail.internet.MimeMessage;
+import org.junit.Test;
+
+import java.util.Date;
+import java.util.Properties;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class FolderCountersTest {
+    private final Session session = Session.getInstance(new Properties());
+
+    @Test
+    public void maintainsCountsOnAppendFlagChangeAndRemoval() throws Exception {
+        InMemoryStore store = new InMemoryStore();
+        MailFolder inbox = store.createMailbox(store.getMailbox("#mail"), "INBOX", true);
+        MailFolder other = store.createMailbox(inbox, "other", true);
+
+        long seen = appendMessage(inbox, new Flags(Flags.Flag.SEEN));
+        long deleted = appendMessage(inbox, new Flags());
+        long unseen = appendMessage(inbox, new Flags());
+        // Appended messages are recent
+        assertCounts(inbox, 3, 2, 3);
+        assertThat(inbox.getRecentCount(true)).isEqualTo(3);
+        assertCounts(inbox, 3, 2, 0);
+        assertThat(inbox.getMessage(seen).isSet(Flags.Flag.RECENT)).isFalse();
+
+        inbox.getMessage(unseen).setFlag(Flags.Flag.SEEN, true);
+        assertCounts(inbox, 3, 1, 0);
+        inbox.getMessage(seen).replaceFlags(new Flags(Flags.Flag.RECENT));
+        assertCounts(inbox, 3, 2, 1);
+        inbox.setFlags(new Flags(Flags.Flag.SEEN), true, new IdRange[]{new IdRange(1, 3)}, false, null);
+        assertCounts(inbox, 3, 0, 1);
+
+        // Moved messages behave as copied, so are recent
+        inbox.moveMessage(unseen, other);
+        assertCounts(inbox, 2, 0, 1);
+        assertCounts(other, 1, 0, 1);
+
+        inbox.getMessage(deleted).setFlags(new Flags(Flags.Flag.DELETED), true);
+        inbox.getMessage(deleted).setFlag(Flags.Flag.SEEN, false);
+        assertCounts(inbox, 2, 1, 1);
+        inbox.expunge();
+        assertCounts(inbox, 1, 0, 1);
+
+        other.deleteAllMessages();
+        assertCounts(other, 0, 0, 0);
+    }
+
+    private void assertCounts(MailFolder folder, int messages, int unseen, int recent) {
+        assertThat(folder.getMessageCount()).isEqualTo(messages);
+        assertThat(folder.getUnseenCount()).isEqualTo(unseen);
+        assertThat(folder.getRecentCount(false)).isEqualTo(recent);
+    }
+
+    private long appendMessage(MailFolder folder, Flags flags) throws Exception {
+        MimeMessage msg = new MimeMessage(session);
+        msg.setText("text");
+        msg.saveChanges();
+        return folder.appendMessage(msg, flags, new Date());
+    }
+}
@@ -0,0 +1,124 @@
+package com.icegreen.greenmail.store;
+
+import com.icegreen.greenmail.imap.commands.IdRange;
+import jakarta.mail.Flags;
+import jakarta.mail.Session;
+import jakarta.mail.internet.MimeMessage;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Properties;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class FolderFlagsTest {
+    private final Session session = Session.getInstance(new Properties());
+    private MailFolder folder;
+    private final RecordingListener listener = new RecordingListener();
+    private final RecordingListener silentListener = new RecordingListener();
+
+    @Before
+    public void setUp() throws Exception {
+        InMemoryStore store = new InMemoryStore();
+        folder = store.createMailbox(store.getMailbox("#mail"), "INBOX", true);
+        for (int i = 0; i < 5; i++) {
+            MimeMessage msg = new MimeMessage(session);
+            msg.setText("text " + i);
+            msg.saveChanges();
+            folder.appendMessage(msg, new Flags(), new Date());
+        }
+        // Gaps in UIDs, so that MSNs and UIDs differ
+        folder.setFlags(new Flags(Flags.Flag.DELETED), true, new IdRange[]{new IdRange(1)}, false, null);
+        folder.expunge();
+        folder.addListener(listener);
+        folder.addListener(silentListener);
+    }
+
+    @Test
+    public void setsFlagsOfMessageSetByMsn() {
+        folder.setFlags(new Flags(Flags.Flag.SEEN), true,
+            new IdRange[]{new IdRange(1), new IdRange(3, IdRange.VALUE_WILDCARD)}, false, silentListener);
+
+        assertThat(seenUids()).containsExactly(2L, 4L, 5L);
+        assertThat(listener.calls).isOne();
+        assertThat(listener.msns).containsExactly(1, 3, 4);
+        assertThat(listener.uids).isNull();
+        assertThat(listener.flags).allMatch(flags -> flags.contains(Flags.Flag.SEEN));
+        assertThat(silentListener.calls).isZero();
+
+        folder.setFlags(new Flags(Flags.Flag.SEEN), false, new IdRange[]{new IdRange(1, 3)}, false, null);
+        assertThat(seenUids()).containsExactly(5L);
+        assertThat(silentListener.calls).isOne();
+    }
+
+    @Test
+    public void replacesFlagsOfMessageSetByUid() {
+        folder.setFlags(new Flags("keyword"), true, new IdRange[]{new IdRange(1, IdRange.VALUE_WILDCARD)}, false, null);
+        listener.calls = 0;
+
+        folder.replaceFlags(new Flags(Flags.Flag.SEEN), new IdRange[]{new IdRange(3, 4)}, true, null);
+
+        assertThat(seenUids()).containsExactly(3L, 4L);
+        assertThat(folder.getMessage(3L).getFlags().getUserFlags()).isEmpty();
+        assertThat(folder.getMessage(5L).getFlags().getUserFlags()).containsExactly("keyword");
+        assertThat(listener.calls).isOne();
+        assertThat(listener.msns).containsExactly(2, 3);
+        assertThat(listener.uids).containsExactly(3L, 4L);
+    }
+
+    @Test
+    public void noNotificationForEmptyMessageSet() {
+        folder.setFlags(new Flags(Flags.Flag.SEEN), true, new IdRange[]{new IdRange(10, 20)}, true, null);
+
+        assertThat(seenUids()).isEmpty();
+        assertThat(listener.calls).isZero();
+    }
+
+    private List<Long> seenUids() {
+        List<Long> uids = new ArrayList<>();
+        for (StoredMessage message : folder.getMessages()) {
+            if (message.isSet(Flags.Flag.SEEN)) {
+                uids.add(message.getUid());
+            }
+        }
+        return uids;
+    }
+
+    private static class RecordingListener implements FolderListener {
+        int calls;
+        int[] msns;
+        Flags[] flags;
+        long[] uids;
+
+        @Override
+        public void expunged(int msn) {
+            // Not recorded
+        }
+
+        @Override
+        public void added(int msn) {
+            // Not recorded
+        }
+
+        @Override
+        public void flagsUpdated(int msn, Flags flags, Long uid) {
+            throw new IllegalStateException("Expected coalesced notification");
+        }
+
+        @Override
+        public void flagsUpdated(int[] msns, Flags[] flags, long[] uids) {
+            calls++;
+            this.msns = msns;
+            this.flags = flags;
+            this.uids = uids;
+        }
+
+        @Override
+        public void mailboxDeleted() {
+            // Not recorded
+        }
+    }
+}
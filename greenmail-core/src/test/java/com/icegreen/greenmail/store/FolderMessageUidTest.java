@@ -0,0 +1,35 @@
+package com.icegreen.greenmail.store;
+
+import jakarta.mail.Flags;
+import jakarta.mail.Session;
+import jakarta.mail.internet.MimeMessage;
+import org.junit.Test;
+
+import java.util.Date;
+import java.util.Properties;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+public class FolderMessageUidTest {
+    private final Session session = Session.getInstance(new Properties());
+
+    @Test
+    public void matchesMessagesByUid() throws Exception {
+        InMemoryStore store = new InMemoryStore();
+        HierarchicalFolder folder = (HierarchicalFolder) store.createMailbox(store.getMailbox("#mail"), "INBOX", true);
+        MimeMessage msg = new MimeMessage(session);
+        msg.setText("text");
+        msg.saveChanges();
+        final long uid = folder.appendMessage(msg, new Flags(), new Date());
+
+        // A message parsed again, eg after the cached one got garbage collected
+        final MimeMessage parsedAgain = new StoredMessage.UidAwareMimeMessage(folder.getMessage(uid).getMimeMessage(),
+            uid, new Date());
+        assertThat(folder.getUID(parsedAgain)).isEqualTo(uid);
+
+        assertThatThrownBy(() -> folder.getUID(msg)).isInstanceOf(IllegalStateException.class);
+        folder.deleteAllMessages();
+        assertThatThrownBy(() -> folder.getUID(parsedAgain)).isInstanceOf(IllegalStateException.class);
+    }
+}
@@ -0,0 +1,136 @@
+package com.icegreen.greenmail.store;
+
+import com.icegreen.greenmail.imap.commands.IdRange;
+import jakarta.mail.Flags;
+import jakarta.mail.Session;
+import jakarta.mail.internet.MimeMessage;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Date;
+import java.util.Properties;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class MessageArenaTest {
+    private final Session session = Session.getInstance(new Properties());
+
+    @Test
+    public void reusesReleasedBlocks() throws Exception {
+        MessageArena arena = new MessageArena(4096);
+        byte[] content = "content".getBytes(StandardCharsets.US_ASCII);
+        long first = arena.store(content, content.length);
+        long second = arena.store(content, 3);
+        assertThat(second).isNotEqualTo(first);
+        assertThat(arena.get(second, 3).remaining()).isEqualTo(3);
+
+        // Shared content is only released by the last reference
+        arena.retain(first);
+        arena.release(first, arena.get(first, content.length));
+        assertThat(arena.store(content, content.length)).isNotEqualTo(first);
+        ByteBuffer read = arena.get(first, content.length);
+        arena.release(first, read);
+        // Not reused while still read
+        assertThat(arena.store(content, content.length)).isNotEqualTo(first);
+        assertThat(read.get(0)).isEqualTo((byte) 'c');
+
+        read = null;
+        awaitReclaimed(arena);
+        assertThat(read).isNull();
+        assertThat(arena.store(content, content.length)).isEqualTo(first);
+        assertThat(arena.getCapacity()).isEqualTo(4096);
+    }
+
+    @Test
+    public void dedicatesBufferToLargeContent() throws Exception {
+        MessageArena arena = new MessageArena(4096);
+        byte[] content = new byte[10000];
+        content[9999] = 'x';
+        long address = arena.store(content, content.length);
+        assertThat(arena.get(address, content.length).get(9999)).isEqualTo((byte) 'x');
+        assertThat(arena.getCapacity()).isGreaterThan(10000);
+
+        arena.release(address, arena.get(address, content.length));
+        awaitReclaimed(arena);
+        assertThat(arena.getCapacity()).isZero();
+    }
+
+    @Test
+    public void forcesReclaimingBeforeAllocatingSlabs() {
+        MessageArena arena = new MessageArena(4096);
+        byte[] content = new byte[3000];
+        for (int i = 0; i < 100; i++) {
+            long address = arena.store(content, content.length);
+            arena.release(address, arena.get(address, content.length));
+        }
+        // Instead of a slab per content released but not yet collected
+        assertThat(arena.getCapacity()).isLessThanOrEqualTo(3 * 4096);
+    }
+
+    @Test
+    public void keepsContentOfRemovedMessagesInUse() throws Exception {
+        InMemoryStore store = new InMemoryStore();
+        store.setOffHeapStorageEnabled(true);
+        MailFolder inbox = store.createMailbox(store.getMailbox("#mail"), "INBOX", true);
+        inbox.appendMessage(createMessage("removed"), new Flags(), new Date());
+        MimeMessage removed = inbox.getMessage(1).getMimeMessage();
+
+        inbox.deleteAllMessages();
+        for (int i = 0; i < 10; i++) {
+            inbox.appendMessage(createMessage("added " + i), new Flags(), new Date());
+        }
+        // Eg when still fetching a message expunged by another session
+        assertThat(removed.getContent()).isEqualTo("removed");
+    }
+
+    private static void awaitReclaimed(MessageArena arena) throws InterruptedException {
+        for (int i = 0; i < 100 && arena.getReleasedCount() > 0; i++) {
+            System.gc();
+            Thread.sleep(10);
+        }
+        assertThat(arena.getReleasedCount()).isZero();
+    }
+
+    private MimeMessage createMessage(String text) throws Exception {
+        MimeMessage msg = new MimeMessage(session);
+        msg.setText(text);
+        msg.saveChanges();
+        return msg;
+    }
+
+    @Test
+    public void storesMessagesOffHeap() throws Exception {
+        InMemoryStore store = new InMemoryStore();
+        store.setOffHeapStorageEnabled(true);
+        MailFolder inbox = store.createMailbox(store.getMailbox("#mail"), "INBOX", true);
+        MailFolder archive = store.createMailbox(inbox, "archive", true);
+        for (int i = 1; i <= 3; i++) {
+            MimeMessage msg = new MimeMessage(session);
+            msg.setSubject("message " + i);
+            msg.setText("text " + i);
+            msg.saveChanges();
+            inbox.appendMessage(msg, new Flags(), new Date());
+        }
+
+        StoredMessage message = inbox.getMessage(2);
+        assertThat(message.getRawMessage().getStorage()).isNotNull();
+        assertThat(message.getMimeMessage().getSubject()).isEqualTo("message 2");
+        assertThat(message.getMimeMessage().getContent()).isEqualTo("text 2");
+        assertThat(message.getRawMessage().getText().toString()).isEqualTo("text 2");
+
+        inbox.moveMessage(3, archive);
+        assertThat(archive.getMessage(1).getMimeMessage().getContent()).isEqualTo("text 3");
+        inbox.setFlags(new Flags(Flags.Flag.DELETED), true, new IdRange[]{new IdRange(1)}, true, null);
+        inbox.expunge();
+        assertThat(inbox.getMessage(2).getMimeMessage().getContent()).isEqualTo("text 2");
+
+        // Messages added after disabling are stored on heap
+        store.setOffHeapStorageEnabled(false);
+        MimeMessage msg = new MimeMessage(session);
+        msg.setText("on heap");
+        msg.saveChanges();
+        long uid = inbox.appendMessage(msg, new Flags(), new Date());
+        assertThat(inbox.getMessage(uid).getRawMessage().getStorage()).isNull();
+    }
+}
@@ -0,0 +1,202 @@
+package com.icegreen.greenmail.store;
+
+import com.icegreen.greenmail.mail.RawMimeMessage;
+import com.icegreen.greenmail.util.GreenMailUtil;
+import jakarta.mail.BodyPart;
+import jakarta.mail.Flags;
+import jakarta.mail.Message;
+import jakarta.mail.Multipart;
+import jakarta.mail.Session;
+import jakarta.mail.internet.MimeBodyPart;
+import jakarta.mail.internet.MimeMessage;
+import jakarta.mail.internet.MimeMultipart;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Date;
+import java.util.Properties;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class RawMessageTest {
+    private final Session session = Session.getInstance(new Properties());
+
+    @Test
+    public void sectionsOfNestedMultipart() throws Exception {
+        MimeMultipart mixed = new MimeMultipart("mixed");
+        for (int i = 1; i <= 3; i++) {
+            MimeBodyPart textPart = new MimeBodyPart();
+            textPart.setContent("Part " + i + "\r\n", "text/plain");
+            mixed.addBodyPart(textPart);
+        }
+        MimeBodyPart nested = new MimeBodyPart();
+        nested.setContent(mixed);
+        MimeBodyPart html = new MimeBodyPart();
+        html.setContent("<p>html</p>", "text/html");
+        MimeMultipart alternative = new MimeMultipart("alternative");
+        alternative.addBodyPart(nested);
+        alternative.addBodyPart(html);
+
+        MimeMessage msg = new MimeMessage(session);
+        msg.setSubject("nested");
+        msg.setContent(alternative);
+        msg.saveChanges();
+
+        StoredMessage storedMessage = new StoredMessage(msg, new Date(), 1L);
+        MimeMessage stored = storedMessage.getMimeMessage();
+        RawMessage raw = storedMessage.getRawMessage();
+
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        stored.writeTo(bos);
+        assertThat(raw.getMessage().toString()).isEqualTo(bos.toString("ISO-8859-1"));
+        assertThat(raw.getSize()).isEqualTo(storedMessage.getAttributes().getSize());
+        assertThat(raw.getText().toString()).isEqualTo(GreenMailUtil.getBody(stored));
+
+        Multipart root = (Multipart) stored.getContent();
+        assertSection(raw, "1", root.getBodyPart(0));
+        assertSection(raw, "2", root.getBodyPart(1));
+        Multipart inner = (Multipart) root.getBodyPart(0).getContent();
+        for (int i = 0; i < 3; i++) {
+            assertSection(raw, "1." + (i + 1), inner.getBodyPart(i));
+        }
+        assertThat(raw.getPartBody("1.2")).hasToString("Part 2");
+        assertThat(raw.getPartBody("3")).isNull();
+        assertThat(raw.getPartBody("1.4")).isNull();
+    }
+
+    @Test
+    public void noSectionsForSinglePart() throws Exception {
+        MimeMessage msg = new MimeMessage(session);
+        msg.setText("text only");
+        msg.saveChanges();
+
+        RawMessage raw = new StoredMessage(msg, new Date(), 1L).getRawMessage();
+        assertThat(raw.getText()).hasToString("text only");
+        assertThat(raw.getText().subSlice(5, 4)).hasToString("only");
+        assertThat(raw.getPartBody("1")).isNull();
+    }
+
+    @Test
+    public void reusesOctetsOfUnmodifiedMessage() throws Exception {
+        String content = "Subject: raw\r\nFrom: a@b.com\r\n\r\nbody\r\n";
+        byte[] octets = (content + "trailing garbage").getBytes(StandardCharsets.US_ASCII);
+        RawMimeMessage msg = new RawMimeMessage(session, octets, content.length());
+        assertThat(msg.getRawContent()).isSameAs(octets);
+
+        RawMessage raw = new StoredMessage(msg, new Date(), 1L).getRawMessage();
+        assertThat(raw.getMessage()).hasToString(content);
+
+        msg.setSubject("modified");
+        assertThat(msg.getRawContent()).isNull();
+        assertThat(new StoredMessage(msg, new Date(), 2L).getRawMessage().getMessage().toString())
+            .contains("Subject: modified");
+    }
+
+    @Test
+    public void sharesContentBetweenRecipients() throws Exception {
+        String content = "Subject: shared\r\nFrom: a@b.com\r\n\r\nbody\r\n";
+        byte[] octets = content.getBytes(StandardCharsets.US_ASCII);
+        RawMimeMessage msg = new RawMimeMessage(session, octets, octets.length);
+
+        StoredMessage first = new StoredMessage(msg, new Date(1000L), 1L);
+        StoredMessage second = new StoredMessage(msg, new Date(2000L), 1L);
+
+        assertThat(second.getRawMessage()).isSameAs(first.getRawMessage());
+        assertThat(second.getMimeMessage()).isNotSameAs(first.getMimeMessage());
+        assertThat(second.getAttributes().getReceivedDate()).isEqualTo(new Date(2000L));
+        assertThat(first.getAttributes().getReceivedDate()).isEqualTo(new Date(1000L));
+        // No Date header, so envelope date defaults to received date
+        assertThat(second.getAttributes().getEnvelope()).isNotEqualTo(first.getAttributes().getEnvelope());
+        assertThat(second.getAttributes().getBodyStructure(true)).isEqualTo(first.getAttributes().getBodyStructure(true));
+
+        second.setFlag(Flags.Flag.SEEN, true);
+        assertThat(first.isSet(Flags.Flag.SEEN)).isFalse();
+    }
+
+    @Test
+    public void parsesHeadersOncePerContent() throws Exception {
+        String content = "Subject: shared\r\nX-Folded: a\r\n b\r\n\r\nbody\r\n";
+        byte[] octets = content.getBytes(StandardCharsets.US_ASCII);
+        RawMimeMessage msg = new RawMimeMessage(session, octets, octets.length);
+        StoredMessage first = new StoredMessage(msg, new Date(), 1L);
+        StoredMessage second = new StoredMessage(msg, new Date(), 1L);
+
+        MimeMessage firstMime = first.getMimeMessage();
+        assertThat(first.getRawMessage().getHeaders()).isSameAs(second.getRawMessage().getHeaders());
+        assertThat(firstMime.getHeader("X-Folded", null)).isEqualTo("a\r\n b");
+        assertThat(firstMime.getContent()).isEqualTo("body\r\n");
+
+        // Modifying one message does not modify the shared headers
+        firstMime.setSubject("modified");
+        assertThat(second.getMimeMessage().getSubject()).isEqualTo("shared");
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        second.getMimeMessage().writeTo(out);
+        assertThat(out.toString("US-ASCII")).isEqualTo(content);
+    }
+
+    @Test
+    public void parsesMessageOnFirstAccess() throws Exception {
+        String content = "Subject: lazy\r\nFrom: a@b.com\r\n\r\nbody\r\n";
+        byte[] octets = content.getBytes(StandardCharsets.US_ASCII);
+        StoredMessage message = new StoredMessage(new RawMimeMessage(session, octets, octets.length), new Date(), 1L);
+        message.setFlag(Flags.Flag.SEEN, true);
+        message.updateMessageNumber(3);
+        assertThat(message.getSortKeys().getBaseSubject()).isEqualTo("lazy");
+        assertThat(message.isMimeMessageParsed()).isFalse();
+
+        MimeMessage mimeMessage = message.getMimeMessage();
+        assertThat(message.isMimeMessageParsed()).isTrue();
+        assertThat(mimeMessage.getSubject()).isEqualTo("lazy");
+        assertThat(mimeMessage.getMessageNumber()).isEqualTo(3);
+        // Shares flags with the stored message
+        assertThat(mimeMessage.isSet(Flags.Flag.SEEN)).isTrue();
+        message.setFlag(Flags.Flag.FLAGGED, true);
+        assertThat(mimeMessage.isSet(Flags.Flag.FLAGGED)).isTrue();
+        assertThat(message.getMimeMessage()).isSameAs(mimeMessage);
+        assertThat(message.getAttributes()).isSameAs(message.getAttributes());
+    }
+
+    @Test
+    public void indexesHeaders() throws Exception {
+        String content = "Received: from x\r\nsubject : folded\r\n\tsubject\r\nTo: a@b.com\nTo: c@d.com\r\n"
+            + "Cc:\r\n\r\nSubject: in body\r\n";
+        byte[] octets = content.getBytes(StandardCharsets.US_ASCII);
+        MimeMessage parsed = new MimeMessage(session, new ByteArrayInputStream(octets));
+        RawMessage raw = new RawMessage(octets, octets.length, session);
+
+        assertThat(raw.getHeader("Subject", null)).isEqualTo(parsed.getHeader("Subject", null))
+            .isEqualTo("folded\r\n\tsubject");
+        assertThat(raw.getHeader("To", ",")).isEqualTo(parsed.getHeader("To", ","))
+            .isEqualTo("a@b.com,c@d.com");
+        assertThat(raw.getHeader("Cc", null)).isEqualTo(parsed.getHeader("Cc", null)).isEmpty();
+        assertThat(raw.getHeader("From", ",")).isNull();
+    }
+
+    @Test
+    public void sortKeysFromIndexedHeaders() throws Exception {
+        MimeMessage msg = new MimeMessage(session);
+        msg.setSubject("Re: [list] =?ignored?= \u00e4 sort keys", "UTF-8");
+        msg.setSentDate(new Date(1000000000L));
+        msg.setHeader("Sender", "Sender <sender@localhost>");
+        msg.setRecipients(Message.RecipientType.TO, "to1@localhost, to2@localhost");
+        msg.setText("text");
+        msg.saveChanges();
+
+        StoredMessage message = new StoredMessage(msg, new Date(), 1L);
+        MessageSortKeys keys = message.getSortKeys();
+        assertThat(message.isMimeMessageParsed()).isFalse();
+        assertThat(keys.getBaseSubject()).isEqualTo("=?ignored?= \u00e4 sort keys");
+        assertThat(keys.getSentDate()).isEqualTo(new Date(1000000000L));
+        assertThat(keys.getFrom()).isEqualTo("Sender <sender@localhost>");
+        assertThat(keys.getTo()).isEqualTo("to1@localhost");
+        assertThat(keys.getCc()).isNull();
+        assertThat(keys.getSize()).isEqualTo(message.getRawMessage().getSize());
+    }
+
+    private static void assertSection(RawMessage raw, String section, BodyPart part) {
+        assertThat(raw.getPartBody(section)).hasToString(GreenMailUtil.getBody(part));
+        assertThat(raw.getPartHeader(section)).hasToString(GreenMailUtil.getHeaders(part));
+    }
+}
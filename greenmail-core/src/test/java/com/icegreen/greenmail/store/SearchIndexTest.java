@@ -0,0 +1,119 @@
+package com.icegreen.greenmail.store;
+
+import jakarta.mail.Flags;
+import jakarta.mail.Message;
+import jakarta.mail.Session;
+import jakarta.mail.internet.InternetAddress;
+import jakarta.mail.internet.MimeBodyPart;
+import jakarta.mail.internet.MimeMessage;
+import jakarta.mail.internet.MimeMultipart;
+import jakarta.mail.search.AndTerm;
+import jakarta.mail.search.BodyTerm;
+import jakarta.mail.search.FlagTerm;
+import jakarta.mail.search.FromStringTerm;
+import jakarta.mail.search.FromTerm;
+import jakarta.mail.search.NotTerm;
+import jakarta.mail.search.OrTerm;
+import jakarta.mail.search.RecipientStringTerm;
+import jakarta.mail.search.SearchTerm;
+import jakarta.mail.search.SubjectTerm;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Date;
+import java.util.Properties;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class SearchIndexTest {
+    private final Session session = Session.getInstance(new Properties());
+    private MailFolder indexed;
+    private MailFolder scanned;
+
+    @Before
+    public void setUp() throws Exception {
+        InMemoryStore indexedStore = new InMemoryStore();
+        indexedStore.setSearchIndexEnabled(true);
+        indexed = indexedStore.createMailbox(indexedStore.getMailbox("#mail"), "INBOX", true);
+        InMemoryStore store = new InMemoryStore();
+        scanned = store.createMailbox(store.getMailbox("#mail"), "INBOX", true);
+
+        for (MailFolder folder : new MailFolder[]{indexed, scanned}) {
+            appendMessage(folder, "Quarterly Report", "alice@example.com", "bob@example.com", "Numbers are up");
+            appendMessage(folder, "Lunch", "bob@example.com", "alice@example.com", "Pizza at NOON?");
+            appendMultipartMessage(folder, "Invoice", "Please find the invoice attached", "Ünïcödé text");
+        }
+    }
+
+    @Test
+    public void searchesLikeScanning() throws Exception {
+        SearchTerm[] terms = {
+            new SubjectTerm("report"),
+            new SubjectTerm("REP"),
+            new SubjectTerm("re"), // Too short for narrowing
+            new BodyTerm("noon"),
+            new BodyTerm("ÜNÏCÖDÉ"),
+            new BodyTerm("invoice attached"),
+            new BodyTerm("missing"),
+            new FromStringTerm("ALICE@"),
+            new RecipientStringTerm(Message.RecipientType.TO, "alice"),
+            new FromTerm(new InternetAddress("BOB@example.com")),
+            new OrTerm(new SubjectTerm("lunch"), new BodyTerm("numbers")),
+            new OrTerm(new SubjectTerm("lunch"), new FlagTerm(new Flags(Flags.Flag.SEEN), false)),
+            new AndTerm(new SubjectTerm("invoice"), new FlagTerm(new Flags(Flags.Flag.RECENT), true)),
+            new NotTerm(new SubjectTerm("lunch"))
+        };
+        for (SearchTerm term : terms) {
+            assertThat(indexed.search(term)).as("Searching %s", term).containsExactly(scanned.search(term));
+        }
+        assertThat(indexed.search(new BodyTerm("noon"))).containsExactly(2L);
+    }
+
+    @Test
+    public void narrowsCandidates() {
+        SearchIndex index = new SearchIndex();
+        index.add(1L, new long[0]);
+        index.add(2L, null); // Not indexable
+
+        assertThat(index.candidates(new SubjectTerm("text"))).containsExactly(2L);
+        assertThat(index.candidates(new SubjectTerm("te"))).isNull();
+        assertThat(index.candidates(new NotTerm(new SubjectTerm("text")))).isNull();
+    }
+
+    @Test
+    public void maintainsIndexOnRemoval() throws Exception {
+        indexed.setFlags(new Flags(Flags.Flag.DELETED), true, indexed.getMessageUids()[0], null, false);
+        indexed.expunge();
+        assertThat(indexed.search(new SubjectTerm("report"))).isEmpty();
+        assertThat(indexed.search(new SubjectTerm("lunch"))).containsExactly(2L);
+
+        indexed.deleteAllMessages();
+        appendMessage(indexed, "Lunch again", "bob@example.com", "alice@example.com", "Burgers");
+        assertThat(indexed.search(new SubjectTerm("lunch"))).containsExactly(4L);
+    }
+
+    private void appendMessage(MailFolder folder, String subject, String from, String to, String text)
+        throws Exception {
+        MimeMessage msg = new MimeMessage(session);
+        msg.setSubject(subject);
+        msg.setFrom(from);
+        msg.setRecipients(Message.RecipientType.TO, to);
+        msg.setText(text);
+        msg.saveChanges();
+        folder.appendMessage(msg, new Flags(), new Date());
+    }
+
+    private void appendMultipartMessage(MailFolder folder, String subject, String... texts) throws Exception {
+        MimeMessage msg = new MimeMessage(session);
+        msg.setSubject(subject);
+        MimeMultipart multipart = new MimeMultipart();
+        for (String text : texts) {
+            MimeBodyPart part = new MimeBodyPart();
+            part.setText(text, "UTF-8");
+            multipart.addBodyPart(part);
+        }
+        msg.setContent(multipart);
+        msg.saveChanges();
+        folder.appendMessage(msg, new Flags(), new Date());
+    }
+}
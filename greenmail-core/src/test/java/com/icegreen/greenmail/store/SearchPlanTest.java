@@ -0,0 +1,124 @@
+package com.icegreen.greenmail.store;
+
+import com.icegreen.greenmail.imap.commands.IdRange;
+import com.icegreen.greenmail.imap.commands.SearchTermBuilder;
+import jakarta.mail.Flags;
+import jakarta.mail.Session;
+import jakarta.mail.internet.MimeMessage;
+import jakarta.mail.search.AndTerm;
+import jakarta.mail.search.BodyTerm;
+import jakarta.mail.search.ComparisonTerm;
+import jakarta.mail.search.FlagTerm;
+import jakarta.mail.search.NotTerm;
+import jakarta.mail.search.OrTerm;
+import jakarta.mail.search.SearchTerm;
+import jakarta.mail.search.SizeTerm;
+import jakarta.mail.search.SubjectTerm;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Properties;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class SearchPlanTest {
+    private final Session session = Session.getInstance(new Properties());
+    private MailFolder folder;
+
+    @Before
+    public void setUp() throws Exception {
+        InMemoryStore store = new InMemoryStore();
+        folder = store.createMailbox(store.getMailbox("#mail"), "INBOX", true);
+        for (int i = 1; i <= 20; i++) {
+            appendMessage("subject " + i, "body " + i, i % 3 == 0 ? new Flags(Flags.Flag.SEEN) : new Flags());
+        }
+    }
+
+    @Test
+    public void ordersTermsByCost() {
+        SearchTerm body = new BodyTerm("body");
+        SearchTerm subject = new SubjectTerm("subject");
+        SearchTerm uid = uids("1:5");
+        SearchTerm seen = new FlagTerm(new Flags(Flags.Flag.SEEN), true);
+        SearchTerm planned = SearchPlan.plan(new AndTerm(new AndTerm(body, subject), new AndTerm(uid, seen)), null,
+            new KeywordTable()).getTerm();
+
+        SearchTerm[] terms = ((AndTerm) planned).getTerms();
+        assertThat(terms).hasSize(4);
+        assertThat(terms[0]).isSameAs(uid);
+        assertThat(terms[1]).isInstanceOf(StoredFlagTerm.class);
+        assertThat(terms[2]).isSameAs(subject);
+        assertThat(terms[3]).isSameAs(body);
+        assertThat(SearchPlan.plan(new AndTerm(uid, new OrTerm(body, new NotTerm(seen))), null, new KeywordTable()))
+            .hasToString("SearchPlan{term=AND(UidSearchTerm, OR(NOT(FLAGS[\\Seen]), BodyTerm'body')), uids=1:5}");
+    }
+
+    @Test
+    public void searchesLikeMatchingEachMessage() throws Exception {
+        SearchTerm[] terms = {
+            uids("3:7"),
+            uids("18:*"),
+            msns("2,4:6,19:30"),
+            new AndTerm(new BodyTerm("body 1"), msns("10:*")),
+            new AndTerm(new AndTerm(uids("1:10"), uids("5:15")), new FlagTerm(new Flags(Flags.Flag.SEEN), false)),
+            new OrTerm(new SubjectTerm("subject 2"), uids("15")),
+            new NotTerm(uids("2:19")),
+            new AndTerm(msns("*"), new SubjectTerm("subject"))
+        };
+        for (SearchTerm term : terms) {
+            assertThat(folder.search(term)).as("Searching %s", SearchPlan.plan(term, null, new KeywordTable()))
+                .containsExactly(matchEach(term));
+        }
+    }
+
+    @Test
+    public void matchesMsnsWithoutUpdatingMessages() {
+        StoredMessage message = folder.getMessages().get(4);
+        message.updateMessageNumber(99);
+
+        assertThat(folder.search(new OrTerm(msns("5"), new SubjectTerm("no match")))).containsExactly(5L);
+        assertThat(folder.search(new NotTerm(msns("2:20")))).containsExactly(1L);
+        // Concurrent searches must not change the message number of shared messages
+        assertThat(message.getMimeMessage().getMessageNumber()).isEqualTo(99);
+    }
+
+    @Test
+    public void matchesStoredSize() throws Exception {
+        int size = ((StoredMessage.UidAwareMimeMessage) folder.getMessage(1).getMimeMessage()).getRfc822Size();
+        assertThat(size).isEqualTo(folder.getMessage(1).getRawMessage().getSize());
+
+        assertThat(folder.search(new AndTerm(uids("1"), new SizeTerm(ComparisonTerm.GT, size - 1)))).containsExactly(1L);
+        assertThat(folder.search(new AndTerm(uids("1"), new SizeTerm(ComparisonTerm.LT, size)))).isEmpty();
+    }
+
+    private long[] matchEach(SearchTerm term) {
+        List<StoredMessage> messages = folder.getMessages();
+        List<Long> matched = new ArrayList<>();
+        for (int i = 0; i < messages.size(); i++) {
+            messages.get(i).updateMessageNumber(i + 1);
+            if (term.match(messages.get(i).getMimeMessage())) {
+                matched.add(messages.get(i).getUid());
+            }
+        }
+        return matched.stream().mapToLong(Long::longValue).toArray();
+    }
+
+    private static SearchTerm uids(String sequence) {
+        return new SearchTermBuilder.UidSearchTerm(IdRange.parseRangeSequence(sequence));
+    }
+
+    private static SearchTerm msns(String sequence) {
+        return new SearchTermBuilder.MessageNumberSearchTerm(IdRange.parseRangeSequence(sequence));
+    }
+
+    private void appendMessage(String subject, String text, Flags flags) throws Exception {
+        MimeMessage msg = new MimeMessage(session);
+        msg.setSubject(subject);
+        msg.setText(text);
+        msg.saveChanges();
+        folder.appendMessage(msg, flags, new Date());
+    }
+}
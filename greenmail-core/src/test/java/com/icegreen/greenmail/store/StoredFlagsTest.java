@@ -0,0 +1,139 @@
+package com.icegreen.greenmail.store;
+
+import com.icegreen.greenmail.imap.ImapConstants;
+import jakarta.mail.Flags;
+import jakarta.mail.Session;
+import jakarta.mail.internet.MimeMessage;
+import jakarta.mail.search.FlagTerm;
+import jakarta.mail.search.NotTerm;
+import jakarta.mail.search.OrTerm;
+import jakarta.mail.search.SearchTerm;
+import jakarta.mail.search.SubjectTerm;
+import org.junit.Test;
+
+import java.util.Date;
+import java.util.Properties;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class StoredFlagsTest {
+    private final Session session = Session.getInstance(new Properties());
+    private final KeywordTable keywordTable = new KeywordTable();
+
+    @Test
+    public void setsAndClearsFlags() throws Exception {
+        StoredMessage message = newMessage(new Flags(Flags.Flag.RECENT));
+        assertThat(message.isSet(Flags.Flag.RECENT)).isTrue();
+
+        Flags flags = new Flags(Flags.Flag.SEEN);
+        flags.add("Work");
+        flags.add("urgent");
+        message.setFlags(flags, true);
+        assertThat(message.getFlags().getSystemFlags()).containsExactlyInAnyOrder(Flags.Flag.RECENT, Flags.Flag.SEEN);
+        assertThat(message.getFlags().getUserFlags()).containsExactlyInAnyOrder("Work", "urgent");
+        assertThat(message.getMimeMessage().getFlags().contains("WORK")).isTrue();
+
+        message.setFlags(new Flags("work"), false);
+        message.setFlag(Flags.Flag.RECENT, false);
+        assertThat(message.getFlags().getSystemFlags()).containsExactly(Flags.Flag.SEEN);
+        assertThat(message.getFlags().getUserFlags()).containsExactly("urgent");
+
+        message.replaceFlags(new Flags(Flags.Flag.FLAGGED));
+        assertThat(message.getFlags()).isEqualTo(new Flags(Flags.Flag.FLAGGED));
+    }
+
+    @Test
+    public void copiesFlags() throws Exception {
+        Flags flags = new Flags(Flags.Flag.ANSWERED);
+        flags.add("keyword");
+        StoredMessage message = newMessage(flags);
+        assertThat(message.getFlags()).isEqualTo(flags);
+
+        // Changing a copy must not change the stored message
+        message.getFlags().add(Flags.Flag.DELETED);
+        assertThat(message.isSet(Flags.Flag.DELETED)).isFalse();
+        assertThat(new MimeMessage(message.getMimeMessage()).getFlags()).isEqualTo(flags);
+    }
+
+    @Test
+    public void matchesFlagTerm() throws Exception {
+        Flags flags = new Flags(Flags.Flag.SEEN);
+        flags.add("keyword");
+        StoredMessage message = newMessage(flags);
+
+        assertThat(new StoredFlagTerm(new Flags(Flags.Flag.SEEN), true, keywordTable).match(message.getMimeMessage())).isTrue();
+        assertThat(new StoredFlagTerm(new Flags(Flags.Flag.SEEN), false, keywordTable).match(message.getMimeMessage())).isFalse();
+        assertThat(new StoredFlagTerm(new Flags("KEYWORD"), true, keywordTable).match(message.getMimeMessage())).isTrue();
+        assertThat(new StoredFlagTerm(new Flags("other"), true, keywordTable).match(message.getMimeMessage())).isFalse();
+        assertThat(new StoredFlagTerm(new Flags("other"), false, keywordTable).match(message.getMimeMessage())).isTrue();
+        Flags deletedOrKeyword = new Flags(Flags.Flag.DELETED);
+        deletedOrKeyword.add("keyword");
+        assertThat(new StoredFlagTerm(deletedOrKeyword, false, keywordTable).match(message.getMimeMessage())).isFalse();
+    }
+
+    @Test
+    public void replacesNestedFlagTerms() {
+        SubjectTerm subject = new SubjectTerm("subject");
+        SearchTerm term = StoredFlagTerm.replaceFlagTerms(new OrTerm(subject,
+            new NotTerm(new FlagTerm(new Flags(Flags.Flag.SEEN), true))), keywordTable);
+
+        SearchTerm[] terms = ((OrTerm) term).getTerms();
+        assertThat(terms[0]).isSameAs(subject);
+        assertThat(((NotTerm) terms[1]).getTerm()).isEqualTo(new StoredFlagTerm(new Flags(Flags.Flag.SEEN), true, keywordTable));
+        assertThat(StoredFlagTerm.replaceFlagTerms(subject, keywordTable)).isSameAs(subject);
+    }
+
+    @Test
+    public void internsKeywordsPerStore() throws Exception {
+        InMemoryStore store = new InMemoryStore();
+        InMemoryStore otherStore = new InMemoryStore();
+        MailFolder folder = store.createMailbox(store.getMailbox(ImapConstants.USER_NAMESPACE), "INBOX", true);
+        MailFolder otherFolder = otherStore.createMailbox(otherStore.getMailbox(ImapConstants.USER_NAMESPACE),
+            "INBOX", true);
+
+        Flags flags = new Flags("Spelling");
+        for (int i = 0; i < 70; i++) {
+            flags.add("keyword" + i);
+        }
+        folder.appendMessage(newMimeMessage(flags), new Flags(), new Date());
+        otherFolder.appendMessage(newMimeMessage(new Flags("spelling")), new Flags(), new Date());
+
+        // Keyword IDs and spelling of a store do not depend on other stores
+        assertThat(store.getKeywordTable().size()).isEqualTo(71);
+        assertThat(otherStore.getKeywordTable().size()).isEqualTo(1);
+        StoredMessage message = folder.getMessages().get(0);
+        StoredMessage otherMessage = otherFolder.getMessages().get(0);
+        assertThat(message.getFlags().getUserFlags()).contains("Spelling").hasSize(71);
+        assertThat(otherMessage.getFlags().getUserFlags()).containsExactly("spelling");
+        assertThat(otherFolder.search(new FlagTerm(new Flags("SPELLING"), true))).hasSize(1);
+        assertThat(otherFolder.search(new FlagTerm(new Flags("keyword69"), true))).isEmpty();
+
+        // Keywords beyond the first word of the bit set
+        message.setFlags(new Flags("keyword69"), false);
+        assertThat(message.getFlags().getUserFlags()).doesNotContain("keyword69").hasSize(70);
+        assertThat(folder.search(new FlagTerm(new Flags("keyword69"), false))).hasSize(1);
+        assertThat(folder.search(new FlagTerm(new Flags("keyword68"), true))).hasSize(1);
+        message.setFlags(new Flags("KEYWORD69"), true);
+        assertThat(message.getFlags().getUserFlags()).contains("keyword69").hasSize(71);
+
+        // Terms of another store match by flags
+        assertThat(new StoredFlagTerm(new Flags("spelling"), true, otherStore.getKeywordTable())
+            .match(message.getMimeMessage())).isTrue();
+    }
+
+    private MimeMessage newMimeMessage(Flags flags) throws Exception {
+        MimeMessage msg = new MimeMessage(session);
+        msg.setText("text");
+        msg.setFlags(flags, true);
+        msg.saveChanges();
+        return msg;
+    }
+
+    private StoredMessage newMessage(Flags flags) throws Exception {
+        MimeMessage msg = new MimeMessage(session);
+        msg.setText("text");
+        msg.setFlags(flags, true);
+        msg.saveChanges();
+        return new StoredMessage(msg, new Date(), 1L, null, keywordTable);
+    }
+}
@@ -0,0 +1,122 @@
+package com.icegreen.greenmail.store;
+
+import com.icegreen.greenmail.imap.commands.IdRange;
+import jakarta.mail.Flags;
+import jakarta.mail.Session;
+import jakarta.mail.internet.MimeMessage;
+import org.junit.Test;
+
+import java.util.Date;
+import java.util.Properties;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class StoredMessageCounterTest {
+    private final Session session = Session.getInstance(new Properties());
+
+    @Test
+    public void countsMessagesOfAllFolders() throws Exception {
+        InMemoryStore store = new InMemoryStore();
+        MailFolder root = store.getMailbox("#mail");
+        MailFolder inbox = store.createMailbox(root, "INBOX", true);
+        MailFolder other = store.createMailbox(inbox, "other", true);
+        StoredMessageCounter counter = store.getMessageCounter();
+
+        long uid = appendMessage(inbox);
+        appendMessage(inbox);
+        appendMessage(other);
+        assertThat(counter.getCount()).isEqualTo(3);
+
+        inbox.moveMessage(uid, other);
+        assertThat(counter.getCount()).isEqualTo(3);
+
+        other.setFlags(new Flags(Flags.Flag.DELETED), true, other.getMessageUids()[0], null, false);
+        other.expunge(new IdRange[]{new IdRange(1, Long.MAX_VALUE)});
+        assertThat(counter.getCount()).isEqualTo(2);
+
+        inbox.deleteAllMessages();
+        assertThat(counter.getCount()).isEqualTo(1);
+    }
+
+    @Test
+    public void notifiesAndRemovesWaiters() throws Exception {
+        InMemoryStore store = new InMemoryStore();
+        MailFolder inbox = store.createMailbox(store.getMailbox("#mail"), "INBOX", true);
+        StoredMessageCounter counter = store.getMessageCounter();
+
+        assertThat(counter.newLatch(0).getCount()).isZero();
+        assertThat(counter.awaitCount(1, 10, TimeUnit.MILLISECONDS)).isFalse();
+        assertThat(counter.getWaiterCount()).isZero();
+
+        CountDownLatch first = counter.newLatch(1);
+        CountDownLatch second = counter.newLatch(2);
+        assertThat(counter.getWaiterCount()).isEqualTo(2);
+
+        appendMessage(inbox);
+        assertThat(first.getCount()).isZero();
+        assertThat(second.getCount()).isOne();
+        assertThat(counter.getWaiterCount()).isOne();
+
+        appendMessage(inbox);
+        assertThat(second.getCount()).isZero();
+        assertThat(counter.getWaiterCount()).isZero();
+        assertThat(counter.awaitCount(2, 0, TimeUnit.MILLISECONDS)).isTrue();
+    }
+
+    @Test
+    public void sequencesMessages() throws Exception {
+        InMemoryStore store = new InMemoryStore();
+        MailFolder inbox = store.createMailbox(store.getMailbox("#mail"), "INBOX", true);
+        StoredMessageCounter counter = store.getMessageCounter();
+        assertThat(counter.getSequence()).isZero();
+        assertThat(counter.getMessagesSince(0L)).isEmpty();
+
+        // Repeatedly add and remove, requiring log compaction and growth
+        for (int i = 1; i <= 300; i++) {
+            long uid = appendMessage(inbox);
+            assertThat(inbox.getMessage(uid).getSequence()).isEqualTo(counter.getSequence());
+            if (i % 3 != 0) {
+                inbox.setFlags(new Flags(Flags.Flag.DELETED), true, uid, null, false);
+                inbox.expunge();
+            }
+        }
+        assertThat(counter.getSequence()).isEqualTo(300L);
+        assertThat(counter.getCount()).isEqualTo(100);
+        assertThat(counter.getMessagesSince(0L)).hasSize(100)
+            .extracting(StoredMessage::getSequence).startsWith(3L, 6L).endsWith(300L);
+        assertThat(counter.getMessagesSince(297L)).extracting(StoredMessage::getSequence).containsExactly(300L);
+        assertThat(counter.getMessagesSince(300L)).isEmpty();
+        assertThat(counter.getMessagesSince(1000L)).isEmpty();
+    }
+
+    @Test
+    public void compactsLogWhenOldMessagesStay() throws Exception {
+        InMemoryStore store = new InMemoryStore();
+        MailFolder inbox = store.createMailbox(store.getMailbox("#mail"), "INBOX", true);
+        StoredMessageCounter counter = store.getMessageCounter();
+        long first = appendMessage(inbox);
+
+        // Churn behind a message which stays
+        for (int i = 0; i < 10000; i++) {
+            long uid = appendMessage(inbox);
+            inbox.setFlags(new Flags(Flags.Flag.DELETED), true, uid, null, false);
+            inbox.expunge();
+        }
+        long last = appendMessage(inbox);
+
+        assertThat(counter.getLogCapacity()).isLessThanOrEqualTo(128);
+        assertThat(counter.getSequence()).isEqualTo(10002L);
+        assertThat(counter.getMessagesSince(0L)).extracting(StoredMessage::getUid).containsExactly(first, last);
+        assertThat(counter.getMessagesSince(1L)).extracting(StoredMessage::getUid).containsExactly(last);
+        assertThat(counter.getMessagesSince(5000L)).extracting(StoredMessage::getSequence).containsExactly(10002L);
+    }
+
+    private long appendMessage(MailFolder folder) throws Exception {
+        MimeMessage msg = new MimeMessage(session);
+        msg.setText("text");
+        msg.saveChanges();
+        return folder.appendMessage(msg, new Flags(), new Date());
+    }
+}
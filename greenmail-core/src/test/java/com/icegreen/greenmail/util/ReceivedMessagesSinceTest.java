@@ -0,0 +1,59 @@
+package com.icegreen.greenmail.util;
+
+import com.icegreen.greenmail.imap.ImapHostManager;
+import com.icegreen.greenmail.junit.GreenMailRule;
+import com.icegreen.greenmail.store.MailFolder;
+import com.icegreen.greenmail.store.StoredMessage.UidAwareMimeMessage;
+import com.icegreen.greenmail.user.GreenMailUser;
+import org.junit.Rule;
+import org.junit.Test;
+
+import jakarta.mail.internet.MimeMessage;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class ReceivedMessagesSinceTest {
+    @Rule
+    public final GreenMailRule greenMail = new GreenMailRule(ServerSetupTest.SMTP);
+
+    @Test
+    public void pollsNewMessagesAndCounts() throws Exception {
+        assertThat(greenMail.getReceivedMessageSequence()).isZero();
+        GreenMailUtil.sendTextEmailTest("foo@localhost", "from@localhost", "first", "body");
+        GreenMailUtil.sendTextEmailTest("foo@localhost,bar@localhost", "from@localhost", "second", "body");
+
+        MimeMessage[] messages = greenMail.getReceivedMessagesSince(0L);
+        assertThat(messages).hasSize(3);
+        assertThat(messages[0].getSubject()).isEqualTo("first");
+        final long cursor = ((UidAwareMimeMessage) messages[2]).getSequence();
+        assertThat(cursor).isEqualTo(greenMail.getReceivedMessageSequence());
+        assertThat(greenMail.getReceivedMessagesSince(cursor)).isEmpty();
+
+        GreenMailUtil.sendTextEmailTest("bar@localhost", "from@localhost", "third", "body");
+        messages = greenMail.getReceivedMessagesSince(cursor);
+        assertThat(messages).hasSize(1);
+        assertThat(messages[0].getSubject()).isEqualTo("third");
+
+        final ImapHostManager imapHostManager = greenMail.getManagers().getImapHostManager();
+        final GreenMailUser foo = greenMail.getUserManager().getUserByEmail("foo@localhost");
+        final GreenMailUser bar = greenMail.getUserManager().getUserByEmail("bar@localhost");
+        assertThat(imapHostManager.getMessageCount()).isEqualTo(4);
+        assertThat(imapHostManager.getMessageCount(foo)).isEqualTo(2);
+        assertThat(imapHostManager.getMessageCount(bar)).isEqualTo(2);
+
+        // Messages in sub folders count for user, and removed messages are skipped
+        final MailFolder inbox = imapHostManager.getInbox(foo);
+        final MailFolder archive = imapHostManager.createMailbox(foo, "archive");
+        final long uid = inbox.getMessageUids()[0];
+        inbox.moveMessage(uid, archive);
+        assertThat(imapHostManager.getMessageCount(foo)).isEqualTo(2);
+        imapHostManager.getInbox(bar).deleteAllMessages();
+        assertThat(imapHostManager.getMessageCount(bar)).isZero();
+        assertThat(imapHostManager.getMessageCount()).isEqualTo(2);
+
+        messages = greenMail.getReceivedMessagesSince(0L);
+        assertThat(messages).hasSize(2);
+        assertThat(messages[1].getSubject()).isEqualTo("first"); // Moved
+        assertThat(greenMail.getReceivedMessagesSince(cursor)).hasSize(1);
+    }
+}